@@ -0,0 +1,86 @@
+package com.etr.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etr.audit.AuditLogReader;
+import com.etr.audit.QuoteAuditLog;
+import com.etr.model.CostResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+
+/**
+ * What auditing costs a request thread: disabled is the check alone, enabled offers the quote
+ * to the ring while the writer thread drains it to a temporary directory. Quotes offered
+ * faster than the disk takes them are dropped, the counts are printed at the end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditBenchmark {
+
+	private QuoteAuditLog disabled;
+	private QuoteAuditLog enabled;
+	private CostResponse quote;
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+
+		CostConfigurator costConfigurator = new CostConfigurator();
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Failed to load the interchange and rate configuration.");
+		quote = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+
+		disabled = new QuoteAuditLog();
+		disabled.start();
+
+		dir = Files.createTempDirectory("audit-benchmark");
+		enabled = new QuoteAuditLog();
+		enabled.setAuditDirectory(dir.toString());
+		enabled.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws Exception {
+		enabled.stop();
+		System.out.println("\n" + enabled.toMap());
+		for(Path file: AuditLogReader.listFiles(dir))
+			Files.delete(file);
+		Files.delete(dir);
+	}
+
+	@Benchmark
+	public void disabled() {
+		disabled.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, quote);
+	}
+
+	@Benchmark
+	public void enabled() {
+		enabled.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, quote);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void enabledContended() {
+		enabled.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, quote);
+	}
+}
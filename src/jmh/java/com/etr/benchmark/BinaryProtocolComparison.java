@@ -0,0 +1,173 @@
+package com.etr.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.etr.StartTripCalculatorApplication;
+import com.etr.binary.BinaryQuoteClient;
+import com.etr.binary.BinaryQuoteProtocol;
+import com.etr.binary.BinaryQuoteServer;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+
+/**
+ * Quotes per second of the binary quote protocol against GET /costoftrip, same trips, same
+ * server process.
+ *
+ * HTTP is driven by a LoadDriver with "connections" requests in flight. The binary protocol
+ * uses the same number of connections, each keeping "depth" quotes pipelined. Client and
+ * server share the machine, so compare the two with each other only.
+ *
+ * Options: --connections=8 --depth=1,16,128 --seconds=10 --warmup=3
+ */
+public final class BinaryProtocolComparison {
+
+	private static final int TRIPS = 4096;
+
+	public static void main(String[] args) throws Exception {
+
+		int connections = 8;
+		int[] depths = {1, 16, 128};
+		int seconds = 10;
+		int warmup = 3;
+		for(String arg: args) {
+			if(arg.startsWith("--connections="))
+				connections = Integer.parseInt(arg.substring("--connections=".length()));
+			else if(arg.startsWith("--depth=")) {
+				String[] values = arg.substring("--depth=".length()).split(",");
+				depths = new int[values.length];
+				for(int i = 0; i < values.length; i++)
+					depths[i] = Integer.parseInt(values[i].trim());
+			}
+			else if(arg.startsWith("--seconds="))
+				seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+			else if(arg.startsWith("--warmup="))
+				warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+			else
+				throw new IllegalArgumentException("Unknown option -- " + arg);
+		}
+
+		//Devtools would restart the application in another class loader
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(StartTripCalculatorApplication.class)
+				.web(WebApplicationType.SERVLET)
+				.properties("server.port=0", "tripcalculator.binary.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+				.run();
+		List<String> rows = new ArrayList<String>();
+		try {
+			int httpPort = ((WebServerApplicationContext) context).getWebServer().getPort();
+			int binaryPort = context.getBean(BinaryQuoteServer.class).getLocalPort();
+			int[][] trips = trips(context.getBean(CostConfigurator.class).getDistanceIndex());
+
+			LoadDriver.Request[] requests = requests(context.getBean(CostConfigurator.class).getDistanceIndex(), trips, httpPort);
+			LoadDriver.drive(requests, connections, warmup);
+			LoadDriver.Result http = LoadDriver.drive(requests, connections, seconds);
+			rows.add(String.format(Locale.ROOT, "%-7s %11d %6s %12.0f %8d", "http", connections, "-", http.getThroughput(), http.getErrors()));
+			System.out.println(rows.get(rows.size() - 1));
+
+			for(int depth: depths) {
+				drive(binaryPort, trips, connections, depth, warmup);
+				long[] result = drive(binaryPort, trips, connections, depth, seconds);
+				rows.add(String.format(Locale.ROOT, "%-7s %11d %6d %12.0f %8d", "binary", connections, depth,
+						result[0] / (double) seconds, result[1]));
+				System.out.println(rows.get(rows.size() - 1));
+			}
+		} finally {
+			context.close();
+		}
+
+		System.out.println();
+		System.out.println("client  connections  depth   quotes/s   errors");
+		for(String row: rows)
+			System.out.println(row);
+	}
+
+	/**
+	 * Every connection sends "depth" quotes, then reads their responses, until the time is up.
+	 *
+	 * @return quotes answered, quotes not answered OK
+	 */
+	private static long[] drive(int port, int[][] trips, int connections, int depth, int seconds) throws Exception {
+
+		long end = System.nanoTime() + seconds * 1000000000L;
+		ExecutorService pool = Executors.newFixedThreadPool(connections);
+		List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+		for(int c = 0; c < connections; c++) {
+			int offset = c * 97;
+			futures.add(pool.submit(() -> {
+				long quotes = 0;
+				long errors = 0;
+				try (BinaryQuoteClient client = new BinaryQuoteClient("localhost", port)) {
+					client.fetchLocations();
+					int next = offset;
+					while(System.nanoTime() < end) {
+						for(int i = 0; i < depth; i++) {
+							int[] trip = trips[next++ % trips.length];
+							client.sendQuote(trip[0], trip[1], trip[2] < 0 ? null : VehicleTypeEnum.values()[trip[2]],
+									BinaryQuoteProtocol.NO_TRIP_TIME);
+						}
+						client.flush();
+						for(int i = 0; i < depth; i++) {
+							if(client.receive().getStatus() != BinaryQuoteProtocol.STATUS_OK)
+								errors++;
+							quotes++;
+						}
+					}
+				} catch (IOException e) {
+					errors++;
+				}
+				return new long[] {quotes, errors};
+			}));
+		}
+		long[] total = new long[2];
+		for(Future<long[]> future: futures) {
+			long[] result = future.get();
+			total[0] += result[0];
+			total[1] += result[1];
+		}
+		pool.shutdown();
+		return total;
+	}
+
+	//from, to, vehicle type ordinal (-1 for distance only), between routable pairs
+	private static int[][] trips(DistanceIndex index) {
+
+		Random random = new Random(42);
+		int[][] trips = new int[TRIPS][];
+		for(int i = 0; i < TRIPS; ) {
+			int from = random.nextInt(index.size());
+			int to = random.nextInt(index.size());
+			if(index.isReachable(from, to))
+				trips[i++] = new int[] {from, to, random.nextInt(VehicleTypeEnum.values().length + 1) - 1};
+		}
+		return trips;
+	}
+
+	private static LoadDriver.Request[] requests(DistanceIndex index, int[][] trips, int port) {
+
+		LoadDriver.Request[] requests = new LoadDriver.Request[trips.length];
+		for(int i = 0; i < trips.length; i++) {
+			UriComponentsBuilder uri = UriComponentsBuilder.fromUriString("http://localhost:" + port + "/costoftrip")
+					.queryParam("fromLocation", index.getLocation(trips[i][0]).getName())
+					.queryParam("toLocation", index.getLocation(trips[i][1]).getName());
+			if(trips[i][2] >= 0)
+				uri.queryParam("vehicleType", VehicleTypeEnum.values()[trips[i][2]].name());
+			requests[i] = new LoadDriver.Request("quote", uri.build().encode().toUri(), 200);
+		}
+		return requests;
+	}
+}
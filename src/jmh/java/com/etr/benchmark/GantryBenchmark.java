@@ -0,0 +1,68 @@
+package com.etr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etr.gantry.GantryEvent;
+import com.etr.gantry.TripAssembler;
+import com.etr.service.CostConfigurator;
+
+/**
+ * Gantry events per second through parsing, trip assembly and pricing.
+ *
+ * Every op is one event line: vehicles enter at QEW and exit at Bronte Road in turn, time
+ * moves 1 ms per event, so half of the events complete a priced trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GantryBenchmark {
+
+	@Param({"100000"})
+	public int vehicles;
+
+	private TripAssembler assembler;
+	private String[] entryLines;
+	private String[] exitLines;
+	private long next;
+
+	@Setup(Level.Trial)
+	public void load() {
+
+		CostConfigurator costConfigurator = new CostConfigurator();
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Config did not load");
+		assembler = new TripAssembler(costConfigurator, trip -> {});
+
+		//Timestamps are prepended per op, the rest of the line is prebuilt
+		entryLines = new String[vehicles];
+		exitLines = new String[vehicles];
+		for(int i = 0; i < vehicles; i++) {
+			entryLines[i] = ",T" + i + ",QEW,ENTRY,heavy";
+			exitLines[i] = ",T" + i + ",Bronte Road,EXIT";
+		}
+	}
+
+	@Benchmark
+	public void parseAndAccept() {
+		long i = next++;
+		int vehicle = (int) (i % vehicles);
+		boolean entry = (i / vehicles) % 2 == 0;
+		assembler.accept(GantryEvent.parse(i + (entry ? entryLines[vehicle] : exitLines[vehicle])));
+	}
+}
@@ -0,0 +1,149 @@
+package com.etr.benchmark;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.etr.metrics.LatencyHistogram;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Drives GET requests at a fixed concurrency for a fixed time with a non-blocking client:
+ * exactly "concurrency" requests are in flight, one connection each, the requests are
+ * cycled in order.
+ *
+ * Every response is checked against the status its request expects, so a request mix can
+ * contain requests that must fail (unknown names, bad vehicle types) without counting them
+ * as errors. A transport failure or an unexpected status is an error.
+ */
+final class LoadDriver {
+
+	private LoadDriver() {
+	}
+
+	/**
+	 * @param requests: cycled in order
+	 * @param concurrency: requests in flight
+	 * @param seconds: run time
+	 */
+	static Result drive(Request[] requests, int concurrency, int seconds) {
+
+		ConnectionProvider connections = ConnectionProvider.elastic("load-driver");
+		WebClient client = WebClient.builder()
+				.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+				.build();
+
+		Result result = new Result(concurrency);
+		long start = System.nanoTime();
+		long end = start + seconds * 1000000000L;
+
+		Flux.range(0, Integer.MAX_VALUE)
+			.takeWhile(i -> System.nanoTime() < end)
+			.flatMap(i -> {
+				Request request = requests[i % requests.length];
+				long sent = System.nanoTime();
+				return client.get().uri(request.uri).exchange()
+						.flatMap(resp -> resp.bodyToMono(byte[].class).then(Mono.just(resp.statusCode().value())))
+						.doOnNext(status -> result.record(request, status, System.nanoTime() - sent))
+						.onErrorResume(e -> {
+							result.record(request, 0, System.nanoTime() - sent);
+							return Mono.empty();
+						});
+			}, concurrency)
+			.blockLast();
+
+		connections.dispose();
+		result.elapsedNanos = System.nanoTime() - start;
+		result.latency = result.histogram.snapshot();
+		return result;
+	}
+
+	/**
+	 * One request of a mix.
+	 */
+	static final class Request {
+		final String kind;
+		final URI uri;
+		final int expectedStatus;
+
+		Request(String kind, URI uri, int expectedStatus) {
+			this.kind = kind;
+			this.uri = uri;
+			this.expectedStatus = expectedStatus;
+		}
+	}
+
+	/**
+	 * Counts and latencies of one run.
+	 */
+	static final class Result {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		//Key: HTTP status, 0 for a transport failure
+		private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+		//Key: request kind; Value: requests, errors
+		private final Map<String, LongAdder[]> kinds = new ConcurrentHashMap<String, LongAdder[]>();
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+
+		final int concurrency;
+		LatencyHistogram.Snapshot latency;
+		long elapsedNanos;
+
+		Result(int concurrency) {
+			this.concurrency = concurrency;
+		}
+
+		void record(Request request, int status, long nanos) {
+			histogram.record(nanos);
+			requests.increment();
+			statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+			LongAdder[] kind = kinds.computeIfAbsent(request.kind, k -> new LongAdder[] {new LongAdder(), new LongAdder()});
+			kind[0].increment();
+			if(status != request.expectedStatus) {
+				errors.increment();
+				kind[1].increment();
+			}
+		}
+
+		long getRequests() {
+			return requests.sum();
+		}
+
+		long getErrors() {
+			return errors.sum();
+		}
+
+		double getThroughput() {
+			return requests.sum() * 1e9 / Math.max(1, elapsedNanos);
+		}
+
+		double getErrorRate() {
+			long total = requests.sum();
+			return total == 0 ? 0 : errors.sum() / (double) total;
+		}
+
+		Map<String, Long> getStatuses() {
+			Map<String, Long> counts = new TreeMap<String, Long>();
+			for(Map.Entry<Integer, LongAdder> entry: statuses.entrySet())
+				counts.put(entry.getKey() == 0 ? "transport" : String.valueOf(entry.getKey()), entry.getValue().sum());
+			return counts;
+		}
+
+		//Key: request kind; Value: requests, errors
+		Map<String, long[]> getKinds() {
+			Map<String, long[]> counts = new TreeMap<String, long[]>();
+			for(Map.Entry<String, LongAdder[]> entry: kinds.entrySet())
+				counts.put(entry.getKey(), new long[] {entry.getValue()[0].sum(), entry.getValue()[1].sum()});
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.etr.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.etr.StartTripCalculatorApplication;
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Capacity test of GET /costoftrip against an embedded StartTripCalculatorApplication.
+ *
+ * The application is started in this JVM on a random port, then driven by a LoadDriver at
+ * each concurrency level with a weighted mix of request kinds:
+ *
+ * - vehicle: two known names and a vehicle type, expects 200
+ * - distance: two known names without a vehicle type, expects 200
+ * - unknown: a name that doesn't exist, expects 400
+ * - badtype: a vehicle type that doesn't exist, expects 400
+ *
+ * Throughput, latency percentiles, status counts and the error rate of every level go to a
+ * JSON report. The run fails (exit code 1) when a level exceeds --max-error-rate, so a build
+ * can gate on it.
+ *
+ * Options: --concurrency=16,64,256 --seconds=10 --warmup=3 --mode=servlet|reactive
+ * --mix=vehicle=60,distance=25,unknown=10,badtype=5 --report=target/loadtest-report.json
+ * --max-error-rate=0.001
+ */
+public final class LoadTest {
+
+	private static final int REQUESTS = 4096;
+
+	public static void main(String[] args) throws IOException {
+
+		int[] concurrencies = {16, 64, 256};
+		int seconds = 10;
+		int warmup = 3;
+		WebApplicationType mode = WebApplicationType.SERVLET;
+		Map<String, Integer> mix = parseMix("vehicle=60,distance=25,unknown=10,badtype=5");
+		File report = new File("target/loadtest-report.json");
+		double maxErrorRate = 0.001;
+
+		for(String arg: args) {
+			if(arg.startsWith("--concurrency=")) {
+				String[] values = arg.substring("--concurrency=".length()).split(",");
+				concurrencies = new int[values.length];
+				for(int i = 0; i < values.length; i++)
+					concurrencies[i] = Integer.parseInt(values[i].trim());
+			}
+			else if(arg.startsWith("--seconds="))
+				seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+			else if(arg.startsWith("--warmup="))
+				warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+			else if(arg.startsWith("--mode="))
+				mode = WebApplicationType.valueOf(arg.substring("--mode=".length()).toUpperCase(Locale.ROOT));
+			else if(arg.startsWith("--mix="))
+				mix = parseMix(arg.substring("--mix=".length()));
+			else if(arg.startsWith("--report="))
+				report = new File(arg.substring("--report=".length()));
+			else if(arg.startsWith("--max-error-rate="))
+				maxErrorRate = Double.parseDouble(arg.substring("--max-error-rate=".length()));
+			else
+				throw new IllegalArgumentException("Unknown option -- " + arg);
+		}
+
+		//Devtools would restart the application in another class loader
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(StartTripCalculatorApplication.class)
+				.properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+				//As an argument, the servlet mode of application.properties would override .web(mode)
+				.run("--spring.main.web-application-type=" + mode.name().toLowerCase(Locale.ROOT));
+
+		Map<String, Object> root = new LinkedHashMap<String, Object>();
+		List<Map<String, Object>> levels = new ArrayList<Map<String, Object>>();
+		boolean passed = true;
+		try {
+			int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+			CostConfigurator costConfigurator = context.getBean(CostConfigurator.class);
+			LoadDriver.Request[] requests = requests(costConfigurator, port, mix);
+
+			root.put("endpoint", "/costoftrip");
+			root.put("startedAt", Instant.now().toString());
+			root.put("mode", mode.name().toLowerCase(Locale.ROOT));
+			root.put("configVersion", costConfigurator.getSnapshot().getVersion());
+			root.put("locations", costConfigurator.getDistanceIndex().size());
+			root.put("javaVersion", System.getProperty("java.version"));
+			root.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+			root.put("seconds", seconds);
+			root.put("warmupSeconds", warmup);
+			root.put("mix", mix);
+			root.put("maxErrorRate", maxErrorRate);
+			root.put("levels", levels);
+
+			System.out.println("concurrency    req/s    p50 (ms)   p99 (ms)  p999 (ms)  error rate");
+			for(int concurrency: concurrencies) {
+				LoadDriver.drive(requests, concurrency, warmup);
+				LoadDriver.Result result = LoadDriver.drive(requests, concurrency, seconds);
+				levels.add(toMap(result));
+				passed &= result.getErrorRate() <= maxErrorRate;
+				System.out.println(String.format(Locale.ROOT, "%11d %8.0f %11.2f %10.2f %10.2f %11.5f",
+						concurrency, result.getThroughput(), result.latency.getValueAt(0.50) / 1e6,
+						result.latency.getValueAt(0.99) / 1e6, result.latency.getValueAt(0.999) / 1e6, result.getErrorRate()));
+			}
+			root.put("passed", passed);
+		} finally {
+			context.close();
+		}
+
+		File dir = report.getAbsoluteFile().getParentFile();
+		if(dir != null)
+			dir.mkdirs();
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, root);
+		System.out.println("Report written to " + report.getPath());
+
+		if(!passed) {
+			System.err.println("Error rate above " + maxErrorRate);
+			System.exit(1);
+		}
+	}
+
+	//"kind=weight,..." in the given order
+	private static Map<String, Integer> parseMix(String text) {
+
+		Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+		for(String part: text.split(",")) {
+			String[] kv = part.split("=");
+			if(kv.length != 2)
+				throw new IllegalArgumentException("Mix must be kind=weight,... -- " + text);
+			String kind = kv[0].trim();
+			if(!kind.equals("vehicle") && !kind.equals("distance") && !kind.equals("unknown") && !kind.equals("badtype"))
+				throw new IllegalArgumentException("Unknown request kind -- " + kind);
+			int weight = Integer.parseInt(kv[1].trim());
+			if(weight < 0)
+				throw new IllegalArgumentException("Weights can't be negative -- " + text);
+			mix.put(kind, weight);
+		}
+		int total = 0;
+		for(int weight: mix.values())
+			total += weight;
+		if(total <= 0)
+			throw new IllegalArgumentException("Mix has no weight -- " + text);
+		return mix;
+	}
+
+	//A fixed random sequence of requests drawn from the mix, trips only between routable pairs
+	private static LoadDriver.Request[] requests(CostConfigurator costConfigurator, int port, Map<String, Integer> mix) {
+
+		DistanceIndex index = costConfigurator.getDistanceIndex();
+		String[] vehicleTypes = {"light", "heavy", "multi"};
+		int total = 0;
+		for(int weight: mix.values())
+			total += weight;
+
+		Random random = new Random(42);
+		LoadDriver.Request[] requests = new LoadDriver.Request[REQUESTS];
+		for(int i = 0; i < REQUESTS; ) {
+			int from = random.nextInt(index.size());
+			int to = random.nextInt(index.size());
+			if(!index.isReachable(from, to))
+				continue;
+
+			int draw = random.nextInt(total);
+			String kind = null;
+			for(Map.Entry<String, Integer> entry: mix.entrySet()) {
+				draw -= entry.getValue();
+				if(draw < 0) {
+					kind = entry.getKey();
+					break;
+				}
+			}
+
+			UriComponentsBuilder uri = UriComponentsBuilder.fromUriString("http://localhost:" + port + "/costoftrip")
+					.queryParam("fromLocation", index.getLocation(from).getName())
+					.queryParam("toLocation", "unknown".equals(kind) ? "No Such Interchange " + i : index.getLocation(to).getName());
+			if("vehicle".equals(kind) || "unknown".equals(kind))
+				uri.queryParam("vehicleType", vehicleTypes[i % vehicleTypes.length]);
+			else if("badtype".equals(kind))
+				uri.queryParam("vehicleType", "bicycle");
+
+			URI target = uri.build().encode().toUri();
+			requests[i++] = new LoadDriver.Request(kind, target, "vehicle".equals(kind) || "distance".equals(kind) ? 200 : 400);
+		}
+		return requests;
+	}
+
+	private static Map<String, Object> toMap(LoadDriver.Result result) {
+
+		Map<String, Object> level = new LinkedHashMap<String, Object>();
+		level.put("concurrency", result.concurrency);
+		level.put("elapsedSeconds", result.elapsedNanos / 1e9);
+		level.put("requests", result.getRequests());
+		level.put("throughput", Math.round(result.getThroughput() * 10) / 10.0);
+		level.put("errors", result.getErrors());
+		level.put("errorRate", result.getErrorRate());
+
+		Map<String, Object> latency = new LinkedHashMap<String, Object>();
+		latency.put("mean", result.latency.getMeanNanos() / 1e6);
+		latency.put("p50", result.latency.getValueAt(0.50) / 1e6);
+		latency.put("p90", result.latency.getValueAt(0.90) / 1e6);
+		latency.put("p99", result.latency.getValueAt(0.99) / 1e6);
+		latency.put("p999", result.latency.getValueAt(0.999) / 1e6);
+		latency.put("max", result.latency.getMaxNanos() / 1e6);
+		level.put("latencyMillis", latency);
+
+		level.put("statuses", result.getStatuses());
+		Map<String, Object> kinds = new LinkedHashMap<String, Object>();
+		for(Map.Entry<String, long[]> entry: result.getKinds().entrySet()) {
+			Map<String, Object> kind = new LinkedHashMap<String, Object>();
+			kind.put("requests", entry.getValue()[0]);
+			kind.put("errors", entry.getValue()[1]);
+			kinds.put(entry.getKey(), kind);
+		}
+		level.put("kinds", kinds);
+		return level;
+	}
+}
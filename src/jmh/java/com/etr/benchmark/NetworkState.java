@@ -0,0 +1,79 @@
+package com.etr.benchmark;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+
+/**
+ * A loaded CostConfigurator and a fixed random sequence of trips over it.
+ *
+ * "shipped" is the classpath config, the others are SyntheticNetwork specs.
+ */
+@State(Scope.Benchmark)
+public class NetworkState {
+
+	//Trips cycled through by every benchmark thread
+	private static final int TRIPS = 4096;
+
+	@Param({"shipped", "chain-10000", "grid-10000"})
+	public String network;
+
+	public CostConfigurator costConfigurator;
+	public String[] fromNames = new String[TRIPS];
+	public String[] toNames = new String[TRIPS];
+	public String[] vehicleTypes = new String[TRIPS];
+	//GPS fixes near the from location of each trip
+	public double[] lats = new double[TRIPS];
+	public double[] lngs = new double[TRIPS];
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+
+		costConfigurator = new CostConfigurator();
+		if(!"shipped".equals(network)) {
+			Path dir = SyntheticNetwork.write(network);
+			costConfigurator.setConfigDirectory(dir.toString());
+		}
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Config did not load -- " + network);
+
+		//Only trips with a route, a miss would measure the error path instead
+		DistanceIndex index = costConfigurator.getDistanceIndex();
+		String[] types = {"light", "heavy", "multi"};
+		Random random = new Random(42);
+		for(int i = 0; i < TRIPS; ) {
+			int from = random.nextInt(index.size());
+			int to = random.nextInt(index.size());
+			if(!index.isReachable(from, to))
+				continue;
+			fromNames[i] = index.getLocation(from).getName();
+			toNames[i] = index.getLocation(to).getName();
+			vehicleTypes[i] = types[i % types.length];
+			lats[i] = Double.parseDouble(index.getLocation(from).getLat()) + (random.nextDouble() - 0.5) * 0.01;
+			lngs[i] = Double.parseDouble(index.getLocation(from).getLng()) + (random.nextDouble() - 0.5) * 0.01;
+			i++;
+		}
+	}
+
+	/**
+	 * Per-thread position in the trip sequence.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		public int next() {
+			int i = next;
+			next = (i + 1) & (TRIPS - 1);
+			return i;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.etr.benchmark;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etr.model.Distance;
+import com.etr.model.Money;
+import com.etr.service.PricingRules;
+import com.etr.service.PricingRules.Fare;
+
+/**
+ * Cost of a fare worked out by compiled rules against the same arithmetic written in Java.
+ *
+ * handWritten is the built-in fare, noRules and equivalentRules must give the same result
+ * through PricingRules, typicalRules is the example of the PricingRules class comment. The
+ * trip is QEW to Bronte Road, heavy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PricingRulesBenchmark {
+
+	private Distance distance = Distance.ofFixed(14062000);
+	private Money cost = Money.parse("3.52");
+	private Money toll = Money.parse("2");
+	private Money camera = Money.parse("45");
+	private Money rate = Money.parse("0.7416");
+
+	private PricingRules equivalent;
+	private PricingRules typical;
+
+	@Setup(Level.Trial)
+	public void compile() {
+		equivalent = PricingRules.compile("heavy", Arrays.asList(
+				"kmRate = toll + camera + rate",
+				"charge = cost + kmRate"));
+		typical = PricingRules.compile("heavy", Arrays.asList(
+				"kmRate += 0.10 * distance if westbound and distance > 50",
+				"charge = max(charge, 60)",
+				"charge = min(charge, 400)",
+				"charge -= 5 if distance < 10"));
+	}
+
+	@Benchmark
+	public Money handWritten() {
+		Money kmRate = toll.plus(camera).plus(rate).round(Money.CENTS, RoundingMode.HALF_EVEN);
+		return cost.plus(kmRate);
+	}
+
+	@Benchmark
+	public Money noRules() {
+		return apply(PricingRules.NONE);
+	}
+
+	@Benchmark
+	public Money equivalentRules() {
+		return apply(equivalent);
+	}
+
+	@Benchmark
+	public Money typicalRules() {
+		return apply(typical);
+	}
+
+	private Money apply(PricingRules rules) {
+		Fare fare = new Fare(distance, cost, toll, camera, rate, true);
+		rules.apply(fare);
+		return fare.getCharge();
+	}
+}
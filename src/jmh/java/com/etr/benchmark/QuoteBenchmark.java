@@ -0,0 +1,50 @@
+package com.etr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etr.model.CostResponse;
+import com.etr.model.Distance;
+import com.etr.model.NearestLocation;
+
+/**
+ * Throughput of the quote hot path, the same calls the REST endpoints make.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuoteBenchmark {
+
+	@Benchmark
+	public Distance distanceBetweenLocations(NetworkState state, NetworkState.Cursor cursor) {
+		int i = cursor.next();
+		return state.costConfigurator.getDistanceBetweenLocations(state.fromNames[i], state.toNames[i]);
+	}
+
+	@Benchmark
+	public CostResponse costBetweenLocations(NetworkState state, NetworkState.Cursor cursor) {
+		int i = cursor.next();
+		return state.costConfigurator.getCostBetweenLocations(state.fromNames[i], state.toNames[i]);
+	}
+
+	@Benchmark
+	public CostResponse costWithVehicleType(NetworkState state, NetworkState.Cursor cursor) {
+		int i = cursor.next();
+		return state.costConfigurator.getCostWithVehicleType(state.fromNames[i], state.toNames[i], state.vehicleTypes[i]);
+	}
+
+	@Benchmark
+	public NearestLocation nearestLocation(NetworkState state, NetworkState.Cursor cursor) {
+		int i = cursor.next();
+		return state.costConfigurator.findNearestLocation(state.lats[i], state.lngs[i]);
+	}
+}
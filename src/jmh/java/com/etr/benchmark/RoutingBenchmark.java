@@ -0,0 +1,81 @@
+package com.etr.benchmark;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+import com.etr.service.RoutingEngine;
+
+/**
+ * Distance lookups on grid-10000, above RoutingEngine.ALL_PAIRS_LIMIT, so every source row is
+ * searched on first use and kept in the row cache.
+ *
+ * hot: all trips start at ROW_CACHE_SIZE / 2 sources, the cache holds them all. skewed: nine
+ * trips in ten start at those sources, the rest anywhere, the misses must not evict the hot
+ * rows. uniform: any source, mostly misses, the cost of a cold row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+	//More trips than sources, the cold ones are not all cached after a pass
+	private static final int TRIPS = 1 << 16;
+
+	@Param({"hot", "skewed", "uniform"})
+	public String sources;
+
+	private DistanceIndex index;
+	private int[] from = new int[TRIPS];
+	private int[] to = new int[TRIPS];
+	private int next;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+
+		CostConfigurator costConfigurator = new CostConfigurator();
+		Path dir = SyntheticNetwork.write("grid-10000");
+		costConfigurator.setConfigDirectory(dir.toString());
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Config did not load -- grid-10000");
+		index = costConfigurator.getDistanceIndex();
+
+		Random random = new Random(42);
+		int size = index.size();
+		int[] hot = new int[RoutingEngine.ROW_CACHE_SIZE / 2];
+		for(int i = 0; i < hot.length; i++)
+			hot[i] = random.nextInt(size);
+		for(int i = 0; i < TRIPS; i++) {
+			if("hot".equals(sources) || ("skewed".equals(sources) && random.nextInt(10) < 9))
+				from[i] = hot[random.nextInt(hot.length)];
+			else
+				from[i] = random.nextInt(size);
+			to[i] = random.nextInt(size);
+		}
+	}
+
+	@Benchmark
+	public long distance() {
+		int i = next;
+		next = (i + 1) & (TRIPS - 1);
+		return index.distanceBetween(from[i], to[i]);
+	}
+}
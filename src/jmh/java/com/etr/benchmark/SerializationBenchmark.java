@@ -0,0 +1,51 @@
+package com.etr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.etr.service.CostConfigurator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * JSON serialization of a CostWithVehicleTypeResponse, with the mapper settings Spring Boot uses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+	private ObjectWriter writer;
+	private Object response;
+
+	@Setup
+	public void setup() {
+		ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		CostConfigurator costConfigurator = new CostConfigurator();
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Config did not load");
+
+		response = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+		writer = objectMapper.writerFor(response.getClass());
+	}
+
+	@Benchmark
+	public byte[] costWithVehicleTypeToJson() throws JsonProcessingException {
+		return writer.writeValueAsBytes(response);
+	}
+}
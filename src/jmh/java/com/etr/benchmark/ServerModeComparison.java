@@ -0,0 +1,104 @@
+package com.etr.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.etr.StartTripCalculatorApplication;
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+
+/**
+ * Throughput and latency of GET /costoftrip in the servlet (MVC) and the reactive server mode,
+ * side by side, at several concurrency levels.
+ *
+ * Each mode is started in this JVM on a random port and driven by a LoadDriver. Client and server
+ * share the machine, so compare the modes with each other, not with production figures.
+ *
+ * Options: --concurrency=64,512,2048 --seconds=10 --warmup=3
+ */
+public final class ServerModeComparison {
+
+	private static final int TRIPS = 4096;
+
+	public static void main(String[] args) {
+
+		int[] concurrencies = {64, 512, 2048};
+		int seconds = 10;
+		int warmup = 3;
+		for(String arg: args) {
+			if(arg.startsWith("--concurrency=")) {
+				String[] values = arg.substring("--concurrency=".length()).split(",");
+				concurrencies = new int[values.length];
+				for(int i = 0; i < values.length; i++)
+					concurrencies[i] = Integer.parseInt(values[i].trim());
+			}
+			else if(arg.startsWith("--seconds="))
+				seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+			else if(arg.startsWith("--warmup="))
+				warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+			else
+				throw new IllegalArgumentException("Unknown option -- " + arg);
+		}
+
+		//Devtools would restart the application in another class loader
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		List<String> rows = new ArrayList<String>();
+		for(WebApplicationType mode: new WebApplicationType[] {WebApplicationType.SERVLET, WebApplicationType.REACTIVE}) {
+			ConfigurableApplicationContext context = new SpringApplicationBuilder(StartTripCalculatorApplication.class)
+					.properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN")
+					//As an argument, the servlet mode of application.properties would override .web(mode)
+					.run("--spring.main.web-application-type=" + mode.name().toLowerCase(Locale.ROOT));
+			try {
+				int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+				LoadDriver.Request[] trips = trips(context.getBean(CostConfigurator.class), port);
+				for(int concurrency: concurrencies) {
+					LoadDriver.drive(trips, concurrency, warmup);
+					LoadDriver.Result result = LoadDriver.drive(trips, concurrency, seconds);
+					rows.add(String.format(Locale.ROOT, "%-9s %11d %12.0f %10.2f %10.2f %10.2f %8d",
+							mode == WebApplicationType.SERVLET ? "mvc" : "reactive", concurrency,
+							result.getThroughput(), result.latency.getValueAt(0.50) / 1e6,
+							result.latency.getValueAt(0.99) / 1e6, result.latency.getValueAt(0.999) / 1e6, result.getErrors()));
+					System.out.println(rows.get(rows.size() - 1));
+				}
+			} finally {
+				context.close();
+			}
+		}
+
+		System.out.println();
+		System.out.println("mode      concurrency    req/s    p50 (ms)   p99 (ms)  p999 (ms)   errors");
+		for(String row: rows)
+			System.out.println(row);
+	}
+
+	//Random routable quotes over the loaded network, all vehicle classes and distance only
+	private static LoadDriver.Request[] trips(CostConfigurator costConfigurator, int port) {
+
+		DistanceIndex index = costConfigurator.getDistanceIndex();
+		String[] types = {null, "light", "heavy", "multi"};
+		Random random = new Random(42);
+		LoadDriver.Request[] trips = new LoadDriver.Request[TRIPS];
+		for(int i = 0; i < TRIPS; ) {
+			int from = random.nextInt(index.size());
+			int to = random.nextInt(index.size());
+			if(!index.isReachable(from, to))
+				continue;
+			UriComponentsBuilder uri = UriComponentsBuilder.fromUriString("http://localhost:" + port + "/costoftrip")
+					.queryParam("fromLocation", index.getLocation(from).getName())
+					.queryParam("toLocation", index.getLocation(to).getName());
+			if(types[i % types.length] != null)
+				uri.queryParam("vehicleType", types[i % types.length]);
+			trips[i++] = new LoadDriver.Request("quote", uri.build().encode().toUri(), 200);
+		}
+		return trips;
+	}
+}
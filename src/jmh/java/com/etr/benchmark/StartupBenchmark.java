@@ -0,0 +1,258 @@
+package com.etr.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.etr.StartTripCalculatorApplication;
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+
+/**
+ * Startup of a new server process, the default mode against the fast-start profile without and
+ * with the class-data sharing archive of the cds build profile.
+ *
+ * Each run starts a JVM and measures from the process start:
+ * <pre>
+ * first quote    the first 200 of /costoftrip, polled every 10 ms
+ * ready          the first 200 of /ready, when a load balancer would send traffic
+ * steady state   the end of the first window of quotes, sent one by one from ready on, with a
+ *                mean latency within 1.5 times the steady latency, the median of the last 5 windows
+ * </pre>
+ * Client and server share the machine, compare the modes with each other.
+ *
+ * Options: --runs=3 --quotes=20000 --window=500 --jar=target/cds/trip-cost-calculator-1.0-cds.jar
+ *          --archive=target/cds/app.jsa
+ * Without the jar the server runs from this classpath and the archive mode is skipped.
+ */
+public final class StartupBenchmark {
+
+	private static final int TRIPS = 4096;
+	private static final long TIMEOUT_MILLIS = 120000;
+
+	public static void main(String[] args) throws Exception {
+
+		int runs = 3;
+		int quotes = 20000;
+		int window = 500;
+		File jar = new File("target/cds/trip-cost-calculator-1.0-cds.jar");
+		File archive = new File("target/cds/app.jsa");
+		for(String arg: args) {
+			if(arg.startsWith("--runs="))
+				runs = Integer.parseInt(arg.substring("--runs=".length()));
+			else if(arg.startsWith("--quotes="))
+				quotes = Integer.parseInt(arg.substring("--quotes=".length()));
+			else if(arg.startsWith("--window="))
+				window = Integer.parseInt(arg.substring("--window=".length()));
+			else if(arg.startsWith("--jar="))
+				jar = new File(arg.substring("--jar=".length()));
+			else if(arg.startsWith("--archive="))
+				archive = new File(arg.substring("--archive=".length()));
+			else
+				throw new IllegalArgumentException("Unknown option -- " + arg);
+		}
+
+		CostConfigurator costConfigurator = new CostConfigurator();
+		if(!costConfigurator.generateConfigMap())
+			throw new IllegalStateException("Failed to load the interchange and rate configuration.");
+		String[] trips = trips(costConfigurator);
+
+		List<String> modes = new ArrayList<String>(Arrays.asList("default", "fast-start"));
+		if(jar.isFile() && archive.isFile())
+			modes.add("fast-start+cds");
+		else
+			System.out.println("No " + archive + ", build with -Pcds for the archive mode");
+
+		List<String> rows = new ArrayList<String>();
+		for(String mode: modes) {
+			List<Result> results = new ArrayList<Result>();
+			for(int run = 0; run < runs; run++) {
+				Result result = run(command(mode, jar, archive), trips, quotes, window);
+				results.add(result);
+				System.out.println(format(mode, Integer.toString(run + 1), result));
+			}
+			rows.add(format(mode, "median", Result.median(results)));
+		}
+
+		System.out.println();
+		System.out.println("mode             run     first quote (ms)  ready (ms)  steady state (ms)  first window (us)  steady (us)");
+		for(String row: rows)
+			System.out.println(row);
+	}
+
+	private static List<String> command(String mode, File jar, File archive) {
+
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		if(mode.endsWith("+cds"))
+			command.add("-XX:SharedArchiveFile=" + archive.getPath());
+		command.add("-Dspring.devtools.restart.enabled=false");
+		if(jar.isFile()) {
+			command.add("-jar");
+			command.add(jar.getPath());
+		}
+		else {
+			command.add("-classpath");
+			command.add(System.getProperty("java.class.path"));
+			command.add(StartTripCalculatorApplication.class.getName());
+		}
+		if(mode.startsWith("fast-start"))
+			command.add("--spring.profiles.active=fast-start");
+		return command;
+	}
+
+	private static Result run(List<String> command, String[] trips, int quotes, int window) throws Exception {
+
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		List<String> args = new ArrayList<String>(command);
+		args.add("--server.port=" + port);
+		File log = File.createTempFile("startup-benchmark", ".log");
+		log.deleteOnExit();
+
+		String base = "http://localhost:" + port;
+		Result result = new Result();
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(args).redirectErrorStream(true).redirectOutput(log).start();
+		try {
+			result.firstQuoteMillis = poll(base + trips[0], start, process);
+			result.readyMillis = poll(base + "/ready", start, process);
+
+			long windowNanos = 0;
+			List<Long> means = new ArrayList<Long>();
+			List<Long> ends = new ArrayList<Long>();
+			for(int i = 0; i < quotes; i++) {
+				long sent = System.nanoTime();
+				if(get(base + trips[i % trips.length]) != 200)
+					throw new IllegalStateException("Quote failed -- " + trips[i % trips.length]);
+				windowNanos += System.nanoTime() - sent;
+				if((i + 1) % window == 0) {
+					means.add(windowNanos / window);
+					ends.add(System.nanoTime());
+					windowNanos = 0;
+				}
+			}
+
+			List<Long> last = new ArrayList<Long>(means.subList(Math.max(0, means.size() - 5), means.size()));
+			Collections.sort(last);
+			result.steadyNanos = last.get(last.size() / 2);
+			result.firstWindowNanos = means.get(0);
+			for(int i = 0; i < means.size(); i++) {
+				if(means.get(i) <= result.steadyNanos * 3 / 2) {
+					result.steadyStateMillis = TimeUnit.NANOSECONDS.toMillis(ends.get(i) - start);
+					break;
+				}
+			}
+		} finally {
+			process.destroy();
+			if(!process.waitFor(10, TimeUnit.SECONDS))
+				process.destroyForcibly().waitFor();
+			log.delete();
+		}
+		return result;
+	}
+
+	//Milliseconds from the start to the first 200
+	private static long poll(String url, long start, Process process) throws InterruptedException {
+		while(true) {
+			if(!process.isAlive())
+				throw new IllegalStateException("Server exited with " + process.exitValue());
+			if(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > TIMEOUT_MILLIS)
+				throw new IllegalStateException("No answer from " + url);
+			try {
+				if(get(url) == 200)
+					return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			} catch (IOException e) {
+				//not listening yet
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	//Status, the body is read so the connection is kept alive
+	private static int get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(1000);
+		connection.setReadTimeout(10000);
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if(in != null) {
+			byte[] buf = new byte[4096];
+			while(in.read(buf) >= 0) {
+				//drain
+			}
+			in.close();
+		}
+		return status;
+	}
+
+	//Random routable quote paths over the loaded network, all vehicle classes and distance only
+	private static String[] trips(CostConfigurator costConfigurator) {
+
+		DistanceIndex index = costConfigurator.getDistanceIndex();
+		String[] types = {null, "light", "heavy", "multi"};
+		Random random = new Random(42);
+		String[] trips = new String[TRIPS];
+		for(int i = 0; i < TRIPS; ) {
+			int from = random.nextInt(index.size());
+			int to = random.nextInt(index.size());
+			if(!index.isReachable(from, to))
+				continue;
+			UriComponentsBuilder uri = UriComponentsBuilder.fromPath("/costoftrip")
+					.queryParam("fromLocation", index.getLocation(from).getName())
+					.queryParam("toLocation", index.getLocation(to).getName());
+			if(types[i % types.length] != null)
+				uri.queryParam("vehicleType", types[i % types.length]);
+			trips[i++] = uri.build().encode().toUriString();
+		}
+		return trips;
+	}
+
+	private static String format(String mode, String run, Result result) {
+		return String.format(Locale.ROOT, "%-16s %-7s %16d %11d %18d %18.1f %12.1f", mode, run,
+				result.firstQuoteMillis, result.readyMillis, result.steadyStateMillis,
+				result.firstWindowNanos / 1e3, result.steadyNanos / 1e3);
+	}
+
+	private static final class Result {
+		long firstQuoteMillis;
+		long readyMillis;
+		long steadyStateMillis = -1;
+		long firstWindowNanos;
+		long steadyNanos;
+
+		//Median of each figure on its own
+		static Result median(List<Result> results) {
+			Result median = new Result();
+			median.firstQuoteMillis = median(results, r -> r.firstQuoteMillis);
+			median.readyMillis = median(results, r -> r.readyMillis);
+			median.steadyStateMillis = median(results, r -> r.steadyStateMillis);
+			median.firstWindowNanos = median(results, r -> r.firstWindowNanos);
+			median.steadyNanos = median(results, r -> r.steadyNanos);
+			return median;
+		}
+
+		private static long median(List<Result> results, ToLongFunction<Result> figure) {
+			long[] values = new long[results.size()];
+			for(int i = 0; i < values.length; i++)
+				values[i] = figure.applyAsLong(results.get(i));
+			Arrays.sort(values);
+			return values[values.length / 2];
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.etr.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+import com.etr.service.CostConfigurator;
+
+/**
+ * Writes interchanges.json and rates.json for generated networks, so the benchmarks can load
+ * networks far larger than the shipped one through the normal config path.
+ *
+ * A chain is one highway of n interchanges, like the shipped network. A grid is HIGHWAYS
+ * parallel highways joined by a connector every CONNECTOR_SPACING interchanges, it is not a
+ * chain and is priced through the RoutingEngine.
+ */
+public final class SyntheticNetwork {
+
+	public static final int HIGHWAYS = 10;
+	public static final int CONNECTOR_SPACING = 50;
+
+	private SyntheticNetwork() {
+	}
+
+	/**
+	 * @param spec: "chain-N" or "grid-N", N is the number of interchanges
+	 * @return the directory holding the two config files
+	 * @throws IOException
+	 */
+	public static Path write(String spec) throws IOException {
+
+		String[] parts = spec.split("-");
+		if(parts.length != 2)
+			throw new IllegalArgumentException("Network spec must be chain-N or grid-N -- " + spec);
+		int size = Integer.parseInt(parts[1]);
+
+		Path dir = Files.createTempDirectory("etr-" + spec);
+		dir.toFile().deleteOnExit();
+		Path interchanges = dir.resolve(CostConfigurator.INTERCHANGES_FILE);
+		Path rates = dir.resolve(CostConfigurator.RATES_FILE);
+		interchanges.toFile().deleteOnExit();
+		rates.toFile().deleteOnExit();
+
+		if("chain".equals(parts[0]))
+			writeInterchanges(interchanges, size, size);
+		else if("grid".equals(parts[0]))
+			writeInterchanges(interchanges, size, Math.max(1, size / HIGHWAYS));
+		else
+			throw new IllegalArgumentException("Unknown network type -- " + parts[0]);
+
+		writeRates(rates);
+		return dir;
+	}
+
+	/**
+	 * Highways of highwayLength interchanges, ids are 1..size along each highway in turn.
+	 */
+	private static void writeInterchanges(Path file, int size, int highwayLength) throws IOException {
+
+		Random random = new Random(size);
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("{\n  \"locations\": {\n");
+			for(int i = 0; i < size; i++) {
+				int highway = i / highwayLength;
+				int position = i % highwayLength;
+
+				StringBuilder routes = new StringBuilder();
+				if(position > 0)
+					appendRoute(routes, i - 1, random);
+				if(position < highwayLength - 1 && i + 1 < size)
+					appendRoute(routes, i + 1, random);
+				//Connectors to the neighbour highways
+				if(position % CONNECTOR_SPACING == 0) {
+					if(highway > 0)
+						appendRoute(routes, i - highwayLength, random);
+					if(i + highwayLength < size)
+						appendRoute(routes, i + highwayLength, random);
+				}
+
+				out.write(String.format(Locale.ROOT,
+						"    \"%d\": {\n      \"name\": \"Interchange %d\",\n      \"lat\": %.6f,\n      \"lng\": %.6f,\n"
+						+ "      \"routes\": [%s\n      ]\n    }%s\n",
+						i + 1, i + 1, 43.0 + highway * 0.05, -80.0 + position * 0.01, routes, i + 1 < size ? "," : ""));
+			}
+			out.write("  }\n}\n");
+		}
+	}
+
+	//Ordinal i is location id i + 1
+	private static void appendRoute(StringBuilder routes, int toOrdinal, Random random) {
+		if(routes.length() > 0)
+			routes.append(',');
+		routes.append(String.format(Locale.ROOT, "\n        {\n          \"toId\": %d,\n          \"distance\": %.3f\n        }",
+				toOrdinal + 1, 0.5 + random.nextInt(9500) / 1000.0));
+	}
+
+	private static void writeRates(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("{\n  \"rates\": {\n"
+					+ "    \"light\": {\"trip_toll_charge\": 1, \"camera_charge\": 4.2, \"eastbound\": 0.4709, \"westbound\": 0.4218},\n"
+					+ "    \"heavy\": {\"trip_toll_charge\": 2, \"camera_charge\": 45, \"eastbound\": 0.7866, \"westbound\": 0.7416},\n"
+					+ "    \"multi\": {\"trip_toll_charge\": 3, \"camera_charge\": 50, \"eastbound\": 1.299, \"westbound\": 1.1124}\n"
+					+ "  }\n}\n");
+		}
+	}
+}
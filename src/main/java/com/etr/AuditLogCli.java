@@ -0,0 +1,91 @@
+package com.etr;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.function.Predicate;
+
+import com.etr.audit.AuditLogReader;
+import com.etr.audit.AuditRecord;
+
+/**
+ * Scan the quote audit files, see QuoteAuditLog.
+ *
+ * Usage: AuditLogCli (dir | file.audit) [--from=LOCATION] [--to=LOCATION] [--vehicleType=TYPE]
+ *        [--version=CONFIG_VERSION] [--network=ID] [--since=INSTANT] [--until=INSTANT]
+ *
+ * Instants are ISO-8601, e.g. 2019-01-31T08:00:00Z, since is inclusive and until exclusive.
+ * The matching records go to stdout as CSV, see AuditRecord.toCsv, the counts to stderr.
+ */
+public class AuditLogCli {
+
+	private static final String USAGE = "Usage: AuditLogCli (dir | file.audit) [--from=LOCATION] [--to=LOCATION] [--vehicleType=TYPE]"
+			+ " [--version=CONFIG_VERSION] [--network=ID] [--since=INSTANT] [--until=INSTANT]";
+
+    public static void main(String[] args) throws Exception {
+
+    	if(args.length < 1) {
+    		System.err.println(USAGE);
+    		System.exit(1);
+    	}
+
+    	Predicate<AuditRecord> filter = r -> true;
+    	for(int i = 1; i < args.length; i++) {
+    		String arg = args[i];
+    		int eq = arg.indexOf('=');
+    		if(!arg.startsWith("--") || eq < 0) {
+    			System.err.println(USAGE);
+    			System.exit(1);
+    		}
+    		String value = arg.substring(eq + 1);
+    		switch(arg.substring(2, eq)) {
+    		case "from":
+    			filter = filter.and(r -> value.equalsIgnoreCase(r.getFrom()));
+    			break;
+    		case "to":
+    			filter = filter.and(r -> value.equalsIgnoreCase(r.getTo()));
+    			break;
+    		case "vehicleType":
+    			filter = filter.and(r -> r.getVehicleType() != null && value.equalsIgnoreCase(r.getVehicleType().name()));
+    			break;
+    		case "version":
+    			filter = filter.and(r -> value.equalsIgnoreCase(r.getConfigVersion()));
+    			break;
+    		case "network":
+    			filter = filter.and(r -> value.equals(r.getNetwork()));
+    			break;
+    		case "since":
+    			long since = Instant.parse(value).toEpochMilli();
+    			filter = filter.and(r -> r.getTime() >= since);
+    			break;
+    		case "until":
+    			long until = Instant.parse(value).toEpochMilli();
+    			filter = filter.and(r -> r.getTime() < until);
+    			break;
+    		default:
+    			System.err.println(USAGE);
+    			System.exit(1);
+    		}
+    	}
+
+    	AuditLogReader reader = new AuditLogReader();
+    	BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+    	out.write("time,network,configVersion,from,to,vehicleType,direction,rateBand,distance,cost,kmRate,tripCharge\n");
+    	reader.scan(Paths.get(args[0]), filter, r -> {
+    		try {
+    			out.write(r.toCsv());
+    			out.write('\n');
+    		} catch (IOException e) {
+    			throw new UncheckedIOException(e);
+    		}
+    	});
+    	out.flush();
+
+    	System.err.println(reader.getRecordsMatched() + " of " + reader.getRecordsRead() + " quotes in " + reader.getFilesRead() + " files");
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.etr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.etr.gantry.GantryIngestion;
+import com.etr.gantry.TripAssembler;
+import com.etr.gantry.TripCsvWriter;
+import com.etr.service.CostConfigurator;
+
+/**
+ * Assemble and price trips from gantry events, without the web server.
+ * 
+ * Usage: GantryIngestCli (events.csv | --listen=PORT) trips.csv
+ * 
+ * Input lines are timestamp,transponderId,location,ENTRY|EXIT[,vehicleType], see GantryEvent.
+ * With --listen every TCP connection is an event stream, until the process is stopped.
+ * 
+ * The priced trips go to trips.csv, the counters to stdout.
+ */
+public class GantryIngestCli {
+
+	//Idle transponders are expired this often while listening
+	private static final long EXPIRE_PERIOD_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+    	
+    	if(args.length < 2) {
+    		System.err.println("Usage: GantryIngestCli (events.csv | --listen=PORT) trips.csv");
+    		System.exit(1);
+    	}
+    	
+    	CostConfigurator costConfigurator = new CostConfigurator();
+    	if(!costConfigurator.generateConfigMap()) {
+    		System.err.println("Failed to load the interchange and rate configuration.");
+    		System.exit(2);
+    	}
+    	
+    	TripCsvWriter writer = new TripCsvWriter(Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8));
+    	GantryIngestion ingestion = new GantryIngestion(new TripAssembler(costConfigurator, writer));
+    	
+    	if(args[0].startsWith("--listen=")) {
+    		listen(ingestion, writer, Integer.parseInt(args[0].substring("--listen=".length())));
+    		return;
+    	}
+    	
+    	long start = System.nanoTime();
+    	long events;
+    	try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+    		events = ingestion.ingest(in);
+    	}
+    	//Trips still open at the end of the input are expired
+    	ingestion.expireIdle();
+    	writer.close();
+    	
+    	long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    	System.out.println(events + " events in " + millis + " ms, " + events * 1000 / millis + " events/s");
+    	System.out.println("malformed=" + ingestion.getMalformedCount() + " " + ingestion.getAssembler().getCounters());
+    }
+    
+    private static void listen(GantryIngestion ingestion, TripCsvWriter writer, int port) throws IOException {
+    	
+    	ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    	timer.scheduleAtFixedRate(ingestion::expireIdle, EXPIRE_PERIOD_SECONDS, EXPIRE_PERIOD_SECONDS, TimeUnit.SECONDS);
+    	
+    	try (ServerSocket server = new ServerSocket()) {
+    		server.bind(new InetSocketAddress(port));
+    		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    			try {
+    				server.close();
+    				writer.close();
+    			} catch (IOException e) {
+    				//stopping anyway
+    			}
+    			System.out.println("malformed=" + ingestion.getMalformedCount() + " " + ingestion.getAssembler().getCounters());
+    		}));
+    		System.out.println("Listening for gantry events on port " + port);
+    		ingestion.serve(server);
+    	} finally {
+    		timer.shutdownNow();
+    	}
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.etr;
+
+import java.nio.file.Paths;
+
+import com.etr.service.CostConfigurator;
+
+/**
+ * Compile interchanges.json and rates.json into a binary network snapshot.
+ * 
+ * Usage: NetworkSnapshotCompiler output.snapshot [configDirectory]
+ * 
+ * Without a directory the classpath config is compiled. Start the server with 
+ * tripcalculator.config.snapshot=output.snapshot to load it.
+ */
+public class NetworkSnapshotCompiler {
+
+    public static void main(String[] args) throws Exception {
+    	
+    	if(args.length < 1) {
+    		System.err.println("Usage: NetworkSnapshotCompiler output.snapshot [configDirectory]");
+    		System.exit(1);
+    	}
+    	
+    	CostConfigurator costConfigurator = new CostConfigurator();
+    	if(args.length > 1)
+    		costConfigurator.setConfigDirectory(args[1]);
+    	
+    	String version = costConfigurator.compileSnapshot(Paths.get(args[0]));
+    	System.out.println("Compiled config version " + version + " to " + args[0]);
+    }
+
+}
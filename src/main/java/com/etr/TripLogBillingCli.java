@@ -0,0 +1,47 @@
+package com.etr;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.etr.billing.BillingTotals;
+import com.etr.billing.TripLogBillingPipeline;
+import com.etr.service.CostConfigurator;
+
+/**
+ * Offline billing of a trip log, without the web server.
+ * 
+ * Usage: TripLogBillingCli input.csv output.csv [threads]
+ * 
+ * Input lines are fromLocation,toLocation[,vehicleType[,tripTime]].
+ * 
+ * The priced lines go to output.csv, the per-class totals to output.csv.totals.csv.
+ */
+public class TripLogBillingCli {
+
+    public static void main(String[] args) throws Exception {
+    	
+    	if(args.length < 2) {
+    		System.err.println("Usage: TripLogBillingCli input.csv output.csv [threads]");
+    		System.exit(1);
+    	}
+    	
+    	Path input = Paths.get(args[0]);
+    	Path output = Paths.get(args[1]);
+    	int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    	
+    	CostConfigurator costConfigurator = new CostConfigurator();
+    	if(!costConfigurator.generateConfigMap()) {
+    		System.err.println("Failed to load the interchange and rate configuration.");
+    		System.exit(2);
+    	}
+    	
+    	BillingTotals totals = new TripLogBillingPipeline(costConfigurator).run(input, output, threads);
+    	
+    	String csv = totals.toCsv();
+    	Files.write(output.resolveSibling(output.getFileName() + ".totals.csv"), csv.getBytes(StandardCharsets.UTF_8));
+    	System.out.print(csv);
+    }
+
+}
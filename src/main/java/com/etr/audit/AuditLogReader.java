@@ -0,0 +1,119 @@
+package com.etr.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scan audit files written by QuoteAuditLog.
+ *
+ * A directory is read file by file in name order, which is creation order. Each file is mapped
+ * and decoded record by record, nothing is held beyond the record handed to the consumer. A
+ * file being written can be read, the scan stops at its last complete record.
+ */
+public class AuditLogReader {
+
+	private static Logger logger = LoggerFactory.getLogger(AuditLogReader.class);
+
+	private long filesRead;
+	private long recordsRead;
+	private long recordsMatched;
+
+	/**
+	 * @param path: an audit file, or a directory of them
+	 * @param filter: records to hand to the consumer, null for all
+	 * @return the number of records handed to the consumer
+	 * @throws IOException
+	 * @throws IllegalArgumentException -- not an audit file.
+	 */
+	public long scan(Path path, Predicate<AuditRecord> filter, Consumer<AuditRecord> consumer) throws IOException {
+
+		long before = recordsMatched;
+		for(Path file: listFiles(path))
+			scanFile(file, filter, consumer);
+		return recordsMatched - before;
+	}
+
+	/**
+	 * Audit files of a directory in name order, or the file itself.
+	 *
+	 * @throws IOException
+	 */
+	public static List<Path> listFiles(Path path) throws IOException {
+
+		List<Path> files = new ArrayList<Path>();
+		if(!Files.isDirectory(path)) {
+			files.add(path);
+			return files;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, QuoteAuditLog.FILE_PREFIX + "*" + QuoteAuditLog.FILE_SUFFIX)) {
+			for(Path file: stream)
+				files.add(file);
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private void scanFile(Path file, Predicate<AuditRecord> filter, Consumer<AuditRecord> consumer) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Audit file too large -- " + file);
+			if(size < AuditRecord.HEADER_SIZE) {
+				//created, header not written yet
+				logger.warn("Skipped empty audit file " + file);
+				return;
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			readHeader(buf, file);
+
+			AuditRecord record;
+			while((record = AuditRecord.decode(buf)) != null) {
+				recordsRead++;
+				if(filter == null || filter.test(record)) {
+					recordsMatched++;
+					consumer.accept(record);
+				}
+			}
+			if(buf.hasRemaining())
+				logger.warn("Audit file " + file + " ends with " + buf.remaining() + " bytes of an incomplete record");
+			filesRead++;
+		}
+	}
+
+	private static void readHeader(ByteBuffer buf, Path file) {
+		int magic = buf.getInt();
+		int version = buf.getInt();
+		buf.getLong();
+		if(magic != AuditRecord.MAGIC)
+			throw new IllegalArgumentException("Not an audit file -- " + file);
+		if(version != AuditRecord.FORMAT_VERSION)
+			throw new IllegalArgumentException("Audit file format " + version + " not supported -- " + file);
+	}
+
+	public long getFilesRead() {
+		return filesRead;
+	}
+
+	public long getRecordsRead() {
+		return recordsRead;
+	}
+
+	public long getRecordsMatched() {
+		return recordsMatched;
+	}
+}
@@ -0,0 +1,260 @@
+package com.etr.audit;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Locale;
+
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.Distance;
+import com.etr.model.Money;
+import com.etr.model.VehicleTypeEnum;
+
+/**
+ * One audited quote, as read back from an audit file.
+ *
+ * Audit files are append-only, big-endian:
+ * <pre>
+ * header   magic "ETRA", format version (int), created at (long, epoch milliseconds)
+ * record   length (short, bytes after it), time (long, epoch milliseconds),
+ *          config version (long, the 12 hex digits), vehicle type (byte, 0 for none, else
+ *          VehicleTypeEnum ordinal + 1), direction (byte, 0 none, 1 eastbound, 2 westbound),
+ *          distance, cost, km rate, trip charge (longs, see Distance and Money, NULL_FIXED when
+ *          missing), network, from, to, rate band (short length + UTF-8, empty for none)
+ * </pre>
+ * A record cut short by a crash is the end of its file, the reader stops there.
+ */
+public final class AuditRecord {
+
+	public static final int MAGIC = 0x45545241;
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 4 + 4 + 8;
+
+	static final long NULL_FIXED = Long.MIN_VALUE;
+
+	//Fixed part of a record, after the length
+	private static final int FIXED_SIZE = 8 + 8 + 1 + 1 + 4 * 8;
+	private static final int MAX_STRING = 1024;
+
+	private final long time;
+	private final String network;
+	private final String configVersion;
+	private final String from;
+	private final String to;
+	private final VehicleTypeEnum vehicleType;
+	private final String direction;
+	private final String rateBand;
+	private final Distance distance;
+	private final Money cost;
+	private final Money kmRate;
+	private final Money tripCharge;
+
+	private AuditRecord(long time, String network, String configVersion, String from, String to, VehicleTypeEnum vehicleType,
+			String direction, String rateBand, Distance distance, Money cost, Money kmRate, Money tripCharge) {
+		this.time = time;
+		this.network = network;
+		this.configVersion = configVersion;
+		this.from = from;
+		this.to = to;
+		this.vehicleType = vehicleType;
+		this.direction = direction;
+		this.rateBand = rateBand;
+		this.distance = distance;
+		this.cost = cost;
+		this.kmRate = kmRate;
+		this.tripCharge = tripCharge;
+	}
+
+	/**
+	 * Append a drained quote to a buffer.
+	 *
+	 * @return false, and the buffer unchanged, when it doesn't fit
+	 */
+	static boolean encode(ByteBuffer buf, AuditRingBuffer.Slot slot) {
+
+		byte[] network = utf8(slot.getNetwork());
+		byte[] from = utf8(slot.getFrom());
+		byte[] to = utf8(slot.getTo());
+		CostResponse quote = slot.getQuote();
+		CostWithVehicleTypeResponse withType = quote instanceof CostWithVehicleTypeResponse ? (CostWithVehicleTypeResponse) quote : null;
+		byte[] band = utf8(withType == null ? null : withType.getRateBand());
+
+		int length = FIXED_SIZE + 4 * 2 + network.length + from.length + to.length + band.length;
+		if(buf.remaining() < 2 + length)
+			return false;
+
+		buf.putShort((short) length);
+		buf.putLong(slot.getTime());
+		buf.putLong(versionId(quote.getConfigVersion()));
+		buf.put((byte) (slot.getVehicleType() == null ? 0 : slot.getVehicleType().ordinal() + 1));
+		buf.put((byte) (withType == null || withType.getDirection() == null ? 0 : "westbound".equals(withType.getDirection()) ? 2 : 1));
+		buf.putLong(quote.getDistance() == null ? NULL_FIXED : quote.getDistance().getFixed());
+		buf.putLong(quote.getCost() == null ? NULL_FIXED : quote.getCost().getUnits());
+		buf.putLong(withType == null || withType.getKmRate() == null ? NULL_FIXED : withType.getKmRate().getUnits());
+		buf.putLong(withType == null || withType.getTripCharge() == null ? NULL_FIXED : withType.getTripCharge().getUnits());
+		putString(buf, network);
+		putString(buf, from);
+		putString(buf, to);
+		putString(buf, band);
+		return true;
+	}
+
+	/**
+	 * Read the record at the buffer position.
+	 *
+	 * @return null at the end of the buffer or at a record cut short
+	 */
+	static AuditRecord decode(ByteBuffer buf) {
+
+		if(buf.remaining() < 2)
+			return null;
+		int length = buf.getShort(buf.position()) & 0xFFFF;
+		if(length < FIXED_SIZE || buf.remaining() < 2 + length)
+			return null;
+
+		ByteBuffer record = buf.duplicate();
+		record.position(buf.position() + 2).limit(buf.position() + 2 + length);
+		try {
+			long time = record.getLong();
+			long version = record.getLong();
+			int type = record.get();
+			int direction = record.get();
+			long distance = record.getLong();
+			long cost = record.getLong();
+			long kmRate = record.getLong();
+			long tripCharge = record.getLong();
+			String network = getString(record);
+			String from = getString(record);
+			String to = getString(record);
+			String band = getString(record);
+
+			VehicleTypeEnum[] types = VehicleTypeEnum.values();
+			buf.position(record.limit());
+			return new AuditRecord(time, network, String.format(Locale.ROOT, "%012x", version), from, to,
+					type > 0 && type <= types.length ? types[type - 1] : null,
+					direction == 2 ? "westbound" : direction == 1 ? "eastbound" : null, band,
+					distance == NULL_FIXED ? null : Distance.ofFixed(distance), money(cost), money(kmRate), money(tripCharge));
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	//null for the default network
+	public String getNetwork() {
+		return network;
+	}
+
+	public String getConfigVersion() {
+		return configVersion;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	//null for a distance-only quote
+	public VehicleTypeEnum getVehicleType() {
+		return vehicleType;
+	}
+
+	public String getDirection() {
+		return direction;
+	}
+
+	public String getRateBand() {
+		return rateBand;
+	}
+
+	public Distance getDistance() {
+		return distance;
+	}
+
+	//Distance-only quotes
+	public Money getCost() {
+		return cost;
+	}
+
+	public Money getKmRate() {
+		return kmRate;
+	}
+
+	public Money getTripCharge() {
+		return tripCharge;
+	}
+
+	/**
+	 * time,network,configVersion,from,to,vehicleType,direction,rateBand,distance,cost,kmRate,tripCharge
+	 */
+	public String toCsv() {
+		StringBuilder line = new StringBuilder(128);
+		line.append(Instant.ofEpochMilli(time)).append(',')
+			.append(csv(network)).append(',')
+			.append(configVersion).append(',')
+			.append(csv(from)).append(',')
+			.append(csv(to)).append(',')
+			.append(vehicleType == null ? "" : vehicleType.getType()).append(',')
+			.append(direction == null ? "" : direction).append(',')
+			.append(csv(rateBand)).append(',')
+			.append(distance == null ? "" : distance.toString()).append(',')
+			.append(cost == null ? "" : cost.toString()).append(',')
+			.append(kmRate == null ? "" : kmRate.toString()).append(',')
+			.append(tripCharge == null ? "" : tripCharge.toString());
+		return line.toString();
+	}
+
+	//Config versions are 12 hex digits, anything else is 0
+	private static long versionId(String version) {
+		try {
+			return version == null ? 0 : Long.parseUnsignedLong(version, 16);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static Money money(long units) {
+		return units == NULL_FIXED ? null : Money.ofUnits(units);
+	}
+
+	private static byte[] utf8(String text) {
+		if(text == null)
+			return new byte[0];
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length <= MAX_STRING)
+			return bytes;
+		byte[] cut = new byte[MAX_STRING];
+		System.arraycopy(bytes, 0, cut, 0, MAX_STRING);
+		return cut;
+	}
+
+	private static void putString(ByteBuffer buf, byte[] bytes) {
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int length = buf.getShort() & 0xFFFF;
+		if(length == 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String csv(String text) {
+		if(text == null)
+			return "";
+		if(text.indexOf(',') < 0 && text.indexOf('"') < 0)
+			return text;
+		return "\"" + text.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,164 @@
+package com.etr.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.etr.model.CostResponse;
+import com.etr.model.VehicleTypeEnum;
+
+/**
+ * Bounded ring of quotes waiting to be written, many producers, one consumer, no lock.
+ *
+ * A producer claims a position with a CAS on the tail, fills the preallocated slot with
+ * references to the quote, then publishes it by setting the slot sequence. Nothing is copied
+ * or encoded on the producer side. When the ring is full the quote is dropped and counted,
+ * a request never waits for the writer.
+ *
+ * The consumer reads published slots in order, clears them and moves the head on, which
+ * frees them for the producers.
+ */
+public final class AuditRingBuffer {
+
+	/**
+	 * One quote, owned by the consumer between publish and release.
+	 */
+	public static final class Slot {
+		long time;
+		String network;
+		String from;
+		String to;
+		VehicleTypeEnum vehicleType;
+		CostResponse quote;
+
+		public long getTime() {
+			return time;
+		}
+
+		//null for the default network
+		public String getNetwork() {
+			return network;
+		}
+
+		public String getFrom() {
+			return from;
+		}
+
+		public String getTo() {
+			return to;
+		}
+
+		//null for a distance-only quote
+		public VehicleTypeEnum getVehicleType() {
+			return vehicleType;
+		}
+
+		public CostResponse getQuote() {
+			return quote;
+		}
+	}
+
+	/**
+	 * Consumer of drained slots, the slot is reused once it returns.
+	 */
+	public interface SlotHandler {
+		void handle(Slot slot);
+	}
+
+	private final Slot[] slots;
+	private final int mask;
+	//Position + 1 once the slot at the position is published
+	private final AtomicLongArray sequences;
+
+	//Next position to claim
+	private final AtomicLong tail = new AtomicLong();
+	//Next position to consume, written by the consumer only
+	private volatile long head;
+
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * @param capacity: rounded up to a power of 2
+	 */
+	public AuditRingBuffer(int capacity) {
+		if(capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Audit buffer capacity must be 1 to 2^30 -- " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+			size <<= 1;
+		slots = new Slot[size];
+		for(int i = 0; i < size; i++)
+			slots[i] = new Slot();
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+	}
+
+	/**
+	 * Add a quote, from any thread.
+	 *
+	 * @return false when the ring is full and the quote was dropped
+	 */
+	public boolean offer(long time, String network, String from, String to, VehicleTypeEnum vehicleType, CostResponse quote) {
+
+		long position;
+		do {
+			position = tail.get();
+			if(position - head >= slots.length) {
+				dropped.increment();
+				return false;
+			}
+		} while(!tail.compareAndSet(position, position + 1));
+
+		int index = (int) position & mask;
+		Slot slot = slots[index];
+		slot.time = time;
+		slot.network = network;
+		slot.from = from;
+		slot.to = to;
+		slot.vehicleType = vehicleType;
+		slot.quote = quote;
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Hand up to max published quotes to the handler, in order. Consumer thread only.
+	 *
+	 * @return the number of quotes handled
+	 */
+	public int drain(int max, SlotHandler handler) {
+
+		long position = head;
+		int count = 0;
+		while(count < max) {
+			int index = (int) position & mask;
+			if(sequences.get(index) != position + 1)
+				break;
+			Slot slot = slots[index];
+			handler.handle(slot);
+			slot.network = null;
+			slot.from = null;
+			slot.to = null;
+			slot.vehicleType = null;
+			slot.quote = null;
+			position++;
+			count++;
+		}
+		if(count > 0)
+			head = position;
+		return count;
+	}
+
+	//Claimed and not yet drained
+	public long getDepth() {
+		return Math.max(0, tail.get() - head);
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+}
@@ -0,0 +1,349 @@
+package com.etr.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.etr.model.CostResponse;
+import com.etr.model.ItineraryLeg;
+import com.etr.model.ItineraryResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.QuoteResponseCache;
+
+/**
+ * Every priced quote, kept in append-only files for the regulator.
+ *
+ * Only active when tripcalculator.audit.dir is set. A request thread only puts references to
+ * the quote in an AuditRingBuffer, it never encodes, writes or waits: when the buffer is full
+ * the quote is dropped and counted. One writer thread drains the buffer in batches, encodes a
+ * batch into one buffer, see AuditRecord for the format, writes it and forces it to disk once,
+ * so an fsync is shared by every quote of the batch. Files are named
+ * quotes-&lt;created millis&gt;-&lt;n&gt;.audit, a new one is started when the current one
+ * reaches tripcalculator.audit.max-file-mb. Read them back with AuditLogReader or AuditLogCli.
+ */
+@Component
+public class QuoteAuditLog {
+
+	private static Logger logger = LoggerFactory.getLogger(QuoteAuditLog.class);
+
+	public static final String FILE_PREFIX = "quotes-";
+	public static final String FILE_SUFFIX = ".audit";
+
+	//Largest encoded record, 4 strings of at most 1 KB
+	private static final int MAX_RECORD = 8 * 1024;
+
+	@Value("${tripcalculator.audit.dir:}")
+	private String auditDirectory;
+
+	@Value("${tripcalculator.audit.buffer-size:65536}")
+	private int bufferSize = 65536;
+
+	@Value("${tripcalculator.audit.batch-size:1024}")
+	private int batchSize = 1024;
+
+	@Value("${tripcalculator.audit.max-file-mb:64}")
+	private long maxFileMb = 64;
+
+	//How long the writer sleeps when the buffer is empty
+	@Value("${tripcalculator.audit.flush-millis:10}")
+	private long flushMillis = 10;
+
+	private volatile AuditRingBuffer ring;
+	private volatile boolean running;
+	private Thread writer;
+
+	//Writer thread only
+	private ByteBuffer batch;
+	private FileChannel channel;
+	private Path file;
+	private long fileBytes;
+	private int fileSequence;
+
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong fsyncs = new AtomicLong();
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong writeErrors = new AtomicLong();
+
+	@PostConstruct
+	public void start() throws IOException {
+
+		if(auditDirectory == null || auditDirectory.trim().isEmpty() || ring != null)
+			return;
+		if(batchSize < 1 || maxFileMb < 1)
+			throw new IllegalStateException("Audit batch size and max file size must be positive");
+
+		Files.createDirectories(getDirectory());
+		batch = ByteBuffer.allocateDirect(Math.max(256 * 1024, MAX_RECORD));
+		ring = new AuditRingBuffer(bufferSize);
+		running = true;
+
+		writer = new Thread(this::write, "quote-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		logger.info("Auditing quotes to " + getDirectory() + ", buffer of " + ring.getCapacity());
+	}
+
+	/**
+	 * Write what is buffered and close the current file.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+
+		Thread thread = writer;
+		if(thread == null)
+			return;
+		running = false;
+		LockSupport.unpark(thread);
+		thread.join(TimeUnit.SECONDS.toMillis(10));
+		writer = null;
+	}
+
+	/**
+	 * Audit a priced quote, from a request thread. Does nothing when auditing is off.
+	 *
+	 * @param network: network id, null for the default network
+	 * @param from: entry location name
+	 * @param to: exit location name
+	 * @param vehicleType: null for a distance-only quote
+	 * @param quote: not modified afterwards
+	 */
+	public void record(String network, String from, String to, VehicleTypeEnum vehicleType, CostResponse quote) {
+
+		AuditRingBuffer buffer = ring;
+		if(!running || quote == null)
+			return;
+		if(buffer.offer(System.currentTimeMillis(), network, from, to, vehicleType, quote))
+			recorded.incrementAndGet();
+	}
+
+	/**
+	 * Audit a quote served from the QuoteResponseCache, priced only when auditing is on.
+	 *
+	 * @param network: network id, null for the default network
+	 */
+	public void record(String network, QuoteResponseCache.Quote quote) {
+		if(running)
+			record(network, quote.getFromName(), quote.getToName(), quote.getVehicleType(), quote.getResponse());
+	}
+
+	/**
+	 * Audit a priced itinerary as one quote from its first to its last stop, with its totals.
+	 *
+	 * @param network: network id, null for the default network
+	 * @param vehicleType: null for a distance-only quote
+	 */
+	public void record(String network, ItineraryResponse itinerary, VehicleTypeEnum vehicleType) {
+		List<ItineraryLeg> legs = itinerary.getLegs();
+		if(running && legs != null && !legs.isEmpty())
+			record(network, legs.get(0).getFromLocation(), legs.get(legs.size() - 1).getToLocation(), vehicleType, itinerary);
+	}
+
+	public boolean isEnabled() {
+		return running;
+	}
+
+	//Quotes accepted by the buffer
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	//Quotes in the buffer, not written yet
+	public long getDepth() {
+		AuditRingBuffer buffer = ring;
+		return buffer == null ? 0 : buffer.getDepth();
+	}
+
+	//Quotes not audited because the buffer was full
+	public long getDroppedCount() {
+		AuditRingBuffer buffer = ring;
+		return buffer == null ? 0 : buffer.getDroppedCount();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public Map<String, Object> toMap() {
+
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		AuditRingBuffer buffer = ring;
+		map.put("enabled", running);
+		map.put("capacity", buffer == null ? 0 : buffer.getCapacity());
+		map.put("depth", getDepth());
+		map.put("recorded", recorded.get());
+		map.put("dropped", getDroppedCount());
+		map.put("written", written.get());
+		map.put("lost", lost.get());
+		map.put("batches", batches.get());
+		map.put("fsyncs", fsyncs.get());
+		map.put("files", files.get());
+		map.put("bytes", bytes.get());
+		map.put("writeErrors", writeErrors.get());
+		return map;
+	}
+
+	private void write() {
+
+		AuditRingBuffer buffer = ring;
+		while(true) {
+			//Read before draining, so the last quotes are written once stopped
+			boolean stopping = !running;
+			int count = buffer.drain(batchSize, this::encode);
+			if(count > 0) {
+				flush(true);
+				batches.incrementAndGet();
+			} else if(stopping) {
+				break;
+			} else {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushMillis));
+			}
+		}
+		close();
+	}
+
+	private void encode(AuditRingBuffer.Slot slot) {
+		if(AuditRecord.encode(batch, slot) || (flush(false) && AuditRecord.encode(batch, slot)))
+			return;
+		lost.incrementAndGet();
+	}
+
+	/**
+	 * Write the batch buffer to the current file, rotating first if it would grow too big.
+	 *
+	 * @param force: fsync after writing
+	 * @return false when the batch was lost to a write error
+	 */
+	private boolean flush(boolean force) {
+
+		batch.flip();
+		int records = countRecords();
+		try {
+			if(batch.hasRemaining()) {
+				if(channel == null || fileBytes + batch.remaining() > maxFileMb * 1024 * 1024)
+					rotate();
+				int size = batch.remaining();
+				while(batch.hasRemaining())
+					channel.write(batch);
+				fileBytes += size;
+				bytes.addAndGet(size);
+				written.addAndGet(records);
+			}
+			if(force && channel != null) {
+				channel.force(false);
+				fsyncs.incrementAndGet();
+			}
+			return true;
+		} catch (IOException e) {
+			writeErrors.incrementAndGet();
+			lost.addAndGet(records);
+			logger.error("Quote audit write to " + file + " failed, " + records + " quotes lost -- " + e.getMessage());
+			//Start a new file with the next batch
+			closeQuietly();
+			return false;
+		} finally {
+			batch.clear();
+		}
+	}
+
+	private int countRecords() {
+		int count = 0;
+		for(int position = batch.position(); position + 2 <= batch.limit(); position += 2 + (batch.getShort(position) & 0xFFFF))
+			count++;
+		return count;
+	}
+
+	private void rotate() throws IOException {
+
+		if(channel != null) {
+			channel.force(false);
+			fsyncs.incrementAndGet();
+			closeQuietly();
+		}
+
+		long now = System.currentTimeMillis();
+		file = getDirectory().resolve(String.format("%s%013d-%04d%s", FILE_PREFIX, now, fileSequence++ % 10000, FILE_SUFFIX));
+		channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+		ByteBuffer header = ByteBuffer.allocate(AuditRecord.HEADER_SIZE);
+		header.putInt(AuditRecord.MAGIC).putInt(AuditRecord.FORMAT_VERSION).putLong(now).flip();
+		while(header.hasRemaining())
+			channel.write(header);
+		fileBytes = AuditRecord.HEADER_SIZE;
+		bytes.addAndGet(AuditRecord.HEADER_SIZE);
+		files.incrementAndGet();
+	}
+
+	private void close() {
+		if(channel == null)
+			return;
+		try {
+			channel.force(false);
+			fsyncs.incrementAndGet();
+		} catch (IOException e) {
+			writeErrors.incrementAndGet();
+			logger.error("Quote audit fsync of " + file + " failed -- " + e.getMessage());
+		}
+		closeQuietly();
+	}
+
+	private void closeQuietly() {
+		try {
+			if(channel != null)
+				channel.close();
+		} catch (IOException e) {
+			//nothing more to write to it
+		}
+		channel = null;
+	}
+
+	private Path getDirectory() {
+		return Paths.get(auditDirectory.trim());
+	}
+
+	public String getAuditDirectory() {
+		return auditDirectory;
+	}
+
+	public void setAuditDirectory(String auditDirectory) {
+		this.auditDirectory = auditDirectory;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMaxFileMb(long maxFileMb) {
+		this.maxFileMb = maxFileMb;
+	}
+
+	public void setFlushMillis(long flushMillis) {
+		this.flushMillis = flushMillis;
+	}
+}
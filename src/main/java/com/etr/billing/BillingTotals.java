@@ -0,0 +1,109 @@
+package com.etr.billing;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.etr.model.Distance;
+import com.etr.model.Money;
+
+/**
+ * Totals of a billing run per vehicle class.
+ *
+ * Not thread safe, every chunk keeps its own totals and they are merged afterwards.
+ */
+public class BillingTotals {
+
+	//Class name used for trips priced without a vehicle type
+	public static final String NO_VEHICLE_TYPE = "none";
+
+	//Key: vehicle type
+	private final Map<String, ClassTotal> totals = new TreeMap<String, ClassTotal>();
+
+	void add(String vehicleType, Distance distance, Money cost, Money tripCharge) {
+		ClassTotal total = get(vehicleType);
+		total.trips++;
+		total.distance = total.distance.plus(distance);
+		total.cost = total.cost.plus(cost);
+		total.tripCharge = total.tripCharge.plus(tripCharge);
+	}
+
+	void addError(String vehicleType) {
+		get(vehicleType).errors++;
+	}
+
+	void merge(BillingTotals other) {
+		for(Map.Entry<String, ClassTotal> entry: other.totals.entrySet()) {
+			ClassTotal total = get(entry.getKey());
+			ClassTotal add = entry.getValue();
+			total.trips += add.trips;
+			total.errors += add.errors;
+			total.distance = total.distance.plus(add.distance);
+			total.cost = total.cost.plus(add.cost);
+			total.tripCharge = total.tripCharge.plus(add.tripCharge);
+		}
+	}
+
+	private ClassTotal get(String vehicleType) {
+		ClassTotal total = totals.get(vehicleType);
+		if(total == null) {
+			total = new ClassTotal();
+			totals.put(vehicleType, total);
+		}
+		return total;
+	}
+
+	/**
+	 * @return totals sorted by vehicle type
+	 */
+	public Map<String, ClassTotal> getTotals() {
+		return totals;
+	}
+
+	public long getTotalTrips() {
+		long trips = 0;
+		for(ClassTotal total: totals.values())
+			trips += total.trips;
+		return trips;
+	}
+
+	/**
+	 * CSV with one line per vehicle class.
+	 */
+	public String toCsv() {
+		StringBuilder sb = new StringBuilder("vehicleType,trips,errors,distance,cost,tripCharge\n");
+		for(Map.Entry<String, ClassTotal> entry: totals.entrySet()) {
+			ClassTotal total = entry.getValue();
+			sb.append(entry.getKey()).append(',')
+				.append(total.trips).append(',')
+				.append(total.errors).append(',')
+				.append(total.distance).append(',')
+				.append(total.cost).append(',')
+				.append(total.tripCharge).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public static class ClassTotal {
+		private long trips;
+		private long errors;
+		private Distance distance = Distance.ZERO;
+		private Money cost = Money.ZERO;
+		private Money tripCharge = Money.ZERO;
+
+		public long getTrips() {
+			return trips;
+		}
+		public long getErrors() {
+			return errors;
+		}
+		public Distance getDistance() {
+			return distance;
+		}
+		public Money getCost() {
+			return cost;
+		}
+		public Money getTripCharge() {
+			return tripCharge;
+		}
+	}
+}
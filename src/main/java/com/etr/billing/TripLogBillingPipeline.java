@@ -0,0 +1,287 @@
+package com.etr.billing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.Money;
+import com.etr.service.CostConfigurator;
+
+/**
+ * Price a CSV trip log offline.
+ *
+ * Input lines are "fromLocation,toLocation[,vehicleType[,tripTime]]", an optional header line
+ * starting with "fromLocation" is skipped. Names can't contain commas, there is no quoting.
+ * tripTime is ISO-8601 and selects the rate schedule band, see RateSchedule.
+ *
+ * The input file is memory-mapped and split into line-aligned chunks that are priced in
+ * parallel on a fork-join pool. Each chunk writes to its own part file, the parts are
+ * concatenated in input order at the end, so the output lines follow the input lines.
+ */
+public class TripLogBillingPipeline {
+
+	private static Logger logger = LoggerFactory.getLogger(TripLogBillingPipeline.class);
+
+	public static final String OUTPUT_HEADER = "fromLocation,toLocation,vehicleType,distance,cost,direction,kmRate,tripCharge,error";
+
+	//Default chunk size, small enough to keep every core busy, large enough to amortize a mapping
+	public static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+
+	private final CostConfigurator costConfigurator;
+	private final long chunkSize;
+
+	public TripLogBillingPipeline(CostConfigurator costConfigurator) {
+		this(costConfigurator, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param costConfigurator: loaded configurator used to price every line
+	 * @param chunkSize: target chunk size in bytes, chunks are extended to the next line end
+	 */
+	public TripLogBillingPipeline(CostConfigurator costConfigurator, long chunkSize) {
+		if(chunkSize <= 0 || chunkSize > Integer.MAX_VALUE / 2)
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + Integer.MAX_VALUE / 2);
+		this.costConfigurator = costConfigurator;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Price every line of the input and write the priced output.
+	 *
+	 * @param input: trip log CSV
+	 * @param output: priced CSV, overwritten
+	 * @param parallelism: number of worker threads
+	 * @return totals per vehicle class
+	 * @throws IOException
+	 */
+	public BillingTotals run(Path input, Path output, int parallelism) throws IOException {
+
+		long start = System.nanoTime();
+		List<Path> parts = new ArrayList<Path>();
+
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+
+			List<long[]> chunks = split(channel);
+			for(int i = 0; i < chunks.size(); i++)
+				parts.add(output.resolveSibling(output.getFileName() + ".part" + i));
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			BillingTotals totals;
+			try {
+				totals = pool.invoke(new ChunkTask(channel, chunks, parts, 0, chunks.size()));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				pool.shutdown();
+			}
+
+			concatenate(parts, output);
+
+			logger.info("Priced " + totals.getTotalTrips() + " trips in " + chunks.size() + " chunks, "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			return totals;
+		} finally {
+			for(Path part: parts)
+				Files.deleteIfExists(part);
+		}
+	}
+
+	/**
+	 * Split the file into [start, end) ranges that end right after a line break.
+	 */
+	List<long[]> split(FileChannel channel) throws IOException {
+
+		long size = channel.size();
+		List<long[]> chunks = new ArrayList<long[]>();
+
+		long start = 0;
+		while(start < size) {
+			long end = Math.min(start + chunkSize, size);
+			if(end < size)
+				end = nextLineStart(channel, end, size);
+			chunks.add(new long[] {start, end});
+			start = end;
+		}
+		return chunks;
+	}
+
+	private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		long pos = position;
+		while(pos < size) {
+			buf.clear();
+			int read = channel.read(buf, pos);
+			if(read <= 0)
+				break;
+			for(int i = 0; i < read; i++) {
+				if(buf.get(i) == '\n')
+					return pos + i + 1;
+			}
+			pos += read;
+		}
+		return size;
+	}
+
+	private static void concatenate(List<Path> parts, Path output) throws IOException {
+
+		try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			out.write(ByteBuffer.wrap((OUTPUT_HEADER + "\n").getBytes(StandardCharsets.UTF_8)));
+			for(Path part: parts) {
+				try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+					long position = 0;
+					long size = in.size();
+					while(position < size)
+						position += in.transferTo(position, size - position, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Price one chunk into its part file.
+	 */
+	BillingTotals priceChunk(FileChannel channel, long start, long end, Path part) throws IOException {
+
+		BillingTotals totals = new BillingTotals();
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		int limit = buffer.limit();
+
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(part), StandardCharsets.UTF_8), 1 << 16)) {
+
+			StringBuilder line = new StringBuilder(128);
+			byte[] bytes = new byte[256];
+			int lineStart = 0;
+			for(int i = 0; i <= limit; i++) {
+				if(i < limit && buffer.get(i) != '\n')
+					continue;
+
+				int lineEnd = i;
+				if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+					lineEnd--;
+				int length = lineEnd - lineStart;
+
+				if(length > 0) {
+					if(bytes.length < length)
+						bytes = new byte[length * 2];
+					for(int j = 0; j < length; j++)
+						bytes[j] = buffer.get(lineStart + j);
+					String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+
+					if(!(start == 0 && lineStart == 0 && text.startsWith("fromLocation"))) {
+						line.setLength(0);
+						priceLine(text, line, totals);
+						writer.append(line).append('\n');
+					}
+				}
+				lineStart = i + 1;
+			}
+		}
+		return totals;
+	}
+
+	/**
+	 * Price one CSV line and append the priced CSV line to out.
+	 */
+	void priceLine(String text, StringBuilder out, BillingTotals totals) {
+
+		String[] fields = text.split(",", -1);
+		String from = fields.length > 0 ? fields[0].trim() : "";
+		String to = fields.length > 1 ? fields[1].trim() : "";
+		String vehicleType = fields.length > 2 ? fields[2].trim() : "";
+		String tripTime = fields.length > 3 ? fields[3].trim() : "";
+
+		out.append(from).append(',').append(to).append(',').append(vehicleType).append(',');
+
+		try {
+			if(fields.length < 2)
+				throw new IllegalArgumentException("fromLocation and toLocation are required.");
+
+			if(vehicleType.isEmpty()) {
+				CostResponse resp = costConfigurator.getCostBetweenLocations(from, to);
+				out.append(resp.getDistance()).append(',')
+					.append(resp.getCost()).append(",,,,");
+				totals.add(BillingTotals.NO_VEHICLE_TYPE, resp.getDistance(), resp.getCost(), resp.getCost());
+			}
+			else {
+				CostWithVehicleTypeResponse resp = (CostWithVehicleTypeResponse) costConfigurator.getCostWithVehicleType(from, to, vehicleType,
+						tripTime.isEmpty() ? null : costConfigurator.parseTripTime(tripTime));
+				Money cost = resp.getDistanceCost();
+				out.append(resp.getDistance()).append(',')
+					.append(cost).append(',')
+					.append(resp.getDirection()).append(',')
+					.append(resp.getKmRate()).append(',')
+					.append(resp.getTripCharge()).append(',');
+				totals.add(vehicleType, resp.getDistance(), cost, resp.getTripCharge());
+			}
+		} catch (IllegalArgumentException e) {
+			out.append(",,,,,").append(e.getMessage());
+			totals.addError(vehicleType.isEmpty() ? BillingTotals.NO_VEHICLE_TYPE : vehicleType);
+		}
+	}
+
+	/**
+	 * Split the chunk list in halves until one chunk is left, totals are merged on join.
+	 */
+	@SuppressWarnings("serial")
+	private class ChunkTask extends RecursiveTask<BillingTotals> {
+
+		private final FileChannel channel;
+		private final List<long[]> chunks;
+		private final List<Path> parts;
+		private final int from;
+		private final int to;
+
+		ChunkTask(FileChannel channel, List<long[]> chunks, List<Path> parts, int from, int to) {
+			this.channel = channel;
+			this.chunks = chunks;
+			this.parts = parts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected BillingTotals compute() {
+
+			if(to - from == 0)
+				return new BillingTotals();
+
+			if(to - from == 1) {
+				long[] chunk = chunks.get(from);
+				try {
+					return priceChunk(channel, chunk[0], chunk[1], parts.get(from));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			int middle = (from + to) >>> 1;
+			ChunkTask left = new ChunkTask(channel, chunks, parts, from, middle);
+			ChunkTask right = new ChunkTask(channel, chunks, parts, middle, to);
+			left.fork();
+			BillingTotals totals = right.compute();
+			totals.merge(left.join());
+			return totals;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.etr.binary;
+
+import static com.etr.binary.BinaryQuoteProtocol.KIND_VEHICLE;
+import static com.etr.binary.BinaryQuoteProtocol.LOCATIONS_REQUEST_LENGTH;
+import static com.etr.binary.BinaryQuoteProtocol.OP_LOCATIONS;
+import static com.etr.binary.BinaryQuoteProtocol.OP_QUOTE;
+import static com.etr.binary.BinaryQuoteProtocol.QUOTE_REQUEST_LENGTH;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_BAD_REQUEST;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_OK;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_STALE_VERSION;
+import static com.etr.binary.BinaryQuoteProtocol.readDistance;
+import static com.etr.binary.BinaryQuoteProtocol.readMoney;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.VehicleTypeEnum;
+
+/**
+ * Client of the binary quote protocol, one connection, not thread-safe.
+ *
+ * fetchLocations gets the names by ordinal and the config version they belong to. Quotes are
+ * then sent with sendQuote, several in a row if needed, flushed, and their responses read
+ * with receive, in the same order. A quote answered STATUS_STALE_VERSION was sent against an
+ * older config, fetch the locations again and resend it.
+ */
+public class BinaryQuoteClient implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	private int nextId;
+	private long version;
+	private String[] names = new String[0];
+	//Key: location name; Value: ordinal
+	private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+
+	public BinaryQuoteClient(String host, int port) throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(host, port));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+	}
+
+	/**
+	 * Fetch the location names of the current config. No quote may be waiting for its response.
+	 *
+	 * @return the names, by ordinal
+	 * @throws IOException
+	 */
+	public String[] fetchLocations() throws IOException {
+
+		int id = nextId++;
+		out.writeInt(LOCATIONS_REQUEST_LENGTH);
+		out.writeByte(OP_LOCATIONS);
+		out.writeInt(id);
+		out.flush();
+
+		in.readInt();
+		checkId(id, in.readInt());
+		byte status = in.readByte();
+		if(status == STATUS_BAD_REQUEST)
+			throw new IOException("Locations request failed -- " + in.readUTF());
+		if(status != STATUS_OK)
+			throw new IOException("Locations request failed with status " + status);
+
+		long version = in.readLong();
+		String[] names = new String[in.readInt()];
+		Map<String, Integer> ordinals = new HashMap<String, Integer>(names.length * 2);
+		for(int i = 0; i < names.length; i++) {
+			names[i] = in.readUTF();
+			ordinals.put(names[i], i);
+		}
+		this.version = version;
+		this.names = names;
+		this.ordinals = ordinals;
+		return names;
+	}
+
+	/**
+	 * @return the ordinal of a name in the fetched locations, -1 if unknown.
+	 */
+	public int ordinalOf(String name) {
+		Integer ordinal = ordinals.get(name);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * Buffer a quote request, see flush.
+	 *
+	 * @param vehicleType: null for the distance cost only
+	 * @param tripTime: epoch milliseconds, BinaryQuoteProtocol.NO_TRIP_TIME for the base rates
+	 * @return the request id
+	 * @throws IOException
+	 */
+	public int sendQuote(int fromOrdinal, int toOrdinal, VehicleTypeEnum vehicleType, long tripTime) throws IOException {
+
+		int id = nextId++;
+		out.writeInt(QUOTE_REQUEST_LENGTH);
+		out.writeByte(OP_QUOTE);
+		out.writeInt(id);
+		out.writeLong(version);
+		out.writeInt(fromOrdinal);
+		out.writeInt(toOrdinal);
+		out.writeByte(vehicleType == null ? 0 : vehicleType.ordinal() + 1);
+		out.writeLong(tripTime);
+		return id;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Read the response of the oldest quote sent.
+	 *
+	 * @throws IOException
+	 */
+	public Response receive() throws IOException {
+
+		in.readInt();
+		Response resp = new Response(in.readInt(), in.readByte());
+		if(resp.status == STATUS_OK) {
+			boolean withType = in.readByte() == KIND_VEHICLE;
+			CostResponse quote = withType ? new CostWithVehicleTypeResponse() : new CostResponse();
+			quote.setDistance(readDistance(in));
+			if(!withType) {
+				quote.setCost(readMoney(in));
+			}
+			else {
+				CostWithVehicleTypeResponse withTypeQuote = (CostWithVehicleTypeResponse) quote;
+				withTypeQuote.setKmRate(readMoney(in));
+				withTypeQuote.setTripCharge(readMoney(in));
+				withTypeQuote.setDirection(in.readUTF());
+				String band = in.readUTF();
+				withTypeQuote.setRateBand(band.isEmpty() ? null : band);
+			}
+			resp.quote = quote;
+		}
+		else if(resp.status == STATUS_STALE_VERSION) {
+			resp.currentVersion = in.readLong();
+		}
+		else if(resp.status == STATUS_BAD_REQUEST) {
+			resp.message = in.readUTF();
+		}
+		else {
+			throw new IOException("Unknown response status " + resp.status);
+		}
+		return resp;
+	}
+
+	/**
+	 * One quote, sent and answered.
+	 *
+	 * @throws IOException
+	 */
+	public Response quote(int fromOrdinal, int toOrdinal, VehicleTypeEnum vehicleType, long tripTime) throws IOException {
+		sendQuote(fromOrdinal, toOrdinal, vehicleType, tripTime);
+		flush();
+		return receive();
+	}
+
+	//Config version of the fetched locations, as sent on the wire
+	public long getVersion() {
+		return version;
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	private static void checkId(int expected, int id) throws IOException {
+		if(id != expected)
+			throw new IOException("Response to request " + id + ", expected " + expected);
+	}
+
+	/**
+	 * The response to one quote.
+	 */
+	public static final class Response {
+		private final int id;
+		private final byte status;
+		private CostResponse quote;
+		private String message;
+		private long currentVersion;
+
+		Response(int id, byte status) {
+			this.id = id;
+			this.status = status;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		//BinaryQuoteProtocol.STATUS_*
+		public byte getStatus() {
+			return status;
+		}
+
+		//STATUS_OK only, a CostWithVehicleTypeResponse when sent with a vehicle type
+		public CostResponse getQuote() {
+			return quote;
+		}
+
+		//STATUS_BAD_REQUEST only
+		public String getMessage() {
+			return message;
+		}
+
+		//STATUS_STALE_VERSION only
+		public long getCurrentVersion() {
+			return currentVersion;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.etr.binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.etr.model.Distance;
+import com.etr.model.Money;
+
+/**
+ * Frames of the binary quote protocol, for internal callers that quote at high volume.
+ *
+ * Every frame is an int length, the bytes that follow it, then the frame body. Big-endian.
+ * <pre>
+ * request   op (byte), request id (int), payload
+ * response  request id (int), status (byte), payload
+ *
+ * LOCATIONS request   -
+ *           response  config version (long), location count (int), names by ordinal (UTF)
+ * QUOTE     request   config version (long), from ordinal (int), to ordinal (int),
+ *                     vehicle type (byte, 0 for none, else VehicleTypeEnum ordinal + 1),
+ *                     trip time (long, epoch milliseconds, NO_TRIP_TIME for the base rates)
+ *           response  kind (byte, 0 distance only, 1 with vehicle type), distance (long),
+ *                     distance only: cost (money), with vehicle type: km rate, trip charge
+ *                     (money), direction, rate band (UTF, empty for the base rates)
+ *
+ * STATUS_BAD_REQUEST     message (UTF)
+ * STATUS_STALE_VERSION   current config version (long)
+ * </pre>
+ * A distance is a long of millionths of a km, money a long of ten-thousandths, see Distance and
+ * Money. UTF is DataOutput.writeUTF.
+ *
+ * Locations are ordinals of the config version fetched with LOCATIONS, no name is sent or
+ * resolved per quote. A quote of another version is answered STATUS_STALE_VERSION, the caller
+ * fetches the locations again. Requests may be pipelined, the responses come in request order
+ * and carry the request id.
+ */
+public final class BinaryQuoteProtocol {
+
+	public static final byte OP_LOCATIONS = 1;
+	public static final byte OP_QUOTE = 2;
+
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_BAD_REQUEST = 1;
+	public static final byte STATUS_STALE_VERSION = 2;
+
+	public static final byte KIND_DISTANCE = 0;
+	public static final byte KIND_VEHICLE = 1;
+
+	public static final long NO_TRIP_TIME = Long.MIN_VALUE;
+
+	//Frame lengths, without the length field
+	public static final int LOCATIONS_REQUEST_LENGTH = 1 + 4;
+	public static final int QUOTE_REQUEST_LENGTH = 1 + 4 + 8 + 4 + 4 + 1 + 8;
+	public static final int MAX_REQUEST_FRAME = 1024;
+
+	private BinaryQuoteProtocol() {
+	}
+
+	/**
+	 * The config version as sent on the wire, the 12 hex digits of the version as a long.
+	 *
+	 * @throws IllegalArgumentException -- not a hex version.
+	 */
+	public static long versionId(String version) throws IllegalArgumentException {
+		try {
+			return Long.parseUnsignedLong(version, 16);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Config version " + version + " is not hexadecimal");
+		}
+	}
+
+	public static void writeMoney(DataOutput out, Money value) throws IOException {
+		out.writeLong(value.getUnits());
+	}
+
+	public static Money readMoney(DataInput in) throws IOException {
+		return Money.ofUnits(in.readLong());
+	}
+
+	public static void writeDistance(DataOutput out, Distance value) throws IOException {
+		out.writeLong(value.getFixed());
+	}
+
+	public static Distance readDistance(DataInput in) throws IOException {
+		return Distance.ofFixed(in.readLong());
+	}
+}
@@ -0,0 +1,302 @@
+package com.etr.binary;
+
+import static com.etr.binary.BinaryQuoteProtocol.KIND_DISTANCE;
+import static com.etr.binary.BinaryQuoteProtocol.KIND_VEHICLE;
+import static com.etr.binary.BinaryQuoteProtocol.LOCATIONS_REQUEST_LENGTH;
+import static com.etr.binary.BinaryQuoteProtocol.MAX_REQUEST_FRAME;
+import static com.etr.binary.BinaryQuoteProtocol.NO_TRIP_TIME;
+import static com.etr.binary.BinaryQuoteProtocol.OP_LOCATIONS;
+import static com.etr.binary.BinaryQuoteProtocol.OP_QUOTE;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_BAD_REQUEST;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_OK;
+import static com.etr.binary.BinaryQuoteProtocol.STATUS_STALE_VERSION;
+import static com.etr.binary.BinaryQuoteProtocol.versionId;
+import static com.etr.binary.BinaryQuoteProtocol.writeDistance;
+import static com.etr.binary.BinaryQuoteProtocol.writeMoney;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.etr.audit.QuoteAuditLog;
+import com.etr.metrics.QuoteMetrics;
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.ConfigSnapshot;
+import com.etr.service.CostConfigurator;
+
+/**
+ * TCP listener of the binary quote protocol, see BinaryQuoteProtocol.
+ *
+ * Only active when tripcalculator.binary.port is set, 0 for a free port. Quotes are priced by
+ * CostConfigurator.quote against the current snapshot of the default network, the same as
+ * GET /costoftrip, without HTTP or JSON on the way.
+ *
+ * Every connection is served by its own thread, requests in order. The responses are
+ * buffered and flushed when no further request is waiting in the input, so a pipelined
+ * burst is answered with few writes.
+ */
+@Component
+public class BinaryQuoteServer {
+
+	private static Logger logger = LoggerFactory.getLogger(BinaryQuoteServer.class);
+
+	public static final String QUOTE_ENDPOINT = "binary:quote";
+	public static final String LOCATIONS_ENDPOINT = "binary:locations";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	@Autowired
+	private CostConfigurator costConfigurator;
+
+	@Autowired
+	private QuoteMetrics quoteMetrics;
+
+	@Autowired
+	private QuoteAuditLog quoteAuditLog;
+
+	//-1 when disabled
+	@Value("${tripcalculator.binary.port:-1}")
+	private int port;
+
+	@Value("${tripcalculator.binary.bind-address:}")
+	private String bindAddress;
+
+	private ServerSocket server;
+	private ExecutorService connections;
+
+	@PostConstruct
+	public void start() throws IOException {
+
+		if(port < 0)
+			return;
+
+		server = new ServerSocket();
+		server.bind(bindAddress.trim().isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(bindAddress.trim(), port));
+		connections = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "binary-quote-connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Thread acceptor = new Thread(this::accept, "binary-quote-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		logger.info("Binary quote protocol listening on port " + server.getLocalPort());
+	}
+
+	@PreDestroy
+	public void stop() throws IOException {
+		if(server != null)
+			server.close();
+		if(connections != null)
+			connections.shutdownNow();
+	}
+
+	/**
+	 * @return the bound port, -1 when disabled.
+	 */
+	public int getLocalPort() {
+		return server == null ? -1 : server.getLocalPort();
+	}
+
+	private void accept() {
+		while(!server.isClosed()) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if(!server.isClosed())
+					logger.warn("Binary quote listener failed -- " + e.getMessage());
+				return;
+			}
+			connections.execute(() -> serve(socket));
+		}
+	}
+
+	/**
+	 * Answer the requests of one connection until the caller closes it. A frame that breaks
+	 * the protocol closes the connection, the stream can't be resynchronized.
+	 */
+	private void serve(Socket socket) {
+
+		try (Socket s = socket) {
+			s.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), BUFFER_SIZE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream body = new DataOutputStream(bytes);
+			byte[] frame = new byte[MAX_REQUEST_FRAME];
+
+			while(true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if(length < LOCATIONS_REQUEST_LENGTH || length > MAX_REQUEST_FRAME) {
+					logger.warn("Binary quote connection " + s.getRemoteSocketAddress() + " closed, bad frame length " + length);
+					break;
+				}
+				in.readFully(frame, 0, length);
+
+				bytes.reset();
+				handle(ByteBuffer.wrap(frame, 0, length), bytes, body);
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+
+				//Nothing more pipelined, send what is buffered
+				if(in.available() == 0)
+					out.flush();
+			}
+			out.flush();
+		} catch (IOException e) {
+			logger.debug("Binary quote connection " + socket.getRemoteSocketAddress() + " failed -- " + e.getMessage());
+		} catch (RuntimeException e) {
+			logger.error("Binary quote connection " + socket.getRemoteSocketAddress() + " closed", e);
+		}
+	}
+
+	private void handle(ByteBuffer request, ByteArrayOutputStream bytes, DataOutputStream body) throws IOException {
+
+		long start = System.nanoTime();
+		byte op = request.get();
+		int id = request.getInt();
+		body.writeInt(id);
+
+		if(op == OP_QUOTE) {
+			String vehicleClass = QuoteMetrics.NO_VEHICLE_TYPE;
+			boolean error = true;
+			try {
+				long version = request.getLong();
+				int from = request.getInt();
+				int to = request.getInt();
+				int vehicle = request.get();
+				long tripTime = request.getLong();
+				VehicleTypeEnum vehicleType = vehicleType(vehicle);
+				if(vehicleType != null)
+					vehicleClass = vehicleType.getType();
+				error = !quote(body, version, from, to, vehicleType, tripTime);
+			} catch (BufferUnderflowException e) {
+				badRequest(bytes, body, id, "Malformed quote request.");
+			} catch (IllegalArgumentException e) {
+				badRequest(bytes, body, id, e.getMessage());
+			}
+			quoteMetrics.recordRequest(QUOTE_ENDPOINT, vehicleClass, System.nanoTime() - start, error);
+		}
+		else if(op == OP_LOCATIONS) {
+			boolean error = false;
+			try {
+				locations(body);
+			} catch (IllegalArgumentException e) {
+				//A version that is not hexadecimal, e.g. the empty snapshot after a failed load
+				badRequest(bytes, body, id, e.getMessage());
+				error = true;
+			}
+			quoteMetrics.recordRequest(LOCATIONS_ENDPOINT, null, System.nanoTime() - start, error);
+		}
+		else {
+			badRequest(bytes, body, id, "Unknown operation " + op + ".");
+		}
+	}
+
+	/**
+	 * Names by ordinal of the current snapshot.
+	 *
+	 * @throws IllegalArgumentException -- the snapshot version is not hexadecimal.
+	 */
+	private void locations(DataOutputStream body) throws IOException, IllegalArgumentException {
+
+		ConfigSnapshot snap = costConfigurator.getSnapshot();
+		body.writeByte(STATUS_OK);
+		body.writeLong(versionId(snap.getVersion()));
+		int count = snap.getDistanceIndex().size();
+		body.writeInt(count);
+		for(int i = 0; i < count; i++)
+			body.writeUTF(snap.getDistanceIndex().getLocation(i).getName());
+	}
+
+	/**
+	 * @return false when the quote was not priced
+	 * @throws IllegalArgumentException -- bad ordinal, no route, unknown vehicle type.
+	 */
+	private boolean quote(DataOutputStream body, long version, int from, int to, VehicleTypeEnum vehicleType, long tripTime)
+			throws IOException, IllegalArgumentException {
+
+		ConfigSnapshot snap = costConfigurator.getSnapshot();
+		long current = versionId(snap.getVersion());
+		if(version != current) {
+			body.writeByte(STATUS_STALE_VERSION);
+			body.writeLong(current);
+			return false;
+		}
+
+		int size = snap.getDistanceIndex().size();
+		if(from < 0 || from >= size || to < 0 || to >= size)
+			throw new IllegalArgumentException("The input location doesn't exists.");
+
+		String type = vehicleType == null ? null : vehicleType.getType();
+		ZonedDateTime time = tripTime == NO_TRIP_TIME ? null : Instant.ofEpochMilli(tripTime).atZone(ZoneOffset.UTC);
+		CostResponse resp = CostConfigurator.quote(snap, from, to, type, costConfigurator.bandAt(snap, type, time));
+		quoteAuditLog.record(null, snap.getDistanceIndex().getLocation(from).getName(), snap.getDistanceIndex().getLocation(to).getName(),
+				vehicleType, resp);
+
+		body.writeByte(STATUS_OK);
+		body.writeByte(type == null ? KIND_DISTANCE : KIND_VEHICLE);
+		writeDistance(body, resp.getDistance());
+		if(type == null) {
+			writeMoney(body, resp.getCost());
+		}
+		else {
+			CostWithVehicleTypeResponse withType = (CostWithVehicleTypeResponse) resp;
+			writeMoney(body, withType.getKmRate());
+			writeMoney(body, withType.getTripCharge());
+			body.writeUTF(withType.getDirection());
+			body.writeUTF(withType.getRateBand() == null ? "" : withType.getRateBand());
+		}
+		return true;
+	}
+
+	private static VehicleTypeEnum vehicleType(int code) throws IllegalArgumentException {
+		if(code == 0)
+			return null;
+		VehicleTypeEnum[] types = VehicleTypeEnum.values();
+		if(code < 0 || code > types.length)
+			throw new IllegalArgumentException("The input vehicle type doesn't exists.");
+		return types[code - 1];
+	}
+
+	//Replaces whatever the response has so far
+	private static void badRequest(ByteArrayOutputStream bytes, DataOutputStream body, int id, String message) throws IOException {
+		bytes.reset();
+		body.writeInt(id);
+		body.writeByte(STATUS_BAD_REQUEST);
+		body.writeUTF(message == null ? "Bad request." : message);
+	}
+}
@@ -0,0 +1,41 @@
+package com.etr.controller;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.etr.metrics.QuoteMetrics;
+import com.etr.startup.QuoteWarmup;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MetricsController {
+
+    @Autowired
+    private QuoteMetrics quoteMetrics;
+
+    @Autowired
+    private QuoteWarmup quoteWarmup;
+
+    /**
+     * Latency per endpoint and vehicle class, error counters and config load gauges.
+     */
+    @GetMapping("/metrics")
+    Map<String, Object> getMetrics() {
+    	return quoteMetrics.toMap();
+    }
+
+    /**
+     * 200 once started and warmed up, see QuoteWarmup, 503 before.
+     */
+    @GetMapping("/ready")
+    ResponseEntity<Map<String, Object>> getReady() {
+    	return ResponseEntity.status(quoteWarmup.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(quoteWarmup.toMap());
+    }
+
+}
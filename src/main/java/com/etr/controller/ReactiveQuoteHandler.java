@@ -0,0 +1,343 @@
+package com.etr.controller;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import com.etr.audit.QuoteAuditLog;
+import com.etr.error.ErrorResponses;
+import com.etr.error.UnknownLocationException;
+import com.etr.metrics.QuoteMetrics;
+import com.etr.model.CoordinateQuoteResponse;
+import com.etr.model.CostResponse;
+import com.etr.model.ItineraryRequest;
+import com.etr.model.ItineraryResponse;
+import com.etr.model.Location;
+import com.etr.model.LocationSummary;
+import com.etr.model.NearestLocation;
+import com.etr.model.TripQuoteRequest;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+import com.etr.service.NetworkRegistry;
+import com.etr.service.QuoteResponseCache;
+import com.etr.startup.QuoteWarmup;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The quote endpoints of TripCalculatorController for the non-blocking server mode.
+ *
+ * A quote is an in-memory lookup in a loaded config snapshot, it never blocks, so it is priced
+ * right on the event loop. Resolving the configurator may block: a network loads from its files
+ * on first use and the rates as of a time may load from the rate history, so unless the network
+ * is loaded and there is no asOf it is resolved on the elastic scheduler, and the quote priced
+ * on that thread. Responses and errors are the same as in the servlet mode.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveQuoteHandler {
+
+	static final MediaType NDJSON = MediaType.parseMediaType(TripCalculatorController.NDJSON_VALUE + ";charset=UTF-8");
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private QuoteMetrics quoteMetrics;
+
+	@Autowired
+	private QuoteResponseCache quoteResponseCache;
+
+	@Autowired
+	private NetworkRegistry networkRegistry;
+
+	@Autowired
+	private QuoteAuditLog quoteAuditLog;
+
+	@Autowired
+	private QuoteWarmup quoteWarmup;
+
+	/**
+	 * GET /costoftrip, see TripCalculatorController.getCost
+	 */
+	public Mono<ServerResponse> getCost(ServerRequest request) {
+
+		Optional<String> fromLocation = request.queryParam("fromLocation");
+		Optional<String> toLocation = request.queryParam("toLocation");
+		Optional<String> vehicleType = request.queryParam("vehicleType");
+		Optional<String> tripTime = request.queryParam("tripTime");
+
+		if(!fromLocation.isPresent())
+			return badRequest(request, "Required String parameter 'fromLocation' is not present");
+		if(!toLocation.isPresent())
+			return badRequest(request, "Required String parameter 'toLocation' is not present");
+
+		return rates(request).flatMap(configurator -> quote(request, configurator, fromLocation.get(), toLocation.get(),
+				vehicleType, tripTime)).onErrorResume(IllegalArgumentException.class, e -> badRequest(request, e.getMessage()));
+	}
+
+	private Mono<ServerResponse> quote(ServerRequest request, CostConfigurator configurator, String fromLocation,
+			String toLocation, Optional<String> vehicleType, Optional<String> tripTime) {
+
+		try {
+			QuoteResponseCache.Quote quote = quoteResponseCache.lookup(configurator, fromLocation, toLocation,
+					vehicleType.isPresent() ? VehicleTypeEnum.valueOf(vehicleType.get()) : null,
+					tripTime.isPresent() ? configurator.parseTripTime(tripTime.get()) : null);
+			quoteAuditLog.record(request.queryParam("network").orElse(null), quote);
+			String etag = quote.getETag();
+			CacheControl cacheControl = CacheControl.maxAge(quoteResponseCache.getMaxAgeSeconds(), TimeUnit.SECONDS).cachePublic();
+
+			if(QuoteResponseCache.matches(request.headers().header(HttpHeaders.IF_NONE_MATCH), etag))
+				return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+
+			return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).eTag(etag).cacheControl(cacheControl)
+					.syncBody(quote.getBody());
+		} catch (UnknownLocationException e) {
+			quoteMetrics.increment(QuoteMetrics.UNKNOWN_LOCATION);
+			return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON_UTF8)
+					.syncBody(ErrorResponses.badRequest(e, request.path()));
+		} catch (IllegalArgumentException e) {
+			//also an unknown vehicle type from valueOf
+			return badRequest(request, e.getMessage());
+		}
+	}
+
+	/**
+	 * GET /locations, see TripCalculatorController.findLocations
+	 */
+	public Mono<ServerResponse> findLocations(ServerRequest request) {
+
+		String prefix = request.queryParam("prefix").orElse("");
+		int limit;
+		try {
+			limit = Integer.parseInt(request.queryParam("limit").orElse("10"));
+		} catch (NumberFormatException e) {
+			return badRequest(request, "limit must be a number.");
+		}
+		if(limit < 1 || limit > TripCalculatorController.MAX_LOCATION_RESULTS)
+			return badRequest(request, "limit must be between 1 and " + TripCalculatorController.MAX_LOCATION_RESULTS + ".");
+
+		return network(request).flatMap(configurator -> {
+			List<LocationSummary> found = new ArrayList<LocationSummary>();
+			for(Location location: configurator.findLocationsByPrefix(prefix, limit))
+				found.add(new LocationSummary(location));
+			return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(found);
+		}).onErrorResume(IllegalArgumentException.class, e -> badRequest(request, e.getMessage()));
+	}
+
+	/**
+	 * GET /locations/nearest, see TripCalculatorController.findNearestLocation
+	 */
+	public Mono<ServerResponse> findNearestLocation(ServerRequest request) {
+
+		return network(request).flatMap(configurator -> {
+			NearestLocation nearest = configurator.findNearestLocation(degrees(request, "lat"), degrees(request, "lng"));
+			return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(nearest);
+		}).onErrorResume(IllegalArgumentException.class, e -> badRequest(request, e.getMessage()));
+	}
+
+	/**
+	 * GET /costoftrip/bycoordinates, see TripCalculatorController.getCostByCoordinates
+	 */
+	public Mono<ServerResponse> getCostByCoordinates(ServerRequest request) {
+
+		Optional<String> vehicleType = request.queryParam("vehicleType");
+		Optional<String> tripTime = request.queryParam("tripTime");
+		return rates(request).flatMap(configurator -> {
+			VehicleTypeEnum type = vehicleType.isPresent() ? VehicleTypeEnum.valueOf(vehicleType.get()) : null;
+			CoordinateQuoteResponse resp = configurator.getCostByCoordinates(
+					degrees(request, "fromLat"), degrees(request, "fromLng"), degrees(request, "toLat"), degrees(request, "toLng"),
+					type == null ? null : type.name(),
+					tripTime.isPresent() ? configurator.parseTripTime(tripTime.get()) : null);
+			quoteAuditLog.record(request.queryParam("network").orElse(null), resp.getFrom().getName(), resp.getTo().getName(), type,
+					resp.getQuote());
+			return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(resp);
+		}).onErrorResume(IllegalArgumentException.class, e -> badRequest(request, e.getMessage()));
+	}
+
+	/**
+	 * POST /costoftrip/batch, see TripCalculatorController.getCostBatch
+	 */
+	public Mono<ServerResponse> getCostBatch(ServerRequest request) {
+
+		AtomicLong rows = new AtomicLong();
+		//Rows are read as trees so a row of the wrong shape is reported inline, only input
+		//that can't be parsed ends the batch
+		Flux<String> lines = request.bodyToFlux(JsonNode.class)
+				//In order, a row waits for the network or rates of the row before it
+				.concatMap(node -> quoteRow(rows.getAndIncrement(), node).map(this::toLine))
+				.onErrorResume(e -> {
+					//The input can't be read any further, report it as the last line
+					quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+					Map<String, Object> line = new LinkedHashMap<String, Object>();
+					line.put("index", rows.get());
+					line.put("error", "Malformed batch input: " + e.getMessage());
+					return Mono.just(toLine(line));
+				})
+				.doOnComplete(() -> quoteMetrics.add(QuoteMetrics.BATCH_ROWS, rows.get()));
+
+		return ServerResponse.ok().contentType(NDJSON).body(lines, String.class);
+	}
+
+	/**
+	 * POST /costoftrip/itinerary, see TripCalculatorController.getItineraryCost
+	 */
+	public Mono<ServerResponse> getItineraryCost(ServerRequest request) {
+
+		return request.bodyToMono(ItineraryRequest.class)
+				.flatMap(itinerary -> configurator(itinerary.getNetwork(), itinerary.getAsOf()).flatMap(configurator -> {
+					try {
+						ItineraryResponse resp = configurator.getItineraryCost(itinerary.getStops(), itinerary.getVehicleType(),
+								itinerary.getTripTime() == null ? null : configurator.parseTripTime(itinerary.getTripTime()));
+						quoteAuditLog.record(itinerary.getNetwork(), resp, VehicleTypeEnum.of(itinerary.getVehicleType()));
+						return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(resp);
+					} catch (UnknownLocationException e) {
+						quoteMetrics.increment(QuoteMetrics.UNKNOWN_LOCATION);
+						return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON_UTF8)
+								.syncBody(ErrorResponses.badRequest(e, request.path()));
+					} catch (IllegalArgumentException e) {
+						return badRequest(request, e.getMessage());
+					}
+				}).onErrorResume(IllegalArgumentException.class, e -> badRequest(request, e.getMessage())))
+				.switchIfEmpty(Mono.defer(() -> badRequest(request, "Required request body is missing")));
+	}
+
+	/**
+	 * GET /metrics, see MetricsController
+	 */
+	public Mono<ServerResponse> getMetrics(ServerRequest request) {
+		return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(quoteMetrics.toMap());
+	}
+
+	/**
+	 * GET /ready, see MetricsController
+	 */
+	public Mono<ServerResponse> getReady(ServerRequest request) {
+		return ServerResponse.status(quoteWarmup.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+				.contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(quoteWarmup.toMap());
+	}
+
+	private Mono<Map<String, Object>> quoteRow(long index, JsonNode node) {
+
+		TripQuoteRequest row;
+		try {
+			row = objectMapper.treeToValue(node, TripQuoteRequest.class);
+		} catch (JsonProcessingException e) {
+			return Mono.just(errorRow(index, new IllegalArgumentException("Invalid batch row: " + e.getOriginalMessage())));
+		}
+		if(row == null || row.getFromLocation() == null || row.getToLocation() == null)
+			return Mono.just(errorRow(index, new IllegalArgumentException("fromLocation and toLocation are required.")));
+
+		return configurator(row.getNetwork(), row.getAsOf())
+				.map(configurator -> quoteRow(index, row, configurator))
+				.onErrorResume(IllegalArgumentException.class, e -> Mono.just(errorRow(index, e)));
+	}
+
+	private Map<String, Object> quoteRow(long index, TripQuoteRequest row, CostConfigurator configurator) {
+
+		Map<String, Object> line = new LinkedHashMap<String, Object>();
+		line.put("index", index);
+		try {
+			VehicleTypeEnum vehicleType = VehicleTypeEnum.of(row.getVehicleType());
+			QuoteResponseCache.Quote quote = quoteResponseCache.lookup(configurator, row.getFromLocation(), row.getToLocation(), vehicleType,
+					vehicleType == null || row.getTripTime() == null ? null : configurator.parseTripTime(row.getTripTime()));
+			CostResponse resp = quote.getResponse();
+			quoteAuditLog.record(row.getNetwork(), quote.getFromName(), quote.getToName(), vehicleType, resp);
+			line.put("quote", resp);
+		} catch (IllegalArgumentException e) {
+			return errorRow(index, e);
+		} catch (ArithmeticException e) {
+			//Money or a fare rule out of range, only this row fails
+			return errorRow(index, new IllegalArgumentException("The trip cost is out of range."));
+		}
+		return line;
+	}
+
+	private Map<String, Object> errorRow(long index, IllegalArgumentException e) {
+
+		Map<String, Object> line = new LinkedHashMap<String, Object>();
+		line.put("index", index);
+		line.put("error", e.getMessage());
+		if(e instanceof UnknownLocationException) {
+			quoteMetrics.increment(QuoteMetrics.UNKNOWN_LOCATION);
+			line.put("suggestions", ((UnknownLocationException) e).getSuggestions());
+		}
+		else {
+			quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+		}
+		return line;
+	}
+
+	private String toLine(Map<String, Object> line) {
+		try {
+			return objectMapper.writeValueAsString(line) + "\n";
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//The network query parameter, the default network when missing
+	private Mono<CostConfigurator> network(ServerRequest request) {
+		return configurator(request.queryParam("network").orElse(null), null);
+	}
+
+	//The network and asOf query parameters of a quote, the current rates when asOf is missing
+	private Mono<CostConfigurator> rates(ServerRequest request) {
+		return configurator(request.queryParam("network").orElse(null), request.queryParam("asOf").orElse(null));
+	}
+
+	/**
+	 * The configurator of a network and time, right away when it is in memory, otherwise
+	 * resolved on the elastic scheduler, a load reads and indexes files.
+	 */
+	private Mono<CostConfigurator> configurator(String network, String asOf) {
+
+		if(asOf == null) {
+			try {
+				CostConfigurator loaded = networkRegistry.getLoaded(network);
+				if(loaded != null)
+					return Mono.just(loaded);
+			} catch (IllegalArgumentException e) {
+				return Mono.error(e);
+			}
+		}
+		return Mono.fromCallable(() -> networkRegistry.get(network, asOf)).subscribeOn(Schedulers.elastic());
+	}
+
+	//A required coordinate query parameter
+	private static double degrees(ServerRequest request, String name) throws IllegalArgumentException {
+		Optional<String> value = request.queryParam(name);
+		if(!value.isPresent())
+			throw new IllegalArgumentException("Required double parameter '" + name + "' is not present");
+		try {
+			return Double.parseDouble(value.get());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number.");
+		}
+	}
+
+	private Mono<ServerResponse> badRequest(ServerRequest request, String message) {
+		quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+		return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON_UTF8)
+				.syncBody(ErrorResponses.body(HttpStatus.BAD_REQUEST, message, request.path()));
+	}
+}
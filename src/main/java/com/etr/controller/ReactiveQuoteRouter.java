@@ -0,0 +1,77 @@
+package com.etr.controller;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import com.etr.metrics.QuoteMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Non-blocking server mode, started with spring.main.web-application-type=reactive.
+ *
+ * Runs on Reactor Netty event loops instead of a servlet thread per request, with the same
+ * endpoints as the servlet mode, served by ReactiveQuoteHandler.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveQuoteRouter {
+
+	@Autowired
+	private QuoteMetrics quoteMetrics;
+
+	@Bean
+	public RouterFunction<ServerResponse> quoteRoutes(ReactiveQuoteHandler handler) {
+		//A filter applies to everything composed before it, so each route is filtered on its own
+		return route(GET("/costoftrip"), handler::getCost).filter(timed("/costoftrip"))
+				.and(route(POST("/costoftrip/batch"), handler::getCostBatch).filter(timed("/costoftrip/batch")))
+				.and(route(POST("/costoftrip/itinerary"), handler::getItineraryCost).filter(timed("/costoftrip/itinerary")))
+				.and(route(GET("/costoftrip/bycoordinates"), handler::getCostByCoordinates).filter(timed("/costoftrip/bycoordinates")))
+				.and(route(GET("/locations"), handler::findLocations).filter(timed("/locations")))
+				.and(route(GET("/locations/nearest"), handler::findNearestLocation).filter(timed("/locations/nearest")))
+				.and(route(GET("/metrics"), handler::getMetrics).filter(timed("/metrics")))
+				.and(route(GET("/ready"), handler::getReady).filter(timed("/ready")));
+	}
+
+	/**
+	 * Tomcat is on the classpath for the servlet mode, pick Netty explicitly.
+	 */
+	@Bean
+	public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+		return new NettyReactiveWebServerFactory();
+	}
+
+	/**
+	 * Read NDJSON batch bodies like the servlet mode does.
+	 */
+	@Bean
+	public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+		return configurer -> configurer.customCodecs().decoder(new Jackson2JsonDecoder(objectMapper,
+				MediaType.parseMediaType(TripCalculatorController.NDJSON_VALUE)));
+	}
+
+	//Same metrics as MetricsInterceptor, time to the response headers
+	private HandlerFilterFunction<ServerResponse, ServerResponse> timed(String endpoint) {
+		return (request, next) -> {
+			long start = System.nanoTime();
+			String vehicleClass = "/costoftrip".equals(endpoint)
+					? QuoteMetrics.vehicleClassOf(request.queryParam("vehicleType").orElse(null)) : null;
+			return next.handle(request)
+					.doOnSuccess(resp -> quoteMetrics.recordRequest(endpoint, vehicleClass, System.nanoTime() - start,
+							resp == null || resp.statusCode().isError()))
+					.doOnError(e -> quoteMetrics.recordRequest(endpoint, vehicleClass, System.nanoTime() - start, true));
+		};
+	}
+}
@@ -1,34 +1,272 @@
 package com.etr.controller;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import com.etr.audit.QuoteAuditLog;
+import com.etr.error.UnknownLocationException;
+import com.etr.metrics.QuoteMetrics;
+import com.etr.model.CoordinateQuoteResponse;
 import com.etr.model.CostResponse;
+import com.etr.model.ItineraryRequest;
+import com.etr.model.ItineraryResponse;
+import com.etr.model.Location;
+import com.etr.model.LocationSummary;
+import com.etr.model.NearestLocation;
+import com.etr.model.TripQuoteRequest;
 import com.etr.model.VehicleTypeEnum;
 import com.etr.service.CostConfigurator;
+import com.etr.service.NetworkRegistry;
+import com.etr.service.QuoteResponseCache;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class TripCalculatorController {
+	
+	//Streamed batch output, one JSON document per line
+	public static final String NDJSON_VALUE = "application/x-ndjson";
+	
+	//Upper bound of the location search limit
+	public static final int MAX_LOCATION_RESULTS = 100;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private QuoteMetrics quoteMetrics;
+    
+    @Autowired
+    private QuoteResponseCache quoteResponseCache;
+    
+    @Autowired
+    private NetworkRegistry networkRegistry;
 
     @Autowired
-    private CostConfigurator costConfigurator;
+    private QuoteAuditLog quoteAuditLog;
 
+    /**
+     * Quote a trip, served from the QuoteResponseCache.
+     * 
+     * tripTime is optional, ISO-8601 with or without an offset, it selects the rate schedule band.
+     * network is optional, the default network when missing, see NetworkRegistry.
+     * asOf is optional, ISO-8601, it prices with the rates in force then, see RateHistory.
+     * 
+     * The response has a strong ETag and a Cache-Control max-age, a matching If-None-Match 
+     * gets a 304 without pricing or serializing anything.
+     */
     @GetMapping("/costoftrip")
-    CostResponse getCost(
+    ResponseEntity<byte[]> getCost(
     		@RequestParam(value = "fromLocation", required = true) String fromLocation,
     		@RequestParam(value = "toLocation", required = true) String toLocation,
-			@RequestParam(value = "vehicleType", required = false) VehicleTypeEnum vehicleType
+			@RequestParam(value = "vehicleType", required = false) VehicleTypeEnum vehicleType,
+			@RequestParam(value = "tripTime", required = false) String tripTime,
+			@RequestParam(value = "network", required = false) String network,
+			@RequestParam(value = "asOf", required = false) String asOf,
+			WebRequest request
 			) throws IllegalArgumentException {
         
-    	CostResponse resp = null;
+    	CostConfigurator configurator = networkRegistry.get(network, asOf);
+    	QuoteResponseCache.Quote quote = quoteResponseCache.lookup(configurator, fromLocation, toLocation, vehicleType,
+    			tripTime == null ? null : configurator.parseTripTime(tripTime));
+    	//A 304 is a quote issued too
+    	quoteAuditLog.record(network, quote);
+    	String etag = quote.getETag();
+    	CacheControl cacheControl = CacheControl.maxAge(quoteResponseCache.getMaxAgeSeconds(), TimeUnit.SECONDS).cachePublic();
+    	
+    	//Sets the 304 status and the ETag header
+    	if(request.checkNotModified(etag))
+    		return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+    	
+    	return ResponseEntity.ok()
+    			.contentType(MediaType.APPLICATION_JSON_UTF8)
+    			.eTag(etag)
+    			.cacheControl(cacheControl)
+    			.body(quote.getBody());
+    }
+    
+    /**
+     * Price a route with several stops in one call, see CostConfigurator.getItineraryCost.
+     * 
+     * The body is an ItineraryRequest: {"stops":["QEW","Bronte Road","Westney Road"],"vehicleType":"heavy"}.
+     * The response has the totals and one entry per leg, the per-trip charges count once.
+     */
+    @PostMapping("/costoftrip/itinerary")
+    ItineraryResponse getItineraryCost(@RequestBody ItineraryRequest itinerary) throws IllegalArgumentException {
+    	
+    	CostConfigurator configurator = networkRegistry.get(itinerary.getNetwork(), itinerary.getAsOf());
+    	ItineraryResponse resp = configurator.getItineraryCost(itinerary.getStops(), itinerary.getVehicleType(),
+    			itinerary.getTripTime() == null ? null : configurator.parseTripTime(itinerary.getTripTime()));
+    	quoteAuditLog.record(itinerary.getNetwork(), resp, VehicleTypeEnum.of(itinerary.getVehicleType()));
+    	return resp;
+    }
+    
+    /**
+     * Locations whose name starts with the prefix, in name order.
+     * 
+     * Case, accents, punctuation and street suffixes are folded, "dundas st" finds "Dundas Street".
+     */
+    @GetMapping("/locations")
+    List<LocationSummary> findLocations(
+    		@RequestParam(value = "prefix", required = false, defaultValue = "") String prefix,
+    		@RequestParam(value = "limit", required = false, defaultValue = "10") int limit,
+    		@RequestParam(value = "network", required = false) String network
+    		) throws IllegalArgumentException {
+    	
+    	if(limit < 1 || limit > MAX_LOCATION_RESULTS)
+    		throw new IllegalArgumentException("limit must be between 1 and " + MAX_LOCATION_RESULTS + ".");
+    	
+    	List<LocationSummary> found = new ArrayList<LocationSummary>();
+    	for(Location location: networkRegistry.get(network).findLocationsByPrefix(prefix, limit))
+    		found.add(new LocationSummary(location));
+    	return found;
+    }
+    
+    /**
+     * The location nearest to a GPS coordinate, with its great-circle distance in km.
+     */
+    @GetMapping("/locations/nearest")
+    NearestLocation findNearestLocation(
+    		@RequestParam(value = "lat", required = true) double lat,
+    		@RequestParam(value = "lng", required = true) double lng,
+    		@RequestParam(value = "network", required = false) String network
+    		) throws IllegalArgumentException {
+    	
+    	return networkRegistry.get(network).findNearestLocation(lat, lng);
+    }
+    
+    /**
+     * Price a trip from two GPS coordinates, each resolved to its nearest location.
+     * 
+     * The response has the two locations and the quote, like /costoftrip, between them.
+     */
+    @GetMapping("/costoftrip/bycoordinates")
+    CoordinateQuoteResponse getCostByCoordinates(
+    		@RequestParam(value = "fromLat", required = true) double fromLat,
+    		@RequestParam(value = "fromLng", required = true) double fromLng,
+    		@RequestParam(value = "toLat", required = true) double toLat,
+    		@RequestParam(value = "toLng", required = true) double toLng,
+			@RequestParam(value = "vehicleType", required = false) VehicleTypeEnum vehicleType,
+			@RequestParam(value = "tripTime", required = false) String tripTime,
+			@RequestParam(value = "network", required = false) String network,
+			@RequestParam(value = "asOf", required = false) String asOf
+    		) throws IllegalArgumentException {
+    	
+    	CostConfigurator configurator = networkRegistry.get(network, asOf);
+    	CoordinateQuoteResponse resp = configurator.getCostByCoordinates(fromLat, fromLng, toLat, toLng,
+    			vehicleType == null ? null : vehicleType.name(),
+    			tripTime == null ? null : configurator.parseTripTime(tripTime));
+    	quoteAuditLog.record(network, resp.getFrom().getName(), resp.getTo().getName(), vehicleType, resp.getQuote());
+    	return resp;
+    }
+    
+    /**
+     * Price a list of trips.
+     * 
+     * The body is a JSON array, or a sequence of JSON objects (NDJSON), of TripQuoteRequest.
+     * Rows are read, priced and written one at a time, so neither the request nor the 
+     * response is held in memory. Each output line is {"index":n,"quote":{...}} or 
+     * {"index":n,"error":"..."}, a bad row doesn't stop the batch. Input that isn't JSON
+     * ends it with an error line. Every priced row is audited, see QuoteAuditLog.
+     * 
+     * @throws IOException -- the request can't be read, or the response can't be written.
+     */
+    @PostMapping("/costoftrip/batch")
+    void getCostBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    	
+    	response.setContentType(NDJSON_VALUE);
+    	response.setCharacterEncoding("UTF-8");
+    	
+    	JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream());
+    	gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    	
+    	long index = 0;
+    	MappingIterator<TripQuoteRequest> rows = null;
+    	while(true) {
+    		//Only input that can't be parsed ends the batch with an error line, a row of the wrong shape
+    		//is reported inline and skipped, a failed write propagates
+    		TripQuoteRequest row;
+    		try {
+    			if(rows == null)
+    				rows = objectMapper.readerFor(TripQuoteRequest.class).readValues(request.getInputStream());
+    			if(!rows.hasNextValue())
+    				break;
+    			row = rows.nextValue();
+    		} catch (JsonMappingException e) {
+    			quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+    			gen.writeStartObject();
+    			gen.writeNumberField("index", index++);
+    			gen.writeStringField("error", "Invalid batch row: " + e.getOriginalMessage());
+    			gen.writeEndObject();
+    			gen.writeRaw('\n');
+    			continue;
+    		} catch (JsonProcessingException e) {
+    			quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+    			gen.writeStartObject();
+    			gen.writeNumberField("index", index);
+    			gen.writeStringField("error", "Malformed batch input: " + e.getMessage());
+    			gen.writeEndObject();
+    			gen.writeRaw('\n');
+    			break;
+    		}
+    		
+    		gen.writeStartObject();
+    		gen.writeNumberField("index", index++);
+    		try {
+    			gen.writeObjectField("quote", quote(row));
+    		} catch (UnknownLocationException e) {
+    			quoteMetrics.increment(QuoteMetrics.UNKNOWN_LOCATION);
+    			gen.writeStringField("error", e.getMessage());
+    			gen.writeObjectField("suggestions", e.getSuggestions());
+    		} catch (IllegalArgumentException e) {
+    			quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+    			gen.writeStringField("error", e.getMessage());
+    		} catch (ArithmeticException e) {
+    			//Money or a fare rule out of range, only this row fails
+    			quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
+    			gen.writeStringField("error", "The trip cost is out of range.");
+    		}
+    		gen.writeEndObject();
+    		gen.writeRaw('\n');
+    	}
+    	
+    	gen.close();
+    	quoteMetrics.add(QuoteMetrics.BATCH_ROWS, index);
+    }
+    
+    private CostResponse quote(TripQuoteRequest row) throws IllegalArgumentException {
     	
-    	if(vehicleType == null)
-    		resp = costConfigurator.getCostBetweenLocations(fromLocation, toLocation);
-    	else
-    		resp = costConfigurator.getCostWithVehicleType(fromLocation, toLocation, vehicleType.name());
+    	if(row == null || row.getFromLocation() == null || row.getToLocation() == null)
+    		throw new IllegalArgumentException("fromLocation and toLocation are required.");
     	
+    	CostConfigurator configurator = networkRegistry.get(row.getNetwork(), row.getAsOf());
+    	VehicleTypeEnum vehicleType = VehicleTypeEnum.of(row.getVehicleType());
+    	QuoteResponseCache.Quote quote = quoteResponseCache.lookup(configurator, row.getFromLocation(), row.getToLocation(), vehicleType,
+    			vehicleType == null || row.getTripTime() == null ? null : configurator.parseTripTime(row.getTripTime()));
+    	CostResponse resp = quote.getResponse();
+    	quoteAuditLog.record(row.getNetwork(), quote.getFromName(), quote.getToName(), vehicleType, resp);
     	return resp;
     }
 
@@ -1,20 +1,45 @@
 package com.etr.error;
 
 import java.io.IOException;
+import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
+import com.etr.metrics.QuoteMetrics;
+
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class CustomGlobalExceptionHandler extends ResponseEntityExceptionHandler {
+	
+    @Autowired
+    private QuoteMetrics quoteMetrics;
     
     @ExceptionHandler(IllegalArgumentException.class)
     public void handleIllegalArgumentException(HttpServletResponse response) throws IOException {
+        quoteMetrics.increment(QuoteMetrics.BAD_REQUEST);
         response.sendError(HttpStatus.BAD_REQUEST.value());
     }
+    
+    /**
+     * Same body as the default error, plus the closest location names.
+     * Built directly instead of going through the error page, misses must stay cheap.
+     */
+    @ExceptionHandler(UnknownLocationException.class)
+    public ResponseEntity<Map<String, Object>> handleUnknownLocationException(UnknownLocationException e, 
+    		HttpServletRequest request) {
+    	
+    	quoteMetrics.increment(QuoteMetrics.UNKNOWN_LOCATION);
+    	
+        return ResponseEntity.badRequest().body(ErrorResponses.badRequest(e, request.getRequestURI()));
+    }
 
 }
@@ -0,0 +1,37 @@
+package com.etr.error;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Error bodies with the same fields as the default Spring Boot error,
+ * shared by the servlet and the reactive server modes.
+ */
+public final class ErrorResponses {
+
+	private ErrorResponses() {
+	}
+
+	public static Map<String, Object> body(HttpStatus status, String message, String path) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("timestamp", new Date());
+		body.put("status", status.value());
+		body.put("error", status.getReasonPhrase());
+		body.put("message", message);
+		body.put("path", path);
+		return body;
+	}
+
+	/**
+	 * 400 body of a rejected quote, with the closest names when a location doesn't exist.
+	 */
+	public static Map<String, Object> badRequest(IllegalArgumentException e, String path) {
+		Map<String, Object> body = body(HttpStatus.BAD_REQUEST, e.getMessage(), path);
+		if(e instanceof UnknownLocationException)
+			body.put("suggestions", ((UnknownLocationException) e).getSuggestions());
+		return body;
+	}
+}
@@ -0,0 +1,38 @@
+package com.etr.error;
+
+import java.util.List;
+
+/**
+ * An input location name that doesn't exist, with the closest existing names.
+ */
+@SuppressWarnings("serial")
+public class UnknownLocationException extends IllegalArgumentException {
+	
+	public static final String MESSAGE = "The input location name doesn't exists.";
+	
+	//Suggestions returned with a miss
+	public static final int MAX_SUGGESTIONS = 5;
+	
+	private final String name;
+	private final List<String> suggestions;
+	
+	public UnknownLocationException(String name, List<String> suggestions) {
+		super(MESSAGE);
+		this.name = name;
+		this.suggestions = suggestions;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public List<String> getSuggestions() {
+		return suggestions;
+	}
+	
+	//Thrown for bad client input on a hot path, the stack trace is never used
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
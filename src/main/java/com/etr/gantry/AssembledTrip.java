@@ -0,0 +1,64 @@
+package com.etr.gantry;
+
+import com.etr.model.CostResponse;
+
+/**
+ * An entry paired with its exit, and its price.
+ */
+public class AssembledTrip {
+
+	private final String transponderId;
+	private final String fromLocation;
+	private final String toLocation;
+	private final String vehicleType;
+	private final long entryTime;
+	private final long exitTime;
+	//null when the trip could not be priced
+	private final CostResponse quote;
+	//null when priced
+	private final String error;
+
+	public AssembledTrip(String transponderId, String fromLocation, String toLocation, String vehicleType,
+			long entryTime, long exitTime, CostResponse quote, String error) {
+		this.transponderId = transponderId;
+		this.fromLocation = fromLocation;
+		this.toLocation = toLocation;
+		this.vehicleType = vehicleType;
+		this.entryTime = entryTime;
+		this.exitTime = exitTime;
+		this.quote = quote;
+		this.error = error;
+	}
+
+	public String getTransponderId() {
+		return transponderId;
+	}
+
+	public String getFromLocation() {
+		return fromLocation;
+	}
+
+	public String getToLocation() {
+		return toLocation;
+	}
+
+	public String getVehicleType() {
+		return vehicleType;
+	}
+
+	public long getEntryTime() {
+		return entryTime;
+	}
+
+	public long getExitTime() {
+		return exitTime;
+	}
+
+	public CostResponse getQuote() {
+		return quote;
+	}
+
+	public String getError() {
+		return error;
+	}
+}
@@ -0,0 +1,84 @@
+package com.etr.gantry;
+
+/**
+ * One transponder read at an entry or exit gantry.
+ *
+ * The text form is "timestamp,transponderId,location,ENTRY|EXIT[,vehicleType]", timestamp in
+ * epoch milliseconds. Names can't contain commas, there is no quoting.
+ */
+public final class GantryEvent {
+
+	private final long timestamp;
+	private final String transponderId;
+	private final String location;
+	private final boolean entry;
+	//null when the gantry doesn't classify the vehicle
+	private final String vehicleType;
+
+	public GantryEvent(long timestamp, String transponderId, String location, boolean entry, String vehicleType) {
+		this.timestamp = timestamp;
+		this.transponderId = transponderId;
+		this.location = location;
+		this.entry = entry;
+		this.vehicleType = vehicleType;
+	}
+
+	/**
+	 * Parse the text form, fields are split without a regex.
+	 *
+	 * @throws IllegalArgumentException -- malformed line.
+	 */
+	public static GantryEvent parse(String line) throws IllegalArgumentException {
+
+		int c1 = line.indexOf(',');
+		int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+		int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+		if(c3 < 0)
+			throw new IllegalArgumentException("Gantry event must be timestamp,transponderId,location,ENTRY|EXIT[,vehicleType].");
+		int c4 = line.indexOf(',', c3 + 1);
+
+		long timestamp;
+		try {
+			timestamp = Long.parseLong(line.substring(0, c1).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Gantry event timestamp must be epoch milliseconds.");
+		}
+
+		String transponderId = line.substring(c1 + 1, c2).trim();
+		String location = line.substring(c2 + 1, c3).trim();
+		if(transponderId.isEmpty() || location.isEmpty())
+			throw new IllegalArgumentException("Gantry event transponderId and location are required.");
+
+		String type = line.substring(c3 + 1, c4 < 0 ? line.length() : c4).trim();
+		boolean entry;
+		if("ENTRY".equalsIgnoreCase(type))
+			entry = true;
+		else if("EXIT".equalsIgnoreCase(type))
+			entry = false;
+		else
+			throw new IllegalArgumentException("Gantry event type must be ENTRY or EXIT.");
+
+		String vehicleType = c4 < 0 ? null : line.substring(c4 + 1).trim();
+		return new GantryEvent(timestamp, transponderId, location, entry, vehicleType == null || vehicleType.isEmpty() ? null : vehicleType);
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getTransponderId() {
+		return transponderId;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public boolean isEntry() {
+		return entry;
+	}
+
+	public String getVehicleType() {
+		return vehicleType;
+	}
+}
@@ -0,0 +1,125 @@
+package com.etr.gantry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds gantry event streams into a TripAssembler.
+ *
+ * A stream is read line by line in its own thread, see GantryEvent for the line format. An
+ * optional header line starting with "timestamp" is skipped, a malformed line is counted and
+ * skipped. Several streams, files or socket connections, can feed one assembler at once.
+ */
+public class GantryIngestion {
+
+	private static Logger logger = LoggerFactory.getLogger(GantryIngestion.class);
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private final TripAssembler assembler;
+	private final LongAdder malformed = new LongAdder();
+
+	//Latest event time seen, the clock of expireIdle
+	private final LongAccumulator watermark = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+	public GantryIngestion(TripAssembler assembler) {
+		this.assembler = assembler;
+	}
+
+	/**
+	 * Read one stream to its end.
+	 *
+	 * @return the number of events read
+	 * @throws IOException
+	 */
+	public long ingest(InputStream in) throws IOException {
+
+		long count = 0;
+		long latest = Long.MIN_VALUE;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(line.isEmpty() || (count == 0 && line.startsWith("timestamp")))
+				continue;
+
+			GantryEvent event;
+			try {
+				event = GantryEvent.parse(line);
+			} catch (IllegalArgumentException e) {
+				malformed.increment();
+				logger.debug("Skipped gantry event -- " + e.getMessage());
+				continue;
+			}
+			assembler.accept(event);
+			latest = Math.max(latest, event.getTimestamp());
+			count++;
+		}
+		watermark.accumulate(latest);
+		return count;
+	}
+
+	/**
+	 * Accept connections until the socket is closed, every connection is an event stream.
+	 *
+	 * @throws IOException
+	 */
+	public void serve(ServerSocket server) throws IOException {
+
+		ExecutorService connections = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "gantry-connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			while(!server.isClosed()) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (IOException e) {
+					if(server.isClosed())
+						break;
+					throw e;
+				}
+				connections.execute(() -> {
+					try (Socket s = socket) {
+						long events = ingest(s.getInputStream());
+						logger.info("Gantry stream " + s.getRemoteSocketAddress() + " closed after " + events + " events");
+					} catch (IOException e) {
+						logger.warn("Gantry stream " + socket.getRemoteSocketAddress() + " failed -- " + e.getMessage());
+					}
+				});
+			}
+		} finally {
+			connections.shutdown();
+		}
+	}
+
+	/**
+	 * Expire the transponders idle at the latest event time seen.
+	 */
+	public void expireIdle() {
+		long now = watermark.get();
+		if(now != Long.MIN_VALUE)
+			assembler.expireIdle(now);
+	}
+
+	public long getMalformedCount() {
+		return malformed.sum();
+	}
+
+	public TripAssembler getAssembler() {
+		return assembler;
+	}
+}
@@ -0,0 +1,274 @@
+package com.etr.gantry;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.etr.model.CostResponse;
+import com.etr.service.CostConfigurator;
+
+/**
+ * Pairs gantry entries with exits into priced trips.
+ *
+ * Open-trip state is kept per transponder in a striped map: the transponder id hashes to one
+ * of a power-of-two number of stripes, each a LinkedHashMap behind its own lock, so sources
+ * feeding different vehicles rarely contend. Events of one transponder must arrive in time
+ * order, which an ordered stream per source gives.
+ *
+ * - A read at the same gantry, of the same kind, within the duplicate window of the previous
+ *   read of the transponder is dropped.
+ * - An entry while a trip is open replaces it, the old entry is counted as an orphan.
+ * - An exit without an open trip is counted as an orphan.
+ * - A transponder idle for longer than the trip timeout is expired. Each stripe keeps its
+ *   states in last-read order, so expiry only looks at the oldest ones.
+ * - A stripe holds at most maxOpenPerStripe transponders, the least recently read is evicted
+ *   beyond that, an open trip with it. Memory is bounded whatever the input.
+ *
+ * Completed trips are priced through CostConfigurator.getCostWithVehicleType, at the entry
+ * time, outside of the stripe lock, and handed to the sink. The sink may be called from
+ * several threads.
+ */
+public class TripAssembler {
+
+	public static final int DEFAULT_STRIPES = 64;
+	public static final int DEFAULT_MAX_OPEN_PER_STRIPE = 1 << 16;
+	public static final long DEFAULT_TRIP_TIMEOUT_MILLIS = 6 * 3600 * 1000L;
+	public static final long DEFAULT_DUPLICATE_WINDOW_MILLIS = 60 * 1000L;
+
+	private final CostConfigurator costConfigurator;
+	private final Consumer<AssembledTrip> sink;
+	private final Stripe[] stripes;
+	private final int maxOpenPerStripe;
+	private final long tripTimeoutMillis;
+	private final long duplicateWindowMillis;
+
+	private final LongAdder events = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	private final LongAdder trips = new LongAdder();
+	private final LongAdder pricingErrors = new LongAdder();
+	private final LongAdder orphanEntries = new LongAdder();
+	private final LongAdder orphanExits = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	public TripAssembler(CostConfigurator costConfigurator, Consumer<AssembledTrip> sink) {
+		this(costConfigurator, sink, DEFAULT_STRIPES, DEFAULT_MAX_OPEN_PER_STRIPE, DEFAULT_TRIP_TIMEOUT_MILLIS, DEFAULT_DUPLICATE_WINDOW_MILLIS);
+	}
+
+	/**
+	 * @param costConfigurator: loaded configurator used to price every trip
+	 * @param sink: receives every completed trip
+	 * @param stripes: number of stripes, rounded up to a power of two
+	 * @param maxOpenPerStripe: transponders kept per stripe
+	 * @param tripTimeoutMillis: idle time after which a transponder is expired
+	 * @param duplicateWindowMillis: repeated reads within this time are dropped
+	 */
+	public TripAssembler(CostConfigurator costConfigurator, Consumer<AssembledTrip> sink, int stripes,
+			int maxOpenPerStripe, long tripTimeoutMillis, long duplicateWindowMillis) {
+
+		if(stripes < 1 || stripes > 1 << 16)
+			throw new IllegalArgumentException("Stripes must be between 1 and " + (1 << 16));
+		if(maxOpenPerStripe < 1)
+			throw new IllegalArgumentException("maxOpenPerStripe must be positive");
+
+		this.costConfigurator = costConfigurator;
+		this.sink = sink;
+		int count = 1;
+		while(count < stripes)
+			count <<= 1;
+		this.stripes = new Stripe[count];
+		for(int i = 0; i < this.stripes.length; i++)
+			this.stripes[i] = new Stripe();
+		this.maxOpenPerStripe = maxOpenPerStripe;
+		this.tripTimeoutMillis = tripTimeoutMillis;
+		this.duplicateWindowMillis = duplicateWindowMillis;
+	}
+
+	/**
+	 * Apply one event, and price the trip it completes, if any.
+	 */
+	public void accept(GantryEvent event) {
+
+		events.increment();
+		Completed completed = null;
+
+		Stripe stripe = stripeOf(event.getTransponderId());
+		synchronized(stripe) {
+			expire(stripe, event.getTimestamp() - tripTimeoutMillis);
+
+			VehicleState state = stripe.states.get(event.getTransponderId());
+			if(state != null && isDuplicate(state, event)) {
+				//The first read stays the reference of the window, and keeps its place
+				duplicates.increment();
+				return;
+			}
+
+			if(state == null)
+				state = new VehicleState();
+			else
+				stripe.states.remove(event.getTransponderId());
+
+			if(event.isEntry()) {
+				if(state.entryLocation != null)
+					orphanEntries.increment();
+				state.entryLocation = event.getLocation();
+				state.entryTime = event.getTimestamp();
+				state.vehicleType = event.getVehicleType();
+			}
+			else if(state.entryLocation == null) {
+				orphanExits.increment();
+			}
+			else {
+				completed = new Completed(state, event);
+				state.entryLocation = null;
+				state.vehicleType = null;
+			}
+			state.lastLocation = event.getLocation();
+			state.lastEntry = event.isEntry();
+			state.lastTime = event.getTimestamp();
+
+			//Re-inserted at the tail, the stripe stays in last-read order
+			stripe.states.put(event.getTransponderId(), state);
+			if(stripe.states.size() > maxOpenPerStripe) {
+				Iterator<VehicleState> eldest = stripe.states.values().iterator();
+				eldest.next();
+				eldest.remove();
+				evicted.increment();
+			}
+		}
+
+		if(completed != null)
+			sink.accept(price(event.getTransponderId(), completed));
+	}
+
+	/**
+	 * Expire every transponder idle since before the given time, e.g. at the end of the input
+	 * or on a timer when the input is quiet.
+	 *
+	 * @param now: event time, epoch milliseconds
+	 */
+	public void expireIdle(long now) {
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				expire(stripe, now - tripTimeoutMillis);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of transponders held, open trips and recent reads.
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe: stripes) {
+			synchronized(stripe) {
+				size += stripe.states.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Counters since creation, for logs and tests.
+	 */
+	public Map<String, Long> getCounters() {
+		Map<String, Long> counters = new TreeMap<String, Long>();
+		counters.put("events", events.sum());
+		counters.put("duplicates", duplicates.sum());
+		counters.put("trips", trips.sum());
+		counters.put("pricingErrors", pricingErrors.sum());
+		counters.put("orphanEntries", orphanEntries.sum());
+		counters.put("orphanExits", orphanExits.sum());
+		counters.put("expired", expired.sum());
+		counters.put("evicted", evicted.sum());
+		counters.put("held", (long) size());
+		return counters;
+	}
+
+	//Same gantry, same kind of read, within the window of the previous read
+	private boolean isDuplicate(VehicleState state, GantryEvent event) {
+		return state.lastLocation != null && state.lastEntry == event.isEntry() && state.lastLocation.equals(event.getLocation())
+				&& event.getTimestamp() - state.lastTime <= duplicateWindowMillis;
+	}
+
+	//Called with the stripe lock held
+	private void expire(Stripe stripe, long before) {
+		Iterator<VehicleState> it = stripe.states.values().iterator();
+		while(it.hasNext()) {
+			VehicleState state = it.next();
+			if(state.lastTime >= before)
+				break;
+			if(state.entryLocation != null)
+				expired.increment();
+			it.remove();
+		}
+	}
+
+	private AssembledTrip price(String transponderId, Completed completed) {
+
+		trips.increment();
+		try {
+			CostResponse quote = completed.vehicleType == null
+					? costConfigurator.getCostBetweenLocations(completed.from, completed.to)
+					: costConfigurator.getCostWithVehicleType(completed.from, completed.to, completed.vehicleType,
+							Instant.ofEpochMilli(completed.entryTime).atZone(ZoneOffset.UTC));
+			return new AssembledTrip(transponderId, completed.from, completed.to, completed.vehicleType,
+					completed.entryTime, completed.exitTime, quote, null);
+		} catch (IllegalArgumentException e) {
+			pricingErrors.increment();
+			return new AssembledTrip(transponderId, completed.from, completed.to, completed.vehicleType,
+					completed.entryTime, completed.exitTime, null, e.getMessage());
+		}
+	}
+
+	private Stripe stripeOf(String transponderId) {
+		int h = transponderId.hashCode();
+		h ^= h >>> 16;
+		return stripes[h & (stripes.length - 1)];
+	}
+
+	/**
+	 * Transponders of one stripe, in last-read order.
+	 */
+	private static final class Stripe {
+		private final LinkedHashMap<String, VehicleState> states = new LinkedHashMap<String, VehicleState>();
+	}
+
+	/**
+	 * The open trip and the last read of one transponder.
+	 */
+	private static final class VehicleState {
+		//null when no trip is open
+		private String entryLocation;
+		private long entryTime;
+		private String vehicleType;
+
+		private String lastLocation;
+		private boolean lastEntry;
+		private long lastTime;
+	}
+
+	/**
+	 * A trip taken out of the stripe, priced after the lock is released.
+	 */
+	private static final class Completed {
+		private final String from;
+		private final String to;
+		private final String vehicleType;
+		private final long entryTime;
+		private final long exitTime;
+
+		Completed(VehicleState state, GantryEvent exit) {
+			this.from = state.entryLocation;
+			this.to = exit.getLocation();
+			this.vehicleType = state.vehicleType != null ? state.vehicleType : exit.getVehicleType();
+			this.entryTime = state.entryTime;
+			this.exitTime = exit.getTimestamp();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.etr.gantry;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+
+/**
+ * Writes assembled trips as CSV lines, a TripAssembler sink. Lines from several threads are
+ * written whole, in completion order.
+ */
+public class TripCsvWriter implements Consumer<AssembledTrip>, Closeable {
+
+	public static final String HEADER = "transponderId,fromLocation,toLocation,vehicleType,entryTime,exitTime,distance,tripCharge,error";
+
+	private final Writer writer;
+	private final StringBuilder line = new StringBuilder(128);
+
+	public TripCsvWriter(Writer writer) throws IOException {
+		this.writer = new BufferedWriter(writer, 1 << 16);
+		this.writer.write(HEADER);
+		this.writer.write('\n');
+	}
+
+	@Override
+	public synchronized void accept(AssembledTrip trip) {
+
+		line.setLength(0);
+		line.append(trip.getTransponderId()).append(',')
+			.append(trip.getFromLocation()).append(',')
+			.append(trip.getToLocation()).append(',')
+			.append(trip.getVehicleType() == null ? "" : trip.getVehicleType()).append(',')
+			.append(trip.getEntryTime()).append(',')
+			.append(trip.getExitTime()).append(',');
+
+		CostResponse quote = trip.getQuote();
+		if(quote == null) {
+			line.append(",,").append(trip.getError());
+		}
+		else {
+			line.append(quote.getDistance()).append(',');
+			//Distance cost when priced without a vehicle type
+			line.append(quote instanceof CostWithVehicleTypeResponse
+					? ((CostWithVehicleTypeResponse) quote).getTripCharge()
+					: quote.getCost()).append(',');
+		}
+		line.append('\n');
+
+		try {
+			writer.append(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,150 @@
+package com.etr.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets, cheap enough to record every request.
+ *
+ * Each power of two is split in SUB_BUCKETS buckets, so a percentile is within about 6% of the
+ * recorded value, from 1 ns up to 2^MAX_MAGNITUDE ns (about 18 minutes, larger values are
+ * clamped). The counts are striped by thread: a recording increments a slot in its own stripe,
+ * so request threads don't contend on one counter. Stripes are only merged when read.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_MAGNITUDE = 40;
+
+	//Values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS buckets per power of two
+	static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private static final int STRIPES = stripeCount();
+
+	//Index: stripe * BUCKETS + bucket
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	private static int stripeCount() {
+		int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+		return Math.min(stripes, 16);
+	}
+
+	/**
+	 * @param nanos: elapsed time, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+		totalNanos.add(value);
+		maxNanos.accumulate(value);
+	}
+
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if(magnitude > MAX_MAGNITUDE)
+			return BUCKETS - 1;
+		int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (magnitude - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	//Middle of the bucket
+	static long valueOf(int bucket) {
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		int magnitude = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (magnitude - SUB_BITS);
+		return (SUB_BUCKETS + sub) * width + width / 2;
+	}
+
+	/**
+	 * Merge the stripes into a point-in-time summary. Recordings made while reading may or may
+	 * not be included.
+	 */
+	public Snapshot snapshot() {
+		long[] merged = new long[BUCKETS];
+		long count = 0;
+		for(int stripe = 0; stripe < STRIPES; stripe++) {
+			for(int bucket = 0; bucket < BUCKETS; bucket++) {
+				long c = counts.get(stripe * BUCKETS + bucket);
+				merged[bucket] += c;
+				count += c;
+			}
+		}
+		return new Snapshot(merged, count, totalNanos.sum(), maxNanos.get());
+	}
+
+	/**
+	 * Merged counts of a LatencyHistogram.
+	 */
+	public static final class Snapshot {
+		private final long[] buckets;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+
+		Snapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+			this.buckets = buckets;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return count == 0 ? 0 : totalNanos / count;
+		}
+
+		/**
+		 * @param quantile: 0.0 to 1.0
+		 * @return the recorded value at the quantile, 0 when empty
+		 */
+		public long getValueAt(double quantile) {
+			if(count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for(int bucket = 0; bucket < buckets.length; bucket++) {
+				seen += buckets[bucket];
+				if(seen >= rank)
+					return Math.min(valueOf(bucket), maxNanos);
+			}
+			return maxNanos;
+		}
+
+		/**
+		 * Count, mean, percentiles and max in microseconds, for the metrics endpoint.
+		 */
+		public Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("count", count);
+			map.put("meanMicros", micros(getMeanNanos()));
+			map.put("p50Micros", micros(getValueAt(0.50)));
+			map.put("p90Micros", micros(getValueAt(0.90)));
+			map.put("p99Micros", micros(getValueAt(0.99)));
+			map.put("p999Micros", micros(getValueAt(0.999)));
+			map.put("maxMicros", micros(maxNanos));
+			return map;
+		}
+
+		private static double micros(long nanos) {
+			return Math.round(nanos / 100.0) / 10.0;
+		}
+	}
+}
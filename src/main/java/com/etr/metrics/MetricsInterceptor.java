@@ -0,0 +1,53 @@
+package com.etr.metrics;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Times every request and records it in QuoteMetrics under its mapping pattern.
+ *
+ * Quotes are also recorded under their vehicle class. Error dispatches are not timed again,
+ * the original request already covers them.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+	//Requests that don't map to a handler
+	static final String UNMATCHED = "unmatched";
+
+	@Autowired
+	private QuoteMetrics quoteMetrics;
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if(request.getDispatcherType() == DispatcherType.REQUEST)
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if(!(start instanceof Long) || request.getDispatcherType() != DispatcherType.REQUEST)
+			return;
+		long nanos = System.nanoTime() - (Long) start;
+
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String endpoint = pattern == null ? UNMATCHED : pattern.toString();
+		boolean error = ex != null || response.getStatus() >= 400;
+
+		String vehicleClass = "/costoftrip".equals(endpoint) ? QuoteMetrics.vehicleClassOf(request.getParameter("vehicleType")) : null;
+		quoteMetrics.recordRequest(endpoint, vehicleClass, nanos, error);
+	}
+}
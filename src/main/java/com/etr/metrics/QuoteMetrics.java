@@ -0,0 +1,195 @@
+package com.etr.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.etr.audit.QuoteAuditLog;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.ConfigLoadReport;
+import com.etr.service.ConfigSnapshot;
+import com.etr.service.CostConfigurator;
+import com.etr.service.NetworkRegistry;
+import com.etr.service.RateHistory;
+import com.etr.service.QuoteResponseCache;
+import com.etr.startup.QuoteWarmup;
+
+/**
+ * Request latency, error counts and config load figures of the running server.
+ *
+ * Latencies are kept per endpoint and, for quotes, per vehicle class, see LatencyHistogram.
+ * Counters are LongAdders. The labels are bounded sets (endpoint patterns, vehicle classes,
+ * error kinds), never raw client input. Config gauges are read from the current snapshot
+ * when the metrics are read, nothing is recorded on a load.
+ */
+@Component
+public class QuoteMetrics {
+
+	public static final String UNKNOWN_LOCATION = "unknownLocation";
+	public static final String BAD_REQUEST = "badRequest";
+	public static final String BATCH_ROWS = "batchRows";
+
+	//Vehicle class label of a distance-only quote
+	public static final String NO_VEHICLE_TYPE = "none";
+
+	private final long startedAt = System.currentTimeMillis();
+
+	//Key: endpoint pattern
+	private final ConcurrentMap<String, LatencyHistogram> endpointLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentMap<String, LongAdder> endpointErrors = new ConcurrentHashMap<String, LongAdder>();
+
+	//Key: vehicle class
+	private final ConcurrentMap<String, LatencyHistogram> vehicleClassLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	//Key: error kind or counter name
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+	@Autowired
+	private CostConfigurator costConfigurator;
+
+	@Autowired
+	private QuoteResponseCache quoteResponseCache;
+
+	@Autowired
+	private NetworkRegistry networkRegistry;
+
+	@Autowired
+	private RateHistory rateHistory;
+
+	@Autowired
+	private QuoteAuditLog quoteAuditLog;
+
+	@Autowired
+	private QuoteWarmup quoteWarmup;
+
+	/**
+	 * @param endpoint: request mapping pattern
+	 * @param vehicleClass: vehicle class of a quote, null for other endpoints
+	 * @param nanos: time spent in the request
+	 * @param error: the response is an error
+	 */
+	public void recordRequest(String endpoint, String vehicleClass, long nanos, boolean error) {
+
+		histogram(endpointLatency, endpoint).record(nanos);
+		if(vehicleClass != null)
+			histogram(vehicleClassLatency, vehicleClass).record(nanos);
+		if(error)
+			counter(endpointErrors, endpoint).increment();
+	}
+
+	/**
+	 * Vehicle class label of a quote request, only known vehicle types become labels.
+	 * 
+	 * @param vehicleType: the request parameter, null for a distance-only quote
+	 */
+	public static String vehicleClassOf(String vehicleType) {
+		if(vehicleType == null)
+			return NO_VEHICLE_TYPE;
+		for(VehicleTypeEnum type: VehicleTypeEnum.values()) {
+			if(type.name().equals(vehicleType))
+				return type.getType();
+		}
+		return BAD_REQUEST;
+	}
+
+	public void increment(String name) {
+		counter(counters, name).increment();
+	}
+
+	public void add(String name, long value) {
+		counter(counters, name).add(value);
+	}
+
+	public long getCount(String name) {
+		LongAdder adder = counters.get(name);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	public LatencyHistogram.Snapshot getEndpointLatency(String endpoint) {
+		return histogram(endpointLatency, endpoint).snapshot();
+	}
+
+	public LatencyHistogram.Snapshot getVehicleClassLatency(String vehicleClass) {
+		return histogram(vehicleClassLatency, vehicleClass).snapshot();
+	}
+
+	/**
+	 * Everything, as served by the metrics endpoint.
+	 */
+	public Map<String, Object> toMap() {
+
+		long uptimeMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+
+		Map<String, Object> endpoints = new TreeMap<String, Object>();
+		for(Map.Entry<String, LatencyHistogram> entry: endpointLatency.entrySet()) {
+			Map<String, Object> endpoint = entry.getValue().snapshot().toMap();
+			LongAdder errors = endpointErrors.get(entry.getKey());
+			endpoint.put("errors", errors == null ? 0 : errors.sum());
+			endpoint.put("perSecond", Math.round((Long) endpoint.get("count") * 10000.0 / uptimeMillis) / 10.0);
+			endpoints.put(entry.getKey(), endpoint);
+		}
+
+		Map<String, Object> vehicleClasses = new TreeMap<String, Object>();
+		for(Map.Entry<String, LatencyHistogram> entry: vehicleClassLatency.entrySet())
+			vehicleClasses.put(entry.getKey(), entry.getValue().snapshot().toMap());
+
+		Map<String, Object> counts = new TreeMap<String, Object>();
+		for(Map.Entry<String, LongAdder> entry: counters.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("uptimeSeconds", uptimeMillis / 1000);
+		map.put("endpoints", endpoints);
+		map.put("vehicleClasses", vehicleClasses);
+		map.put("counters", counts);
+		map.put("config", configGauges());
+		map.put("responseCache", cacheGauges());
+		map.put("networks", networkRegistry.toMap());
+		map.put("rateHistory", rateHistory.toMap());
+		map.put("audit", quoteAuditLog.toMap());
+		map.put("startup", quoteWarmup.toMap());
+		return map;
+	}
+
+	private Map<String, Object> configGauges() {
+
+		ConfigSnapshot snapshot = costConfigurator.getSnapshot();
+		ConfigLoadReport report = snapshot.getLoadReport();
+
+		Map<String, Object> config = new LinkedHashMap<String, Object>();
+		config.put("version", snapshot.getVersion());
+		config.put("loads", snapshot.getLoadSequence());
+		config.put("failedLoads", costConfigurator.getFailedLoadCount());
+		config.put("loadedAt", snapshot.getLoadedAt());
+		config.put("loadMillis", Math.round(report.getTotalNanos() / 100000.0) / 10.0);
+		config.put("bytesRead", report.getBytesRead());
+		config.put("locations", report.getLocationCount());
+		config.put("vehicleTypes", report.getVehicleTypeCount());
+		return config;
+	}
+
+	private Map<String, Object> cacheGauges() {
+
+		Map<String, Object> cache = new LinkedHashMap<String, Object>();
+		cache.put("entries", quoteResponseCache.size());
+		cache.put("hits", quoteResponseCache.getHitCount());
+		cache.put("misses", quoteResponseCache.getMissCount());
+		return cache;
+	}
+
+	private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> map, String key) {
+		LatencyHistogram histogram = map.get(key);
+		return histogram != null ? histogram : map.computeIfAbsent(key, k -> new LatencyHistogram());
+	}
+
+	private static LongAdder counter(ConcurrentMap<String, LongAdder> map, String key) {
+		LongAdder adder = map.get(key);
+		return adder != null ? adder : map.computeIfAbsent(key, k -> new LongAdder());
+	}
+}
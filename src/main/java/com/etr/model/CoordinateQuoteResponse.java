@@ -0,0 +1,30 @@
+package com.etr.model;
+
+/**
+ * A trip priced from two GPS coordinates: the interchanges they resolved to, and the quote
+ * between them.
+ */
+public class CoordinateQuoteResponse {
+	private NearestLocation from;
+	private NearestLocation to;
+	private CostResponse quote;
+	
+	public NearestLocation getFrom() {
+		return from;
+	}
+	public void setFrom(NearestLocation from) {
+		this.from = from;
+	}
+	public NearestLocation getTo() {
+		return to;
+	}
+	public void setTo(NearestLocation to) {
+		this.to = to;
+	}
+	public CostResponse getQuote() {
+		return quote;
+	}
+	public void setQuote(CostResponse quote) {
+		this.quote = quote;
+	}
+}
@@ -1,25 +1,31 @@
 package com.etr.model;
 
-import java.math.BigDecimal;
-
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 
 @JsonInclude(Include.NON_NULL)
 public class CostResponse {
-	private BigDecimal distance;
-	private BigDecimal cost;
+	private Distance distance;
+	private Money cost;
+	//Version of the config that priced this response
+	private String configVersion;
 	
-	public BigDecimal getDistance() {
+	public Distance getDistance() {
 		return distance;
 	}
-	public void setDistance(BigDecimal distance) {
+	public void setDistance(Distance distance) {
 		this.distance = distance;
 	}
-	public BigDecimal getCost() {
+	public Money getCost() {
 		return cost;
 	}
-	public void setCost(BigDecimal cost) {
+	public void setCost(Money cost) {
 		this.cost = cost;
 	}
+	public String getConfigVersion() {
+		return configVersion;
+	}
+	public void setConfigVersion(String configVersion) {
+		this.configVersion = configVersion;
+	}
 }
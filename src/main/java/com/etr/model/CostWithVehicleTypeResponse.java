@@ -1,12 +1,17 @@
 package com.etr.model;
 
-import java.math.BigDecimal;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class CostWithVehicleTypeResponse extends CostResponse{
 
 	private String direction;
-	private BigDecimal kmRate;
-	private BigDecimal tripCharge;
+	private Money kmRate;
+	private Money tripCharge;
+	//Rate schedule band of the trip time, null for the base rates
+	private String rateBand;
+	//Distance part of tripCharge before the fare rules, kept out of the response body
+	@JsonIgnore
+	private Money distanceCost;
 	
 	public String getDirection() {
 		return direction;
@@ -14,18 +19,29 @@ public class CostWithVehicleTypeResponse extends CostResponse{
 	public void setDirection(String direction) {
 		this.direction = direction;
 	}
-	public BigDecimal getKmRate() {
+	public Money getKmRate() {
 		return kmRate;
 	}
-	public void setKmRate(BigDecimal kmRate) {
+	public void setKmRate(Money kmRate) {
 		this.kmRate = kmRate;
 	}
-	public BigDecimal getTripCharge() {
+	public Money getTripCharge() {
 		return tripCharge;
 	}
-	public void setTripCharge(BigDecimal tripCharge) {
+	public void setTripCharge(Money tripCharge) {
 		this.tripCharge = tripCharge;
 	}
-	
-
+	public String getRateBand() {
+		return rateBand;
+	}
+	public void setRateBand(String rateBand) {
+		this.rateBand = rateBand;
+	}
+	@JsonIgnore
+	public Money getDistanceCost() {
+		return distanceCost;
+	}
+	public void setDistanceCost(Money distanceCost) {
+		this.distanceCost = distanceCost;
+	}
 }
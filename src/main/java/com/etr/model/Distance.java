@@ -0,0 +1,138 @@
+package com.etr.model;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * A distance in km, immutable and fixed-point: a long count of millionths of a km, the
+ * representation DistanceIndex keeps.
+ *
+ * Written as a plain JSON number with at least 3 decimals, 14.062000 is 14.062.
+ */
+@JsonSerialize(using = Distance.Writer.class)
+@JsonDeserialize(using = Distance.Reader.class)
+public final class Distance implements Comparable<Distance> {
+
+	//Number of decimal places kept
+	public static final int SCALE = 6;
+
+	//Fixed-point units per km
+	public static final long UNIT = 1000000L;
+
+	//Decimals of a quoted distance, see round
+	public static final int METRES = 3;
+
+	public static final Distance ZERO = new Distance(0);
+
+	private final long fixed;
+
+	private Distance(long fixed) {
+		this.fixed = fixed;
+	}
+
+	/**
+	 * @param fixed: millionths of a km
+	 */
+	public static Distance ofFixed(long fixed) {
+		return fixed == 0 ? ZERO : new Distance(fixed);
+	}
+
+	/**
+	 * The nearest fixed-point distance of a double km value.
+	 */
+	public static Distance ofKm(double km) {
+		return ofFixed(Math.round(km * UNIT));
+	}
+
+	/**
+	 * Distance of a decimal text, rounded to 6 decimals.
+	 *
+	 * @throws NumberFormatException -- not a number, or out of range.
+	 */
+	public static Distance parse(String text, RoundingMode mode) throws NumberFormatException {
+		return ofFixed(FixedPoint.parse(text, SCALE, mode));
+	}
+
+	public Distance plus(Distance other) {
+		return ofFixed(Math.addExact(fixed, other.fixed));
+	}
+
+	/**
+	 * @param decimals: 0 to 6, e.g. METRES
+	 */
+	public Distance round(int decimals, RoundingMode mode) {
+		return ofFixed(FixedPoint.round(fixed, SCALE, decimals, mode));
+	}
+
+	public int signum() {
+		return Long.signum(fixed);
+	}
+
+	//Millionths of a km
+	public long getFixed() {
+		return fixed;
+	}
+
+	public BigDecimal toBigDecimal() {
+		return FixedPoint.toBigDecimal(fixed, SCALE, METRES);
+	}
+
+	@Override
+	public int compareTo(Distance other) {
+		return Long.compare(fixed, other.fixed);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Distance && ((Distance) other).fixed == fixed;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(fixed);
+	}
+
+	//Plain decimal, at least 3 decimals
+	@Override
+	public String toString() {
+		return FixedPoint.format(fixed, SCALE, METRES);
+	}
+
+	/**
+	 * JSON number, see toString.
+	 */
+	public static final class Writer extends JsonSerializer<Distance> {
+		@Override
+		public void serialize(Distance value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+			gen.writeNumber(value.toString());
+		}
+	}
+
+	/**
+	 * JSON number or string, rounded HALF_EVEN to 6 decimals.
+	 */
+	public static final class Reader extends JsonDeserializer<Distance> {
+		@Override
+		public Distance deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			JsonToken token = parser.getCurrentToken();
+			if(token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING)
+				return (Distance) context.handleUnexpectedToken(Distance.class, parser);
+			try {
+				return parse(parser.getText().trim(), RoundingMode.HALF_EVEN);
+			} catch (NumberFormatException e) {
+				return (Distance) context.handleWeirdStringValue(Distance.class, parser.getText(), e.getMessage());
+			}
+		}
+	}
+}
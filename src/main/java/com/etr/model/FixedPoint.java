@@ -0,0 +1,120 @@
+package com.etr.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Arithmetic shared by the fixed-point value types, Money and Distance.
+ */
+final class FixedPoint {
+
+	//10^n, n up to 18
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private FixedPoint() {
+	}
+
+	static long pow10(int n) {
+		return POWERS_OF_TEN[n];
+	}
+
+	/**
+	 * Divide with a rounding policy, without BigDecimal. The divisor must be positive.
+	 *
+	 * @throws ArithmeticException -- UNNECESSARY and the division is not exact.
+	 */
+	static long divide(long dividend, long divisor, RoundingMode mode) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if(remainder == 0)
+			return quotient;
+
+		int sign = dividend < 0 ? -1 : 1;
+		boolean awayFromZero;
+		switch(mode) {
+		case UP: awayFromZero = true; break;
+		case DOWN: awayFromZero = false; break;
+		case CEILING: awayFromZero = sign > 0; break;
+		case FLOOR: awayFromZero = sign < 0; break;
+		case UNNECESSARY: throw new ArithmeticException("Rounding necessary");
+		default:
+			//Compared without overflow: |remainder| against divisor - |remainder|
+			long half = Long.compare(Math.abs(remainder), divisor - Math.abs(remainder));
+			if(mode == RoundingMode.HALF_UP)
+				awayFromZero = half >= 0;
+			else if(mode == RoundingMode.HALF_DOWN)
+				awayFromZero = half > 0;
+			else
+				awayFromZero = half > 0 || (half == 0 && (quotient & 1) != 0);
+		}
+		return awayFromZero ? quotient + sign : quotient;
+	}
+
+	/**
+	 * Round to fewer decimals, the result keeps the scale.
+	 */
+	static long round(long value, int scale, int decimals, RoundingMode mode) {
+		if(decimals < 0 || decimals > scale)
+			throw new IllegalArgumentException("Decimals must be 0 to " + scale + " -- " + decimals);
+		long step = pow10(scale - decimals);
+		return Math.multiplyExact(divide(value, step, mode), step);
+	}
+
+	/**
+	 * The fixed-point value of a decimal text, e.g. a JSON number.
+	 *
+	 * @throws NumberFormatException -- not a number, more decimals than the scale with
+	 * RoundingMode.UNNECESSARY, or out of the long range.
+	 */
+	static long parse(String text, int scale, RoundingMode mode) throws NumberFormatException {
+		try {
+			return new BigDecimal(text).setScale(scale, mode).unscaledValue().longValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException((mode == RoundingMode.UNNECESSARY ? "More than " + scale + " decimals" : "Out of range")
+					+ " -- " + text);
+		}
+	}
+
+	/**
+	 * Plain decimal text, trailing zeros dropped down to minDecimals.
+	 */
+	static String format(long value, int scale, int minDecimals) {
+		int decimals = scale;
+		while(decimals > minDecimals && value % 10 == 0) {
+			value /= 10;
+			decimals--;
+		}
+		long unit = pow10(decimals);
+		StringBuilder text = new StringBuilder(24);
+		//Negated parts, Long.MIN_VALUE has no positive counterpart
+		if(value < 0)
+			text.append('-').append(-(value / unit));
+		else
+			text.append(value / unit);
+		if(decimals > 0) {
+			String fraction = Long.toString(Math.abs(value % unit));
+			text.append('.');
+			for(int i = fraction.length(); i < decimals; i++)
+				text.append('0');
+			text.append(fraction);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * A BigDecimal with the same digits as format.
+	 */
+	static BigDecimal toBigDecimal(long value, int scale, int minDecimals) {
+		int decimals = scale;
+		while(decimals > minDecimals && value % 10 == 0) {
+			value /= 10;
+			decimals--;
+		}
+		return BigDecimal.valueOf(value, decimals);
+	}
+}
@@ -0,0 +1,38 @@
+package com.etr.model;
+
+/**
+ * One leg of an itinerary, between two consecutive stops.
+ */
+public class ItineraryLeg extends CostResponse{
+
+	private String fromLocation;
+	private String toLocation;
+	private String direction;
+	//Per-km rate of the leg direction, without the per-trip charges
+	private Money kmRate;
+	
+	public String getFromLocation() {
+		return fromLocation;
+	}
+	public void setFromLocation(String fromLocation) {
+		this.fromLocation = fromLocation;
+	}
+	public String getToLocation() {
+		return toLocation;
+	}
+	public void setToLocation(String toLocation) {
+		this.toLocation = toLocation;
+	}
+	public String getDirection() {
+		return direction;
+	}
+	public void setDirection(String direction) {
+		this.direction = direction;
+	}
+	public Money getKmRate() {
+		return kmRate;
+	}
+	public void setKmRate(Money kmRate) {
+		this.kmRate = kmRate;
+	}
+}
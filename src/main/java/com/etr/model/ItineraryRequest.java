@@ -0,0 +1,50 @@
+package com.etr.model;
+
+import java.util.List;
+
+/**
+ * A route with several stops to price in one call, used by the itinerary endpoint.
+ */
+public class ItineraryRequest {
+	//Location names in travel order, at least 2
+	private List<String> stops;
+	//Optional, distance-only cost when missing
+	private String vehicleType;
+	//Optional ISO-8601 start of the trip, selects the rate schedule band
+	private String tripTime;
+	//Optional network id, the default network when missing
+	private String network;
+	//Optional ISO-8601 date-time, prices with the rates in force then
+	private String asOf;
+	
+	public List<String> getStops() {
+		return stops;
+	}
+	public void setStops(List<String> stops) {
+		this.stops = stops;
+	}
+	public String getVehicleType() {
+		return vehicleType;
+	}
+	public void setVehicleType(String vehicleType) {
+		this.vehicleType = vehicleType;
+	}
+	public String getTripTime() {
+		return tripTime;
+	}
+	public void setTripTime(String tripTime) {
+		this.tripTime = tripTime;
+	}
+	public String getNetwork() {
+		return network;
+	}
+	public void setNetwork(String network) {
+		this.network = network;
+	}
+	public String getAsOf() {
+		return asOf;
+	}
+	public void setAsOf(String asOf) {
+		this.asOf = asOf;
+	}
+}
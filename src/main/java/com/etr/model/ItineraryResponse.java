@@ -0,0 +1,21 @@
+package com.etr.model;
+
+import java.util.List;
+
+/**
+ * Total of an itinerary and its legs.
+ * 
+ * distance and cost are the sums of the legs. kmRate is the per-trip charges, applied once,
+ * plus the rates of every leg, and tripCharge is cost + kmRate, like a single trip.
+ */
+public class ItineraryResponse extends CostWithVehicleTypeResponse{
+
+	private List<ItineraryLeg> legs;
+	
+	public List<ItineraryLeg> getLegs() {
+		return legs;
+	}
+	public void setLegs(List<ItineraryLeg> legs) {
+		this.legs = legs;
+	}
+}
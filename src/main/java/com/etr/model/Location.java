@@ -1,6 +1,5 @@
 package com.etr.model;
 
-import java.math.BigDecimal;
 import java.util.List;
 
 public class Location {
@@ -12,7 +11,7 @@ public class Location {
 	
 	//Keep the distance from the first location to this location.
 	//It is not gotten from config file. It is calculated based on config file.
-	private BigDecimal distance;
+	private Distance distance;
 	
 	public String getId() {
 		return id;
@@ -44,10 +43,10 @@ public class Location {
 	public void setRoutes(List<Route> routes) {
 		this.routes = routes;
 	}
-	public BigDecimal getDistance() {
+	public Distance getDistance() {
 		return distance;
 	}
-	public void setDistance(BigDecimal distance) {
+	public void setDistance(Distance distance) {
 		this.distance = distance;
 	}
 	
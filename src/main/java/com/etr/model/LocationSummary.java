@@ -0,0 +1,46 @@
+package com.etr.model;
+
+/**
+ * A location without its routes, returned by the location search.
+ */
+public class LocationSummary {
+	private String id;
+	private String name;
+	private String lat;
+	private String lng;
+	
+	public LocationSummary() {
+	}
+	
+	public LocationSummary(Location location) {
+		this.id = location.getId();
+		this.name = location.getName();
+		this.lat = location.getLat();
+		this.lng = location.getLng();
+	}
+	
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getLat() {
+		return lat;
+	}
+	public void setLat(String lat) {
+		this.lat = lat;
+	}
+	public String getLng() {
+		return lng;
+	}
+	public void setLng(String lng) {
+		this.lng = lng;
+	}
+}
@@ -0,0 +1,164 @@
+package com.etr.model;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * An amount of money, immutable and fixed-point: a long count of ten-thousandths.
+ *
+ * Per-km rates have 4 decimals, charges are rounded to cents with an explicit RoundingMode,
+ * nothing goes through double. Amounts are written as plain JSON numbers with at least 2
+ * decimals, 47.7400 is 47.74 and 45 is 45.00, as BigDecimal amounts of scale 2 were.
+ */
+@JsonSerialize(using = Money.Writer.class)
+@JsonDeserialize(using = Money.Reader.class)
+public final class Money implements Comparable<Money> {
+
+	//Number of decimal places kept
+	public static final int SCALE = 4;
+
+	//Decimals of a charge, see round
+	public static final int CENTS = 2;
+
+	public static final Money ZERO = new Money(0);
+
+	private final long units;
+
+	private Money(long units) {
+		this.units = units;
+	}
+
+	/**
+	 * @param units: ten-thousandths
+	 */
+	public static Money ofUnits(long units) {
+		return units == 0 ? ZERO : new Money(units);
+	}
+
+	public static Money ofCents(long cents) {
+		return ofUnits(Math.multiplyExact(cents, FixedPoint.pow10(SCALE - CENTS)));
+	}
+
+	/**
+	 * Exact amount of a decimal text.
+	 *
+	 * @throws NumberFormatException -- not a number, or more than 4 decimals.
+	 */
+	public static Money parse(String text) throws NumberFormatException {
+		return parse(text, RoundingMode.UNNECESSARY);
+	}
+
+	/**
+	 * Amount of a decimal text, rounded to 4 decimals.
+	 *
+	 * @throws NumberFormatException -- not a number, or out of range.
+	 */
+	public static Money parse(String text, RoundingMode mode) throws NumberFormatException {
+		return ofUnits(FixedPoint.parse(text, SCALE, mode));
+	}
+
+	/**
+	 * @throws ArithmeticException -- out of range.
+	 */
+	public static Money valueOf(BigDecimal value, RoundingMode mode) throws ArithmeticException {
+		return ofUnits(value.setScale(SCALE, mode).unscaledValue().longValueExact());
+	}
+
+	public Money plus(Money other) {
+		return ofUnits(Math.addExact(units, other.units));
+	}
+
+	public Money minus(Money other) {
+		return ofUnits(Math.subtractExact(units, other.units));
+	}
+
+	/**
+	 * This amount per km over a distance, rounded once to the decimals.
+	 *
+	 * @param decimals: 0 to 4, e.g. CENTS
+	 */
+	public Money times(Distance distance, int decimals, RoundingMode mode) {
+		long step = FixedPoint.pow10(SCALE - decimals);
+		long product = Math.multiplyExact(units, distance.getFixed());
+		return ofUnits(Math.multiplyExact(FixedPoint.divide(product, Distance.UNIT * step, mode), step));
+	}
+
+	/**
+	 * @param decimals: 0 to 4, e.g. CENTS
+	 */
+	public Money round(int decimals, RoundingMode mode) {
+		return ofUnits(FixedPoint.round(units, SCALE, decimals, mode));
+	}
+
+	public int signum() {
+		return Long.signum(units);
+	}
+
+	//Ten-thousandths
+	public long getUnits() {
+		return units;
+	}
+
+	public BigDecimal toBigDecimal() {
+		return FixedPoint.toBigDecimal(units, SCALE, CENTS);
+	}
+
+	@Override
+	public int compareTo(Money other) {
+		return Long.compare(units, other.units);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Money && ((Money) other).units == units;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(units);
+	}
+
+	//Plain decimal, at least 2 decimals
+	@Override
+	public String toString() {
+		return FixedPoint.format(units, SCALE, CENTS);
+	}
+
+	/**
+	 * JSON number, see toString.
+	 */
+	public static final class Writer extends JsonSerializer<Money> {
+		@Override
+		public void serialize(Money value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+			gen.writeNumber(value.toString());
+		}
+	}
+
+	/**
+	 * JSON number or string, exact.
+	 */
+	public static final class Reader extends JsonDeserializer<Money> {
+		@Override
+		public Money deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			JsonToken token = parser.getCurrentToken();
+			if(token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_STRING)
+				return (Money) context.handleUnexpectedToken(Money.class, parser);
+			try {
+				return parse(parser.getText().trim());
+			} catch (NumberFormatException e) {
+				return (Money) context.handleWeirdStringValue(Money.class, parser.getText(), e.getMessage());
+			}
+		}
+	}
+}
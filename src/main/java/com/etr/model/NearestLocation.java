@@ -0,0 +1,24 @@
+package com.etr.model;
+
+/**
+ * The location nearest to a GPS coordinate, and how far it is.
+ */
+public class NearestLocation extends LocationSummary {
+	//Great-circle km from the coordinate, 3 decimals
+	private Distance distance;
+	
+	public NearestLocation() {
+	}
+	
+	public NearestLocation(Location location, Distance distance) {
+		super(location);
+		this.distance = distance;
+	}
+	
+	public Distance getDistance() {
+		return distance;
+	}
+	public void setDistance(Distance distance) {
+		this.distance = distance;
+	}
+}
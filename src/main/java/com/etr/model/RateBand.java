@@ -0,0 +1,58 @@
+package com.etr.model;
+
+import java.util.List;
+
+/**
+ * One time band of a vehicle rate schedule, e.g. weekday morning peak.
+ * 
+ * The per-km rates replace the base eastbound/westbound rates during the band, a missing
+ * rate keeps the base one.
+ */
+public class RateBand {
+	private String name;
+	//MON..SUN, all days when empty
+	private List<String> days;
+	//HH:mm, inclusive
+	private String from;
+	//HH:mm, exclusive, 24:00 for the end of the day; a band ending before it starts runs past midnight
+	private String to;
+	private Money eastbound;
+	private Money westbound;
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public List<String> getDays() {
+		return days;
+	}
+	public void setDays(List<String> days) {
+		this.days = days;
+	}
+	public String getFrom() {
+		return from;
+	}
+	public void setFrom(String from) {
+		this.from = from;
+	}
+	public String getTo() {
+		return to;
+	}
+	public void setTo(String to) {
+		this.to = to;
+	}
+	public Money getEastbound() {
+		return eastbound;
+	}
+	public void setEastbound(Money eastbound) {
+		this.eastbound = eastbound;
+	}
+	public Money getWestbound() {
+		return westbound;
+	}
+	public void setWestbound(Money westbound) {
+		this.westbound = westbound;
+	}
+}
@@ -1,10 +1,8 @@
 package com.etr.model;
 
-import java.math.BigDecimal;
-
 public class Route {
 	private String toId;
-	private BigDecimal distance;
+	private Distance distance;
 	
 	public String getToId() {
 		return toId;
@@ -12,10 +10,10 @@ public class Route {
 	public void setToId(String toId) {
 		this.toId = toId;
 	}
-	public BigDecimal getDistance() {
+	public Distance getDistance() {
 		return distance;
 	}
-	public void setDistance(BigDecimal distance) {
+	public void setDistance(Distance distance) {
 		this.distance = distance;
 	}
 	
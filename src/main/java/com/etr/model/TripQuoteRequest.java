@@ -0,0 +1,54 @@
+package com.etr.model;
+
+/**
+ * One trip to price, used by the batch endpoint.
+ */
+public class TripQuoteRequest {
+	private String fromLocation;
+	private String toLocation;
+	//Optional, distance-only cost when missing
+	private String vehicleType;
+	//Optional ISO-8601 start of the trip, selects the rate schedule band
+	private String tripTime;
+	//Optional network id, the default network when missing
+	private String network;
+	//Optional ISO-8601 date-time, prices with the rates in force then
+	private String asOf;
+	
+	public String getFromLocation() {
+		return fromLocation;
+	}
+	public void setFromLocation(String fromLocation) {
+		this.fromLocation = fromLocation;
+	}
+	public String getToLocation() {
+		return toLocation;
+	}
+	public void setToLocation(String toLocation) {
+		this.toLocation = toLocation;
+	}
+	public String getVehicleType() {
+		return vehicleType;
+	}
+	public void setVehicleType(String vehicleType) {
+		this.vehicleType = vehicleType;
+	}
+	public String getTripTime() {
+		return tripTime;
+	}
+	public void setTripTime(String tripTime) {
+		this.tripTime = tripTime;
+	}
+	public String getNetwork() {
+		return network;
+	}
+	public void setNetwork(String network) {
+		this.network = network;
+	}
+	public String getAsOf() {
+		return asOf;
+	}
+	public void setAsOf(String asOf) {
+		this.asOf = asOf;
+	}
+}
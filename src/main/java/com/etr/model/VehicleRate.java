@@ -1,36 +1,52 @@
 package com.etr.model;
 
-import java.math.BigDecimal;
+import java.util.List;
 
 public class VehicleRate {
-	private BigDecimal tripTollCharge;
-	private BigDecimal cameraCharge;
-	private BigDecimal eastbound;
-	private BigDecimal westbound;
+	private Money tripTollCharge;
+	private Money cameraCharge;
+	private Money eastbound;
+	private Money westbound;
+	//Time bands with their own per-km rates, the rates above apply outside them; may be null
+	private List<RateBand> schedule;
+	//Fare rules in order, see PricingRules; may be null
+	private List<String> rules;
 	
-	public BigDecimal getTripTollCharge() {
+	public Money getTripTollCharge() {
 		return tripTollCharge;
 	}
-	public void setTripTollCharge(BigDecimal tripTollCharge) {
+	public void setTripTollCharge(Money tripTollCharge) {
 		this.tripTollCharge = tripTollCharge;
 	}
-	public BigDecimal getCameraCharge() {
+	public Money getCameraCharge() {
 		return cameraCharge;
 	}
-	public void setCameraCharge(BigDecimal cameraCharge) {
+	public void setCameraCharge(Money cameraCharge) {
 		this.cameraCharge = cameraCharge;
 	}
-	public BigDecimal getEastbound() {
+	public Money getEastbound() {
 		return eastbound;
 	}
-	public void setEastbound(BigDecimal eastbound) {
+	public void setEastbound(Money eastbound) {
 		this.eastbound = eastbound;
 	}
-	public BigDecimal getWestbound() {
+	public Money getWestbound() {
 		return westbound;
 	}
-	public void setWestbound(BigDecimal westbound) {
+	public void setWestbound(Money westbound) {
 		this.westbound = westbound;
 	}
+	public List<RateBand> getSchedule() {
+		return schedule;
+	}
+	public void setSchedule(List<RateBand> schedule) {
+		this.schedule = schedule;
+	}
+	public List<String> getRules() {
+		return rules;
+	}
+	public void setRules(List<String> rules) {
+		this.rules = rules;
+	}
 	
 }
@@ -12,4 +12,19 @@ public enum VehicleTypeEnum {
 	public String getType(){
 		return this.type;
 	}
+	
+	/**
+	 * @param type: vehicle type name, may be null
+	 * @return null for a null name
+	 * @throws IllegalArgumentException -- not a vehicle type.
+	 */
+	public static VehicleTypeEnum of(String type) throws IllegalArgumentException {
+		if(type == null)
+			return null;
+		for(VehicleTypeEnum value: values()) {
+			if(value.type.equals(type))
+				return value;
+		}
+		throw new IllegalArgumentException("The input vehicle type doesn't exists.");
+	}
 }
\ No newline at end of file
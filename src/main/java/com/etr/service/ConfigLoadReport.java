@@ -0,0 +1,95 @@
+package com.etr.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the time of one config load went, phase by phase.
+ */
+public class ConfigLoadReport {
+	
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private long bytesRead;
+	private int locationCount;
+	private int vehicleTypeCount;
+	
+	/**
+	 * @param name: phase name
+	 * @param startNanos: System.nanoTime() at the start of the phase
+	 * @return System.nanoTime() now, the start of the next phase
+	 */
+	long endPhase(String name, long startNanos) {
+		long now = System.nanoTime();
+		phases.add(new Phase(name, now - startNanos));
+		return now;
+	}
+	
+	void addBytesRead(long bytes) {
+		bytesRead += bytes;
+	}
+	
+	void setLocationCount(int locationCount) {
+		this.locationCount = locationCount;
+	}
+	
+	void setVehicleTypeCount(int vehicleTypeCount) {
+		this.vehicleTypeCount = vehicleTypeCount;
+	}
+	
+	public List<Phase> getPhases() {
+		return Collections.unmodifiableList(phases);
+	}
+	
+	public long getTotalNanos() {
+		long total = 0;
+		for(Phase phase: phases)
+			total += phase.nanos;
+		return total;
+	}
+	
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	
+	public int getLocationCount() {
+		return locationCount;
+	}
+	
+	public int getVehicleTypeCount() {
+		return vehicleTypeCount;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(locationCount).append(" locations, ").append(vehicleTypeCount).append(" vehicle types, ")
+			.append(bytesRead).append(" bytes in ").append(millis(getTotalNanos())).append(" ms (");
+		for(int i = 0; i < phases.size(); i++) {
+			if(i > 0)
+				sb.append(", ");
+			sb.append(phases.get(i).name).append(' ').append(millis(phases.get(i).nanos)).append(" ms");
+		}
+		return sb.append(')').toString();
+	}
+	
+	private static String millis(long nanos) {
+		return String.format("%.1f", nanos / 1000000.0);
+	}
+	
+	public static class Phase {
+		private final String name;
+		private final long nanos;
+		
+		Phase(String name, long nanos) {
+			this.name = name;
+			this.nanos = nanos;
+		}
+		public String getName() {
+			return name;
+		}
+		public long getNanos() {
+			return nanos;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package com.etr.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.etr.model.Distance;
+import com.etr.model.Location;
+import com.etr.model.Money;
+import com.etr.model.RateBand;
+import com.etr.model.Route;
+import com.etr.model.VehicleRate;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Token-based reader for interchanges.json and rates.json.
+ * 
+ * Location, Route and VehicleRate objects are built straight from the token stream, no JSON
+ * tree is kept, so the extra memory doesn't grow with the file. Numbers are read from their 
+ * text as exact decimals. Unknown fields are skipped.
+ */
+public class ConfigParser {
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	//Bytes read by the last parse
+	private long bytesRead;
+	
+	//effective_from of the last readRates, null when not set
+	private String effectiveFrom;
+	
+	/**
+	 * Read interchanges.json.
+	 * 
+	 * @return HashMap: key -- location Id; value -- location
+	 * @throws IOException -- also for malformed content
+	 */
+	public Map<String, Location> readLocations(InputStream in) throws IOException {
+		
+		Map<String, Location> locationMap = new HashMap<String, Location>();
+		
+		try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+			
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				
+				if(!"locations".equals(field)) {
+					parser.skipChildren();
+					continue;
+				}
+				
+				// locations
+				expect(parser, token, JsonToken.START_OBJECT);
+				while(parser.nextToken() == JsonToken.FIELD_NAME) {
+					String locationId = parser.getCurrentName();
+					expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+					locationMap.put(locationId, readLocation(parser, locationId));
+				}
+			}
+			bytesRead = parser.getCurrentLocation().getByteOffset();
+		}
+		
+		return locationMap;
+	}
+	
+	private Location readLocation(JsonParser parser, String locationId) throws IOException {
+		
+		Location location = new Location();
+		location.setId(locationId);
+		location.setRoutes(new ArrayList<Route>());
+		
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			
+			if("routes".equalsIgnoreCase(key)) {
+				expect(parser, token, JsonToken.START_ARRAY);
+				List<Route> routes = location.getRoutes();
+				while(parser.nextToken() == JsonToken.START_OBJECT)
+					routes.add(readRoute(parser));
+			}
+			//other attributes -- name, lat, lng
+			else if("name".equalsIgnoreCase(key))
+				location.setName(parser.getText());
+			else if("lat".equalsIgnoreCase(key))
+				location.setLat(parser.getText());
+			else if("lng".equalsIgnoreCase(key))
+				location.setLng(parser.getText());
+			else
+				parser.skipChildren();
+		}
+		
+		return location;
+	}
+	
+	private Route readRoute(JsonParser parser) throws IOException {
+		
+		Route route = new Route();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			
+			if("toId".equalsIgnoreCase(key))
+				route.setToId(parser.getText());
+			else if("distance".equalsIgnoreCase(key))
+				route.setDistance(readDistance(parser, token));
+			else
+				parser.skipChildren();
+		}
+		return route;
+	}
+	
+	/**
+	 * Read rates.json.
+	 * 
+	 * @return HashMap: key -- vehicle type; value -- VehicleRate
+	 * @throws IOException -- also for malformed content
+	 */
+	public Map<String, VehicleRate> readRates(InputStream in) throws IOException {
+		
+		Map<String, VehicleRate> vehicleRateMap = new HashMap<String, VehicleRate>();
+		effectiveFrom = null;
+		
+		try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+			
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				
+				if("effective_from".equals(field)) {
+					expect(parser, token, JsonToken.VALUE_STRING);
+					effectiveFrom = parser.getText();
+					continue;
+				}
+				if(!"rates".equals(field)) {
+					parser.skipChildren();
+					continue;
+				}
+				
+				expect(parser, token, JsonToken.START_OBJECT);
+				while(parser.nextToken() == JsonToken.FIELD_NAME) {
+					String vehicleType = parser.getCurrentName();
+					expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+					vehicleRateMap.put(vehicleType, readRate(parser));
+				}
+			}
+			bytesRead = parser.getCurrentLocation().getByteOffset();
+		}
+		
+		return vehicleRateMap;
+	}
+	
+	private VehicleRate readRate(JsonParser parser) throws IOException {
+		
+		VehicleRate vehicleRate = new VehicleRate();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			
+			if("trip_toll_charge".equalsIgnoreCase(key))
+				vehicleRate.setTripTollCharge(readMoney(parser, token, RoundingMode.UNNECESSARY));
+			else if("camera_charge".equalsIgnoreCase(key))
+				vehicleRate.setCameraCharge(readMoney(parser, token, RoundingMode.UNNECESSARY));
+			else if("eastbound".equalsIgnoreCase(key))
+				vehicleRate.setEastbound(readMoney(parser, token, RoundingMode.HALF_EVEN));
+			else if("westbound".equalsIgnoreCase(key))
+				vehicleRate.setWestbound(readMoney(parser, token, RoundingMode.HALF_EVEN));
+			else if("schedule".equalsIgnoreCase(key)) {
+				expect(parser, token, JsonToken.START_ARRAY);
+				List<RateBand> schedule = new ArrayList<RateBand>();
+				while(parser.nextToken() == JsonToken.START_OBJECT)
+					schedule.add(readBand(parser));
+				vehicleRate.setSchedule(schedule);
+			}
+			else if("rules".equalsIgnoreCase(key)) {
+				expect(parser, token, JsonToken.START_ARRAY);
+				List<String> rules = new ArrayList<String>();
+				while(parser.nextToken() == JsonToken.VALUE_STRING)
+					rules.add(parser.getText());
+				expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+				vehicleRate.setRules(rules);
+			}
+			else
+				parser.skipChildren();
+		}
+		return vehicleRate;
+	}
+	
+	//One time band of a rate schedule, see RateSchedule
+	private RateBand readBand(JsonParser parser) throws IOException {
+		
+		RateBand band = new RateBand();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			
+			if("name".equalsIgnoreCase(key))
+				band.setName(parser.getText());
+			else if("from".equalsIgnoreCase(key))
+				band.setFrom(parser.getText());
+			else if("to".equalsIgnoreCase(key))
+				band.setTo(parser.getText());
+			else if("eastbound".equalsIgnoreCase(key))
+				band.setEastbound(readMoney(parser, token, RoundingMode.HALF_EVEN));
+			else if("westbound".equalsIgnoreCase(key))
+				band.setWestbound(readMoney(parser, token, RoundingMode.HALF_EVEN));
+			else if("days".equalsIgnoreCase(key)) {
+				expect(parser, token, JsonToken.START_ARRAY);
+				List<String> days = new ArrayList<String>();
+				while(parser.nextToken() == JsonToken.VALUE_STRING)
+					days.add(parser.getText());
+				expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+				band.setDays(days);
+			}
+			else
+				parser.skipChildren();
+		}
+		return band;
+	}
+	
+	/**
+	 * The effective_from date-time of the last readRates, when the rates are in force from, see
+	 * RateHistory.
+	 * 
+	 * @return the text, null if rates.json doesn't have one
+	 */
+	public String getEffectiveFrom() {
+		return effectiveFrom;
+	}
+	
+	/**
+	 * Bytes consumed by the last readLocations or readRates.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	
+	//The number text, never through double
+	private static String readNumber(JsonParser parser, JsonToken token) throws IOException {
+		if(token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT)
+			throw new JsonParseException(parser, "Number expected for " + parser.getCurrentName());
+		return parser.getText();
+	}
+	
+	//Charges are exact to 4 decimals, per-km rates are rounded to them
+	private static Money readMoney(JsonParser parser, JsonToken token, RoundingMode mode) throws IOException {
+		String text = readNumber(parser, token);
+		try {
+			return Money.parse(text, mode);
+		} catch (NumberFormatException e) {
+			throw new JsonParseException(parser, "Bad amount for " + parser.getCurrentName() + " -- " + e.getMessage());
+		}
+	}
+	
+	//Rounded to the DistanceIndex precision
+	private static Distance readDistance(JsonParser parser, JsonToken token) throws IOException {
+		String text = readNumber(parser, token);
+		try {
+			return Distance.parse(text, RoundingMode.HALF_EVEN);
+		} catch (NumberFormatException e) {
+			throw new JsonParseException(parser, "Bad distance -- " + e.getMessage());
+		}
+	}
+	
+	private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws IOException {
+		if(token != expected)
+			throw new JsonParseException(parser, expected + " expected, found " + token);
+	}
+}
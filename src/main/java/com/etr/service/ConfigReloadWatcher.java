@@ -0,0 +1,109 @@
+package com.etr.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reload the config when interchanges.json or rates.json changes in the config directory.
+ * 
+ * Only active when tripcalculator.config.dir is set. Changes are collected until the directory 
+ * has been quiet for a while, so a file copied in several writes is loaded once, complete.
+ */
+@Component
+public class ConfigReloadWatcher {
+	
+	private static Logger logger = LoggerFactory.getLogger(ConfigReloadWatcher.class);
+	
+	@Autowired
+	private CostConfigurator costConfigurator;
+	
+	//How long the directory must be quiet before reloading
+	@Value("${tripcalculator.config.reload-quiet-ms:500}")
+	private long quietMillis;
+	
+	private WatchService watchService;
+	
+	@PostConstruct
+	public void start() throws IOException {
+		
+		String dir = costConfigurator.getConfigDirectory();
+		if(dir == null || dir.trim().isEmpty())
+			return;
+		
+		Path path = Paths.get(dir.trim());
+		watchService = path.getFileSystem().newWatchService();
+		path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		
+		Thread thread = new Thread(this::watch, "config-reload-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		
+		logger.info("Watching " + path + " for config changes");
+	}
+	
+	@PreDestroy
+	public void stop() throws IOException {
+		if(watchService != null)
+			watchService.close();
+	}
+	
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				boolean changed = isConfigChange(key);
+				key.reset();
+				if(!changed)
+					continue;
+				
+				//Wait until the directory is quiet
+				WatchKey more;
+				while((more = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+					more.pollEvents();
+					more.reset();
+				}
+				
+				if(!costConfigurator.generateConfigMap())
+					logger.error("Config reload failed, still serving version " + costConfigurator.getSnapshot().getVersion());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			//stopped
+		}
+	}
+	
+	private static boolean isConfigChange(WatchKey key) {
+		boolean changed = false;
+		for(WatchEvent<?> event: key.pollEvents()) {
+			Object context = event.context();
+			if(context == null) {
+				//overflow, some events were lost
+				changed = true;
+				continue;
+			}
+			String fileName = context.toString();
+			if(CostConfigurator.INTERCHANGES_FILE.equals(fileName) || CostConfigurator.RATES_FILE.equals(fileName))
+				changed = true;
+		}
+		return changed;
+	}
+}
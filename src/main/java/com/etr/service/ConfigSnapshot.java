@@ -0,0 +1,167 @@
+package com.etr.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.etr.model.Location;
+import com.etr.model.VehicleRate;
+
+/**
+ * One complete, immutable network and rate configuration.
+ *
+ * CostConfigurator builds a new snapshot on every (re)load and publishes it with a single
+ * reference swap. A quote reads the current snapshot once and uses it to the end, so it never
+ * sees half of an old config and half of a new one, and readers never take a lock.
+ */
+public final class ConfigSnapshot {
+
+	//See getEffectiveFrom
+	public static final long NO_EFFECTIVE_FROM = Long.MIN_VALUE;
+
+	//Rough heap sizes used by estimateBytes
+	private static final long LOCATION_BYTES = 1024;
+	private static final long SCHEDULE_BYTES = RateSchedule.MINUTES_PER_WEEK + 1024;
+
+	//Content fingerprint of interchanges.json and rates.json, the same config gives the same version
+	private final String version;
+
+	//Load counter within this process
+	private final long loadSequence;
+
+	//System.currentTimeMillis() at load
+	private final long loadedAt;
+
+	//Epoch milliseconds the rates are in force from, NO_EFFECTIVE_FROM when the config doesn't say
+	private final long effectiveFrom;
+
+	//Key: location id
+	private final Map<String, Location> locationIdMap;
+
+	//Key: vehicle type
+	private final Map<String, VehicleRate> vehicleRateMap;
+
+	private final DistanceIndex distanceIndex;
+	private final FareMatrix fareMatrix;
+	private final LocationNameIndex nameIndex;
+	private final SpatialIndex spatialIndex;
+	
+	//Key: vehicle type with a rate schedule
+	private final Map<String, RateSchedule> rateSchedules;
+
+	//Key: vehicle type with fare rules
+	private final Map<String, PricingRules> pricingRules;
+
+	//Where the load time went
+	private final ConfigLoadReport loadReport;
+
+	public ConfigSnapshot(String version, long loadSequence, long loadedAt, long effectiveFrom, Map<String, Location> locationIdMap,
+			Map<String, VehicleRate> vehicleRateMap, DistanceIndex distanceIndex, FareMatrix fareMatrix,
+			LocationNameIndex nameIndex, SpatialIndex spatialIndex, Map<String, RateSchedule> rateSchedules,
+			Map<String, PricingRules> pricingRules, ConfigLoadReport loadReport) {
+		this.version = version;
+		this.loadSequence = loadSequence;
+		this.loadedAt = loadedAt;
+		this.effectiveFrom = effectiveFrom;
+		this.locationIdMap = Collections.unmodifiableMap(new HashMap<String, Location>(locationIdMap));
+		this.vehicleRateMap = Collections.unmodifiableMap(new HashMap<String, VehicleRate>(vehicleRateMap));
+		this.distanceIndex = distanceIndex;
+		this.fareMatrix = fareMatrix;
+		this.nameIndex = nameIndex;
+		this.spatialIndex = spatialIndex;
+		this.rateSchedules = Collections.unmodifiableMap(new HashMap<String, RateSchedule>(rateSchedules));
+		this.pricingRules = Collections.unmodifiableMap(new HashMap<String, PricingRules>(pricingRules));
+		this.loadReport = loadReport;
+	}
+
+	/**
+	 * The snapshot in place before the first load, it knows no location.
+	 */
+	public static ConfigSnapshot empty() {
+		DistanceIndex index = new DistanceIndex(new ArrayList<Location>(), new long[0]);
+		return new ConfigSnapshot("none", 0, 0, NO_EFFECTIVE_FROM, new HashMap<String, Location>(), new HashMap<String, VehicleRate>(),
+				index, FareMatrix.disabled(), new LocationNameIndex(index), new SpatialIndex(index), new HashMap<String, RateSchedule>(),
+				new HashMap<String, PricingRules>(), new ConfigLoadReport());
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public long getLoadSequence() {
+		return loadSequence;
+	}
+
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+
+	/**
+	 * When the rates are in force from, the effective_from of rates.json.
+	 * 
+	 * @return epoch milliseconds, NO_EFFECTIVE_FROM if not set
+	 */
+	public long getEffectiveFrom() {
+		return effectiveFrom;
+	}
+
+	public Map<String, Location> getLocationIdMap() {
+		return locationIdMap;
+	}
+
+	public Map<String, VehicleRate> getVehicleRateMap() {
+		return vehicleRateMap;
+	}
+
+	public DistanceIndex getDistanceIndex() {
+		return distanceIndex;
+	}
+
+	public FareMatrix getFareMatrix() {
+		return fareMatrix;
+	}
+
+	public LocationNameIndex getNameIndex() {
+		return nameIndex;
+	}
+
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * @return the rate schedule of a vehicle type, null when it has fixed rates
+	 */
+	public RateSchedule getRateSchedule(String vehicleType) {
+		return rateSchedules.get(vehicleType);
+	}
+
+	/**
+	 * @return the fare rules of a vehicle type, PricingRules.NONE without rules
+	 */
+	public PricingRules getPricingRules(String vehicleType) {
+		PricingRules rules = pricingRules.get(vehicleType);
+		return rules == null ? PricingRules.NONE : rules;
+	}
+
+	public ConfigLoadReport getLoadReport() {
+		return loadReport;
+	}
+
+	/**
+	 * Rough heap footprint of the snapshot, for memory budgets: locations with their names and
+	 * routes, the distance tables, the fare matrix and the rate schedules. Networks that are
+	 * not a chain count their whole route cache.
+	 */
+	public long estimateBytes() {
+
+		long n = distanceIndex.size();
+		long bytes = n * LOCATION_BYTES;
+		if(!distanceIndex.isChain())
+			bytes += n <= RoutingEngine.ALL_PAIRS_LIMIT ? n * n * 8 : Math.min(n, RoutingEngine.ROW_CACHE_SIZE) * n * 8;
+		bytes += fareMatrix.estimateBytes();
+		bytes += rateSchedules.size() * SCHEDULE_BYTES;
+		return bytes;
+	}
+}
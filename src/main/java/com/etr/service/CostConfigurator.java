@@ -1,38 +1,58 @@
 package com.etr.service;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.etr.error.UnknownLocationException;
+import com.etr.model.CoordinateQuoteResponse;
 import com.etr.model.CostResponse;
 import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.Distance;
+import com.etr.model.ItineraryLeg;
+import com.etr.model.ItineraryResponse;
 import com.etr.model.Location;
+import com.etr.model.Money;
+import com.etr.model.NearestLocation;
+import com.etr.model.RateBand;
 import com.etr.model.Route;
 import com.etr.model.VehicleRate;
+import com.etr.model.VehicleTypeEnum;
   
 /**
- * 1. Keep the location configuration map 
+ * 1. Keep the location configuration map, compiled into a DistanceIndex
  * 2. Provide function to retrieve distance between locations.
  * 3. Provide function to retrieve KmRate based on vehicle type
  * 
@@ -46,15 +66,40 @@ public class CostConfigurator
 	
 	private static Logger logger = LoggerFactory.getLogger(CostConfigurator.class);
 	
-	//Keep the location map
-	//Key: location name;
-	//Value: location which has absolute distance
-	private Map<String, Location> locationNameMap = new HashMap<String, Location>();
+	//Cost per km for the distance part of the trip
+	private static final Money PER_KM = Money.ofCents(25);
 	
-	//Keep vehicle rate map
-	//Key: vehicle type
-	//Value: VehicleRate instance
-	private Map<String, VehicleRate> vehicleRateMap = new HashMap<String, VehicleRate>();
+	public static final String INTERCHANGES_FILE = "interchanges.json";
+	public static final String RATES_FILE = "rates.json";
+	
+	//Zone of trip times without an offset, and of the rate schedule bands
+	public static final String DEFAULT_TIME_ZONE = "America/Toronto";
+	
+	//Upper bound of the stops of an itinerary
+	public static final int MAX_ITINERARY_STOPS = 100;
+	
+	//Keep the current config: location index, vehicle rate map and fare matrix
+	//Replaced as a whole on every load, see ConfigSnapshot
+	private final AtomicReference<ConfigSnapshot> snapshot = new AtomicReference<ConfigSnapshot>(ConfigSnapshot.empty());
+	
+	private final AtomicLong loadCounter = new AtomicLong();
+	
+	//Called with every snapshot published, see addPublishListener
+	private final List<Consumer<ConfigSnapshot>> publishListeners = new CopyOnWriteArrayList<Consumer<ConfigSnapshot>>();
+	
+	//Loads rejected since startup, the previous config stayed in place
+	private final AtomicLong failedLoadCounter = new AtomicLong();
+	
+	//Directory holding interchanges.json and rates.json, the classpath copies are used when empty
+	@Value("${tripcalculator.config.dir:}")
+	private String configDirectory;
+	
+	//Compiled network snapshot file, used instead of the JSON files when set
+	@Value("${tripcalculator.config.snapshot:}")
+	private String snapshotFile;
+	
+	@Value("${tripcalculator.time-zone:" + DEFAULT_TIME_ZONE + "}")
+	private String timeZone = DEFAULT_TIME_ZONE;
 	
 	/**
 	 * Return the cost between two locations.
@@ -67,18 +112,8 @@ public class CostConfigurator
 	public CostResponse getCostBetweenLocations(String fromName, String toName) 
 			throws IllegalArgumentException {
 		
-		BigDecimal distance = getDistanceBetweenLocations(fromName.trim(), toName.trim());  	
-    	BigDecimal perKM = new BigDecimal(0.25);
-    	BigDecimal cost = distance.multiply(perKM);
-    	
-    	distance = distance.setScale(3, RoundingMode.HALF_EVEN);
-    	cost = cost.setScale(2, RoundingMode.HALF_EVEN);
-    	
-    	CostResponse resp = new CostResponse();
-    	resp.setCost(cost);
-    	resp.setDistance(distance);
-    	
-    	return resp;
+		ConfigSnapshot snap = snapshot.get();
+		return quote(snap, getOrdinal(snap, fromName.trim()), getOrdinal(snap, toName.trim()), null);
 	}
 	
 	/**
@@ -95,48 +130,382 @@ public class CostConfigurator
 	public CostResponse getCostWithVehicleType(String fromName, String toName, String vehicleType) 
 			throws IllegalArgumentException {
 		
-		//Distance cost
-		BigDecimal distance = getDistanceBetweenLocations(fromName.trim(), toName.trim());  	
-    	BigDecimal perKM = new BigDecimal(0.25);
-    	BigDecimal cost = distance.multiply(perKM);
+		return getCostWithVehicleType(fromName, toName, vehicleType, null);
+	}
+	
+	/**
+	 * Get cost based on distance, vehicle type and the time of the trip.
+	 * 
+	 * The per-km rate is the one of the rate schedule band the trip time falls in, see RateSchedule.
+	 * 
+	 * @param tripTime: start of the trip, the base rates apply when null
+	 * @throws IllegalArgumentException
+	 */
+	public CostResponse getCostWithVehicleType(String fromName, String toName, String vehicleType, ZonedDateTime tripTime) 
+			throws IllegalArgumentException {
+		
+		ConfigSnapshot snap = snapshot.get();
+		int fromOrdinal = getOrdinal(snap, fromName.trim());
+		int toOrdinal = getOrdinal(snap, toName.trim());
+		if(vehicleType == null)
+			throw new IllegalArgumentException("The input vehicle type doesn't exists.");
+		
+		return quote(snap, fromOrdinal, toOrdinal, vehicleType, bandAt(snap, vehicleType, tripTime));
+	}
+	
+	/**
+	 * Price a trip between two ordinals of one snapshot, at the base rates.
+	 * 
+	 * @param snap: the snapshot the ordinals come from
+	 * @param vehicleType: null for the distance cost only
+	 * @throws IllegalArgumentException -- no route, or unknown vehicle type.
+	 */
+	public static CostResponse quote(ConfigSnapshot snap, int fromOrdinal, int toOrdinal, String vehicleType) 
+			throws IllegalArgumentException {
+		
+		return quote(snap, fromOrdinal, toOrdinal, vehicleType, 0);
+	}
+	
+	/**
+	 * Price a trip between two ordinals of one snapshot.
+	 * 
+	 * @param snap: the snapshot the ordinals come from
+	 * @param vehicleType: null for the distance cost only
+	 * @param band: rate schedule band of the vehicle type, 0 for the base rates, see bandAt
+	 * @throws IllegalArgumentException -- no route, or unknown vehicle type.
+	 */
+	public static CostResponse quote(ConfigSnapshot snap, int fromOrdinal, int toOrdinal, String vehicleType, int band) 
+			throws IllegalArgumentException {
+		
+		DistanceIndex index = snap.getDistanceIndex();
+		FareMatrix matrix = snap.getFareMatrix();
+		
+		if(vehicleType == null) {
+			if(matrix.isEnabled())
+				return checkRoute(matrix.getCost(fromOrdinal, toOrdinal));
+			return priceDistance(index, fromOrdinal, toOrdinal, snap.getVersion());
+		}
+		
+		//Banded rates are priced on demand, the fare matrix holds the base rates
+		if(band > 0) {
+			RateSchedule schedule = snap.getRateSchedule(vehicleType);
+			if(!index.isReachable(fromOrdinal, toOrdinal))
+				throw new IllegalArgumentException("There is no route between the input locations.");
+			CostWithVehicleTypeResponse resp = priceTrip(index, fromOrdinal, toOrdinal, schedule.getRate(band), 
+					snap.getPricingRules(vehicleType), snap.getVersion());
+			resp.setRateBand(schedule.getName(band));
+			return resp;
+		}
+		
+		int classIndex = matrix.classIndexOf(vehicleType);
+		if(classIndex >= 0)
+			return checkRoute(matrix.getFare(classIndex, fromOrdinal, toOrdinal));
     	
-    	distance = distance.setScale(3, RoundingMode.HALF_EVEN);
-    	cost = cost.setScale(2, RoundingMode.HALF_EVEN);
+    	VehicleRate vehicleRate = snap.getVehicleRateMap().get(vehicleType);
+    	if(vehicleRate == null)
+    		throw new IllegalArgumentException("The input vehicle type doesn't exists.");
+    	
+    	return priceTrip(index, fromOrdinal, toOrdinal, vehicleRate, snap.getPricingRules(vehicleType), snap.getVersion());
+	}
+	
+	/**
+	 * Price a route with several stops in one call.
+	 * 
+	 * Names are resolved once against one snapshot and every leg is a distance lookup, see 
+	 * quoteItinerary. The per-trip charges are applied once for the whole itinerary.
+	 * 
+	 * @param stops: location names in travel order, at least 2
+	 * @param vehicleType: null for the distance cost only
+	 * @param tripTime: start of the trip, selects the rate schedule band of every leg; may be null
+	 * @throws IllegalArgumentException
+	 */
+	public ItineraryResponse getItineraryCost(List<String> stops, String vehicleType, ZonedDateTime tripTime) 
+			throws IllegalArgumentException {
+		
+		if(stops == null || stops.size() < 2)
+			throw new IllegalArgumentException("An itinerary needs at least 2 stops.");
+		if(stops.size() > MAX_ITINERARY_STOPS)
+			throw new IllegalArgumentException("An itinerary has at most " + MAX_ITINERARY_STOPS + " stops.");
+		
+		ConfigSnapshot snap = snapshot.get();
+		int[] ordinals = new int[stops.size()];
+		for(int i = 0; i < ordinals.length; i++) {
+			if(stops.get(i) == null)
+				throw new IllegalArgumentException("Itinerary stops can't be null.");
+			ordinals[i] = getOrdinal(snap, stops.get(i).trim());
+		}
+		
+		return quoteItinerary(snap, ordinals, vehicleType, bandAt(snap, vehicleType, tripTime));
+	}
+	
+	/**
+	 * Price an itinerary between ordinals of one snapshot.
+	 * 
+	 * Each leg gets its distance, distance cost, direction and per-km rate. The totals are
+	 * the sums of the legs, plus tripTollCharge and cameraCharge once. Two stops give the
+	 * same total as quote.
+	 * 
+	 * @param ordinals: stops in travel order
+	 * @param vehicleType: null for the distance cost only
+	 * @param band: rate schedule band of the vehicle type, 0 for the base rates
+	 * @throws IllegalArgumentException -- a leg without a route, or unknown vehicle type.
+	 */
+	public static ItineraryResponse quoteItinerary(ConfigSnapshot snap, int[] ordinals, String vehicleType, int band) 
+			throws IllegalArgumentException {
+		
+		DistanceIndex index = snap.getDistanceIndex();
+		VehicleRate vehicleRate = null;
+		if(vehicleType != null) {
+			vehicleRate = band > 0 ? snap.getRateSchedule(vehicleType).getRate(band) : snap.getVehicleRateMap().get(vehicleType);
+			if(vehicleRate == null)
+				throw new IllegalArgumentException("The input vehicle type doesn't exists.");
+		}
+		
+		long totalDistance = 0;
+		Money totalCost = Money.ZERO;
+		Money legRates = Money.ZERO;
+		List<ItineraryLeg> legs = new ArrayList<ItineraryLeg>(ordinals.length - 1);
+		for(int i = 1; i < ordinals.length; i++) {
+			int from = ordinals[i - 1];
+			int to = ordinals[i];
+			if(!index.isReachable(from, to))
+				throw new IllegalArgumentException("There is no route between " + index.getLocation(from).getName()
+						+ " and " + index.getLocation(to).getName() + ".");
+			
+			long fixedDistance = index.distanceBetween(from, to);
+			Money cost = distanceCost(fixedDistance);
+			totalDistance += fixedDistance;
+			totalCost = totalCost.plus(cost);
+			
+			ItineraryLeg leg = new ItineraryLeg();
+			leg.setFromLocation(index.getLocation(from).getName());
+			leg.setToLocation(index.getLocation(to).getName());
+			leg.setDistance(scaledDistance(fixedDistance));
+			leg.setCost(cost);
+			if(vehicleRate != null) {
+				boolean westbound = index.isWestbound(from, to);
+				leg.setDirection(westbound ? "westbound" : "eastbound");
+				leg.setKmRate(westbound ? vehicleRate.getWestbound() : vehicleRate.getEastbound());
+				legRates = legRates.plus(leg.getKmRate());
+			}
+			legs.add(leg);
+		}
+		
+		ItineraryResponse resp = new ItineraryResponse();
+		resp.setDistance(scaledDistance(totalDistance));
+		resp.setCost(totalCost);
+		resp.setConfigVersion(snap.getVersion());
+		resp.setLegs(legs);
+		if(vehicleRate != null) {
+			//Per-trip charges once, not per leg; the fare rules see the whole itinerary
+			PricingRules rules = snap.getPricingRules(vehicleType);
+			if(rules.isEmpty()) {
+				Money kmRate = vehicleRate.getTripTollCharge().plus(vehicleRate.getCameraCharge()).plus(legRates);
+				resp.setKmRate(kmRate.round(Money.CENTS, RoundingMode.HALF_EVEN));
+				resp.setTripCharge(totalCost.plus(resp.getKmRate()));
+			}
+			else {
+				PricingRules.Fare fare = new PricingRules.Fare(resp.getDistance(), totalCost, vehicleRate.getTripTollCharge(),
+						vehicleRate.getCameraCharge(), legRates, index.isWestbound(ordinals[0], ordinals[ordinals.length - 1]));
+				rules.apply(fare);
+				resp.setKmRate(fare.getKmRate());
+				resp.setTripCharge(fare.getCharge());
+			}
+			if(band > 0)
+				resp.setRateBand(snap.getRateSchedule(vehicleType).getName(band));
+		}
+		return resp;
+	}
+	
+	/**
+	 * The location nearest to a GPS coordinate, see SpatialIndex.
+	 * 
+	 * @param lat: degrees, -90 to 90
+	 * @param lng: degrees, -180 to 180
+	 * @throws IllegalArgumentException -- bad coordinate, or no location has coordinates.
+	 */
+	public NearestLocation findNearestLocation(double lat, double lng) throws IllegalArgumentException {
+		
+		ConfigSnapshot snap = snapshot.get();
+		return nearestLocation(snap, nearestOrdinal(snap, lat, lng), lat, lng);
+	}
+	
+	/**
+	 * Price a trip between the locations nearest to two GPS coordinates.
+	 * 
+	 * Both coordinates are resolved in the same snapshot the trip is priced in.
+	 * 
+	 * @param vehicleType: null for the distance cost only
+	 * @param tripTime: start of the trip, the base rates apply when null
+	 * @throws IllegalArgumentException
+	 */
+	public CoordinateQuoteResponse getCostByCoordinates(double fromLat, double fromLng, double toLat, double toLng, 
+			String vehicleType, ZonedDateTime tripTime) throws IllegalArgumentException {
+		
+		ConfigSnapshot snap = snapshot.get();
+		int fromOrdinal = nearestOrdinal(snap, fromLat, fromLng);
+		int toOrdinal = nearestOrdinal(snap, toLat, toLng);
+		
+		CoordinateQuoteResponse resp = new CoordinateQuoteResponse();
+		resp.setFrom(nearestLocation(snap, fromOrdinal, fromLat, fromLng));
+		resp.setTo(nearestLocation(snap, toOrdinal, toLat, toLng));
+		resp.setQuote(quote(snap, fromOrdinal, toOrdinal, vehicleType, bandAt(snap, vehicleType, tripTime)));
+		return resp;
+	}
+	
+	private static int nearestOrdinal(ConfigSnapshot snap, double lat, double lng) throws IllegalArgumentException {
+		
+		if(!(lat >= -90 && lat <= 90) || !(lng >= -180 && lng <= 180))
+			throw new IllegalArgumentException("The input coordinate is out of range.");
+		int ordinal = snap.getSpatialIndex().nearest(lat, lng);
+		if(ordinal < 0)
+			throw new IllegalArgumentException("No location has coordinates.");
+		return ordinal;
+	}
+	
+	private static NearestLocation nearestLocation(ConfigSnapshot snap, int ordinal, double lat, double lng) {
+		double km = snap.getSpatialIndex().distanceKm(ordinal, lat, lng);
+		return new NearestLocation(snap.getDistanceIndex().getLocation(ordinal),
+				Distance.ofKm(km).round(Distance.METRES, RoundingMode.HALF_EVEN));
+	}
+	
+	/**
+	 * Rate schedule band of a trip time.
+	 * 
+	 * @param tripTime: may be null
+	 * @return the band number, 0 for the base rates
+	 */
+	public int bandAt(ConfigSnapshot snap, String vehicleType, ZonedDateTime tripTime) {
+		
+		if(tripTime == null || vehicleType == null)
+			return 0;
+		RateSchedule schedule = snap.getRateSchedule(vehicleType);
+		if(schedule == null)
+			return 0;
+		return schedule.bandAt(tripTime.withZoneSameInstant(getZone()).toLocalDateTime());
+	}
+	
+	/**
+	 * Parse a trip time, with an offset (2019-02-01T08:30-05:00, 2019-02-01T13:30Z) or in the
+	 * network time zone (2019-02-01T08:30).
+	 * 
+	 * @throws IllegalArgumentException
+	 */
+	public ZonedDateTime parseTripTime(String text) throws IllegalArgumentException {
+		
+		try {
+			TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(text.trim(), OffsetDateTime::from, LocalDateTime::from);
+			if(parsed instanceof OffsetDateTime)
+				return ((OffsetDateTime) parsed).atZoneSameInstant(getZone());
+			return ((LocalDateTime) parsed).atZone(getZone());
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("The input trip time is not an ISO-8601 date-time.");
+		}
+	}
+	
+	//effective_from of rates.json, in the network time zone without an offset
+	private long parseEffectiveFrom(String text) throws IllegalStateException {
+		try {
+			return parseTripTime(text).toInstant().toEpochMilli();
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("effective_from is not an ISO-8601 date-time -- " + text);
+		}
+	}
+	
+	private ZoneId getZone() {
+		return ZoneId.of(isSet(timeZone) ? timeZone.trim() : DEFAULT_TIME_ZONE);
+	}
+	
+	//Empty fare matrix cells are pairs without a route
+	private static CostResponse checkRoute(CostResponse resp) {
+		if(resp == null)
+			throw new IllegalArgumentException("There is no route between the input locations.");
+		return resp;
+	}
+	
+	/**
+	 * Price the distance part of a trip between two ordinals.
+	 */
+	static CostResponse priceDistance(DistanceIndex index, int fromOrdinal, int toOrdinal, String configVersion) {
+		
+		long fixedDistance = index.distanceBetween(fromOrdinal, toOrdinal);
     	
-    	//VehicleRate
-    	VehicleRate vehicleRate = vehicleRateMap.get(vehicleType);
+    	CostResponse resp = new CostResponse();
+    	resp.setCost(distanceCost(fixedDistance));
+    	resp.setDistance(scaledDistance(fixedDistance));
+    	resp.setConfigVersion(configVersion);
     	
-    	//For direction
-    	Location fromLocation = locationNameMap.get(fromName);
-		Location toLocation = locationNameMap.get(toName);
+    	return resp;
+	}
+	
+	/**
+	 * Price a trip between two ordinals for one vehicle rate.
+	 * 
+	 * @param rules: fare rules of the vehicle type, PricingRules.NONE for the built-in fare
+	 */
+	static CostWithVehicleTypeResponse priceTrip(DistanceIndex index, int fromOrdinal, int toOrdinal, 
+			VehicleRate vehicleRate, PricingRules rules, String configVersion) {
+		
+		//Distance cost
+		long fixedDistance = index.distanceBetween(fromOrdinal, toOrdinal);
+		Money cost = distanceCost(fixedDistance);
+		boolean westbound = index.isWestbound(fromOrdinal, toOrdinal);
     	
     	CostWithVehicleTypeResponse resp = new CostWithVehicleTypeResponse();
-    	resp.setDistance(distance);
+    	resp.setDistance(scaledDistance(fixedDistance));
+    	resp.setDirection(westbound ? "westbound" : "eastbound");
+    	resp.setConfigVersion(configVersion);
+    	resp.setDistanceCost(cost);
     	
-    	if(Integer.parseInt(fromLocation.getId()) < Integer.parseInt(toLocation.getId()))
-    		resp.setDirection("westbound");
-    	else 
-    		resp.setDirection("eastbound");
+    	Money rate = westbound ? vehicleRate.getWestbound() : vehicleRate.getEastbound();
+    	if(!rules.isEmpty()) {
+    		PricingRules.Fare fare = new PricingRules.Fare(resp.getDistance(), cost, vehicleRate.getTripTollCharge(),
+    				vehicleRate.getCameraCharge(), rate, westbound);
+    		rules.apply(fare);
+    		resp.setKmRate(fare.getKmRate());
+    		resp.setTripCharge(fare.getCharge());
+    		return resp;
+    	}
     	
     	//Calculate kmRate
-    	if(vehicleRate != null) {
-    		BigDecimal kmRate = vehicleRate.getTripTollCharge().add(vehicleRate.getCameraCharge());
-    		
-    		if(Integer.parseInt(fromLocation.getId()) < Integer.parseInt(toLocation.getId()))
-    			kmRate = kmRate.add(vehicleRate.getWestbound());
-        	else 
-        		kmRate = kmRate.add(vehicleRate.getEastbound());
-    		
-    		resp.setKmRate(kmRate.setScale(2, RoundingMode.HALF_EVEN));
-    	}
+		Money kmRate = vehicleRate.getTripTollCharge().plus(vehicleRate.getCameraCharge()).plus(rate);
+		resp.setKmRate(kmRate.round(Money.CENTS, RoundingMode.HALF_EVEN));
     	
     	//need to confirm the requirement
     	//tripCharge = cost + kmRate??
-    	resp.setTripCharge(cost.add(resp.getKmRate()));
+    	resp.setTripCharge(cost.plus(resp.getKmRate()));
     	
     	return resp;
 	}
 	
+	/**
+	 * Precompute every from/to/vehicle class answer, see FareMatrix.
+	 */
+	static FareMatrix buildFareMatrix(DistanceIndex index, Map<String, VehicleRate> rateMap, Map<String, PricingRules> rules,
+			String configVersion) {
+		
+		int size = index.size();
+		String[] vehicleTypes = rateMap.keySet().toArray(new String[rateMap.size()]);
+		if(!FareMatrix.fits(size, vehicleTypes.length))
+			return FareMatrix.disabled();
+		
+		FareMatrix matrix = FareMatrix.create(size, vehicleTypes, configVersion);
+		for(int from = 0; from < size; from++) {
+			for(int to = 0; to < size; to++) {
+				//No route, the cells stay empty
+				if(!index.isReachable(from, to))
+					continue;
+				
+				matrix.setCost(from, to, priceDistance(index, from, to, configVersion));
+				for(int cls = 0; cls < vehicleTypes.length; cls++)
+					matrix.setFare(cls, from, to, priceTrip(index, from, to, rateMap.get(vehicleTypes[cls]), 
+							rules.containsKey(vehicleTypes[cls]) ? rules.get(vehicleTypes[cls]) : PricingRules.NONE, configVersion));
+			}
+		}
+		
+		return matrix;
+	}
+	
 	/**
 	 * Return the distance between two locations.
 	 * 
@@ -145,19 +514,130 @@ public class CostConfigurator
 	 * @return
 	 * @throws IllegalArgumentException -- if the input location name doesn't exists.
 	 */
-	public BigDecimal getDistanceBetweenLocations(String fromName, String toName) 
+	public Distance getDistanceBetweenLocations(String fromName, String toName) 
 			throws IllegalArgumentException {
 		
-		Location fromLocation = locationNameMap.get(fromName);
-		Location toLocation = locationNameMap.get(toName);
+		return Distance.ofFixed(getFixedDistance(snapshot.get(), fromName, toName));
+	}
+	
+	/**
+	 * Return the fixed-point distance (see DistanceIndex) between two locations, no allocation.
+	 * 
+	 * @throws IllegalArgumentException -- if the input location name doesn't exists.
+	 */
+	public long getFixedDistanceBetweenLocations(String fromName, String toName) 
+			throws IllegalArgumentException {
 		
-		if(fromLocation == null || toLocation == null) {
-			System.out.println("The input location name doesn't exists! ");
-			listLocationNames();
-			throw new IllegalArgumentException("The input location name doesn't exists.");
-		}
+		return getFixedDistance(snapshot.get(), fromName, toName);
+	}
+	
+	/**
+	 * The config published by the last successful generateConfigMap.
+	 * Read it once and use the same instance for everything that must be consistent.
+	 */
+	public ConfigSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+	
+	/**
+	 * The location index of the current snapshot.
+	 */
+	public DistanceIndex getDistanceIndex() {
+		return snapshot.get().getDistanceIndex();
+	}
+	
+	/**
+	 * The fare matrix of the current snapshot.
+	 */
+	public FareMatrix getFareMatrix() {
+		return snapshot.get().getFareMatrix();
+	}
+	
+	/**
+	 * Number of generateConfigMap calls that failed and kept the previous config.
+	 */
+	public long getFailedLoadCount() {
+		return failedLoadCounter.get();
+	}
+	
+	public String getTimeZone() {
+		return timeZone;
+	}
+	
+	/**
+	 * Zone of the rate schedule bands and of trip times without an offset.
+	 */
+	public void setTimeZone(String timeZone) {
+		this.timeZone = timeZone;
+	}
+	
+	public String getConfigDirectory() {
+		return configDirectory;
+	}
+	
+	/**
+	 * Load interchanges.json and rates.json from this directory instead of the classpath.
+	 */
+	public void setConfigDirectory(String configDirectory) {
+		this.configDirectory = configDirectory;
+	}
+	
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+	
+	/**
+	 * Load a compiled network snapshot instead of the JSON files.
+	 */
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+	
+	/**
+	 * Locations whose name starts with the prefix, in name order, see LocationNameIndex.
+	 * 
+	 * @param prefix: any spelling, case, accents and street suffixes are folded
+	 * @param limit: max number of locations
+	 */
+	public List<Location> findLocationsByPrefix(String prefix, int limit) {
 		
-		return fromLocation.getDistance().subtract(toLocation.getDistance()).abs();
+		ConfigSnapshot snap = snapshot.get();
+		List<Location> found = new ArrayList<Location>();
+		for(int ordinal: snap.getNameIndex().findByPrefix(prefix, limit))
+			found.add(snap.getDistanceIndex().getLocation(ordinal));
+		return found;
+	}
+	
+	private long getFixedDistance(ConfigSnapshot snap, String fromName, String toName) {
+		return snap.getDistanceIndex().distanceBetween(getOrdinal(snap, fromName), getOrdinal(snap, toName));
+	}
+	
+	/**
+	 * Ordinal of a location name in a snapshot, exact or normalized, see LocationNameIndex.
+	 * A miss is a client error, it doesn't dump the location list.
+	 * 
+	 * @throws UnknownLocationException -- with the closest names.
+	 */
+	public static int getOrdinal(ConfigSnapshot snap, String name) throws UnknownLocationException {
+		LocationNameIndex nameIndex = snap.getNameIndex();
+		int ordinal = nameIndex.ordinalOf(name);
+		if(ordinal < 0)
+			throw new UnknownLocationException(name, nameIndex.suggest(name, UnknownLocationException.MAX_SUGGESTIONS));
+		return ordinal;
+	}
+	
+	/**
+	 * Cost of the distance part, HALF_EVEN rounded to cents.
+	 */
+	private static Money distanceCost(long fixedDistance) {
+		return PER_KM.times(Distance.ofFixed(fixedDistance), Money.CENTS, RoundingMode.HALF_EVEN);
+	}
+	
+	/**
+	 * Distance with 3 decimals, HALF_EVEN rounded.
+	 */
+	private static Distance scaledDistance(long fixedDistance) {
+		return Distance.ofFixed(fixedDistance).round(Distance.METRES, RoundingMode.HALF_EVEN);
 	}
 
 	
@@ -166,6 +646,9 @@ public class CostConfigurator
 	 * 
 	 * Each location has the absolute distance from the first location to the current location.
 	 * 
+	 * The whole config is loaded and validated off to the side, then published with one 
+	 * reference swap. On failure the previous config stays in place.
+	 * 
 	 * @return
 	 * 		false -- something wrong when generating the config map.
 	 */
@@ -173,63 +656,366 @@ public class CostConfigurator
 	@PostConstruct
 	public boolean generateConfigMap() {
 		
-		Map<String, Location> localIdMap = null;
+		ConfigSnapshot newSnapshot = null;
 		
 		try {
-			localIdMap = getLocationConfig();
+			newSnapshot = loadSnapshot();
 		} catch (IOException e) {
 			logger.error(e.getMessage());
+			failedLoadCounter.incrementAndGet();
 			return false;
-		} catch (ParseException e) {
-			logger.error(e.getMessage());
+		} catch (RuntimeException e) {
+			//Malformed or invalid config
+			logger.error("Invalid config -- " + e.getMessage());
+			failedLoadCounter.incrementAndGet();
 			return false;
 		}
 		
-		if(localIdMap == null)
-			return false;
+		ConfigSnapshot oldSnapshot = snapshot.getAndSet(newSnapshot);
+		logger.info("Config version " + newSnapshot.getVersion() + " published, replaced " + oldSnapshot.getVersion()
+				+ " -- " + newSnapshot.getLoadReport());
+		
+		for(Consumer<ConfigSnapshot> listener: publishListeners) {
+			try {
+				listener.accept(newSnapshot);
+			} catch (RuntimeException e) {
+				logger.error("Publish listener failed on config version " + newSnapshot.getVersion(), e);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * A configurator fixed on one loaded snapshot, e.g. a version of the RateHistory. Nothing
+	 * publishes to it, a later load of the bean it came from doesn't change it.
+	 * 
+	 * @param timeZone: see setTimeZone
+	 */
+	static CostConfigurator boundTo(ConfigSnapshot snap, String timeZone) {
+		CostConfigurator configurator = new CostConfigurator();
+		configurator.setTimeZone(timeZone);
+		configurator.snapshot.set(snap);
+		return configurator;
+	}
+	
+	/**
+	 * Call a listener with every snapshot published from now on, after it is in place.
+	 */
+	public void addPublishListener(Consumer<ConfigSnapshot> listener) {
+		publishListeners.add(listener);
+	}
+	
+	/**
+	 * Load and validate a complete snapshot, without publishing it.
+	 * 
+	 * @throws IOException
+	 * @throws IllegalStateException -- if the config is not valid.
+	 */
+	ConfigSnapshot loadSnapshot() throws IOException {
 		
-		//Absolute distance -- keep the distance from the first location to the current location
-		BigDecimal absoluDistance = new BigDecimal(0);
+		ConfigLoadReport report = new ConfigLoadReport();
+		long phaseStart = System.nanoTime();
 		
-		//To keep the location that has been gone through
-		Set<String> passedLocSet = new HashSet<String>();
+		String version = null;
+		long effectiveFrom = ConfigSnapshot.NO_EFFECTIVE_FROM;
+		Map<String, Location> localIdMap = null;
+		Map<String, VehicleRate> rateMap = null;
+		NetworkSnapshotFile compiled = null;
+		
+		if(isSet(snapshotFile)) {
+			Path path = Paths.get(snapshotFile.trim());
+			compiled = NetworkSnapshotFile.read(path);
+			version = compiled.getVersion();
+			effectiveFrom = compiled.getEffectiveFrom();
+			localIdMap = compiled.getLocations();
+			rateMap = compiled.getRates();
+			report.addBytesRead(Files.size(path));
+			report.setLocationCount(localIdMap.size());
+			report.setVehicleTypeCount(rateMap.size());
+			phaseStart = report.endPhase("map " + path.getFileName(), phaseStart);
+		}
+		else {
+			MessageDigest digest = newDigest();
+			ConfigParser parser = new ConfigParser();
+			
+			try (InputStream in = openConfig(INTERCHANGES_FILE, digest)) {
+				localIdMap = parser.readLocations(in);
+			}
+			report.addBytesRead(parser.getBytesRead());
+			report.setLocationCount(localIdMap.size());
+			phaseStart = report.endPhase("parse " + INTERCHANGES_FILE, phaseStart);
+			
+			try (InputStream in = openConfig(RATES_FILE, digest)) {
+				rateMap = parser.readRates(in);
+			}
+			if(parser.getEffectiveFrom() != null)
+				effectiveFrom = parseEffectiveFrom(parser.getEffectiveFrom());
+			report.addBytesRead(parser.getBytesRead());
+			report.setVehicleTypeCount(rateMap.size());
+			version = toVersion(digest.digest());
+			phaseStart = report.endPhase("parse " + RATES_FILE, phaseStart);
+		}
+		
+		//A compiled snapshot has its tables already
+		DistanceIndex index = compiled != null ? compiled.getDistanceIndex() : buildDistanceIndex(localIdMap);
+		phaseStart = report.endPhase("distance index", phaseStart);
+		
+		validate(localIdMap, rateMap, index);
+		phaseStart = report.endPhase("validate", phaseStart);
+		
+		LocationNameIndex nameIndex = compiled != null ? compiled.getNameIndex() : new LocationNameIndex(index);
+		phaseStart = report.endPhase("name index", phaseStart);
+		
+		SpatialIndex spatialIndex = new SpatialIndex(index);
+		phaseStart = report.endPhase("spatial index", phaseStart);
 		
-		String curId = "1";
-		Location curLocation = localIdMap.get(curId);
-		passedLocSet.add(curId);
+		Map<String, RateSchedule> schedules = compileSchedules(rateMap);
+		phaseStart = report.endPhase("rate schedules", phaseStart);
 		
+		Map<String, PricingRules> rules = compileRules(rateMap);
+		phaseStart = report.endPhase("pricing rules", phaseStart);
+		
+		FareMatrix matrix = buildFareMatrix(index, rateMap, rules, version);
+		report.endPhase("fare matrix", phaseStart);
+		
+		return new ConfigSnapshot(version, loadCounter.incrementAndGet(), System.currentTimeMillis(), 
+				effectiveFrom, localIdMap, rateMap, index, matrix, nameIndex, spatialIndex, schedules, rules, report);
+	}
+	
+	/**
+	 * Compile the rate schedules, for the vehicle types that have one.
+	 * 
+	 * @throws IllegalStateException -- if a schedule is not valid.
+	 */
+	static Map<String, RateSchedule> compileSchedules(Map<String, VehicleRate> rateMap) {
+		
+		Map<String, RateSchedule> schedules = new HashMap<String, RateSchedule>();
+		for(Map.Entry<String, VehicleRate> entry: rateMap.entrySet()) {
+			List<RateBand> bands = entry.getValue().getSchedule();
+			if(bands != null && !bands.isEmpty())
+				schedules.put(entry.getKey(), new RateSchedule(entry.getKey(), entry.getValue()));
+		}
+		return schedules;
+	}
+	
+	/**
+	 * Compile the fare rules, for the vehicle types that have some.
+	 * 
+	 * @throws IllegalStateException -- if a rule is not valid.
+	 */
+	static Map<String, PricingRules> compileRules(Map<String, VehicleRate> rateMap) {
+		
+		Map<String, PricingRules> rules = new HashMap<String, PricingRules>();
+		for(Map.Entry<String, VehicleRate> entry: rateMap.entrySet()) {
+			PricingRules compiled = PricingRules.compile(entry.getKey(), entry.getValue().getRules());
+			if(!compiled.isEmpty())
+				rules.put(entry.getKey(), compiled);
+		}
+		return rules;
+	}
+	
+	/**
+	 * Load and validate the current config, then write it as a compiled network snapshot.
+	 * 
+	 * @param output: snapshot file to write, see NetworkSnapshotFile
+	 * @return the config version of the snapshot
+	 * @throws IOException
+	 * @throws IllegalStateException -- if the config is not valid.
+	 */
+	public String compileSnapshot(Path output) throws IOException {
+		
+		ConfigSnapshot compiled = loadSnapshot();
+		NetworkSnapshotFile.write(output, compiled);
+		return compiled.getVersion();
+	}
+	
+	/**
+	 * Index the locations for distance lookups.
+	 * 
+	 * A network that is a single chain (each location linked both ways to at most two others) 
+	 * keeps the absolute distance from the first location, starting at location "1" when it is 
+	 * an end of the chain and adding the route distances in walking order. Any other network 
+	 * gets a RoutingEngine.
+	 */
+	static DistanceIndex buildDistanceIndex(Map<String, Location> localIdMap) {
+		
+		List<Location> chain = findChain(localIdMap);
+		if(chain != null) {
+			//Absolute distance -- keep the distance from the first location to the current location
+			long absoluDistance = 0;
+			long[] cumulative = new long[chain.size()];
+			
+			for(int i = 0; i < chain.size(); i++) {
+				Location curLocation = chain.get(i);
+				if(i > 0)
+					absoluDistance += routeTo(chain.get(i - 1), curLocation.getId()).getDistance().getFixed();
+				curLocation.setDistance(Distance.ofFixed(absoluDistance));
+				cumulative[i] = absoluDistance;
+			}
+			return new DistanceIndex(chain, cumulative);
+		}
+		
+		//General graph, ordinals follow the location ids
+		List<Location> locations = new ArrayList<Location>(localIdMap.values());
+		Collections.sort(locations, (a, b) -> compareIds(a.getId(), b.getId()));
+		Map<String, Integer> ordinalById = new HashMap<String, Integer>();
+		for(int i = 0; i < locations.size(); i++)
+			ordinalById.put(locations.get(i).getId(), i);
+		
+		RoutingEngine engine = new RoutingEngine(locations, ordinalById);
+		for(int i = 0; i < locations.size(); i++) {
+			long distance = engine.distance(0, i);
+			locations.get(i).setDistance(distance == RoutingEngine.UNREACHABLE ? null : Distance.ofFixed(distance));
+		}
+		
+		logger.info("Network is not a single chain, routing over " + locations.size() + " locations");
+		return new DistanceIndex(locations, engine);
+	}
+	
+	/**
+	 * @return the locations in chain order, or null if the network is not a single chain.
+	 */
+	private static List<Location> findChain(Map<String, Location> localIdMap) {
+		
+		if(localIdMap.isEmpty())
+			return null;
+		
+		String start = null;
+		for(Location location: localIdMap.values()) {
+			Set<String> neighbours = new HashSet<String>();
+			for(Route route: location.getRoutes()) {
+				String toId = route.getToId();
+				if(!localIdMap.containsKey(toId))
+					continue;
+				
+				//Links of a chain go both ways, the distance is taken in the walking direction
+				if(routeTo(localIdMap.get(toId), location.getId()) == null || !neighbours.add(toId))
+					return null;
+			}
+			if(neighbours.size() > 2)
+				return null;
+			
+			//An end of the chain, prefer location "1"
+			if(neighbours.size() <= 1 && (start == null || "1".equals(location.getId())
+					|| (!"1".equals(start) && compareIds(location.getId(), start) < 0)))
+				start = location.getId();
+		}
+		if(start == null)
+			return null;
+		
+		List<Location> chain = new ArrayList<Location>();
+		String previousId = null;
+		Location curLocation = localIdMap.get(start);
 		while(curLocation != null) {
-			curLocation.setDistance(absoluDistance);
-			locationNameMap.put(curLocation.getName(), curLocation);
+			chain.add(curLocation);
 			
-			List<Route> routes = curLocation.getRoutes();
 			//curLocation should be assigned to the next location
-			curLocation = null;
-			for(Route route: routes) {
+			Location next = null;
+			for(Route route: curLocation.getRoutes()) {
 				String toId = route.getToId();
-				if(!passedLocSet.contains(toId)) {
-					BigDecimal routeDistance = route.getDistance();
-					absoluDistance = absoluDistance.add(routeDistance);
-					passedLocSet.add(toId);
-					
-					curId = toId;
-					curLocation = localIdMap.get(curId);
-				}
-			};
+				if(localIdMap.containsKey(toId) && !toId.equals(previousId))
+					next = localIdMap.get(toId);
+			}
+			previousId = curLocation.getId();
+			curLocation = next;
+			
+			if(chain.size() > localIdMap.size())
+				return null;
 		}
 		
-		//load vehicle rate map 
-		try {
-			getVehicleRateConfig();
-		} catch (IOException e) {
-			logger.error(e.getMessage());
-			return false;
-		} catch (ParseException e) {
-			logger.error(e.getMessage());
-			return false;
+		//Disconnected parts are not a chain
+		return chain.size() == localIdMap.size() ? chain : null;
+	}
+	
+	private static Route routeTo(Location location, String toId) {
+		for(Route route: location.getRoutes()) {
+			if(toId.equals(route.getToId()))
+				return route;
+		}
+		return null;
+	}
+	
+	//Numeric ids in numeric order, others after them
+	private static int compareIds(String a, String b) {
+		boolean aNumeric = a.matches("\\d{1,18}");
+		boolean bNumeric = b.matches("\\d{1,18}");
+		if(aNumeric && bNumeric)
+			return Long.compare(Long.parseLong(a), Long.parseLong(b));
+		if(aNumeric != bNumeric)
+			return aNumeric ? -1 : 1;
+		return a.compareTo(b);
+	}
+	
+	/**
+	 * Reject a config that can't price every vehicle type, before it gets published.
+	 * 
+	 * @throws IllegalStateException
+	 */
+	static void validate(Map<String, Location> localIdMap, Map<String, VehicleRate> rateMap, DistanceIndex index) {
+		
+		if(index.size() == 0)
+			throw new IllegalStateException("No location.");
+		
+		Set<String> names = new HashSet<String>();
+		for(Location location: localIdMap.values()) {
+			if(location.getName() == null || !names.add(location.getName()))
+				throw new IllegalStateException("Missing or duplicate name for location " + location.getId());
+			for(Route route: location.getRoutes()) {
+				if(route.getDistance() == null || route.getDistance().signum() < 0)
+					throw new IllegalStateException("Bad route distance from location " + location.getId());
+				if(!localIdMap.containsKey(route.getToId()))
+					logger.warn("Location " + location.getId() + " has a route to unknown location " + route.getToId());
+			}
 		}
 		
-		return true;
+		for(VehicleTypeEnum type: VehicleTypeEnum.values()) {
+			VehicleRate rate = rateMap.get(type.getType());
+			if(rate == null)
+				throw new IllegalStateException("No rate for vehicle type " + type.getType());
+			if(rate.getTripTollCharge() == null || rate.getCameraCharge() == null 
+					|| rate.getEastbound() == null || rate.getWestbound() == null)
+				throw new IllegalStateException("Incomplete rate for vehicle type " + type.getType());
+		}
+	}
+	
+	/**
+	 * Open a config file from the config directory, or from the classpath when no directory is set.
+	 * 
+	 * @param digest: updated with the file content, may be null
+	 * @throws IOException
+	 */
+	InputStream openConfig(String fileName, MessageDigest digest) throws IOException {
+		
+		InputStream in;
+		if(isSet(configDirectory)) 
+			in = Files.newInputStream(Paths.get(configDirectory.trim(), fileName));
+		else
+			in = CostConfigurator.class.getResourceAsStream("/" + fileName);
+		
+		if(in == null)
+			throw new FileNotFoundException("Config file not found -- " + fileName);
+		
+		return digest == null ? in : new DigestInputStream(in, digest);
+	}
+	
+	private static boolean isSet(String value) {
+		return value != null && !value.trim().isEmpty();
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	//First 6 bytes of the digest, as hex
+	private static String toVersion(byte[] hash) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 6; i++)
+			sb.append(String.format("%02x", hash[i]));
+		return sb.toString();
 	}
 	
 	/**
@@ -238,164 +1024,26 @@ public class CostConfigurator
 	 * @return HashMap: key -- location Id; value -- location
 	 * 
 	 * @throws IOException
-	 * @throws ParseException
 	 */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-	public Map<String, Location> getLocationConfig() throws IOException, ParseException
+	public Map<String, Location> getLocationConfig() throws IOException
     {
-    	
-    	InputStream inputStream = CostConfigurator.class.getResourceAsStream("/interchanges.json");
-    	Reader reader = new InputStreamReader(inputStream);
-
-        Object obj = new JSONParser().parse(reader);
-        JSONObject jo = (JSONObject) obj;
-          
-        // locations
-        JSONObject locations = (JSONObject) jo.get("locations");
-        
-        Map<String, Location> locationMap = new HashMap<String, Location>();
-        
-        Set<JSONObject> keys = locations.keySet();
-        Iterator it = keys.iterator();
-        while(it.hasNext()) {
-        	//create a Location
-        	Location location = new Location();
-        	
-        	String locationId = (String) it.next();
-        	location.setId(locationId);
-        	
-        	JSONObject loc = (JSONObject) locations.get(locationId);
-        	Iterator loIt = loc.entrySet().iterator();
-        	while (loIt.hasNext()) {
-                Map.Entry pair = (Entry) loIt.next();
-                String loKey = (String) pair.getKey();
-                if("routes".equalsIgnoreCase(loKey)) {
-                	
-                	//routes
-                	List<Route> routes = new ArrayList<Route>();
-                	
-                	JSONArray routesJSON = (JSONArray) pair.getValue();
-                	Iterator rouIt = routesJSON.iterator();
-                	while(rouIt.hasNext()) {
-                		
-                		//route
-                		Route route = new Route();
-                		JSONObject routeJSON = (JSONObject) rouIt.next();
-                		Iterator oneRouIt = routeJSON.entrySet().iterator();
-                    	while (oneRouIt.hasNext()) {
-                    		Map.Entry oneRoutePair = (Entry) oneRouIt.next();
-                    		String routeKey = (String) oneRoutePair.getKey();
-                    		Object routeVal =  oneRoutePair.getValue();
-                    		
-                    		//toId
-                    		if("toId".equalsIgnoreCase(routeKey))
-                    			route.setToId(Long.toString((Long)routeVal));
-                    		if("distance".equalsIgnoreCase(routeKey)) {
-                    			//distance
-                    			if(routeVal instanceof Double) {
-                    				double distance = (Double)routeVal;
-                    				BigDecimal bd = new BigDecimal(distance);
-                    				route.setDistance(bd);
-                    			}
-                    			else if(routeVal instanceof Long){
-                    				Long distance = (Long)routeVal;
-                    				BigDecimal bd = new BigDecimal(distance);
-                    				route.setDistance(bd);
-                    			}
-                    				
-                    		}
-                    	}
-                    	
-                    	routes.add(route);
-                    }
-                	location.setRoutes(routes);
-                }
-                //other attributes -- name, lat, lng
-                else if("name".equalsIgnoreCase(loKey))
-                	location.setName((String)pair.getValue());
-                else if("lat".equalsIgnoreCase(loKey)) {
-                	Double lat = (Double)pair.getValue();
-                	location.setLat(Double.toString(lat));
-                }
-                else if("lng".equalsIgnoreCase(loKey)) {
-                	Double lng = (Double)pair.getValue();
-                	location.setLng(Double.toString(lng));
-                }
-            }
-        	
-        	locationMap.put(locationId, location);
-        }
-        
-        //logger.debug("Location size -- " + locationMap.size());
-        
-        return locationMap;
+    	try (InputStream in = openConfig(INTERCHANGES_FILE, null)) {
+    		return new ConfigParser().readLocations(in);
+    	}
     }
     
     /**
-     * Read rates.json file to get vehicle rate information and save in local map.
+     * Read rates.json file to get vehicle rate information.
+     * 
+     * @return HashMap: key -- vehicle type; value -- VehicleRate
      * 
      * @throws IOException
-     * @throws ParseException
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-	public void getVehicleRateConfig() throws IOException, ParseException
+	public Map<String, VehicleRate> getVehicleRateConfig() throws IOException
     {
-    	
-    	InputStream inputStream = CostConfigurator.class.getResourceAsStream("/rates.json");
-    	Reader reader = new InputStreamReader(inputStream);
-
-        Object obj = new JSONParser().parse(reader);
-        JSONObject jo = (JSONObject) obj;
-          
-        // locations
-        JSONObject rates = (JSONObject) jo.get("rates");
-        
-        //Map<String, VehicleRate> vehicleRateMap = new HashMap<String, VehicleRate>();
-        
-        Set<JSONObject> keys = rates.keySet();
-        Iterator it = keys.iterator();
-        while(it.hasNext()) {
-        	//create a VehicleRate
-        	VehicleRate vehicleRate = new VehicleRate();
-        	
-        	String vehicleType = (String) it.next();
-        	//location.setId(locationId);
-        	
-        	JSONObject rate = (JSONObject) rates.get(vehicleType);
-        	Iterator loIt = rate.entrySet().iterator();
-        	while (loIt.hasNext()) {
-                Map.Entry pair = (Entry) loIt.next();
-                String loKey = (String) pair.getKey();
-                Object chgVal =  pair.getValue();
-                
-                BigDecimal bd = null;
-                if(chgVal instanceof Double) {
-    				double val = (Double)chgVal;
-    				bd = new BigDecimal(val);
-    			}
-    			else if(chgVal instanceof Long){
-    				Long val = (Long)chgVal;
-    				bd = new BigDecimal(val);
-    			}
-                
-                if("trip_toll_charge".equalsIgnoreCase(loKey)) {
-                	vehicleRate.setTripTollCharge(bd);
-                }
-                else if("camera_charge".equalsIgnoreCase(loKey)) {
-                	vehicleRate.setCameraCharge(bd);
-                }
-                else if("eastbound".equalsIgnoreCase(loKey)) {
-                	vehicleRate.setEastbound(bd.setScale(4, RoundingMode.HALF_EVEN));
-                }
-                else if("westbound".equalsIgnoreCase(loKey)) {
-                	vehicleRate.setWestbound(bd.setScale(4, RoundingMode.HALF_EVEN));
-                }
-            }
-        	
-        	vehicleRateMap.put(vehicleType, vehicleRate);
-        }
-        
-        logger.debug("Vehicle map size -- " + vehicleRateMap.size());
+    	try (InputStream in = openConfig(RATES_FILE, null)) {
+    		return new ConfigParser().readRates(in);
+    	}
     }
     
     /**
@@ -404,8 +1052,9 @@ public class CostConfigurator
     public void listLocationNames() {
     	
     	logger.debug("Current locations -- ");
-    	for(String name: locationNameMap.keySet()){
-    		System.out.println(name);
+    	DistanceIndex index = snapshot.get().getDistanceIndex();
+    	for(int i = 0; i < index.size(); i++){
+    		logger.debug(index.getLocation(i).getName());
     	}
     }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.etr.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.etr.model.Location;
+
+/**
+ * Dense, read-only index over the interchanges.
+ *
+ * Every location gets an ordinal. When the network is a single chain the ordinal is
+ * the position on the chain and the cumulative distance from the first location is
+ * kept as a fixed-point long, so the distance between two ordinals is two array reads
+ * and a subtraction. Any other network is answered by a RoutingEngine.
+ *
+ * Distances are stored in millionths of a km, as Distance keeps them.
+ */
+public final class DistanceIndex {
+
+	//Key: location name; Value: ordinal
+	private final Map<String, Integer> ordinalByName;
+
+	//Indexed by ordinal
+	private final Location[] locations;
+	//Chain networks only, null otherwise
+	private final long[] cumulativeDistance;
+	//Other networks only, null otherwise
+	private final RoutingEngine routingEngine;
+	//Numeric location id, used for the travel direction
+	private final long[] idNumbers;
+
+	/**
+	 * @param chain: locations in chain order, the first one is ordinal 0
+	 * @param cumulativeDistance: fixed-point distance from the first location, indexed by ordinal
+	 */
+	public DistanceIndex(List<Location> chain, long[] cumulativeDistance) {
+		if(chain.size() != cumulativeDistance.length)
+			throw new IllegalArgumentException("Chain and distance sizes don't match.");
+
+		this.cumulativeDistance = cumulativeDistance.clone();
+		this.routingEngine = null;
+		this.locations = chain.toArray(new Location[chain.size()]);
+		this.idNumbers = new long[locations.length];
+		this.ordinalByName = new HashMap<String, Integer>(chain.size() * 2);
+		indexLocations();
+	}
+
+	/**
+	 * @param locations: locations indexed by ordinal
+	 * @param routingEngine: shortest paths over the same ordinals
+	 */
+	public DistanceIndex(List<Location> locations, RoutingEngine routingEngine) {
+		if(locations.size() != routingEngine.size())
+			throw new IllegalArgumentException("Location and routing sizes don't match.");
+
+		this.cumulativeDistance = null;
+		this.routingEngine = routingEngine;
+		this.locations = locations.toArray(new Location[locations.size()]);
+		this.idNumbers = new long[this.locations.length];
+		this.ordinalByName = new HashMap<String, Integer>(locations.size() * 2);
+		indexLocations();
+	}
+
+	private void indexLocations() {
+		for(int i = 0; i < locations.length; i++) {
+			ordinalByName.put(locations[i].getName(), i);
+			idNumbers[i] = parseId(locations[i].getId(), i);
+		}
+	}
+
+	/**
+	 * @param name: location name
+	 * @return the ordinal of the location, or -1 if the name doesn't exist.
+	 */
+	public int ordinalOf(String name) {
+		Integer ordinal = ordinalByName.get(name);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * Fixed-point distance between two ordinals, no allocation.
+	 * 
+	 * @throws IllegalArgumentException -- if there is no route between the locations.
+	 */
+	public long distanceBetween(int fromOrdinal, int toOrdinal) {
+		if(cumulativeDistance != null)
+			return Math.abs(cumulativeDistance[fromOrdinal] - cumulativeDistance[toOrdinal]);
+
+		long distance = routingEngine.distance(fromOrdinal, toOrdinal);
+		if(distance == RoutingEngine.UNREACHABLE)
+			throw new IllegalArgumentException("There is no route between the input locations.");
+		return distance;
+	}
+
+	public boolean isReachable(int fromOrdinal, int toOrdinal) {
+		return cumulativeDistance != null || routingEngine.distance(fromOrdinal, toOrdinal) != RoutingEngine.UNREACHABLE;
+	}
+
+	/**
+	 * @return true if the network is a single chain, answered from cumulative distances.
+	 */
+	public boolean isChain() {
+		return cumulativeDistance != null;
+	}
+
+	/**
+	 * Travelling towards a larger location id is westbound, otherwise eastbound.
+	 */
+	public boolean isWestbound(int fromOrdinal, int toOrdinal) {
+		return idNumbers[fromOrdinal] < idNumbers[toOrdinal];
+	}
+
+	//Null for a chain, see NetworkSnapshotFile
+	RoutingEngine getRoutingEngine() {
+		return routingEngine;
+	}
+
+	public Location getLocation(int ordinal) {
+		return locations[ordinal];
+	}
+
+	public int size() {
+		return locations.length;
+	}
+
+	//Ids are numeric in the config, fall back to the chain position otherwise
+	private static long parseId(String id, int ordinal) {
+		try {
+			return Long.parseLong(id);
+		} catch (NumberFormatException e) {
+			return ordinal;
+		}
+	}
+}
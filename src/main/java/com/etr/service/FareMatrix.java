@@ -0,0 +1,178 @@
+package com.etr.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.etr.model.CostResponse;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.Distance;
+import com.etr.model.Money;
+
+/**
+ * Every answer the calculator can give for a network, computed once per config load.
+ *
+ * Cells are indexed by from/to ordinal (see DistanceIndex) and by vehicle class, and kept as
+ * primitive arrays: fixed-point distance and amounts, see Distance and Money, and the direction.
+ * A pair costs 17 bytes plus 16 per vehicle class, see estimateBytes. getCost and getFare build
+ * a new response for each call, callers own it.
+ *
+ * Networks larger than MAX_LOCATIONS, or whose cells would take more than MAX_BYTES, don't get
+ * a matrix (see isEnabled), the table grows with the square of the interchange count.
+ */
+public final class FareMatrix {
+
+	//Largest network that gets a precomputed matrix
+	public static final int MAX_LOCATIONS = 384;
+
+	//Largest matrix, 1/16 of the default network memory budget
+	public static final long MAX_BYTES = 16L * 1024 * 1024;
+
+	//Distance of a pair without a route
+	private static final long NO_ROUTE = -1;
+
+	private final int size;
+
+	//Version of the config the cells were priced with
+	private final String configVersion;
+
+	//Key: vehicle type; Value: class index
+	private final Map<String, Integer> classIndexByType;
+
+	//Index: from * size + to; fixed-point km, NO_ROUTE without a route
+	private final long[] distances;
+
+	//Index: from * size + to; Money units
+	private final long[] costs;
+
+	//Index: from * size + to
+	private final boolean[] westbound;
+
+	//Index: (class * size + from) * size + to; Money units
+	private final long[] kmRates;
+	private final long[] tripCharges;
+
+	private FareMatrix(int size, String[] vehicleTypes, String configVersion) {
+
+		int pairs = size * size;
+		this.size = size;
+		this.configVersion = configVersion;
+		this.distances = new long[pairs];
+		this.costs = new long[pairs];
+		this.westbound = new boolean[pairs];
+		this.kmRates = new long[vehicleTypes.length * pairs];
+		this.tripCharges = new long[vehicleTypes.length * pairs];
+		this.classIndexByType = new HashMap<String, Integer>(vehicleTypes.length * 2);
+		for(int i = 0; i < vehicleTypes.length; i++)
+			classIndexByType.put(vehicleTypes[i], i);
+		Arrays.fill(distances, NO_ROUTE);
+	}
+
+	/**
+	 * An empty matrix to fill with setCost and setFare, every pair without a route.
+	 *
+	 * @param size: number of locations
+	 * @param vehicleTypes: vehicle type of each class index
+	 * @param configVersion: set on every response
+	 * @throws IllegalArgumentException -- over MAX_LOCATIONS or MAX_BYTES, see fits.
+	 */
+	public static FareMatrix create(int size, String[] vehicleTypes, String configVersion) throws IllegalArgumentException {
+		if(!fits(size, vehicleTypes.length))
+			throw new IllegalArgumentException("Fare matrix of " + size + " locations is too large.");
+		return new FareMatrix(size, vehicleTypes, configVersion);
+	}
+
+	/**
+	 * A matrix without cells, used when the network is too large to precompute.
+	 */
+	public static FareMatrix disabled() {
+		return new FareMatrix(0, new String[0], null);
+	}
+
+	/**
+	 * @return true if a network of that size gets a matrix.
+	 */
+	public static boolean fits(int size, int vehicleClasses) {
+		return size > 0 && size <= MAX_LOCATIONS && estimateBytes(size, vehicleClasses) <= MAX_BYTES;
+	}
+
+	/**
+	 * Heap of the cells of a matrix, see MAX_BYTES.
+	 */
+	public static long estimateBytes(int size, int vehicleClasses) {
+		long pairs = (long) size * size;
+		return pairs * (8 + 8 + 1) + pairs * vehicleClasses * (8 + 8);
+	}
+
+	public boolean isEnabled() {
+		return size > 0;
+	}
+
+	public long estimateBytes() {
+		return isEnabled() ? estimateBytes(size, classIndexByType.size()) : 0;
+	}
+
+	/**
+	 * @return class index of the vehicle type, or -1 if the vehicle type isn't in the matrix.
+	 */
+	public int classIndexOf(String vehicleType) {
+		Integer index = classIndexByType.get(vehicleType);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return a new distance-only response, null without a route.
+	 */
+	public CostResponse getCost(int fromOrdinal, int toOrdinal) {
+
+		int pair = fromOrdinal * size + toOrdinal;
+		if(distances[pair] == NO_ROUTE)
+			return null;
+
+		CostResponse resp = new CostResponse();
+		resp.setDistance(Distance.ofFixed(distances[pair]));
+		resp.setCost(Money.ofUnits(costs[pair]));
+		resp.setConfigVersion(configVersion);
+		return resp;
+	}
+
+	/**
+	 * @return a new response of the vehicle class, null without a route.
+	 */
+	public CostWithVehicleTypeResponse getFare(int classIndex, int fromOrdinal, int toOrdinal) {
+
+		int pair = fromOrdinal * size + toOrdinal;
+		if(distances[pair] == NO_ROUTE)
+			return null;
+
+		int cell = classIndex * size * size + pair;
+		CostWithVehicleTypeResponse resp = new CostWithVehicleTypeResponse();
+		resp.setDistance(Distance.ofFixed(distances[pair]));
+		resp.setDirection(westbound[pair] ? "westbound" : "eastbound");
+		resp.setKmRate(Money.ofUnits(kmRates[cell]));
+		resp.setTripCharge(Money.ofUnits(tripCharges[cell]));
+		resp.setDistanceCost(Money.ofUnits(costs[pair]));
+		resp.setConfigVersion(configVersion);
+		return resp;
+	}
+
+	/**
+	 * Fill the distance-only cell of a pair, which also marks it routable.
+	 */
+	void setCost(int fromOrdinal, int toOrdinal, CostResponse resp) {
+		int pair = fromOrdinal * size + toOrdinal;
+		distances[pair] = resp.getDistance().getFixed();
+		costs[pair] = resp.getCost().getUnits();
+	}
+
+	/**
+	 * Fill the cell of a vehicle class, after setCost of the pair.
+	 */
+	void setFare(int classIndex, int fromOrdinal, int toOrdinal, CostWithVehicleTypeResponse resp) {
+		int pair = fromOrdinal * size + toOrdinal;
+		int cell = classIndex * size * size + pair;
+		westbound[pair] = "westbound".equals(resp.getDirection());
+		kmRates[cell] = resp.getKmRate().getUnits();
+		tripCharges[cell] = resp.getTripCharge().getUnits();
+	}
+}
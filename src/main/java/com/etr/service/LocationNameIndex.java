@@ -0,0 +1,293 @@
+package com.etr.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Forgiving location name lookup and prefix search.
+ *
+ * Names are normalized before lookup: case, accents, punctuation and repeated whitespace
+ * are folded, and common street suffixes are reduced to one spelling, so "dundas st",
+ * "Dundas Street" and "DUNDAS  ST." are the same name. Two locations can't have the same
+ * normalized name, such a config is rejected. The normalized names go into a trie
+ * whose nodes keep the first MAX_SUGGESTIONS ordinals below them in name order, so a prefix
+ * search, and the suggestions for a miss, cost the length of the input.
+ */
+public final class LocationNameIndex {
+
+	//Ordinals kept in every trie node
+	public static final int MAX_SUGGESTIONS = 10;
+
+	//Key: spelling; Value: the one kept after normalizing
+	private static final Map<String, String> ALIASES = new HashMap<String, String>();
+	static {
+		alias("street", "st");
+		alias("road", "rd");
+		alias("avenue", "ave", "av");
+		alias("boulevard", "blvd");
+		alias("drive", "dr");
+		alias("parkway", "pkwy");
+		alias("highway", "hwy");
+		alias("line", "ln");
+		alias("east", "e");
+		alias("west", "w");
+		alias("north", "n");
+		alias("south", "s");
+	}
+
+	private static void alias(String canonical, String... spellings) {
+		for(String spelling: spellings)
+			ALIASES.put(spelling, canonical);
+	}
+
+	private final DistanceIndex distanceIndex;
+
+	//Normalized name, indexed by ordinal
+	private final String[] keys;
+
+	//Ordinals in normalized name order
+	private final int[] nameOrder;
+
+	//Key: normalized name; Value: ordinal
+	private final Map<String, Integer> ordinalByKey;
+
+	private final TrieNode root = new TrieNode();
+
+	/**
+	 * @throws IllegalStateException -- two locations have the same normalized name.
+	 */
+	public LocationNameIndex(DistanceIndex distanceIndex) {
+		this(distanceIndex, normalizeAll(distanceIndex), null);
+	}
+
+	/**
+	 * Over names normalized before, e.g. read from a snapshot file.
+	 *
+	 * @param keys: normalized name of each ordinal
+	 * @param nameOrder: ordinals in key order, null to sort them here
+	 * @throws IllegalStateException -- two locations have the same normalized name.
+	 */
+	LocationNameIndex(DistanceIndex distanceIndex, String[] keys, int[] nameOrder) {
+
+		if(keys.length != distanceIndex.size() || (nameOrder != null && nameOrder.length != keys.length))
+			throw new IllegalArgumentException("Name and location counts don't match.");
+
+		this.distanceIndex = distanceIndex;
+		this.keys = keys;
+		this.nameOrder = nameOrder != null ? nameOrder : sortByKey(keys);
+		this.ordinalByKey = new HashMap<String, Integer>(keys.length * 2);
+
+		//One ordinal per key, a lookup or a trie node can't tell two locations of the same key apart
+		for(int i = 0; i < keys.length; i++) {
+			Integer other = ordinalByKey.put(keys[i], i);
+			if(other != null)
+				throw new IllegalStateException("Locations " + distanceIndex.getLocation(other).getName() + " and "
+						+ distanceIndex.getLocation(i).getName() + " have the same normalized name " + keys[i]);
+		}
+
+		//Insert in name order, then every node keeps the first names below it
+		for(int ordinal: this.nameOrder)
+			insert(keys[ordinal], ordinal);
+	}
+
+	private static String[] normalizeAll(DistanceIndex distanceIndex) {
+		String[] keys = new String[distanceIndex.size()];
+		for(int i = 0; i < keys.length; i++)
+			keys[i] = normalize(distanceIndex.getLocation(i).getName());
+		return keys;
+	}
+
+	private static int[] sortByKey(String[] keys) {
+		Integer[] byKey = new Integer[keys.length];
+		for(int i = 0; i < keys.length; i++)
+			byKey[i] = i;
+		Arrays.sort(byKey, (a, b) -> keys[a].compareTo(keys[b]));
+
+		int[] order = new int[keys.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = byKey[i];
+		return order;
+	}
+
+	//Normalized name of an ordinal, see NetworkSnapshotFile
+	String getKey(int ordinal) {
+		return keys[ordinal];
+	}
+
+	//Ordinal at a position in name order, see NetworkSnapshotFile
+	int getOrdinalInNameOrder(int position) {
+		return nameOrder[position];
+	}
+
+	/**
+	 * @return the ordinal of the name, exact or normalized, or -1 if it doesn't exist.
+	 */
+	public int ordinalOf(String name) {
+		int ordinal = distanceIndex.ordinalOf(name);
+		if(ordinal >= 0)
+			return ordinal;
+
+		Integer normalized = ordinalByKey.get(normalize(name));
+		return normalized == null ? -1 : normalized;
+	}
+
+	/**
+	 * Ordinals of the names starting with the prefix, in name order.
+	 *
+	 * @param prefix: any spelling, it is normalized like the names
+	 * @param limit: max number of results
+	 */
+	public List<Integer> findByPrefix(String prefix, int limit) {
+
+		TrieNode node = root;
+		String key = normalize(prefix);
+		for(int i = 0; i < key.length() && node != null; i++)
+			node = node.child(key.charAt(i));
+		if(node == null || limit <= 0)
+			return Collections.emptyList();
+
+		List<Integer> found = new ArrayList<Integer>(Math.min(limit, node.topCount));
+		if(limit <= node.topCount || node.topCount < MAX_SUGGESTIONS) {
+			for(int i = 0; i < node.topCount && found.size() < limit; i++)
+				found.add(node.top[i]);
+		}
+		else {
+			node.collect(found, limit);
+		}
+		return found;
+	}
+
+	/**
+	 * Names close to a name that doesn't exist: the names below the longest prefix of the input
+	 * found in the trie.
+	 */
+	public List<String> suggest(String name, int limit) {
+
+		TrieNode node = root;
+		TrieNode deepest = null;
+		String key = normalize(name);
+		for(int i = 0; i < key.length(); i++) {
+			node = node.child(key.charAt(i));
+			if(node == null)
+				break;
+			deepest = node;
+		}
+		if(deepest == null)
+			return Collections.emptyList();
+
+		List<String> names = new ArrayList<String>();
+		for(int i = 0; i < deepest.topCount && names.size() < limit; i++)
+			names.add(distanceIndex.getLocation(deepest.top[i]).getName());
+		return names;
+	}
+
+	/**
+	 * Fold case, accents, punctuation and whitespace, and reduce street suffixes to one spelling.
+	 */
+	public static String normalize(String name) {
+
+		if(name == null)
+			return "";
+
+		String folded = Normalizer.normalize(name, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+		StringBuilder sb = new StringBuilder(folded.length());
+		int wordStart = -1;
+		for(int i = 0; i <= folded.length(); i++) {
+			char c = i < folded.length() ? folded.charAt(i) : ' ';
+			if(Character.getType(c) == Character.NON_SPACING_MARK)
+				continue;
+
+			if(Character.isLetterOrDigit(c)) {
+				if(wordStart < 0)
+					wordStart = sb.length();
+				sb.append(c);
+			}
+			else if(Character.isWhitespace(c) || c == '-' || c == '/' || c == '_') {
+				//End of a word
+				if(wordStart >= 0 && sb.length() > wordStart) {
+					String canonical = ALIASES.get(sb.substring(wordStart));
+					if(canonical != null) {
+						sb.setLength(wordStart);
+						sb.append(canonical);
+					}
+					sb.append(' ');
+				}
+				wordStart = -1;
+			}
+			//other punctuation is dropped
+		}
+		if(sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ')
+			sb.setLength(sb.length() - 1);
+		return sb.toString();
+	}
+
+	private void insert(String key, int ordinal) {
+		TrieNode node = root;
+		node.addTop(ordinal);
+		for(int i = 0; i < key.length(); i++) {
+			node = node.childOrCreate(key.charAt(i));
+			node.addTop(ordinal);
+		}
+		node.terminal = ordinal;
+	}
+
+	/**
+	 * Trie node with sorted child characters.
+	 */
+	private static final class TrieNode {
+		private char[] chars = new char[0];
+		private TrieNode[] children = new TrieNode[0];
+
+		//First ordinals below this node, in name order
+		private final int[] top = new int[MAX_SUGGESTIONS];
+		private int topCount;
+
+		//Ordinal of the name ending here, -1 for none
+		private int terminal = -1;
+
+		TrieNode child(char c) {
+			int i = Arrays.binarySearch(chars, c);
+			return i < 0 ? null : children[i];
+		}
+
+		TrieNode childOrCreate(char c) {
+			int i = Arrays.binarySearch(chars, c);
+			if(i >= 0)
+				return children[i];
+
+			int at = -i - 1;
+			char[] newChars = new char[chars.length + 1];
+			TrieNode[] newChildren = new TrieNode[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, at);
+			System.arraycopy(children, 0, newChildren, 0, at);
+			newChars[at] = c;
+			newChildren[at] = new TrieNode();
+			System.arraycopy(chars, at, newChars, at + 1, chars.length - at);
+			System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+			chars = newChars;
+			children = newChildren;
+			return newChildren[at];
+		}
+
+		void addTop(int ordinal) {
+			if(topCount < MAX_SUGGESTIONS)
+				top[topCount++] = ordinal;
+		}
+
+		//Depth-first in character order, that is name order
+		void collect(List<Integer> found, int limit) {
+			if(found.size() >= limit)
+				return;
+			if(terminal >= 0)
+				found.add(terminal);
+			for(TrieNode child: children)
+				child.collect(found, limit);
+		}
+	}
+}
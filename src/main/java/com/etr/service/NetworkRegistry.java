@@ -0,0 +1,261 @@
+package com.etr.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * The toll networks served by this process, by network id.
+ *
+ * The default network is the CostConfigurator bean, always loaded. Other networks live under
+ * tripcalculator.networks.dir, either as a compiled snapshot "id.snapshot" (see
+ * NetworkSnapshotFile) or as a directory "id" holding interchanges.json and rates.json. A
+ * network is loaded on its first request into its own CostConfigurator, and kept while the
+ * loaded networks fit the memory budget, see ConfigSnapshot.estimateBytes. Beyond the budget
+ * the least recently used networks are dropped, the next request loads them again.
+ *
+ * A request keeps the configurator it got, so dropping a network never breaks a quote in
+ * flight, the memory is reclaimed when the last one completes.
+ */
+@Service
+public class NetworkRegistry {
+
+	private static Logger logger = LoggerFactory.getLogger(NetworkRegistry.class);
+
+	public static final String DEFAULT_NETWORK = "default";
+
+	//Network ids are file names, nothing that could leave the networks directory
+	private static final Pattern NETWORK_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	@Autowired
+	private CostConfigurator defaultNetwork;
+
+	@Autowired
+	private RateHistory rateHistory;
+
+	//One snapshot file or config directory per network id
+	@Value("${tripcalculator.networks.dir:}")
+	private String networksDirectory;
+
+	//Estimated heap of the loaded networks, the default network isn't counted
+	@Value("${tripcalculator.networks.memory-budget-mb:256}")
+	private long memoryBudgetMb = 256;
+
+	//Key: network id
+	private final ConcurrentMap<String, Network> networks = new ConcurrentHashMap<String, Network>();
+
+	//Use order of the networks, for eviction
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong loadedBytes = new AtomicLong();
+
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder failedLoads = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * The configurator of a network, loaded on first use.
+	 *
+	 * @param networkId: null, empty or "default" for the default network
+	 * @throws IllegalArgumentException -- unknown network, or it doesn't load.
+	 */
+	public CostConfigurator get(String networkId) throws IllegalArgumentException {
+
+		if(networkId == null || networkId.isEmpty() || DEFAULT_NETWORK.equals(networkId))
+			return defaultNetwork;
+		if(!NETWORK_ID.matcher(networkId).matches())
+			throw new IllegalArgumentException("The input network doesn't exists.");
+
+		Network network = networks.computeIfAbsent(networkId, Network::new);
+		network.lastUsed = clock.incrementAndGet();
+		CostConfigurator configurator = network.configurator;
+		if(configurator != null)
+			return configurator;
+
+		return load(network);
+	}
+
+	/**
+	 * The configurator of a network if it is loaded now, never loads, for callers that must not
+	 * block.
+	 *
+	 * @param networkId: null, empty or "default" for the default network
+	 * @return null if the network is not loaded
+	 * @throws IllegalArgumentException -- malformed network id.
+	 */
+	public CostConfigurator getLoaded(String networkId) throws IllegalArgumentException {
+
+		if(networkId == null || networkId.isEmpty() || DEFAULT_NETWORK.equals(networkId))
+			return defaultNetwork;
+		if(!NETWORK_ID.matcher(networkId).matches())
+			throw new IllegalArgumentException("The input network doesn't exists.");
+
+		Network network = networks.get(networkId);
+		if(network == null)
+			return null;
+		network.lastUsed = clock.incrementAndGet();
+		return network.configurator;
+	}
+
+	/**
+	 * The configurator of a network, with the rates in force at a time.
+	 *
+	 * @param networkId: null, empty or "default" for the default network
+	 * @param asOf: ISO-8601 date-time, see CostConfigurator.parseTripTime; null for the current
+	 *   rates. Only the default network keeps a RateHistory.
+	 * @throws IllegalArgumentException -- unknown network, or no rates for the time.
+	 */
+	public CostConfigurator get(String networkId, String asOf) throws IllegalArgumentException {
+
+		if(asOf == null)
+			return get(networkId);
+		if(get(networkId) != defaultNetwork)
+			throw new IllegalArgumentException("asOf is only available on the default network.");
+		return rateHistory.asOf(defaultNetwork.parseTripTime(asOf).toInstant().toEpochMilli());
+	}
+
+	/**
+	 * Loaded networks and their estimated heap, for metrics.
+	 */
+	public Map<String, Object> toMap() {
+
+		Map<String, Long> loaded = new TreeMap<String, Long>();
+		for(Network network: networks.values()) {
+			if(network.configurator != null)
+				loaded.put(network.id, network.bytes);
+		}
+
+		Map<String, Object> map = new TreeMap<String, Object>();
+		map.put("loaded", loaded);
+		map.put("loadedBytes", loadedBytes.get());
+		map.put("memoryBudgetBytes", getMemoryBudgetBytes());
+		map.put("loads", loads.sum());
+		map.put("failedLoads", failedLoads.sum());
+		map.put("evictions", evictions.sum());
+		return map;
+	}
+
+	/**
+	 * @return true if the network is loaded now, the default network always is.
+	 */
+	public boolean isLoaded(String networkId) {
+		if(networkId == null || DEFAULT_NETWORK.equals(networkId))
+			return true;
+		Network network = networks.get(networkId);
+		return network != null && network.configurator != null;
+	}
+
+	public String getNetworksDirectory() {
+		return networksDirectory;
+	}
+
+	public void setNetworksDirectory(String networksDirectory) {
+		this.networksDirectory = networksDirectory;
+	}
+
+	public long getMemoryBudgetMb() {
+		return memoryBudgetMb;
+	}
+
+	public void setMemoryBudgetMb(long memoryBudgetMb) {
+		this.memoryBudgetMb = memoryBudgetMb;
+	}
+
+	private long getMemoryBudgetBytes() {
+		return memoryBudgetMb * 1024 * 1024;
+	}
+
+	/**
+	 * Load a network once, concurrent first requests wait for the same load.
+	 */
+	private CostConfigurator load(Network network) throws IllegalArgumentException {
+
+		synchronized(network) {
+			if(network.configurator != null)
+				return network.configurator;
+
+			CostConfigurator configurator = new CostConfigurator();
+			configurator.setTimeZone(defaultNetwork.getTimeZone());
+
+			Path root = networksDirectory == null || networksDirectory.trim().isEmpty() ? null : Paths.get(networksDirectory.trim());
+			Path snapshot = root == null ? null : root.resolve(network.id + SNAPSHOT_SUFFIX);
+			Path directory = root == null ? null : root.resolve(network.id);
+			if(snapshot != null && Files.isRegularFile(snapshot)) {
+				configurator.setSnapshotFile(snapshot.toString());
+			}
+			else if(directory != null && Files.isDirectory(directory)) {
+				configurator.setConfigDirectory(directory.toString());
+			}
+			else {
+				networks.remove(network.id, network);
+				throw new IllegalArgumentException("The input network doesn't exists.");
+			}
+
+			if(!configurator.generateConfigMap()) {
+				failedLoads.increment();
+				networks.remove(network.id, network);
+				throw new IllegalArgumentException("The network " + network.id + " failed to load.");
+			}
+
+			network.bytes = configurator.getSnapshot().estimateBytes();
+			network.configurator = configurator;
+			loads.increment();
+			loadedBytes.addAndGet(network.bytes);
+			logger.info("Network " + network.id + " loaded, about " + network.bytes / 1024 + " KB");
+		}
+
+		evictOverBudget(network);
+		return network.configurator;
+	}
+
+	/**
+	 * Drop the least recently used networks until the loaded ones fit the budget. The network
+	 * just loaded stays, even alone over the budget.
+	 */
+	private synchronized void evictOverBudget(Network keep) {
+
+		while(loadedBytes.get() > getMemoryBudgetBytes()) {
+			Network coldest = null;
+			for(Network network: networks.values()) {
+				if(network != keep && network.configurator != null && (coldest == null || network.lastUsed < coldest.lastUsed))
+					coldest = network;
+			}
+			if(coldest == null)
+				return;
+
+			if(networks.remove(coldest.id, coldest)) {
+				loadedBytes.addAndGet(-coldest.bytes);
+				evictions.increment();
+				logger.info("Network " + coldest.id + " evicted, " + loadedBytes.get() / 1024 + " KB still loaded");
+			}
+		}
+	}
+
+	/**
+	 * One network, loaded or being loaded.
+	 */
+	private static final class Network {
+		private final String id;
+		private volatile CostConfigurator configurator;
+		private volatile long lastUsed;
+		private long bytes;
+
+		Network(String id) {
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package com.etr.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.etr.model.Distance;
+import com.etr.model.Location;
+import com.etr.model.Money;
+import com.etr.model.RateBand;
+import com.etr.model.Route;
+import com.etr.model.VehicleRate;
+
+/**
+ * Compiled, fixed-layout binary form of interchanges.json and rates.json, with the tables the
+ * calculator indexes them into.
+ *
+ * Layout, big-endian:
+ * <pre>
+ * header    magic "ETRN", format version, config version (12 ASCII bytes), effective from (epoch
+ *           millis, NO_EFFECTIVE_FROM of ConfigSnapshot when not set), location count, route count,
+ *           rate count, band count, distance kind, distance count, string pool size
+ * distances fixed-point longs: the cumulative distance of each ordinal for a chain, the
+ *           from * size + to table of RoutingEngine up to ALL_PAIRS_LIMIT, none above it
+ * locations in ordinal order, 7 ints each: id, name, lat, lng, normalized name (string refs),
+ *           first route, route count
+ * names     ordinals in normalized name order, see LocationNameIndex
+ * routes    toId (string ref), distance (fixed-point)
+ * rates     vehicle type (string ref), trip toll, camera, eastbound, westbound (fixed-point),
+ *           first band, band count, fare rules (string ref, one rule per line)
+ * bands     name, days (comma separated), from, to (string refs), eastbound, westbound (fixed-point)
+ * strings   int length + UTF-8 bytes, a string ref is the offset in the pool, -1 for null
+ * </pre>
+ * A fixed-point value is the long of Money or Distance, ten-thousandths or millionths of a km,
+ * NULL_FIXED when missing. The header is 56 bytes, so the distances are 8-byte aligned.
+ *
+ * The file is memory-mapped to read it, there is no JSON parsing at startup. The all-pairs
+ * distance table is used in place from the mapping, the chain and the name table come from
+ * the file as they were computed, only the lookup maps and the name trie are built on the heap.
+ * The config version is the fingerprint of the JSON it was compiled from, so both load paths
+ * report the same version.
+ */
+public final class NetworkSnapshotFile {
+
+	public static final int MAGIC = 0x4554524E;
+	public static final int FORMAT_VERSION = 6;
+
+	private static final int VERSION_LENGTH = 12;
+	private static final int HEADER_SIZE = 4 + 4 + VERSION_LENGTH + 8 + 7 * 4;
+	private static final int LOCATION_SIZE = 7 * 4;
+	private static final int FIXED_SIZE = 8;
+	private static final long NULL_FIXED = Long.MIN_VALUE;
+	private static final int ROUTE_SIZE = 4 + FIXED_SIZE;
+	private static final int RATE_SIZE = 4 + 4 * FIXED_SIZE + 3 * 4;
+	private static final int BAND_SIZE = 4 * 4 + 2 * FIXED_SIZE;
+
+	//Distance kinds, see DistanceIndex and RoutingEngine
+	private static final int CHAIN = 0;
+	private static final int ALL_PAIRS = 1;
+	private static final int ROUTED = 2;
+
+	private final String version;
+	private final long effectiveFrom;
+	private final Map<String, Location> locations;
+	private final Map<String, VehicleRate> rates;
+	private final DistanceIndex distanceIndex;
+	private final LocationNameIndex nameIndex;
+
+	private NetworkSnapshotFile(String version, long effectiveFrom, Map<String, Location> locations, Map<String, VehicleRate> rates,
+			DistanceIndex distanceIndex, LocationNameIndex nameIndex) {
+		this.version = version;
+		this.effectiveFrom = effectiveFrom;
+		this.locations = locations;
+		this.rates = rates;
+		this.distanceIndex = distanceIndex;
+		this.nameIndex = nameIndex;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	//Epoch milliseconds, see ConfigSnapshot.getEffectiveFrom
+	public long getEffectiveFrom() {
+		return effectiveFrom;
+	}
+
+	//Key: location id
+	public Map<String, Location> getLocations() {
+		return locations;
+	}
+
+	//Key: vehicle type
+	public Map<String, VehicleRate> getRates() {
+		return rates;
+	}
+
+	public DistanceIndex getDistanceIndex() {
+		return distanceIndex;
+	}
+
+	public LocationNameIndex getNameIndex() {
+		return nameIndex;
+	}
+
+	/**
+	 * Write a snapshot file, through a temporary file so readers never see a partial one.
+	 *
+	 * @param snap: a loaded config, its version is at most 12 ASCII characters
+	 * @throws IOException
+	 */
+	public static void write(Path file, ConfigSnapshot snap) throws IOException {
+
+		String version = snap.getVersion();
+		Map<String, VehicleRate> rates = snap.getVehicleRateMap();
+		DistanceIndex index = snap.getDistanceIndex();
+		LocationNameIndex nameIndex = snap.getNameIndex();
+		int size = index.size();
+
+		StringPool pool = new StringPool();
+		ByteArrayOutputStream distanceBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream locationBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream routeBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream rateBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream bandBytes = new ByteArrayOutputStream();
+		DataOutputStream distanceOut = new DataOutputStream(distanceBytes);
+		DataOutputStream locationOut = new DataOutputStream(locationBytes);
+		DataOutputStream nameOut = new DataOutputStream(nameBytes);
+		DataOutputStream routeOut = new DataOutputStream(routeBytes);
+		DataOutputStream rateOut = new DataOutputStream(rateBytes);
+		DataOutputStream bandOut = new DataOutputStream(bandBytes);
+
+		int distanceKind;
+		int distanceCount = 0;
+		if(index.isChain()) {
+			distanceKind = CHAIN;
+			for(int i = 0; i < size; i++, distanceCount++)
+				distanceOut.writeLong(index.distanceBetween(0, i));
+		}
+		else if(size <= RoutingEngine.ALL_PAIRS_LIMIT) {
+			distanceKind = ALL_PAIRS;
+			RoutingEngine engine = index.getRoutingEngine();
+			for(int from = 0; from < size; from++) {
+				for(int to = 0; to < size; to++, distanceCount++)
+					distanceOut.writeLong(engine.distance(from, to));
+			}
+		}
+		else {
+			distanceKind = ROUTED;
+		}
+
+		int routeCount = 0;
+		for(int i = 0; i < size; i++) {
+			Location location = index.getLocation(i);
+			List<Route> routes = location.getRoutes() == null ? new ArrayList<Route>() : location.getRoutes();
+			locationOut.writeInt(pool.ref(location.getId()));
+			locationOut.writeInt(pool.ref(location.getName()));
+			locationOut.writeInt(pool.ref(location.getLat()));
+			locationOut.writeInt(pool.ref(location.getLng()));
+			locationOut.writeInt(pool.ref(nameIndex.getKey(i)));
+			locationOut.writeInt(routeCount);
+			locationOut.writeInt(routes.size());
+			for(Route route: routes) {
+				routeOut.writeInt(pool.ref(route.getToId()));
+				routeOut.writeLong(route.getDistance() == null ? NULL_FIXED : route.getDistance().getFixed());
+				routeCount++;
+			}
+			nameOut.writeInt(nameIndex.getOrdinalInNameOrder(i));
+		}
+
+		int bandCount = 0;
+		for(Map.Entry<String, VehicleRate> entry: rates.entrySet()) {
+			VehicleRate rate = entry.getValue();
+			List<RateBand> bands = rate.getSchedule() == null ? new ArrayList<RateBand>() : rate.getSchedule();
+			rateOut.writeInt(pool.ref(entry.getKey()));
+			writeMoney(rateOut, rate.getTripTollCharge());
+			writeMoney(rateOut, rate.getCameraCharge());
+			writeMoney(rateOut, rate.getEastbound());
+			writeMoney(rateOut, rate.getWestbound());
+			rateOut.writeInt(bandCount);
+			rateOut.writeInt(bands.size());
+			rateOut.writeInt(pool.ref(rate.getRules() == null || rate.getRules().isEmpty() ? null : String.join("\n", rate.getRules())));
+			for(RateBand band: bands) {
+				bandOut.writeInt(pool.ref(band.getName()));
+				bandOut.writeInt(pool.ref(band.getDays() == null || band.getDays().isEmpty() ? null : String.join(",", band.getDays())));
+				bandOut.writeInt(pool.ref(band.getFrom()));
+				bandOut.writeInt(pool.ref(band.getTo()));
+				writeMoney(bandOut, band.getEastbound());
+				writeMoney(bandOut, band.getWestbound());
+				bandCount++;
+			}
+		}
+
+		byte[] versionBytes = new byte[VERSION_LENGTH];
+		byte[] versionText = version.getBytes(StandardCharsets.US_ASCII);
+		if(versionText.length > VERSION_LENGTH)
+			throw new IllegalArgumentException("Config version is too long -- " + version);
+		System.arraycopy(versionText, 0, versionBytes, 0, versionText.length);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).put(versionBytes).putLong(snap.getEffectiveFrom()).putInt(size).putInt(routeCount)
+			.putInt(rates.size()).putInt(bandCount).putInt(distanceKind).putInt(distanceCount).putInt(pool.size());
+		header.flip();
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(out, header);
+			writeFully(out, ByteBuffer.wrap(distanceBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(locationBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(nameBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(routeBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(rateBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(bandBytes.toByteArray()));
+			writeFully(out, ByteBuffer.wrap(pool.toByteArray()));
+			out.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Memory-map and decode a snapshot file.
+	 *
+	 * @throws IOException -- also when the file is not a snapshot of this format version.
+	 */
+	public static NetworkSnapshotFile read(Path file) throws IOException {
+
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+			throw new IOException("Not a network snapshot -- " + file);
+		if(buf.getInt(4) != FORMAT_VERSION)
+			throw new IOException("Unsupported network snapshot format " + buf.getInt(4) + " -- " + file);
+
+		byte[] versionBytes = new byte[VERSION_LENGTH];
+		for(int i = 0; i < VERSION_LENGTH; i++)
+			versionBytes[i] = buf.get(8 + i);
+		String version = new String(versionBytes, StandardCharsets.US_ASCII).trim();
+
+		long effectiveFrom = buf.getLong(8 + VERSION_LENGTH);
+		int pos = 8 + VERSION_LENGTH + 8;
+		int locationCount = buf.getInt(pos);
+		int routeCount = buf.getInt(pos + 4);
+		int rateCount = buf.getInt(pos + 8);
+		int bandCount = buf.getInt(pos + 12);
+		int distanceKind = buf.getInt(pos + 16);
+		int distanceCount = buf.getInt(pos + 20);
+		int poolSize = buf.getInt(pos + 24);
+
+		int distanceStart = HEADER_SIZE;
+		int locationStart = distanceStart + distanceCount * FIXED_SIZE;
+		int nameStart = locationStart + locationCount * LOCATION_SIZE;
+		int routeStart = nameStart + locationCount * 4;
+		int rateStart = routeStart + routeCount * ROUTE_SIZE;
+		int bandStart = rateStart + rateCount * RATE_SIZE;
+		int poolStart = bandStart + bandCount * BAND_SIZE;
+		if(poolStart + poolSize != buf.limit())
+			throw new IOException("Truncated network snapshot -- " + file);
+
+		List<Location> ordered = new ArrayList<Location>(locationCount);
+		String[] keys = new String[locationCount];
+		Map<String, Location> locations = new HashMap<String, Location>(locationCount * 2);
+		for(int i = 0; i < locationCount; i++) {
+			int at = locationStart + i * LOCATION_SIZE;
+			Location location = new Location();
+			location.setId(readString(buf, poolStart, buf.getInt(at)));
+			location.setName(readString(buf, poolStart, buf.getInt(at + 4)));
+			location.setLat(readString(buf, poolStart, buf.getInt(at + 8)));
+			location.setLng(readString(buf, poolStart, buf.getInt(at + 12)));
+			keys[i] = readString(buf, poolStart, buf.getInt(at + 16));
+
+			int firstRoute = buf.getInt(at + 20);
+			int count = buf.getInt(at + 24);
+			List<Route> routes = new ArrayList<Route>(count);
+			for(int r = firstRoute; r < firstRoute + count; r++) {
+				int routeAt = routeStart + r * ROUTE_SIZE;
+				Route route = new Route();
+				route.setToId(readString(buf, poolStart, buf.getInt(routeAt)));
+				route.setDistance(readDistance(buf, routeAt + 4));
+				routes.add(route);
+			}
+			location.setRoutes(routes);
+			ordered.add(location);
+			locations.put(location.getId(), location);
+		}
+
+		int[] nameOrder = new int[locationCount];
+		for(int i = 0; i < locationCount; i++)
+			nameOrder[i] = buf.getInt(nameStart + i * 4);
+
+		DistanceIndex distanceIndex = readDistances(buf, distanceKind, distanceCount, ordered, file);
+		LocationNameIndex nameIndex = new LocationNameIndex(distanceIndex, keys, nameOrder);
+
+		Map<String, VehicleRate> rates = new HashMap<String, VehicleRate>(rateCount * 2);
+		for(int i = 0; i < rateCount; i++) {
+			int at = rateStart + i * RATE_SIZE;
+			VehicleRate rate = new VehicleRate();
+			rate.setTripTollCharge(readMoney(buf, at + 4));
+			rate.setCameraCharge(readMoney(buf, at + 4 + FIXED_SIZE));
+			rate.setEastbound(readMoney(buf, at + 4 + 2 * FIXED_SIZE));
+			rate.setWestbound(readMoney(buf, at + 4 + 3 * FIXED_SIZE));
+			
+			int firstBand = buf.getInt(at + 4 + 4 * FIXED_SIZE);
+			int count = buf.getInt(at + 8 + 4 * FIXED_SIZE);
+			String rules = readString(buf, poolStart, buf.getInt(at + 12 + 4 * FIXED_SIZE));
+			if(rules != null)
+				rate.setRules(Arrays.asList(rules.split("\n")));
+			if(count > 0) {
+				List<RateBand> bands = new ArrayList<RateBand>(count);
+				for(int b = firstBand; b < firstBand + count; b++) {
+					int bandAt = bandStart + b * BAND_SIZE;
+					RateBand band = new RateBand();
+					band.setName(readString(buf, poolStart, buf.getInt(bandAt)));
+					String days = readString(buf, poolStart, buf.getInt(bandAt + 4));
+					band.setDays(days == null ? null : Arrays.asList(days.split(",")));
+					band.setFrom(readString(buf, poolStart, buf.getInt(bandAt + 8)));
+					band.setTo(readString(buf, poolStart, buf.getInt(bandAt + 12)));
+					band.setEastbound(readMoney(buf, bandAt + 16));
+					band.setWestbound(readMoney(buf, bandAt + 16 + FIXED_SIZE));
+					bands.add(band);
+				}
+				rate.setSchedule(bands);
+			}
+			rates.put(readString(buf, poolStart, buf.getInt(at)), rate);
+		}
+
+		return new NetworkSnapshotFile(version, effectiveFrom, locations, rates, distanceIndex, nameIndex);
+	}
+
+	/**
+	 * The distance index over the locations in ordinal order, from the distance section. The
+	 * all-pairs table stays in the mapping, a network above ALL_PAIRS_LIMIT is routed from its
+	 * routes as when loaded from JSON.
+	 *
+	 * @throws IOException -- unknown distance kind, or a count that doesn't match it.
+	 */
+	private static DistanceIndex readDistances(MappedByteBuffer buf, int distanceKind, int distanceCount,
+			List<Location> ordered, Path file) throws IOException {
+
+		int size = ordered.size();
+		LongBuffer table = buf.asLongBuffer();
+		//Through Buffer, the covariant overrides of Java 9 don't exist on Java 8
+		((Buffer) table).position(HEADER_SIZE / FIXED_SIZE);
+		((Buffer) table).limit(HEADER_SIZE / FIXED_SIZE + distanceCount);
+		table = table.slice();
+
+		DistanceIndex index;
+		if(distanceKind == CHAIN && distanceCount == size) {
+			long[] cumulative = new long[size];
+			table.get(cumulative);
+			index = new DistanceIndex(ordered, cumulative);
+		}
+		else if(distanceKind == ALL_PAIRS && distanceCount == size * size) {
+			index = new DistanceIndex(ordered, new RoutingEngine(size, table));
+		}
+		else if(distanceKind == ROUTED && distanceCount == 0) {
+			Map<String, Integer> ordinalById = new HashMap<String, Integer>(size * 2);
+			for(int i = 0; i < size; i++)
+				ordinalById.put(ordered.get(i).getId(), i);
+			index = new DistanceIndex(ordered, new RoutingEngine(ordered, ordinalById));
+		}
+		else {
+			throw new IOException("Bad distance section in network snapshot -- " + file);
+		}
+
+		//Distance from the first location, as buildDistanceIndex sets it
+		for(int i = 0; i < size; i++)
+			ordered.get(i).setDistance(index.isReachable(0, i) ? Distance.ofFixed(index.distanceBetween(0, i)) : null);
+		return index;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining())
+			out.write(buf);
+	}
+
+	private static void writeMoney(DataOutputStream out, Money value) throws IOException {
+		out.writeLong(value == null ? NULL_FIXED : value.getUnits());
+	}
+
+	private static Money readMoney(ByteBuffer buf, int at) {
+		long units = buf.getLong(at);
+		return units == NULL_FIXED ? null : Money.ofUnits(units);
+	}
+
+	private static Distance readDistance(ByteBuffer buf, int at) {
+		long fixed = buf.getLong(at);
+		return fixed == NULL_FIXED ? null : Distance.ofFixed(fixed);
+	}
+
+	private static String readString(ByteBuffer buf, int poolStart, int ref) {
+		if(ref < 0)
+			return null;
+		int at = poolStart + ref;
+		int length = buf.getInt(at);
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++)
+			bytes[i] = buf.get(at + 4 + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Deduplicated string section.
+	 */
+	private static class StringPool {
+		private final Map<String, Integer> refs = new HashMap<String, Integer>();
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		int ref(String value) throws IOException {
+			if(value == null)
+				return -1;
+			Integer ref = refs.get(value);
+			if(ref == null) {
+				ref = bytes.size();
+				byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(utf8.length);
+				out.write(utf8);
+				refs.put(value, ref);
+			}
+			return ref;
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+}
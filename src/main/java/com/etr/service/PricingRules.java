@@ -0,0 +1,612 @@
+package com.etr.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.etr.model.Distance;
+import com.etr.model.Money;
+
+/**
+ * The fare rules of one vehicle type, compiled once at load time.
+ *
+ * In rates.json a vehicle rate may list rules, applied in order to the built-in fare:
+ * <pre>
+ * "heavy": {
+ *   "trip_toll_charge": 2, "camera_charge": 45, "eastbound": 0.7866, "westbound": 0.7416,
+ *   "rules": [
+ *     "kmRate += 0.10 * distance if westbound and distance > 50",
+ *     "charge = max(charge, 60)",
+ *     "charge = min(charge, 400)",
+ *     "charge -= 5 if distance < 10"
+ *   ]
+ * }
+ * </pre>
+ * A rule is "target op expression [if condition]":
+ * <pre>
+ * target      kmRate | charge
+ * op          = | += | -= | *=
+ * expression  numbers, variables, + - * / and parentheses, min(a, b), max(a, b)
+ * condition   comparisons (&lt; &lt;= &gt; &gt;= == !=) of expressions, westbound, eastbound,
+ *             combined with not, and, or
+ * variables   distance (km), cost (distance cost), toll, camera, rate (per-km rate of the
+ *             direction), kmRate, charge
+ * </pre>
+ * The fare is worked out in two steps. First kmRate starts as toll + camera + rate, the kmRate
+ * rules apply, and it is rounded to cents. Then charge starts as cost + kmRate, the charge
+ * rules apply, and it is rounded to cents. So kmRate rules come before charge rules and can't
+ * use charge. Without rules that is exactly the built-in fare.
+ *
+ * Every rule is compiled into a tree of evaluator objects, constant sub-expressions folded and
+ * constant operands kept in the node, so nothing is parsed or looked up per trip. Rules evaluate
+ * in longs, millionths as Distance: money and distances are exact, a product or a quotient is
+ * HALF_EVEN rounded to 6 decimals, and constants have at most 6 decimals. Only a division, and
+ * a product beyond the long range, goes through BigDecimal. Without rules the fare is the
+ * built-in arithmetic on Money units.
+ */
+public final class PricingRules {
+
+	//No rule, the built-in fare
+	public static final PricingRules NONE = new PricingRules(new Rule[0], 0);
+
+	//Rules evaluate in millionths, the Distance scale; Money has fewer decimals
+	private static final int SCALE = Distance.SCALE;
+	private static final long UNIT = Distance.UNIT;
+	private static final long CENT_UNITS = Money.ofCents(1).getUnits();
+	//Millionths of a Money unit (Money.SCALE 4), and of a cent
+	private static final long PER_MONEY_UNIT = UNIT / 10000;
+	private static final long PER_CENT = PER_MONEY_UNIT * CENT_UNITS;
+
+	//kmRate rules first, then charge rules
+	private final Rule[] rules;
+	private final int kmRateRules;
+
+	private PricingRules(Rule[] rules, int kmRateRules) {
+		this.rules = rules;
+		this.kmRateRules = kmRateRules;
+	}
+
+	/**
+	 * @param rules: rule texts in order, may be null
+	 * @throws IllegalStateException -- a rule is malformed.
+	 */
+	public static PricingRules compile(String vehicleType, List<String> rules) {
+
+		if(rules == null || rules.isEmpty())
+			return NONE;
+
+		List<Rule> compiled = new ArrayList<Rule>(rules.size());
+		int kmRateRules = 0;
+		for(int i = 0; i < rules.size(); i++) {
+			Rule rule;
+			try {
+				rule = new Parser(rules.get(i)).rule();
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException("Rule " + (i + 1) + " of vehicle type " + vehicleType + " -- " + e.getMessage());
+			}
+			if(rule.target == Variable.KM_RATE) {
+				if(compiled.size() > kmRateRules)
+					throw new IllegalStateException("Rule " + (i + 1) + " of vehicle type " + vehicleType
+							+ " -- kmRate rules must come before charge rules");
+				if(rule.usesCharge)
+					throw new IllegalStateException("Rule " + (i + 1) + " of vehicle type " + vehicleType
+							+ " -- kmRate rules can't use charge");
+				kmRateRules++;
+			}
+			compiled.add(rule);
+		}
+		return new PricingRules(compiled.toArray(new Rule[compiled.size()]), kmRateRules);
+	}
+
+	public boolean isEmpty() {
+		return rules.length == 0;
+	}
+
+	/**
+	 * Work out kmRate and charge of a fare, see the class comment.
+	 *
+	 * @param fare: distance, cost, toll, camera, rate and direction set
+	 * @throws ArithmeticException -- division by zero, or out of range.
+	 */
+	public void apply(Fare fare) {
+
+		if(rules.length == 0) {
+			//The built-in fare, on Money units
+			long kmRate = Math.multiplyExact(round(Math.addExact(Math.addExact(fare.toll, fare.camera), fare.rate), CENT_UNITS), CENT_UNITS);
+			fare.kmRateUnits = kmRate;
+			fare.chargeUnits = Math.addExact(fare.cost, kmRate);
+			return;
+		}
+
+		fare.kmRate = Math.addExact(Math.addExact(fare.toll, fare.camera), fare.rate) * PER_MONEY_UNIT;
+		for(int i = 0; i < kmRateRules; i++)
+			rules[i].apply(fare);
+		fare.kmRate = cents(fare.kmRate);
+
+		fare.charge = Math.addExact(fare.cost * PER_MONEY_UNIT, fare.kmRate);
+		for(int i = kmRateRules; i < rules.length; i++)
+			rules[i].apply(fare);
+		fare.charge = cents(fare.charge);
+
+		fare.kmRateUnits = fare.kmRate / PER_MONEY_UNIT;
+		fare.chargeUnits = fare.charge / PER_MONEY_UNIT;
+	}
+
+	//HALF_EVEN rounded to cents, as the built-in fare
+	private static long cents(long value) {
+		return Math.multiplyExact(round(value, PER_CENT), PER_CENT);
+	}
+
+	/**
+	 * Divide, HALF_EVEN rounded, as every rounding of the fare. The divisor is positive.
+	 */
+	private static long round(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		long remainder = Math.abs(dividend % divisor);
+		//Compared without overflow: remainder against divisor - remainder
+		long half = Long.compare(remainder, divisor - remainder);
+		if(half > 0 || (half == 0 && (quotient & 1) != 0))
+			return dividend < 0 ? quotient - 1 : quotient + 1;
+		return quotient;
+	}
+
+	private static long multiply(long a, long b) {
+		long high = Math.abs(a) | Math.abs(b);
+		//Both below 2^31, the product fits
+		if(high >>> 31 == 0)
+			return round(a * b, UNIT);
+		try {
+			return round(Math.multiplyExact(a, b), UNIT);
+		} catch (ArithmeticException e) {
+			return BigDecimal.valueOf(a, SCALE).multiply(BigDecimal.valueOf(b, SCALE))
+					.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+		}
+	}
+
+	/**
+	 * @throws ArithmeticException -- division by zero.
+	 */
+	private static long divide(long a, long b) {
+		return BigDecimal.valueOf(a, SCALE).divide(BigDecimal.valueOf(b, SCALE), SCALE, RoundingMode.HALF_EVEN)
+				.unscaledValue().longValueExact();
+	}
+
+	/**
+	 * The inputs and outputs of one fare.
+	 */
+	public static final class Fare {
+		//Distance in millionths of a km, amounts in Money units
+		final long distance;
+		final long cost;
+		final long toll;
+		final long camera;
+		final long rate;
+		final boolean westbound;
+		//Rule evaluation only, millionths
+		long kmRate;
+		long charge;
+		long kmRateUnits;
+		long chargeUnits;
+
+		public Fare(Distance distance, Money cost, Money toll, Money camera, Money rate, boolean westbound) {
+			this.distance = distance.getFixed();
+			this.cost = cost.getUnits();
+			this.toll = toll.getUnits();
+			this.camera = camera.getUnits();
+			this.rate = rate.getUnits();
+			this.westbound = westbound;
+		}
+
+		//Millionths
+		long get(Variable variable) {
+			switch(variable) {
+			case DISTANCE: return distance;
+			case COST: return cost * PER_MONEY_UNIT;
+			case TOLL: return toll * PER_MONEY_UNIT;
+			case CAMERA: return camera * PER_MONEY_UNIT;
+			case RATE: return rate * PER_MONEY_UNIT;
+			case KM_RATE: return kmRate;
+			default: return charge;
+			}
+		}
+
+		public Money getKmRate() {
+			return Money.ofUnits(kmRateUnits);
+		}
+
+		public Money getCharge() {
+			return Money.ofUnits(chargeUnits);
+		}
+	}
+
+	private enum Variable {
+		DISTANCE("distance"), COST("cost"), TOLL("toll"), CAMERA("camera"), RATE("rate"), KM_RATE("kmRate"), CHARGE("charge");
+
+		private final String name;
+
+		Variable(String name) {
+			this.name = name;
+		}
+
+		static Variable of(String name) {
+			for(Variable variable: values()) {
+				if(variable.name.equals(name))
+					return variable;
+			}
+			return null;
+		}
+	}
+
+	//Millionths
+	private interface Expr {
+		long eval(Fare fare);
+	}
+
+	private interface Condition {
+		boolean test(Fare fare);
+	}
+
+	/**
+	 * One compiled rule.
+	 */
+	private static final class Rule {
+		private final Variable target;
+		private final char op;
+		private final Expr value;
+		//null when unconditional
+		private final Condition condition;
+		private final boolean usesCharge;
+
+		Rule(Variable target, char op, Expr value, Condition condition, boolean usesCharge) {
+			this.target = target;
+			this.op = op;
+			this.value = value;
+			this.condition = condition;
+			this.usesCharge = usesCharge;
+		}
+
+		void apply(Fare fare) {
+			if(condition != null && !condition.test(fare))
+				return;
+			long current = target == Variable.KM_RATE ? fare.kmRate : fare.charge;
+			long v = value.eval(fare);
+			long result = op == '=' ? v : op == '+' ? Math.addExact(current, v) : op == '-' ? Math.subtractExact(current, v) : multiply(current, v);
+			if(target == Variable.KM_RATE)
+				fare.kmRate = result;
+			else
+				fare.charge = result;
+		}
+	}
+
+	/**
+	 * Constant value, kept apart so parents can fold it.
+	 */
+	private static final class Constant implements Expr {
+		private final long value;
+
+		Constant(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long eval(Fare fare) {
+			return value;
+		}
+	}
+
+	/**
+	 * Variable value, kept apart so parents read it without a call.
+	 */
+	private static final class Load implements Expr {
+		private final Variable variable;
+
+		Load(Variable variable) {
+			this.variable = variable;
+		}
+
+		@Override
+		public long eval(Fare fare) {
+			return fare.get(variable);
+		}
+	}
+
+	//op: + - * / m (min) M (max)
+	private static long compute(char op, long a, long b) {
+		switch(op) {
+		case '+': return Math.addExact(a, b);
+		case '-': return Math.subtractExact(a, b);
+		case '*': return multiply(a, b);
+		case '/': return divide(a, b);
+		case 'm': return Math.min(a, b);
+		default: return Math.max(a, b);
+		}
+	}
+
+	//op: < l (<=) > g (>=) = (==) ! (!=)
+	private static boolean compare(char op, long a, long b) {
+		switch(op) {
+		case 'l': return a <= b;
+		case 'g': return a >= b;
+		case '=': return a == b;
+		case '!': return a != b;
+		case '<': return a < b;
+		default: return a > b;
+		}
+	}
+
+	/**
+	 * Recursive descent over the rule text, building the evaluators as it goes.
+	 */
+	private static final class Parser {
+		private final String text;
+		private int pos;
+		private boolean usesCharge;
+
+		Parser(String text) {
+			if(text == null || text.trim().isEmpty())
+				throw new IllegalArgumentException("empty rule");
+			if(text.indexOf('\n') >= 0)
+				throw new IllegalArgumentException("a rule is one line");
+			this.text = text;
+		}
+
+		Rule rule() {
+			String name = identifier();
+			Variable target = Variable.of(name);
+			if(target != Variable.KM_RATE && target != Variable.CHARGE)
+				throw error("the target must be kmRate or charge, not " + name);
+
+			skipSpaces();
+			char op;
+			if(peek('=')) {
+				op = '=';
+				pos++;
+			}
+			else if(pos + 1 < text.length() && "+-*".indexOf(text.charAt(pos)) >= 0 && text.charAt(pos + 1) == '=') {
+				op = text.charAt(pos);
+				pos += 2;
+			}
+			else {
+				throw error("expected =, +=, -= or *=");
+			}
+
+			Expr value = expression();
+			Condition condition = null;
+			skipSpaces();
+			if(pos < text.length()) {
+				if(!"if".equals(identifier()))
+					throw error("expected if");
+				condition = condition();
+			}
+			skipSpaces();
+			if(pos < text.length())
+				throw error("unexpected " + text.substring(pos));
+			return new Rule(target, op, value, condition, usesCharge);
+		}
+
+		private Condition condition() {
+			Condition left = conjunction();
+			while(keyword("or")) {
+				Condition a = left;
+				Condition b = conjunction();
+				left = fare -> a.test(fare) || b.test(fare);
+			}
+			return left;
+		}
+
+		private Condition conjunction() {
+			Condition left = negation();
+			while(keyword("and")) {
+				Condition a = left;
+				Condition b = negation();
+				left = fare -> a.test(fare) && b.test(fare);
+			}
+			return left;
+		}
+
+		private Condition negation() {
+			if(keyword("not")) {
+				Condition c = negation();
+				return fare -> !c.test(fare);
+			}
+			if(keyword("westbound"))
+				return fare -> fare.westbound;
+			if(keyword("eastbound"))
+				return fare -> !fare.westbound;
+			return comparison();
+		}
+
+		private Condition comparison() {
+			Expr a = expression();
+			skipSpaces();
+			String op = null;
+			for(String candidate: new String[] {"<=", ">=", "==", "!=", "<", ">"}) {
+				if(text.startsWith(candidate, pos)) {
+					op = candidate;
+					break;
+				}
+			}
+			if(op == null)
+				throw error("expected a comparison");
+			pos += op.length();
+			Expr b = expression();
+			//A variable or an expression against a constant, the usual cases, in one node
+			char comparison = "<=".equals(op) ? 'l' : ">=".equals(op) ? 'g' : op.charAt(0);
+			if(b instanceof Constant) {
+				long c = ((Constant) b).value;
+				if(a instanceof Load) {
+					Variable v = ((Load) a).variable;
+					return fare -> compare(comparison, fare.get(v), c);
+				}
+				return fare -> compare(comparison, a.eval(fare), c);
+			}
+			return fare -> compare(comparison, a.eval(fare), b.eval(fare));
+		}
+
+		private Expr expression() {
+			Expr left = term();
+			while(true) {
+				skipSpaces();
+				if(peek('+') && !peekAssignment()) {
+					pos++;
+					left = binary('+', left, term());
+				}
+				else if(peek('-') && !peekAssignment()) {
+					pos++;
+					left = binary('-', left, term());
+				}
+				else {
+					return left;
+				}
+			}
+		}
+
+		private Expr term() {
+			Expr left = factor();
+			while(true) {
+				skipSpaces();
+				if(peek('*') && !peekAssignment()) {
+					pos++;
+					left = binary('*', left, factor());
+				}
+				else if(peek('/')) {
+					pos++;
+					left = binary('/', left, factor());
+				}
+				else {
+					return left;
+				}
+			}
+		}
+
+		private Expr factor() {
+			skipSpaces();
+			if(peek('-')) {
+				pos++;
+				return binary('-', new Constant(0), factor());
+			}
+			if(peek('(')) {
+				pos++;
+				Expr inner = expression();
+				expect(')');
+				return inner;
+			}
+			if(pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+				return number();
+
+			String name = identifier();
+			if("min".equals(name) || "max".equals(name)) {
+				expect('(');
+				Expr a = expression();
+				expect(',');
+				Expr b = expression();
+				expect(')');
+				return binary("min".equals(name) ? 'm' : 'M', a, b);
+			}
+			Variable variable = Variable.of(name);
+			if(variable == null)
+				throw error("unknown variable " + name);
+			return variable(variable);
+		}
+
+		private Expr variable(Variable variable) {
+			if(variable == Variable.CHARGE)
+				usesCharge = true;
+			return new Load(variable);
+		}
+
+		//Folded when both sides are constant; variables and constants are read in the node
+		private Expr binary(char op, Expr a, Expr b) {
+			if(op == '/' && b instanceof Constant && ((Constant) b).value == 0)
+				throw error("division by zero");
+			if(a instanceof Constant && b instanceof Constant)
+				return new Constant(compute(op, ((Constant) a).value, ((Constant) b).value));
+			//Constant on the right, e.g. 0.10 * distance
+			if(a instanceof Constant && "+*mM".indexOf(op) >= 0) {
+				Expr swap = a;
+				a = b;
+				b = swap;
+			}
+
+			Expr left = a;
+			Expr right = b;
+			if(left instanceof Load) {
+				Variable v = ((Load) left).variable;
+				if(right instanceof Constant) {
+					long c = ((Constant) right).value;
+					return fare -> compute(op, fare.get(v), c);
+				}
+				if(right instanceof Load) {
+					Variable w = ((Load) right).variable;
+					return fare -> compute(op, fare.get(v), fare.get(w));
+				}
+			}
+			if(right instanceof Constant) {
+				long c = ((Constant) right).value;
+				return fare -> compute(op, left.eval(fare), c);
+			}
+			return fare -> compute(op, left.eval(fare), right.eval(fare));
+		}
+
+		private Expr number() {
+			int start = pos;
+			while(pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+				pos++;
+			try {
+				return new Constant(new BigDecimal(text.substring(start, pos)).setScale(SCALE, RoundingMode.UNNECESSARY)
+						.unscaledValue().longValueExact());
+			} catch (NumberFormatException e) {
+				throw error("bad number " + text.substring(start, pos));
+			} catch (ArithmeticException e) {
+				throw error("more than " + SCALE + " decimals in " + text.substring(start, pos));
+			}
+		}
+
+		private String identifier() {
+			skipSpaces();
+			int start = pos;
+			while(pos < text.length() && Character.isLetter(text.charAt(pos)))
+				pos++;
+			if(start == pos)
+				throw error(pos < text.length() ? "unexpected " + text.charAt(pos) : "unexpected end");
+			return text.substring(start, pos);
+		}
+
+		//Consumes the keyword if it is next, as a whole word
+		private boolean keyword(String word) {
+			skipSpaces();
+			int end = pos + word.length();
+			if(!text.startsWith(word, pos) || (end < text.length() && Character.isLetter(text.charAt(end))))
+				return false;
+			pos = end;
+			return true;
+		}
+
+		private void expect(char c) {
+			skipSpaces();
+			if(!peek(c))
+				throw error("expected " + c);
+			pos++;
+		}
+
+		private boolean peek(char c) {
+			return pos < text.length() && text.charAt(pos) == c;
+		}
+
+		//+= -= *= belong to the rule, not to the expression
+		private boolean peekAssignment() {
+			return pos + 1 < text.length() && text.charAt(pos + 1) == '=';
+		}
+
+		private void skipSpaces() {
+			while(pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+				pos++;
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(String.format(Locale.ROOT, "%s at %d in \"%s\"", message, pos + 1, text));
+		}
+	}
+}
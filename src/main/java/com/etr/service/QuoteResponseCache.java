@@ -0,0 +1,238 @@
+package com.etr.service;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.etr.model.CostResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serialized /costoftrip responses, as UTF-8 JSON bytes.
+ *
+ * A quote only depends on (from, to, vehicle type, rate band, config version), so its bytes are serialized
+ * once per config version and served as is after that. The ETag is derived from the same tuple,
+ * it is known before anything is priced, so a conditional GET that matches never serializes.
+ * All entries belong to one config version, a new version starts an empty cache. Only the
+ * default network is cached, quotes of other networks (see NetworkRegistry) are serialized
+ * per request and keep their ETags.
+ */
+@Service
+public class QuoteResponseCache {
+
+	@Autowired
+	private CostConfigurator costConfigurator;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	//Entries kept per config version, the cache is cleared when it is full
+	@Value("${tripcalculator.cache.max-entries:100000}")
+	private int maxEntries;
+
+	//Cache-Control max-age of a quote
+	@Value("${tripcalculator.cache.max-age-seconds:300}")
+	private long maxAgeSeconds;
+
+	//Distance only and every vehicle type
+	private static final int CLASSES = VehicleTypeEnum.values().length + 1;
+
+	private final AtomicReference<Generation> generation = new AtomicReference<Generation>(new Generation(null));
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Resolve a quote request against the current config.
+	 *
+	 * @param vehicleType: null for the distance cost only
+	 * @param tripTime: selects the rate schedule band, may be null
+	 * @throws IllegalArgumentException -- unknown location or no route.
+	 */
+	public Quote lookup(String fromName, String toName, VehicleTypeEnum vehicleType, ZonedDateTime tripTime) 
+			throws IllegalArgumentException {
+
+		return lookup(costConfigurator, fromName, toName, vehicleType, tripTime);
+	}
+
+	/**
+	 * Resolve a quote request against the current config of a network.
+	 *
+	 * @param network: configurator of the network, see NetworkRegistry
+	 * @throws IllegalArgumentException -- unknown location or no route.
+	 */
+	public Quote lookup(CostConfigurator network, String fromName, String toName, VehicleTypeEnum vehicleType, 
+			ZonedDateTime tripTime) throws IllegalArgumentException {
+
+		ConfigSnapshot snap = network.getSnapshot();
+		int fromOrdinal = CostConfigurator.getOrdinal(snap, fromName.trim());
+		int toOrdinal = CostConfigurator.getOrdinal(snap, toName.trim());
+		if(!snap.getDistanceIndex().isReachable(fromOrdinal, toOrdinal))
+			throw new IllegalArgumentException("There is no route between the input locations.");
+
+		//Trip times in the same band have the same answer
+		int band = vehicleType == null ? 0 : network.bandAt(snap, vehicleType.getType(), tripTime);
+
+		long size = snap.getDistanceIndex().size();
+		long cls = (long) band * CLASSES + (vehicleType == null ? 0 : vehicleType.ordinal() + 1);
+		long key = (cls * size + fromOrdinal) * size + toOrdinal;
+		return new Quote(network, snap, fromOrdinal, toOrdinal, vehicleType, band, key);
+	}
+
+	public long getMaxAgeSeconds() {
+		return maxAgeSeconds;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public int size() {
+		return generation.get().bodies.size();
+	}
+
+	/**
+	 * If-None-Match evaluation, with the weak comparison RFC 7232 asks for.
+	 *
+	 * @param ifNoneMatch: header values, each may list several tags
+	 */
+	public static boolean matches(List<String> ifNoneMatch, String etag) {
+		for(String header: ifNoneMatch) {
+			for(String tag: header.split(",")) {
+				String candidate = tag.trim();
+				if(candidate.startsWith("W/"))
+					candidate = candidate.substring(2);
+				if(candidate.equals("*") || candidate.equals(etag))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	byte[] bodyOf(Quote quote) {
+
+		if(quote.network != costConfigurator)
+			return serialize(quote);
+
+		ConfigSnapshot snap = quote.snapshot;
+		Generation current = generation.get();
+		if(current.version == null || !current.version.equals(snap.getVersion())) {
+			//Only the published snapshot may replace the cache, a request that still holds
+			//an older one serializes without caching
+			if(snap != costConfigurator.getSnapshot())
+				return serialize(quote);
+			Generation next = new Generation(snap.getVersion());
+			current = generation.compareAndSet(current, next) ? next : generation.get();
+			if(!snap.getVersion().equals(current.version))
+				return serialize(quote);
+		}
+
+		byte[] body = current.bodies.get(quote.key);
+		if(body != null) {
+			hits.increment();
+			return body;
+		}
+
+		misses.increment();
+		body = serialize(quote);
+		//Rough bound, hot quotes come back after a clear
+		if(current.bodies.size() >= maxEntries)
+			current.bodies.clear();
+		current.bodies.put(quote.key, body);
+		return body;
+	}
+
+	private byte[] serialize(Quote quote) {
+		CostResponse resp = quote.getResponse();
+		try {
+			return objectMapper.writeValueAsBytes(resp);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * One resolved quote request.
+	 */
+	public final class Quote {
+		private final CostConfigurator network;
+		private final ConfigSnapshot snapshot;
+		private final int fromOrdinal;
+		private final int toOrdinal;
+		private final VehicleTypeEnum vehicleType;
+		private final int band;
+		private final long key;
+
+		Quote(CostConfigurator network, ConfigSnapshot snapshot, int fromOrdinal, int toOrdinal, VehicleTypeEnum vehicleType, 
+				int band, long key) {
+			this.network = network;
+			this.snapshot = snapshot;
+			this.fromOrdinal = fromOrdinal;
+			this.toOrdinal = toOrdinal;
+			this.vehicleType = vehicleType;
+			this.band = band;
+			this.key = key;
+		}
+
+		/**
+		 * Strong ETag, the same bytes always have the same tag.
+		 */
+		public String getETag() {
+			return "\"" + snapshot.getVersion() + "-" + Long.toString(key, 36) + "\"";
+		}
+
+		/**
+		 * Serialized response, from the cache when it is there.
+		 */
+		public byte[] getBody() {
+			return bodyOf(this);
+		}
+
+		/**
+		 * The response, priced again, not from the cache.
+		 */
+		public CostResponse getResponse() {
+			return CostConfigurator.quote(snapshot, fromOrdinal, toOrdinal, vehicleType == null ? null : vehicleType.getType(), band);
+		}
+
+		//Location names as configured, not as requested
+		public String getFromName() {
+			return snapshot.getDistanceIndex().getLocation(fromOrdinal).getName();
+		}
+
+		public String getToName() {
+			return snapshot.getDistanceIndex().getLocation(toOrdinal).getName();
+		}
+
+		public VehicleTypeEnum getVehicleType() {
+			return vehicleType;
+		}
+	}
+
+	/**
+	 * The cached bodies of one config version.
+	 */
+	private static final class Generation {
+		private final String version;
+
+		//Key: rate band, vehicle class, from and to ordinals; Value: serialized response
+		private final ConcurrentMap<Long, byte[]> bodies = new ConcurrentHashMap<Long, byte[]>();
+
+		Generation(String version) {
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package com.etr.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * The config versions in force over time, to price a trip with the rates of its date.
+ *
+ * Every version published by the CostConfigurator is recorded as in force from the
+ * effective_from date-time of its rates.json, e.g. "effective_from": "2019-01-01T00:00" next
+ * to "rates", in the network time zone without an offset, or from its publish time when it has
+ * none. Publishing the rates of an earlier period with their effective_from back-dates them;
+ * record does the same for a loaded snapshot. The history is kept on disk, append-only, in
+ * tripcalculator.history.dir, "history" under the working directory by default:
+ * <pre>
+ * history.log          one line per version: effective-from instant, config version
+ * version.snapshot     the compiled config of every version, see NetworkSnapshotFile
+ * </pre>
+ * and read back at startup, so it survives restarts. With an empty directory the history holds
+ * only the versions published by this process, only the current one can price.
+ *
+ * The timeline is two sorted arrays, effective-from times and versions, replaced as a whole on
+ * every record, so a lookup is one binary search. The current version prices with a
+ * configurator bound to the snapshot last published by the CostConfigurator bean, so a reload
+ * between the lookup and the quote can't swap the rates. Older ones are loaded from their
+ * snapshot file on first use and kept
+ * while among the tripcalculator.history.max-loaded most recently used. A loaded version has
+ * its own fare matrix, a historical batch is priced as fast as a current one.
+ */
+@Service
+public class RateHistory {
+
+	private static Logger logger = LoggerFactory.getLogger(RateHistory.class);
+
+	public static final String LOG_FILE = "history.log";
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	//Versions are file names
+	private static final Pattern VERSION = Pattern.compile("[0-9a-f]{12}");
+
+	@Autowired
+	private CostConfigurator costConfigurator;
+
+	@Value("${tripcalculator.history.dir:history}")
+	private String historyDirectory = "history";
+
+	@Value("${tripcalculator.history.max-loaded:4}")
+	private int maxLoaded = 4;
+
+	private final AtomicReference<Timeline> timeline = new AtomicReference<Timeline>(Timeline.EMPTY);
+
+	//Key: config version; Value: its configurator, in use order
+	private final LinkedHashMap<String, CostConfigurator> loaded = new LinkedHashMap<String, CostConfigurator>(16, 0.75f, true);
+
+	private volatile boolean listening;
+
+	//Bound to the last snapshot published, see CostConfigurator.boundTo
+	private volatile CostConfigurator current;
+
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Read the history, record the current config and every later one.
+	 *
+	 * @throws IOException
+	 */
+	@PostConstruct
+	public void open() throws IOException {
+
+		synchronized(this) {
+			timeline.set(Timeline.EMPTY);
+			loaded.clear();
+		}
+
+		Path log = getLogFile();
+		if(log != null && Files.isRegularFile(log)) {
+			List<Long> times = new ArrayList<Long>();
+			List<String> versions = new ArrayList<String>();
+			try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					String[] fields = line.trim().split(" ");
+					if(fields.length != 2 || !VERSION.matcher(fields[1]).matches()) {
+						logger.warn("Skipped rate history line -- " + line);
+						continue;
+					}
+					try {
+						times.add(Instant.parse(fields[0]).toEpochMilli());
+						versions.add(fields[1]);
+					} catch (DateTimeParseException e) {
+						logger.warn("Skipped rate history line -- " + line);
+					}
+				}
+			}
+			Timeline read = Timeline.EMPTY;
+			for(int i = 0; i < times.size(); i++)
+				read = read.with(times.get(i), versions.get(i));
+			timeline.set(read);
+			logger.info("Rate history " + log + " has " + read.size() + " versions");
+		}
+		if(log == null)
+			logger.warn("No tripcalculator.history.dir, the rate history is lost on restart and asOf prices only the current rates");
+
+		published(costConfigurator.getSnapshot());
+		if(!listening) {
+			costConfigurator.addPublishListener(this::published);
+			listening = true;
+		}
+	}
+
+	/**
+	 * Record a config version as in force from a time on, e.g. to back-date the rates of an
+	 * earlier period. The latest record wins for the same time.
+	 *
+	 * @param snap: loaded config, written to the history directory if not there yet
+	 * @param effectiveFrom: epoch milliseconds
+	 * @throws IOException
+	 */
+	public synchronized void record(ConfigSnapshot snap, long effectiveFrom) throws IOException {
+
+		Path dir = getDirectory();
+		if(dir != null) {
+			Files.createDirectories(dir);
+			Path file = dir.resolve(snap.getVersion() + SNAPSHOT_SUFFIX);
+			if(!Files.isRegularFile(file))
+				NetworkSnapshotFile.write(file, snap);
+
+			//Appended and forced before the version is visible
+			byte[] line = (Instant.ofEpochMilli(effectiveFrom) + " " + snap.getVersion() + "\n").getBytes(StandardCharsets.UTF_8);
+			try (FileChannel out = FileChannel.open(dir.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND)) {
+				out.write(ByteBuffer.wrap(line));
+				out.force(true);
+			}
+		}
+		timeline.set(timeline.get().with(effectiveFrom, snap.getVersion()));
+	}
+
+	/**
+	 * The configurator of the version in force at a time.
+	 *
+	 * @param asOf: epoch milliseconds
+	 * @throws IllegalArgumentException -- no version in force then, or it doesn't load.
+	 */
+	public CostConfigurator asOf(long asOf) throws IllegalArgumentException {
+
+		String version = timeline.get().versionAt(asOf);
+		if(version == null)
+			throw new IllegalArgumentException("No rates are recorded for the input time.");
+		CostConfigurator current = this.current;
+		if(current != null && version.equals(current.getSnapshot().getVersion()))
+			return current;
+
+		synchronized(this) {
+			CostConfigurator configurator = loaded.get(version);
+			if(configurator != null)
+				return configurator;
+		}
+		return load(version);
+	}
+
+	/**
+	 * Recorded and loaded versions, for metrics.
+	 */
+	public synchronized Map<String, Object> toMap() {
+		Map<String, Object> map = new TreeMap<String, Object>();
+		map.put("versions", timeline.get().size());
+		map.put("loaded", new ArrayList<String>(loaded.keySet()));
+		map.put("loads", loads.sum());
+		map.put("evictions", evictions.sum());
+		return map;
+	}
+
+	public String getHistoryDirectory() {
+		return historyDirectory;
+	}
+
+	public void setHistoryDirectory(String historyDirectory) {
+		this.historyDirectory = historyDirectory;
+	}
+
+	public int getMaxLoaded() {
+		return maxLoaded;
+	}
+
+	public void setMaxLoaded(int maxLoaded) {
+		this.maxLoaded = maxLoaded;
+	}
+
+	//Published configs are in force from their effective_from or publish time, the empty snapshot is not a config
+	private void published(ConfigSnapshot snap) {
+		current = CostConfigurator.boundTo(snap, costConfigurator.getTimeZone());
+		long effectiveFrom = snap.getEffectiveFrom() != ConfigSnapshot.NO_EFFECTIVE_FROM ? snap.getEffectiveFrom() : snap.getLoadedAt();
+		//Already in force then, e.g. the same config after a restart
+		if(!VERSION.matcher(snap.getVersion()).matches() || snap.getVersion().equals(timeline.get().versionAt(effectiveFrom)))
+			return;
+		try {
+			record(snap, effectiveFrom);
+		} catch (IOException e) {
+			logger.error("Config version " + snap.getVersion() + " not recorded in the rate history -- " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Load a version from its snapshot file, outside of the lock, concurrent first uses may
+	 * load it twice, one of them is kept.
+	 */
+	private CostConfigurator load(String version) throws IllegalArgumentException {
+
+		Path dir = getDirectory();
+		Path file = dir == null ? null : dir.resolve(version + SNAPSHOT_SUFFIX);
+		if(file == null || !Files.isRegularFile(file))
+			throw new IllegalArgumentException("The rates of version " + version + " are not available.");
+
+		CostConfigurator configurator = new CostConfigurator();
+		configurator.setTimeZone(costConfigurator.getTimeZone());
+		configurator.setSnapshotFile(file.toString());
+		if(!configurator.generateConfigMap())
+			throw new IllegalArgumentException("The rates of version " + version + " failed to load.");
+		loads.increment();
+
+		synchronized(this) {
+			CostConfigurator other = loaded.putIfAbsent(version, configurator);
+			if(other != null)
+				return other;
+			Iterator<CostConfigurator> eldest = loaded.values().iterator();
+			while(loaded.size() > Math.max(1, maxLoaded)) {
+				eldest.next();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+		return configurator;
+	}
+
+	private Path getDirectory() {
+		return historyDirectory == null || historyDirectory.trim().isEmpty() ? null : Paths.get(historyDirectory.trim());
+	}
+
+	private Path getLogFile() {
+		Path dir = getDirectory();
+		return dir == null ? null : dir.resolve(LOG_FILE);
+	}
+
+	/**
+	 * Versions by effective-from time, immutable.
+	 */
+	private static final class Timeline {
+		static final Timeline EMPTY = new Timeline(new long[0], new String[0]);
+
+		//Sorted, ascending
+		private final long[] effectiveFrom;
+		private final String[] versions;
+
+		Timeline(long[] effectiveFrom, String[] versions) {
+			this.effectiveFrom = effectiveFrom;
+			this.versions = versions;
+		}
+
+		int size() {
+			return versions.length;
+		}
+
+		//The last version effective at or before the time, null if none
+		String versionAt(long time) {
+			int i = Arrays.binarySearch(effectiveFrom, time);
+			if(i < 0)
+				i = -i - 2;
+			return i < 0 ? null : versions[i];
+		}
+
+		//A copy with one more version, replacing one of the same time
+		Timeline with(long time, String version) {
+			int i = Arrays.binarySearch(effectiveFrom, time);
+			if(i >= 0) {
+				String[] versions = this.versions.clone();
+				versions[i] = version;
+				return new Timeline(effectiveFrom, versions);
+			}
+			int at = -i - 1;
+			long[] times = new long[effectiveFrom.length + 1];
+			String[] versions = new String[times.length];
+			System.arraycopy(effectiveFrom, 0, times, 0, at);
+			System.arraycopy(this.versions, 0, versions, 0, at);
+			times[at] = time;
+			versions[at] = version;
+			System.arraycopy(effectiveFrom, at, times, at + 1, effectiveFrom.length - at);
+			System.arraycopy(this.versions, at, versions, at + 1, effectiveFrom.length - at);
+			return new Timeline(times, versions);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.etr.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+import com.etr.model.RateBand;
+import com.etr.model.VehicleRate;
+
+/**
+ * The time bands of one vehicle rate, compiled into a minute-of-week table.
+ *
+ * In rates.json a vehicle rate may list its bands:
+ * <pre>
+ * "light": {
+ *   "trip_toll_charge": 1, "camera_charge": 4.2, "eastbound": 0.4709, "westbound": 0.4218,
+ *   "schedule": [
+ *     {"name": "peak", "days": ["MON", "TUE", "WED", "THU", "FRI"], "from": "06:00", "to": "10:00",
+ *      "eastbound": 0.5521, "westbound": 0.5104},
+ *     {"name": "weekend", "days": ["SAT", "SUN"], "from": "00:00", "to": "24:00",
+ *      "eastbound": 0.4112, "westbound": 0.3805}
+ *   ]
+ * }
+ * </pre>
+ * The base rates apply outside every band. Bands of one vehicle type can't overlap.
+ *
+ * Every minute of the week maps to its band in a byte table, so finding the band of a trip
+ * time is one array read.
+ */
+public final class RateSchedule {
+
+	public static final int MINUTES_PER_DAY = 24 * 60;
+	public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+	//Band numbers fit in a byte, 0 is the base rate
+	public static final int MAX_BANDS = 255;
+
+	//Index: minute of the week from Monday 00:00; Value: band number
+	private final byte[] bandByMinute = new byte[MINUTES_PER_WEEK];
+
+	//Index: band number, 0 is the base rate
+	private final VehicleRate[] rates;
+	private final String[] names;
+
+	/**
+	 * @throws IllegalStateException -- a band is malformed or overlaps another one.
+	 */
+	public RateSchedule(String vehicleType, VehicleRate base) {
+
+		List<RateBand> bands = base.getSchedule();
+		int count = bands == null ? 0 : bands.size();
+		if(count > MAX_BANDS)
+			throw new IllegalStateException("More than " + MAX_BANDS + " rate bands for vehicle type " + vehicleType);
+
+		rates = new VehicleRate[count + 1];
+		names = new String[count + 1];
+		rates[0] = base;
+
+		for(int band = 1; band <= count; band++) {
+			RateBand rateBand = bands.get(band - 1);
+			String name = rateBand.getName() != null ? rateBand.getName() : "band " + band;
+			names[band] = name;
+			rates[band] = bandRate(base, rateBand);
+
+			int from = parseTime(vehicleType, name, rateBand.getFrom());
+			int to = parseTime(vehicleType, name, rateBand.getTo());
+			if(from == to || from == MINUTES_PER_DAY)
+				throw new IllegalStateException("Empty rate band " + name + " for vehicle type " + vehicleType);
+
+			for(DayOfWeek day: parseDays(vehicleType, name, rateBand.getDays())) {
+				int dayStart = (day.getValue() - 1) * MINUTES_PER_DAY;
+				//A band that ends before it starts runs into the next day
+				int end = to > from ? to : to + MINUTES_PER_DAY;
+				for(int minute = from; minute < end; minute++) {
+					int at = (dayStart + minute) % MINUTES_PER_WEEK;
+					if(bandByMinute[at] != 0)
+						throw new IllegalStateException("Rate bands " + names[bandByMinute[at] & 0xFF] + " and " + name
+								+ " overlap for vehicle type " + vehicleType);
+					bandByMinute[at] = (byte) band;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the band number at a minute of the week, 0 for the base rate
+	 */
+	public int bandAt(int minuteOfWeek) {
+		return bandByMinute[minuteOfWeek] & 0xFF;
+	}
+
+	/**
+	 * @return the band number at a local date-time of the network, 0 for the base rate
+	 */
+	public int bandAt(LocalDateTime time) {
+		return bandAt(minuteOfWeek(time));
+	}
+
+	public static int minuteOfWeek(LocalDateTime time) {
+		return (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+	}
+
+	/**
+	 * Rate of a band, with the base toll and camera charges.
+	 */
+	public VehicleRate getRate(int band) {
+		return rates[band];
+	}
+
+	/**
+	 * @return the band name, null for the base rate
+	 */
+	public String getName(int band) {
+		return names[band];
+	}
+
+	public int getBandCount() {
+		return rates.length - 1;
+	}
+
+	private static VehicleRate bandRate(VehicleRate base, RateBand band) {
+		VehicleRate rate = new VehicleRate();
+		rate.setTripTollCharge(base.getTripTollCharge());
+		rate.setCameraCharge(base.getCameraCharge());
+		rate.setEastbound(band.getEastbound() != null ? band.getEastbound() : base.getEastbound());
+		rate.setWestbound(band.getWestbound() != null ? band.getWestbound() : base.getWestbound());
+		return rate;
+	}
+
+	//HH:mm to minute of the day, 24:00 is the end of the day
+	private static int parseTime(String vehicleType, String band, String text) {
+		if(text != null && text.matches("\\d{1,2}:\\d{2}")) {
+			int colon = text.indexOf(':');
+			int hour = Integer.parseInt(text.substring(0, colon));
+			int minute = Integer.parseInt(text.substring(colon + 1));
+			if((hour < 24 && minute < 60) || (hour == 24 && minute == 0))
+				return hour * 60 + minute;
+		}
+		throw new IllegalStateException("Bad time " + text + " in rate band " + band + " for vehicle type " + vehicleType);
+	}
+
+	private static DayOfWeek[] parseDays(String vehicleType, String band, List<String> days) {
+		if(days == null || days.isEmpty())
+			return DayOfWeek.values();
+
+		DayOfWeek[] parsed = new DayOfWeek[days.size()];
+		for(int i = 0; i < parsed.length; i++) {
+			String day = days.get(i) == null ? "" : days.get(i).trim().toUpperCase(Locale.ROOT);
+			for(DayOfWeek candidate: DayOfWeek.values()) {
+				if(day.length() >= 3 && candidate.name().startsWith(day))
+					parsed[i] = candidate;
+			}
+			if(parsed[i] == null)
+				throw new IllegalStateException("Bad day " + days.get(i) + " in rate band " + band + " for vehicle type " + vehicleType);
+		}
+		return parsed;
+	}
+}
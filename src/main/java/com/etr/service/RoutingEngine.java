@@ -0,0 +1,219 @@
+package com.etr.service;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import com.etr.model.Location;
+import com.etr.model.Route;
+
+/**
+ * Shortest-path distances over the full Location/Route graph, for networks that are not
+ * a single chain (several highways, branches).
+ *
+ * The graph is kept as primitive adjacency arrays (CSR) and searched with Dijkstra.
+ * Up to ALL_PAIRS_LIMIT locations every distance is precomputed at load, or mapped from a
+ * compiled snapshot, so a lookup is one table read. Larger networks compute one shortest-path row per source on first use
+ * and keep up to ROW_CACHE_SIZE rows, the least recently used row is evicted one at a time.
+ *
+ * A source that is not cached costs a full Dijkstra on the calling thread, about 0.8 ms on a
+ * 10000-location grid (RoutingBenchmark). Traffic from more than ROW_CACHE_SIZE distinct
+ * sources pays that on most lookups; such networks need a precomputed table or a goal-directed
+ * search (landmarks, contraction hierarchies), which this engine does not have.
+ *
+ * Distances are fixed-point, see DistanceIndex.
+ */
+public final class RoutingEngine {
+
+	//Largest network that gets an all-pairs table (n * n longs)
+	public static final int ALL_PAIRS_LIMIT = 2048;
+
+	//Rows kept for networks above ALL_PAIRS_LIMIT
+	public static final int ROW_CACHE_SIZE = 1024;
+
+	//Distance between two locations without a route
+	public static final long UNREACHABLE = Long.MAX_VALUE;
+
+	private final int size;
+
+	//Edges of ordinal i are edgeTarget/edgeDistance[edgeStart[i] .. edgeStart[i + 1])
+	private final int[] edgeStart;
+	private final int[] edgeTarget;
+	private final long[] edgeDistance;
+
+	//Index: from * size + to, null above ALL_PAIRS_LIMIT; on the heap or mapped from a snapshot file
+	private final LongBuffer allPairs;
+
+	//Key: source ordinal; Value: distances from it, in use order
+	@SuppressWarnings("serial")
+	private final Map<Integer, long[]> rowCache = new LinkedHashMap<Integer, long[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+			return size() > ROW_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * @param locations: locations indexed by ordinal
+	 * @param ordinalById: key -- location id; value -- ordinal. Routes to unknown ids are ignored.
+	 */
+	public RoutingEngine(List<Location> locations, Map<String, Integer> ordinalById) {
+
+		this.size = locations.size();
+		this.edgeStart = new int[size + 1];
+
+		int edges = 0;
+		for(int i = 0; i < size; i++) {
+			edgeStart[i] = edges;
+			for(Route route: locations.get(i).getRoutes()) {
+				if(ordinalById.containsKey(route.getToId()))
+					edges++;
+			}
+		}
+		edgeStart[size] = edges;
+
+		this.edgeTarget = new int[edges];
+		this.edgeDistance = new long[edges];
+		int edge = 0;
+		for(int i = 0; i < size; i++) {
+			for(Route route: locations.get(i).getRoutes()) {
+				Integer to = ordinalById.get(route.getToId());
+				if(to != null) {
+					edgeTarget[edge] = to;
+					edgeDistance[edge] = route.getDistance().getFixed();
+					edge++;
+				}
+			}
+		}
+
+		if(size <= ALL_PAIRS_LIMIT) {
+			final long[] table = new long[size * size];
+			IntStream.range(0, size).parallel().forEach(source ->
+				System.arraycopy(shortestFrom(source), 0, table, source * size, size));
+			this.allPairs = LongBuffer.wrap(table);
+		}
+		else {
+			this.allPairs = null;
+		}
+	}
+
+	/**
+	 * Over an all-pairs table computed before, e.g. mapped from a snapshot file. Nothing is
+	 * searched, copied or rebuilt.
+	 *
+	 * @param allPairs: size * size distances, from * size + to
+	 */
+	RoutingEngine(int size, LongBuffer allPairs) {
+
+		if(allPairs.remaining() != size * size)
+			throw new IllegalArgumentException("All-pairs table size doesn't match.");
+
+		this.size = size;
+		this.edgeStart = new int[size + 1];
+		this.edgeTarget = new int[0];
+		this.edgeDistance = new long[0];
+		this.allPairs = allPairs;
+	}
+
+	/**
+	 * @return fixed-point shortest distance, or UNREACHABLE
+	 */
+	public long distance(int fromOrdinal, int toOrdinal) {
+
+		if(allPairs != null)
+			return allPairs.get(fromOrdinal * size + toOrdinal);
+
+		long[] row;
+		synchronized(rowCache) {
+			row = rowCache.get(fromOrdinal);
+		}
+		if(row == null) {
+			//Searched outside the lock, two threads may both search a cold source
+			row = shortestFrom(fromOrdinal);
+			synchronized(rowCache) {
+				rowCache.put(fromOrdinal, row);
+			}
+		}
+		return row[toOrdinal];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Dijkstra from one source with a primitive binary heap. Stale heap entries are skipped
+	 * instead of decreasing keys in place.
+	 */
+	long[] shortestFrom(int source) {
+
+		long[] dist = new long[size];
+		Arrays.fill(dist, UNREACHABLE);
+		dist[source] = 0;
+
+		long[] heapDist = new long[Math.max(16, edgeTarget.length + 1)];
+		int[] heapNode = new int[heapDist.length];
+		int heapSize = 0;
+
+		heapDist[0] = 0;
+		heapNode[0] = source;
+		heapSize = 1;
+
+		while(heapSize > 0) {
+			long d = heapDist[0];
+			int node = heapNode[0];
+
+			//pop
+			heapSize--;
+			long lastDist = heapDist[heapSize];
+			int lastNode = heapNode[heapSize];
+			int i = 0;
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= heapSize)
+					break;
+				if(child + 1 < heapSize && heapDist[child + 1] < heapDist[child])
+					child++;
+				if(heapDist[child] >= lastDist)
+					break;
+				heapDist[i] = heapDist[child];
+				heapNode[i] = heapNode[child];
+				i = child;
+			}
+			heapDist[i] = lastDist;
+			heapNode[i] = lastNode;
+
+			if(d > dist[node])
+				continue;
+
+			for(int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+				int to = edgeTarget[e];
+				long nd = d + edgeDistance[e];
+				if(nd < dist[to]) {
+					dist[to] = nd;
+
+					//push
+					if(heapSize == heapDist.length) {
+						heapDist = Arrays.copyOf(heapDist, heapSize * 2);
+						heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+					}
+					int j = heapSize++;
+					while(j > 0) {
+						int parent = (j - 1) / 2;
+						if(heapDist[parent] <= nd)
+							break;
+						heapDist[j] = heapDist[parent];
+						heapNode[j] = heapNode[parent];
+						j = parent;
+					}
+					heapDist[j] = nd;
+					heapNode[j] = to;
+				}
+			}
+		}
+		return dist;
+	}
+}
@@ -0,0 +1,243 @@
+package com.etr.service;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Nearest location to a GPS coordinate.
+ *
+ * Every location with a lat/lng is a point on the unit sphere (x, y, z). The straight-line
+ * (chord) distance between two such points grows with the great-circle distance, so the
+ * nearest point in 3D is the nearest location on the earth, with no projection error near
+ * the poles or the date line. The points are kept in a balanced k-d tree laid out in
+ * primitive arrays: the node of [lo, hi) is at (lo + hi) / 2, its subtrees are the two
+ * halves, and the split axis cycles x, y, z with the depth. A lookup visits O(log n) nodes.
+ *
+ * Locations without valid coordinates are left out.
+ */
+public final class SpatialIndex {
+
+	private static Logger logger = LoggerFactory.getLogger(SpatialIndex.class);
+
+	//Mean earth radius
+	public static final double EARTH_RADIUS_KM = 6371.0088;
+
+	//Tree order
+	private final int[] ordinals;
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+
+	//Index: ordinal; Value: tree position, -1 without coordinates
+	private final int[] positions;
+
+	public SpatialIndex(DistanceIndex distanceIndex) {
+
+		int n = distanceIndex.size();
+		int[] ordinals = new int[n];
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		double[] zs = new double[n];
+
+		int count = 0;
+		for(int i = 0; i < n; i++) {
+			double lat = parseDegrees(distanceIndex.getLocation(i).getLat(), 90);
+			double lng = parseDegrees(distanceIndex.getLocation(i).getLng(), 180);
+			if(Double.isNaN(lat) || Double.isNaN(lng)) {
+				logger.warn("Location " + distanceIndex.getLocation(i).getName() + " has no valid coordinates, it is left out of the spatial index");
+				continue;
+			}
+			ordinals[count] = i;
+			xs[count] = x(lat, lng);
+			ys[count] = y(lat, lng);
+			zs[count] = z(lat);
+			count++;
+		}
+
+		this.ordinals = Arrays.copyOf(ordinals, count);
+		this.xs = Arrays.copyOf(xs, count);
+		this.ys = Arrays.copyOf(ys, count);
+		this.zs = Arrays.copyOf(zs, count);
+		build(0, count, 0);
+
+		this.positions = new int[n];
+		Arrays.fill(positions, -1);
+		for(int i = 0; i < count; i++)
+			positions[this.ordinals[i]] = i;
+	}
+
+	/**
+	 * @param lat: degrees, -90 to 90
+	 * @param lng: degrees, -180 to 180
+	 * @return the ordinal of the nearest location, -1 if no location has coordinates.
+	 */
+	public int nearest(double lat, double lng) {
+
+		if(ordinals.length == 0)
+			return -1;
+
+		Search search = new Search(x(lat, lng), y(lat, lng), z(lat));
+		search(search, 0, ordinals.length, 0);
+		return ordinals[search.node];
+	}
+
+	/**
+	 * Great-circle distance in km between a coordinate and an indexed location.
+	 *
+	 * @return NaN if the location is not in the index.
+	 */
+	public double distanceKm(int ordinal, double lat, double lng) {
+
+		int i = positions[ordinal];
+		if(i < 0)
+			return Double.NaN;
+		double dx = xs[i] - x(lat, lng);
+		double dy = ys[i] - y(lat, lng);
+		double dz = zs[i] - z(lat);
+		return chordToKm(Math.sqrt(dx * dx + dy * dy + dz * dz));
+	}
+
+	/**
+	 * @return the number of locations with coordinates.
+	 */
+	public int size() {
+		return ordinals.length;
+	}
+
+	/**
+	 * Great-circle length of a chord of the unit sphere.
+	 */
+	static double chordToKm(double chord) {
+		return 2 * Math.asin(Math.min(1, chord / 2)) * EARTH_RADIUS_KM;
+	}
+
+	//NaN when missing, malformed or out of range
+	private static double parseDegrees(String text, double max) {
+		if(text == null)
+			return Double.NaN;
+		try {
+			double value = Double.parseDouble(text.trim());
+			return value >= -max && value <= max ? value : Double.NaN;
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static double x(double lat, double lng) {
+		return Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(lng));
+	}
+
+	private static double y(double lat, double lng) {
+		return Math.cos(Math.toRadians(lat)) * Math.sin(Math.toRadians(lng));
+	}
+
+	private static double z(double lat) {
+		return Math.sin(Math.toRadians(lat));
+	}
+
+	private double coordinate(int i, int axis) {
+		return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+	}
+
+	/**
+	 * Put the median of [lo, hi) on the axis at the middle, smaller before, larger after,
+	 * then build the two halves on the next axis.
+	 */
+	private void build(int lo, int hi, int axis) {
+
+		if(hi - lo <= 1)
+			return;
+
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, axis);
+		int next = (axis + 1) % 3;
+		build(lo, mid, next);
+		build(mid + 1, hi, next);
+	}
+
+	//Quickselect over [left, right]
+	private void select(int left, int right, int k, int axis) {
+
+		while(left < right) {
+			int pivotIndex = (left + right) >>> 1;
+			double pivot = coordinate(pivotIndex, axis);
+			swap(pivotIndex, right);
+			int store = left;
+			for(int i = left; i < right; i++) {
+				if(coordinate(i, axis) < pivot)
+					swap(i, store++);
+			}
+			swap(store, right);
+
+			if(store == k)
+				return;
+			if(k < store)
+				right = store - 1;
+			else
+				left = store + 1;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int ordinal = ordinals[i]; ordinals[i] = ordinals[j]; ordinals[j] = ordinal;
+		double x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+		double y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+		double z = zs[i]; zs[i] = zs[j]; zs[j] = z;
+	}
+
+	/**
+	 * Visit the half holding the target first, the other half only if the splitting plane
+	 * is closer than the best point so far.
+	 */
+	private void search(Search search, int lo, int hi, int axis) {
+
+		if(lo >= hi)
+			return;
+
+		int mid = (lo + hi) >>> 1;
+		double dx = xs[mid] - search.x;
+		double dy = ys[mid] - search.y;
+		double dz = zs[mid] - search.z;
+		double d = dx * dx + dy * dy + dz * dz;
+		if(d < search.best) {
+			search.best = d;
+			search.node = mid;
+		}
+
+		double delta = search.target(axis) - coordinate(mid, axis);
+		int next = (axis + 1) % 3;
+		if(delta < 0) {
+			search(search, lo, mid, next);
+			if(delta * delta < search.best)
+				search(search, mid + 1, hi, next);
+		}
+		else {
+			search(search, mid + 1, hi, next);
+			if(delta * delta < search.best)
+				search(search, lo, mid, next);
+		}
+	}
+
+	/**
+	 * One lookup: the target point and the best node so far, by squared chord.
+	 */
+	private static final class Search {
+		private final double x;
+		private final double y;
+		private final double z;
+		private double best = Double.POSITIVE_INFINITY;
+		private int node = -1;
+
+		Search(double x, double y, double z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		double target(int axis) {
+			return axis == 0 ? x : axis == 1 ? y : z;
+		}
+	}
+}
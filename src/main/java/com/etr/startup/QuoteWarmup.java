@@ -0,0 +1,202 @@
+package com.etr.startup;
+
+import java.lang.management.ManagementFactory;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.etr.model.Location;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+import com.etr.service.DistanceIndex;
+import com.etr.service.QuoteResponseCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Readiness of the server, after an optional warm-up of the quote paths.
+ *
+ * The server is ready once the application has started and, when tripcalculator.warmup.quotes
+ * is set, once that many synthetic quotes have been priced. The warm-up runs in the background
+ * on the loaded network: random routable trips, all vehicle classes, with and without a trip
+ * time, resolved and priced like /costoftrip and serialized with the application ObjectMapper,
+ * plus some itineraries and nearest-location lookups. It goes through neither the response cache
+ * nor the audit log, and stops at tripcalculator.warmup.max-millis. Load balancers should send
+ * traffic once /ready answers 200, the JIT has compiled the hot paths by then.
+ *
+ * With tripcalculator.warmup.exit the process exits once ready, the training run of the
+ * class-data sharing archive, see the cds profile of the build.
+ */
+@Component
+public class QuoteWarmup {
+
+	private static Logger logger = LoggerFactory.getLogger(QuoteWarmup.class);
+
+	//Any fixed time, trips start up to a week later to reach every rate band
+	private static final String TRIP_TIME = "2019-02-01T00:00";
+
+	@Autowired
+	private CostConfigurator costConfigurator;
+
+	@Autowired
+	private QuoteResponseCache quoteResponseCache;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	//0 for no warm-up
+	@Value("${tripcalculator.warmup.quotes:0}")
+	private int quotes;
+
+	@Value("${tripcalculator.warmup.max-millis:10000}")
+	private long maxMillis = 10000;
+
+	@Value("${tripcalculator.warmup.exit:false}")
+	private boolean exit;
+
+	private volatile boolean ready;
+
+	//Milliseconds from the JVM start
+	private volatile long startedMillis = -1;
+	private volatile long readyMillis = -1;
+
+	private volatile int warmupQuotes;
+	private volatile long warmupMillis;
+
+	//Keeps the warm-up results alive
+	private volatile long sink;
+
+	@EventListener
+	public void started(ApplicationReadyEvent event) {
+
+		startedMillis = uptimeMillis();
+		if(quotes <= 0) {
+			ready();
+			return;
+		}
+
+		Thread thread = new Thread(this::warmup, "quote-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public Map<String, Object> toMap() {
+
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("ready", ready);
+		map.put("startedMillis", startedMillis);
+		map.put("readyMillis", readyMillis);
+		map.put("warmupQuotes", warmupQuotes);
+		map.put("warmupMillis", warmupMillis);
+		return map;
+	}
+
+	private void warmup() {
+		try {
+			long start = System.nanoTime();
+			warmupQuotes = price(quotes, start + maxMillis * 1000000L);
+			warmupMillis = (System.nanoTime() - start) / 1000000L;
+			logger.info("Warmed up with " + warmupQuotes + " quotes in " + warmupMillis + " ms");
+		} catch (RuntimeException e) {
+			//A server that can't warm up can still quote
+			logger.error("Quote warm-up failed", e);
+		}
+		ready();
+	}
+
+	/**
+	 * Price up to count random trips, until the deadline.
+	 *
+	 * @param deadline: System.nanoTime
+	 * @return the number of trips priced
+	 */
+	private int price(int count, long deadline) {
+
+		DistanceIndex index = costConfigurator.getDistanceIndex();
+		int size = index.size();
+		List<Location> located = new ArrayList<Location>();
+		for(int i = 0; i < size; i++) {
+			Location location = index.getLocation(i);
+			if(location.getLat() != null && location.getLng() != null)
+				located.add(location);
+		}
+
+		VehicleTypeEnum[] types = {null, VehicleTypeEnum.light, VehicleTypeEnum.heavy, VehicleTypeEnum.multi};
+		ZonedDateTime base = costConfigurator.parseTripTime(TRIP_TIME);
+		Random random = new Random(42);
+		long hash = 0;
+		int priced = 0;
+		for(int i = 0; i < count && size > 0; i++) {
+			if((i & 255) == 0 && System.nanoTime() > deadline)
+				break;
+
+			int from = random.nextInt(size);
+			int to = random.nextInt(size);
+			if(!index.isReachable(from, to))
+				continue;
+			VehicleTypeEnum type = types[i & 3];
+			String typeName = type == null ? null : type.getType();
+			ZonedDateTime tripTime = (i & 4) == 0 ? null : base.plusMinutes(random.nextInt(7 * 24 * 60));
+			String fromName = index.getLocation(from).getName();
+			String toName = index.getLocation(to).getName();
+
+			try {
+				QuoteResponseCache.Quote quote = quoteResponseCache.lookup(costConfigurator, fromName, toName, type, tripTime);
+				hash += quote.getETag().hashCode() + objectMapper.writeValueAsBytes(quote.getResponse()).length;
+
+				if((i & 15) == 0) {
+					int via = random.nextInt(size);
+					if(index.isReachable(from, via) && index.isReachable(via, to))
+						hash += objectMapper.writeValueAsBytes(
+								costConfigurator.getItineraryCost(Arrays.asList(fromName, index.getLocation(via).getName(), toName), typeName, tripTime)).length;
+				}
+				if((i & 15) == 8 && !located.isEmpty()) {
+					Location location = located.get(random.nextInt(located.size()));
+					hash += costConfigurator.findNearestLocation(Double.parseDouble(location.getLat()) + 0.001,
+							Double.parseDouble(location.getLng()) - 0.001).hashCode();
+				}
+			} catch (IllegalArgumentException e) {
+				//no route for a class, bad coordinate; the error path is warmed up too
+				hash += e.getMessage() == null ? 0 : e.getMessage().length();
+			} catch (JsonProcessingException e) {
+				throw new IllegalStateException(e);
+			}
+			priced++;
+		}
+		sink = hash;
+		return priced;
+	}
+
+	private void ready() {
+		readyMillis = uptimeMillis();
+		ready = true;
+		logger.info("Ready " + readyMillis + " ms after the JVM start");
+		if(exit)
+			System.exit(SpringApplication.exit(applicationContext, () -> 0));
+	}
+
+	private static long uptimeMillis() {
+		return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+}
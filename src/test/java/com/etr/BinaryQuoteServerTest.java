@@ -0,0 +1,126 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.etr.binary.BinaryQuoteClient;
+import com.etr.binary.BinaryQuoteProtocol;
+import com.etr.binary.BinaryQuoteServer;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+
+//Binary quote protocol on a free port, same prices as GET /costoftrip
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "tripcalculator.binary.port=0")
+@ActiveProfiles("test")
+public class BinaryQuoteServerTest {
+
+    @Autowired
+    private BinaryQuoteServer binaryQuoteServer;
+
+    @Autowired
+    private CostConfigurator costConfigurator;
+
+    //Pipelined quotes come back in order, priced as the JSON endpoint
+    @Test
+    public void pipelinedQuotes() throws Exception {
+
+    	try (BinaryQuoteClient client = new BinaryQuoteClient("localhost", binaryQuoteServer.getLocalPort())) {
+    		String[] names = client.fetchLocations();
+    		assertEquals(costConfigurator.getDistanceIndex().size(), names.length);
+    		assertEquals(BinaryQuoteProtocol.versionId(costConfigurator.getSnapshot().getVersion()), client.getVersion());
+
+    		int qew = client.ordinalOf("QEW");
+    		int bronte = client.ordinalOf("Bronte Road");
+    		int westney = client.ordinalOf("Westney Road");
+    		long tripTime = OffsetDateTime.parse("2019-02-04T08:30-05:00").toInstant().toEpochMilli();
+
+    		int[] ids = new int[4];
+    		ids[0] = client.sendQuote(qew, westney, null, BinaryQuoteProtocol.NO_TRIP_TIME);
+    		ids[1] = client.sendQuote(qew, bronte, VehicleTypeEnum.heavy, BinaryQuoteProtocol.NO_TRIP_TIME);
+    		ids[2] = client.sendQuote(qew, names.length, VehicleTypeEnum.light, BinaryQuoteProtocol.NO_TRIP_TIME);
+    		ids[3] = client.sendQuote(qew, bronte, VehicleTypeEnum.light, tripTime);
+    		client.flush();
+
+    		BinaryQuoteClient.Response distance = client.receive();
+    		assertEquals(ids[0], distance.getId());
+    		assertEquals(BinaryQuoteProtocol.STATUS_OK, distance.getStatus());
+    		assertEquals(new BigDecimal("115.277"), distance.getQuote().getDistance().toBigDecimal());
+    		assertEquals(new BigDecimal("28.82"), distance.getQuote().getCost().toBigDecimal());
+
+    		BinaryQuoteClient.Response heavy = client.receive();
+    		assertEquals(ids[1], heavy.getId());
+    		CostWithVehicleTypeResponse quote = (CostWithVehicleTypeResponse) heavy.getQuote();
+    		assertEquals(new BigDecimal("14.062"), quote.getDistance().toBigDecimal());
+    		assertEquals(new BigDecimal("47.74"), quote.getKmRate().toBigDecimal());
+    		assertEquals(new BigDecimal("51.26"), quote.getTripCharge().toBigDecimal());
+    		assertEquals("westbound", quote.getDirection());
+    		assertNull(quote.getRateBand());
+
+    		BinaryQuoteClient.Response unknown = client.receive();
+    		assertEquals(ids[2], unknown.getId());
+    		assertEquals(BinaryQuoteProtocol.STATUS_BAD_REQUEST, unknown.getStatus());
+    		assertEquals("The input location doesn't exists.", unknown.getMessage());
+
+    		BinaryQuoteClient.Response timed = client.receive();
+    		assertEquals(ids[3], timed.getId());
+    		CostWithVehicleTypeResponse expected = (CostWithVehicleTypeResponse) costConfigurator.getCostWithVehicleType(
+    				"QEW", "Bronte Road", "light", costConfigurator.parseTripTime("2019-02-04T08:30-05:00"));
+    		assertEquals(expected.getKmRate(), ((CostWithVehicleTypeResponse) timed.getQuote()).getKmRate());
+    		assertEquals(expected.getRateBand(), ((CostWithVehicleTypeResponse) timed.getQuote()).getRateBand());
+    	}
+    }
+
+    //Ordinals of another config version are refused, the connection stays usable
+    @Test
+    public void staleVersion() throws Exception {
+
+    	try (BinaryQuoteClient client = new BinaryQuoteClient("localhost", binaryQuoteServer.getLocalPort())) {
+    		BinaryQuoteClient.Response stale = client.quote(0, 1, null, BinaryQuoteProtocol.NO_TRIP_TIME);
+    		assertEquals(BinaryQuoteProtocol.STATUS_STALE_VERSION, stale.getStatus());
+    		assertEquals(BinaryQuoteProtocol.versionId(costConfigurator.getSnapshot().getVersion()), stale.getCurrentVersion());
+
+    		client.fetchLocations();
+    		BinaryQuoteClient.Response resp = client.quote(client.ordinalOf("QEW"), client.ordinalOf("Westney Road"),
+    				VehicleTypeEnum.multi, BinaryQuoteProtocol.NO_TRIP_TIME);
+    		assertEquals(BinaryQuoteProtocol.STATUS_OK, resp.getStatus());
+    		assertTrue(resp.getQuote() instanceof CostWithVehicleTypeResponse);
+    	}
+    }
+
+    //The empty snapshot of a failed load has no hexadecimal version, answered as a bad request
+    @Test
+    public void locationsWithoutConfig() throws Exception {
+
+    	ReflectionTestUtils.setField(binaryQuoteServer, "costConfigurator", new CostConfigurator());
+    	try (BinaryQuoteClient client = new BinaryQuoteClient("localhost", binaryQuoteServer.getLocalPort())) {
+    		try {
+    			client.fetchLocations();
+    			fail("Locations of the empty snapshot");
+    		} catch (IOException e) {
+    			assertTrue(e.getMessage().contains("not hexadecimal"));
+    		}
+
+    		//The connection stays usable
+    		ReflectionTestUtils.setField(binaryQuoteServer, "costConfigurator", costConfigurator);
+    		assertEquals(costConfigurator.getDistanceIndex().size(), client.fetchLocations().length);
+    	} finally {
+    		ReflectionTestUtils.setField(binaryQuoteServer, "costConfigurator", costConfigurator);
+    	}
+    }
+}
@@ -1,37 +1,72 @@
 package com.etr;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import org.json.JSONException;
-import org.json.simple.parser.ParseException;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.etr.error.UnknownLocationException;
+import com.etr.model.CoordinateQuoteResponse;
 import com.etr.model.CostResponse;
 import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.ItineraryResponse;
 import com.etr.model.Location;
+import com.etr.model.NearestLocation;
 import com.etr.model.Route;
+import com.etr.service.ConfigLoadReport;
+import com.etr.service.ConfigSnapshot;
 import com.etr.service.CostConfigurator;
+import com.etr.service.NetworkRegistry;
+import com.etr.service.RateHistory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT) 
 @ActiveProfiles("test")
 public class CostConfiguratorTest {
     
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Autowired
     private CostConfigurator costConfigurator;
+    
+    @Autowired
+    private NetworkRegistry networkRegistry;
+    
+    @Autowired
+    private RateHistory rateHistory;
 
     @Before
     public void init() {
@@ -42,8 +77,8 @@ public class CostConfiguratorTest {
     public void getCostBetweenLocationsOK() throws JSONException {
     	
     	CostResponse resp = costConfigurator.getCostBetweenLocations("Dundas Street", "Westney Road");
-    	BigDecimal distance = resp.getDistance();
-    	BigDecimal cost = resp.getCost();
+    	BigDecimal distance = resp.getDistance().toBigDecimal();
+    	BigDecimal cost = resp.getCost().toBigDecimal();
     	
     	BigDecimal expDis = new BigDecimal(109.2149000).setScale(3, RoundingMode.HALF_EVEN);
     	BigDecimal expCost = new BigDecimal(27.300).setScale(2, RoundingMode.HALF_EVEN);
@@ -61,9 +96,65 @@ public class CostConfiguratorTest {
     	costConfigurator.getCostBetweenLocations("Dundas Street", "ABC Road");
     }
     
+    //Name lookup folds case, punctuation and street suffixes
+    @Test
+    public void getCostWithNormalizedNamesOK() {
+    	
+    	CostResponse exact = costConfigurator.getCostBetweenLocations("Dundas Street", "Westney Road");
+    	CostResponse normalized = costConfigurator.getCostBetweenLocations("dundas st", "WESTNEY RD.");
+    	
+    	assertSameQuote(exact, normalized);
+    }
+    
+    //Two locations with the same normalized name are rejected at load, the current config stays
+    @Test
+    public void rejectSameNormalizedName() throws Exception {
+    	
+    	File dir = folder.newFolder("same-name");
+    	copyResource(CostConfigurator.RATES_FILE, dir);
+    	String interchanges = "{\"locations\": {"
+    			+ "\"1\": {\"name\": \"Dundas Street\", \"lat\": 43.1, \"lng\": -79.1, \"routes\": [{\"toId\": 2, \"distance\": 1.5}]},"
+    			+ "\"2\": {\"name\": \"DUNDAS ST.\", \"lat\": 43.2, \"lng\": -79.2, \"routes\": [{\"toId\": 1, \"distance\": 1.5}]}"
+    			+ "}}";
+    	Files.write(new File(dir, CostConfigurator.INTERCHANGES_FILE).toPath(), interchanges.getBytes(StandardCharsets.UTF_8));
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	assertTrue(configurator.generateConfigMap());
+    	String version = configurator.getSnapshot().getVersion();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertFalse(configurator.generateConfigMap());
+    	assertEquals(version, configurator.getSnapshot().getVersion());
+    }
+    
+    //A miss comes with the closest names
+    @Test
+    public void getCostUnknownLocationSuggestions() {
+    	
+    	try {
+    		costConfigurator.getCostBetweenLocations("Dundas Stret", "QEW");
+    		fail("Unknown location accepted");
+    	} catch (UnknownLocationException e) {
+    		assertEquals("Dundas Stret", e.getName());
+    		assertTrue(e.getSuggestions().contains("Dundas Street"));
+    	}
+    }
+    
+    //Prefix search, in name order
+    @Test
+    public void findLocationsByPrefixTest() {
+    	
+    	List<Location> found = costConfigurator.findLocationsByPrefix("hwy", 3);
+    	
+    	assertEquals(3, found.size());
+    	for(Location location: found)
+    		assertTrue(location.getName().startsWith("Highway"));
+    	assertTrue(found.get(0).getName().compareTo(found.get(1).getName()) <= 0);
+    	assertTrue(costConfigurator.findLocationsByPrefix("no such place", 10).isEmpty());
+    }
+    
     //getLocationConfig()
     @Test
-    public void getLocationConfigTest() throws JSONException, IOException, ParseException {
+    public void getLocationConfigTest() throws JSONException, IOException {
     	
     	Map<String, Location> map = costConfigurator.getLocationConfig();
     	assertEquals(map.size(), 44);
@@ -79,28 +170,50 @@ public class CostConfiguratorTest {
     		if("1".equalsIgnoreCase(route.getToId()))
     		{
     			BigDecimal expDis = new BigDecimal(6.062).setScale(3, RoundingMode.HALF_EVEN);
-    			BigDecimal distance = route.getDistance().setScale(3, RoundingMode.HALF_EVEN);
+    			BigDecimal distance = route.getDistance().toBigDecimal().setScale(3, RoundingMode.HALF_EVEN);
     			assertEquals(expDis, distance);
     		}
     	}
 
     }
     
+    //Load report of the startup config
+    @Test
+    public void getLoadReportTest() {
+    	
+    	ConfigLoadReport report = costConfigurator.getSnapshot().getLoadReport();
+    	assertEquals(44, report.getLocationCount());
+    	assertEquals(3, report.getVehicleTypeCount());
+    	assertEquals(9, report.getPhases().size());
+    	assertTrue(report.getBytesRead() > 0);
+    }
+    
     //getDistanceBetweenLocations()
     @Test
     public void getDistanceBetweenLocationsTest() throws JSONException {
     	
-    	BigDecimal distance = costConfigurator.getDistanceBetweenLocations("Dundas Street", "Westney Road");
+    	BigDecimal distance = costConfigurator.getDistanceBetweenLocations("Dundas Street", "Westney Road").toBigDecimal();
     	BigDecimal expDis = new BigDecimal(109.2149000).setScale(3, RoundingMode.HALF_EVEN);
     	
     	assertEquals(expDis, distance.setScale(3, RoundingMode.HALF_EVEN));
     }
     
+    //getFixedDistanceBetweenLocations() -- fixed-point value, same in both directions
+    @Test
+    public void getFixedDistanceBetweenLocationsTest() throws JSONException {
+    	
+    	long distance = costConfigurator.getFixedDistanceBetweenLocations("QEW", "Bronte Road");
+    	
+    	assertEquals(14062000L, distance);
+    	assertEquals(distance, costConfigurator.getFixedDistanceBetweenLocations("Bronte Road", "QEW"));
+    	assertEquals(0L, costConfigurator.getFixedDistanceBetweenLocations("QEW", "QEW"));
+    }
+    
     //Failure case -- getDistanceBetweenLocations()
     @Test(expected = IllegalArgumentException.class)
     public void getDistanceBetweenLocationsFail() throws JSONException {
     	
-    	BigDecimal distance = costConfigurator.getDistanceBetweenLocations("QQQ Street", "QEW");
+    	BigDecimal distance = costConfigurator.getDistanceBetweenLocations("QQQ Street", "QEW").toBigDecimal();
     	BigDecimal expDis = new BigDecimal(109.2149000).setScale(3, RoundingMode.HALF_EVEN);
     	
     	assertEquals(expDis, distance.setScale(3, RoundingMode.HALF_EVEN));
@@ -115,9 +228,9 @@ public class CostConfiguratorTest {
     	BigDecimal expCos = new BigDecimal(51.26).setScale(2, RoundingMode.HALF_EVEN);
     	BigDecimal expKmRate = new BigDecimal(47.74).setScale(2, RoundingMode.HALF_EVEN);
     	
-    	assertEquals(expDis, resp.getDistance().setScale(3, RoundingMode.HALF_EVEN));
-    	assertEquals(expCos, resp.getTripCharge().setScale(2, RoundingMode.HALF_EVEN));
-    	assertEquals(expKmRate, resp.getKmRate().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expDis, resp.getDistance().toBigDecimal().setScale(3, RoundingMode.HALF_EVEN));
+    	assertEquals(expCos, resp.getTripCharge().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expKmRate, resp.getKmRate().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
     	assertEquals("westbound", resp.getDirection());
     }
     
@@ -130,9 +243,9 @@ public class CostConfiguratorTest {
     	BigDecimal expCos = new BigDecimal(9.14).setScale(2, RoundingMode.HALF_EVEN);
     	BigDecimal expKmRate = new BigDecimal(5.62).setScale(2, RoundingMode.HALF_EVEN);
     	
-    	assertEquals(expDis, resp.getDistance().setScale(3, RoundingMode.HALF_EVEN));
-    	assertEquals(expCos, resp.getTripCharge().setScale(2, RoundingMode.HALF_EVEN));
-    	assertEquals(expKmRate, resp.getKmRate().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expDis, resp.getDistance().toBigDecimal().setScale(3, RoundingMode.HALF_EVEN));
+    	assertEquals(expCos, resp.getTripCharge().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expKmRate, resp.getKmRate().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
     	assertEquals("westbound", resp.getDirection());
     }
     
@@ -145,9 +258,9 @@ public class CostConfiguratorTest {
     	BigDecimal expCos = new BigDecimal(57.63).setScale(2, RoundingMode.HALF_EVEN);
     	BigDecimal expKmRate = new BigDecimal(54.11).setScale(2, RoundingMode.HALF_EVEN);
     	
-    	assertEquals(expDis, resp.getDistance().setScale(3, RoundingMode.HALF_EVEN));
-    	assertEquals(expCos, resp.getTripCharge().setScale(2, RoundingMode.HALF_EVEN));
-    	assertEquals(expKmRate, resp.getKmRate().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expDis, resp.getDistance().toBigDecimal().setScale(3, RoundingMode.HALF_EVEN));
+    	assertEquals(expCos, resp.getTripCharge().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expKmRate, resp.getKmRate().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
     	assertEquals("westbound", resp.getDirection());
     }
     
@@ -160,10 +273,454 @@ public class CostConfiguratorTest {
     	BigDecimal expCos = new BigDecimal(57.82).setScale(2, RoundingMode.HALF_EVEN);
     	BigDecimal expKmRate = new BigDecimal(54.30).setScale(2, RoundingMode.HALF_EVEN);
     	
-    	assertEquals(expDis, resp.getDistance().setScale(3, RoundingMode.HALF_EVEN));
-    	assertEquals(expCos, resp.getTripCharge().setScale(2, RoundingMode.HALF_EVEN));
-    	assertEquals(expKmRate, resp.getKmRate().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expDis, resp.getDistance().toBigDecimal().setScale(3, RoundingMode.HALF_EVEN));
+    	assertEquals(expCos, resp.getTripCharge().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
+    	assertEquals(expKmRate, resp.getKmRate().toBigDecimal().setScale(2, RoundingMode.HALF_EVEN));
     	assertEquals("eastbound", resp.getDirection());
     }
 
+    //getCostWithVehicleType -- answers come from the fare matrix
+    @Test
+    public void getCostWithVehicleTypeFromFareMatrix() throws JSONException {
+    	
+    	assertTrue(costConfigurator.getFareMatrix().isEnabled());
+    	
+    	CostResponse first = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+    	CostResponse second = costConfigurator.getCostWithVehicleType(" QEW ", "Bronte Road", "heavy");
+    	assertSameQuote(first, second);
+    	
+    	//Each call gets its own response, the cells stay as priced
+    	assertNotSame(first, second);
+    	((CostWithVehicleTypeResponse) first).setKmRate(null);
+    	assertNotNull(((CostWithVehicleTypeResponse) costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy")).getKmRate());
+    }
+    
+    //Failure case -- vehicle type doesn't exist.
+    @Test(expected = IllegalArgumentException.class)
+    public void getCostWithVehicleTypeFail() throws JSONException {
+    	
+    	costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "bicycle");
+    }
+
+    //Reload from a config directory -- a new snapshot is published, the old one is untouched
+    @Test
+    public void generateConfigMapReload() throws Exception {
+    	
+    	File dir = folder.newFolder("config");
+    	copyResource(CostConfigurator.INTERCHANGES_FILE, dir);
+    	copyResource(CostConfigurator.RATES_FILE, dir);
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertTrue(configurator.generateConfigMap());
+    	
+    	ConfigSnapshot first = configurator.getSnapshot();
+    	assertEquals(first.getVersion(), costConfigurator.getSnapshot().getVersion());
+    	CostResponse before = configurator.getCostWithVehicleType("QEW", "Bronte Road", "light");
+    	assertEquals(first.getVersion(), before.getConfigVersion());
+    	
+    	//light trip toll charge 1 -> 2
+    	File rates = new File(dir, CostConfigurator.RATES_FILE);
+    	String content = new String(Files.readAllBytes(rates.toPath()), StandardCharsets.UTF_8);
+    	Files.write(rates.toPath(), content.replaceFirst("\"trip_toll_charge\": 1,", "\"trip_toll_charge\": 2,").getBytes(StandardCharsets.UTF_8));
+    	assertTrue(configurator.generateConfigMap());
+    	
+    	CostWithVehicleTypeResponse after = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("QEW", "Bronte Road", "light");
+    	assertNotEquals(first.getVersion(), after.getConfigVersion());
+    	assertEquals(new BigDecimal("10.14"), after.getTripCharge().toBigDecimal());
+    	assertEquals(new BigDecimal("9.14"), ((CostWithVehicleTypeResponse) before).getTripCharge().toBigDecimal());
+    	
+    	//An invalid config is rejected and the current one stays
+    	Files.write(rates.toPath(), "{\"rates\": {}}".getBytes(StandardCharsets.UTF_8));
+    	assertFalse(configurator.generateConfigMap());
+    	assertEquals(after.getConfigVersion(), configurator.getSnapshot().getVersion());
+    }
+    
+    //Branch network -- not a chain, distances come from shortest paths
+    @Test
+    public void getDistanceBetweenLocationsOnBranchNetwork() throws Exception {
+    	
+    	File dir = folder.newFolder("branch");
+    	copyResource(CostConfigurator.RATES_FILE, dir);
+    	String interchanges = "{\"locations\": {"
+    			+ "\"1\": {\"name\": \"A\", \"lat\": 43.1, \"lng\": -79.1, \"routes\": [{\"toId\": 2, \"distance\": 1.5}]},"
+    			+ "\"2\": {\"name\": \"B\", \"lat\": 43.2, \"lng\": -79.2, \"routes\": [{\"toId\": 1, \"distance\": 1.5}, {\"toId\": 3, \"distance\": 2}, {\"toId\": 4, \"distance\": 5.25}]},"
+    			+ "\"3\": {\"name\": \"C\", \"lat\": 43.3, \"lng\": -79.3, \"routes\": [{\"toId\": 2, \"distance\": 2}]},"
+    			+ "\"4\": {\"name\": \"D\", \"lat\": 43.4, \"lng\": -79.4, \"routes\": [{\"toId\": 2, \"distance\": 5.25}]},"
+    			+ "\"5\": {\"name\": \"E\", \"lat\": 43.5, \"lng\": -79.5, \"routes\": []}"
+    			+ "}}";
+    	Files.write(new File(dir, CostConfigurator.INTERCHANGES_FILE).toPath(), interchanges.getBytes(StandardCharsets.UTF_8));
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertTrue(configurator.generateConfigMap());
+    	assertFalse(configurator.getDistanceIndex().isChain());
+    	assertTrue(costConfigurator.getDistanceIndex().isChain());
+    	
+    	assertEquals(new BigDecimal("7.250"), configurator.getDistanceBetweenLocations("C", "D").toBigDecimal());
+    	assertEquals(new BigDecimal("6.750"), configurator.getDistanceBetweenLocations("A", "D").toBigDecimal());
+    	
+    	CostWithVehicleTypeResponse resp = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("D", "C", "light");
+    	assertEquals(new BigDecimal("7.250"), resp.getDistance().toBigDecimal());
+    	assertEquals("eastbound", resp.getDirection());
+    	
+    	try {
+    		configurator.getCostBetweenLocations("A", "E");
+    		fail("E can't be reached");
+    	} catch (IllegalArgumentException e) {
+    		assertEquals("There is no route between the input locations.", e.getMessage());
+    	}
+
+    	//A compiled snapshot keeps the shortest paths and the name table
+    	File file = new File(folder.getRoot(), "branch.snapshot");
+    	configurator.compileSnapshot(file.toPath());
+    	CostConfigurator compiled = new CostConfigurator();
+    	compiled.setSnapshotFile(file.getPath());
+    	assertTrue(compiled.generateConfigMap());
+    	assertFalse(compiled.getDistanceIndex().isChain());
+    	assertEquals(new BigDecimal("7.250"), compiled.getDistanceBetweenLocations("c", "D").toBigDecimal());
+    	assertEquals(new BigDecimal("3.500"), compiled.getSnapshot().getLocationIdMap().get("3").getDistance().toBigDecimal());
+    	assertFalse(compiled.getDistanceIndex().isReachable(0, 4));
+    }
+    
+    //Compiled snapshot -- same version and answers as the JSON config
+    @Test
+    public void generateConfigMapFromCompiledSnapshot() throws Exception {
+    	
+    	File file = new File(folder.getRoot(), "network.snapshot");
+    	String version = new CostConfigurator().compileSnapshot(file.toPath());
+    	assertEquals(costConfigurator.getSnapshot().getVersion(), version);
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setSnapshotFile(file.getPath());
+    	assertTrue(configurator.generateConfigMap());
+    	assertEquals(version, configurator.getSnapshot().getVersion());
+    	assertEquals(44, configurator.getSnapshot().getLocationIdMap().size());
+    	assertEquals("43.383554", configurator.getSnapshot().getLocationIdMap().get("2").getLat());
+    	
+    	CostWithVehicleTypeResponse expected = (CostWithVehicleTypeResponse) costConfigurator.getCostWithVehicleType("Bronte Road", "QEW", "multi");
+    	CostWithVehicleTypeResponse resp = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("Bronte Road", "QEW", "multi");
+    	assertEquals(expected.getDistance(), resp.getDistance());
+    	assertEquals(expected.getTripCharge(), resp.getTripCharge());
+    	assertEquals(costConfigurator.getDistanceBetweenLocations("Dundas Street", "Westney Road"), 
+    			configurator.getDistanceBetweenLocations("Dundas Street", "Westney Road"));
+    }
+    
+    //Itinerary -- two stops price like a single trip, legs add up to the total
+    @Test
+    public void getItineraryCostTest() {
+    	
+    	CostWithVehicleTypeResponse single = (CostWithVehicleTypeResponse) costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+    	ItineraryResponse two = costConfigurator.getItineraryCost(Arrays.asList("QEW", "Bronte Road"), "heavy", null);
+    	assertEquals(single.getDistance(), two.getDistance());
+    	assertEquals(single.getKmRate(), two.getKmRate());
+    	assertEquals(single.getTripCharge(), two.getTripCharge());
+    	
+    	ItineraryResponse three = costConfigurator.getItineraryCost(Arrays.asList("QEW", "bronte rd", "Westney Road"), "light", null);
+    	assertEquals(2, three.getLegs().size());
+    	assertEquals("Bronte Road", three.getLegs().get(1).getFromLocation());
+    	//Bronte Road lies between QEW and Westney Road
+    	assertEquals(new BigDecimal("115.277"), three.getDistance().toBigDecimal());
+    	assertEquals(three.getLegs().get(0).getCost().plus(three.getLegs().get(1).getCost()), three.getCost());
+    	
+    	//Distance only
+    	ItineraryResponse distance = costConfigurator.getItineraryCost(Arrays.asList("QEW", "Westney Road"), null, null);
+    	assertEquals(new BigDecimal("28.82"), distance.getCost().toBigDecimal());
+    	assertNull(distance.getKmRate());
+    	
+    	try {
+    		costConfigurator.getItineraryCost(Arrays.asList("QEW"), "heavy", null);
+    		fail();
+    	} catch (IllegalArgumentException e) {
+    		assertEquals("An itinerary needs at least 2 stops.", e.getMessage());
+    	}
+    	try {
+    		costConfigurator.getItineraryCost(Arrays.asList("QEW", "NONExist Road"), "heavy", null);
+    		fail();
+    	} catch (UnknownLocationException e) {
+    		assertEquals("NONExist Road", e.getName());
+    	}
+    }
+    
+    //Nearest location -- a GPS fix resolves to the closest interchange
+    @Test
+    public void findNearestLocationTest() {
+    	
+    	NearestLocation qew = costConfigurator.findNearestLocation(43.336962, -79.830394);
+    	assertEquals("QEW", qew.getName());
+    	assertEquals(new BigDecimal("0.000"), qew.getDistance().toBigDecimal());
+    	
+    	//A bit off Bronte Road
+    	NearestLocation bronte = costConfigurator.findNearestLocation(43.4460, -79.7905);
+    	assertEquals("Bronte Road", bronte.getName());
+    	assertTrue(bronte.getDistance().toBigDecimal().compareTo(BigDecimal.ONE) < 0);
+    	
+    	CoordinateQuoteResponse resp = costConfigurator.getCostByCoordinates(43.3370, -79.8304, 43.4460, -79.7905, "heavy", null);
+    	assertEquals("QEW", resp.getFrom().getName());
+    	assertEquals("Bronte Road", resp.getTo().getName());
+    	assertSameQuote(costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy"), resp.getQuote());
+    	
+    	try {
+    		costConfigurator.findNearestLocation(91, 0);
+    		fail();
+    	} catch (IllegalArgumentException e) {
+    		assertEquals("The input coordinate is out of range.", e.getMessage());
+    	}
+    }
+    
+    //Rate schedule -- the band of the trip time sets the per-km rate
+    @Test
+    public void getCostWithRateSchedule() throws Exception {
+    	
+    	File dir = folder.newFolder("schedule");
+    	copyResource(CostConfigurator.INTERCHANGES_FILE, dir);
+    	copyResource("rates-schedule.json", dir, CostConfigurator.RATES_FILE);
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertTrue(configurator.generateConfigMap());
+    	
+    	//2019-02-04 is a Monday, QEW to Bronte Road is westbound
+    	assertBand(configurator, "2019-02-04T08:30", "peak", "5.71");
+    	assertBand(configurator, "2019-02-04T13:30Z", "peak", "5.71");
+    	assertBand(configurator, "2019-02-05T23:00", "night", "5.58");
+    	assertBand(configurator, "2019-02-06T05:59", "night", "5.58");
+    	assertBand(configurator, "2019-02-09T12:00", "weekend", "5.60");
+    	assertBand(configurator, "2019-02-04T12:00", null, "5.62");
+    	
+    	//Base rates come from the fare matrix, other vehicle types have no schedule
+    	ZonedDateTime peak = configurator.parseTripTime("2019-02-04T08:30");
+    	assertSameQuote(configurator.getCostWithVehicleType("QEW", "Bronte Road", "light"),
+    			configurator.getCostWithVehicleType("QEW", "Bronte Road", "light", configurator.parseTripTime("2019-02-04T12:00")));
+    	assertSameQuote(configurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy"),
+    			configurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy", peak));
+    	
+    	//Compiled snapshots keep the schedule
+    	File file = new File(folder.getRoot(), "schedule.snapshot");
+    	configurator.compileSnapshot(file.toPath());
+    	CostConfigurator compiled = new CostConfigurator();
+    	compiled.setSnapshotFile(file.getPath());
+    	assertTrue(compiled.generateConfigMap());
+    	assertBand(compiled, "2019-02-05T23:00", "night", "5.58");
+    }
+    
+    //Rate schedule -- overlapping bands are rejected, the previous config stays
+    @Test
+    public void generateConfigMapRejectsOverlappingBands() throws Exception {
+    	
+    	File dir = folder.newFolder("overlap");
+    	copyResource(CostConfigurator.INTERCHANGES_FILE, dir);
+    	String rates = new String(Files.readAllBytes(new File(getClass().getResource("/rates-schedule.json").toURI()).toPath()),
+    			StandardCharsets.UTF_8).replace("\"from\": \"22:00\"", "\"from\": \"09:00\"");
+    	Files.write(new File(dir, CostConfigurator.RATES_FILE).toPath(), rates.getBytes(StandardCharsets.UTF_8));
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertFalse(configurator.generateConfigMap());
+    	assertEquals(1, configurator.getFailedLoadCount());
+    }
+    
+    //Networks -- loaded on first use, least recently used evicted over the memory budget
+    @Test
+    public void networkRegistryTest() throws Exception {
+    	
+    	File dir = folder.newFolder("networks");
+    	for(String network: new String[] {"east", "west"}) {
+    		File networkDir = new File(dir, network);
+    		assertTrue(networkDir.mkdir());
+    		copyResource(CostConfigurator.INTERCHANGES_FILE, networkDir);
+    		copyResource(CostConfigurator.RATES_FILE, networkDir);
+    	}
+    	
+    	String directory = networkRegistry.getNetworksDirectory();
+    	long budget = networkRegistry.getMemoryBudgetMb();
+    	try {
+    		networkRegistry.setNetworksDirectory(dir.getPath());
+    		networkRegistry.setMemoryBudgetMb(0);
+    		
+    		assertSame(costConfigurator, networkRegistry.get(null));
+    		assertSame(costConfigurator, networkRegistry.get(NetworkRegistry.DEFAULT_NETWORK));
+    		
+    		CostConfigurator east = networkRegistry.get("east");
+    		assertNotEquals(costConfigurator, east);
+    		assertSame(east, networkRegistry.get("east"));
+    		assertEquals(new BigDecimal("51.26"), ((CostWithVehicleTypeResponse) east.getCostWithVehicleType("QEW", "Bronte Road", "heavy")).getTripCharge().toBigDecimal());
+    		
+    		//Nothing fits a zero budget, loading west drops east
+    		networkRegistry.get("west");
+    		assertTrue(networkRegistry.isLoaded("west"));
+    		assertFalse(networkRegistry.isLoaded("east"));
+    		assertTrue(((Number) networkRegistry.toMap().get("evictions")).longValue() >= 1);
+    		
+    		//A dropped network loads again, its quotes don't change
+    		CostConfigurator reloaded = networkRegistry.get("east");
+    		assertNotEquals(east, reloaded);
+    		assertEquals(east.getSnapshot().getVersion(), reloaded.getSnapshot().getVersion());
+    		
+    		for(String unknown: new String[] {"north", "../east"}) {
+    			try {
+    				networkRegistry.get(unknown);
+    				fail("Unknown network " + unknown);
+    			} catch (IllegalArgumentException e) {
+    				assertEquals("The input network doesn't exists.", e.getMessage());
+    			}
+    		}
+    	} finally {
+    		networkRegistry.setNetworksDirectory(directory);
+    		networkRegistry.setMemoryBudgetMb(budget);
+    	}
+    }
+    
+    //Rate history -- trips are priced with the rates in force on their date, kept on disk
+    @Test
+    public void rateHistoryTest() throws Exception {
+    	
+    	File config = folder.newFolder("older");
+    	copyResource(CostConfigurator.INTERCHANGES_FILE, config);
+    	copyResource(CostConfigurator.RATES_FILE, config);
+    	File rates = new File(config, CostConfigurator.RATES_FILE);
+    	String content = new String(Files.readAllBytes(rates.toPath()), StandardCharsets.UTF_8);
+    	content = content.replaceFirst("\"trip_toll_charge\": 1,", "\"trip_toll_charge\": 2,")
+    			.replaceFirst("\\{", "{\"effective_from\": \"2019-01-01T00:00\",");
+    	Files.write(rates.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    	CostConfigurator older = new CostConfigurator();
+    	older.setConfigDirectory(config.getPath());
+    	assertTrue(older.generateConfigMap());
+    	long since2019 = ZonedDateTime.parse("2019-01-01T00:00-05:00").toInstant().toEpochMilli();
+    	assertEquals(since2019, older.getSnapshot().getEffectiveFrom());
+    	
+    	File dir = folder.newFolder("history");
+    	String directory = rateHistory.getHistoryDirectory();
+    	String configDirectory = costConfigurator.getConfigDirectory();
+    	try {
+    		rateHistory.setHistoryDirectory(dir.getPath());
+    		rateHistory.open();
+    		
+    		//Publishing the older rates back-dates them to their effective_from, the current ones stay current
+    		costConfigurator.setConfigDirectory(config.getPath());
+    		assertTrue(costConfigurator.generateConfigMap());
+    		costConfigurator.setConfigDirectory(configDirectory);
+    		assertTrue(costConfigurator.generateConfigMap());
+    		
+    		//Written once per version, read back the same
+    		assertTrue(new File(dir, older.getSnapshot().getVersion() + ".snapshot").isFile());
+    		assertEquals(2, Files.readAllLines(new File(dir, RateHistory.LOG_FILE).toPath()).size());
+    		rateHistory.open();
+    		assertEquals(2, rateHistory.toMap().get("versions"));
+    		
+    		CostConfigurator asOf2019 = networkRegistry.get(null, "2019-06-01T08:00");
+    		assertEquals(older.getSnapshot().getVersion(), asOf2019.getSnapshot().getVersion());
+    		assertEquals(new BigDecimal("10.14"), ((CostWithVehicleTypeResponse) asOf2019.getCostWithVehicleType("QEW", "Bronte Road", "light")).getTripCharge().toBigDecimal());
+    		assertSame(asOf2019, networkRegistry.get(null, "2019-07-01T08:00"));
+    		
+    		//The current version is bound to its snapshot, a reload doesn't change a configurator in use
+    		CostConfigurator current = networkRegistry.get(null, "2100-01-01T00:00Z");
+    		assertSame(costConfigurator.getSnapshot(), current.getSnapshot());
+    		ConfigSnapshot before = current.getSnapshot();
+    		assertTrue(costConfigurator.generateConfigMap());
+    		assertSame(before, current.getSnapshot());
+    		assertNotSame(current, networkRegistry.get(null, "2100-01-01T00:00Z"));
+    		assertSame(costConfigurator.getSnapshot(), networkRegistry.get(null, "2100-01-01T00:00Z").getSnapshot());
+    		
+    		try {
+    			networkRegistry.get(null, "2018-12-31T23:59-05:00");
+    			fail("Before the first version");
+    		} catch (IllegalArgumentException e) {
+    			assertEquals("No rates are recorded for the input time.", e.getMessage());
+    		}
+    	} finally {
+    		costConfigurator.setConfigDirectory(configDirectory);
+    		costConfigurator.generateConfigMap();
+    		rateHistory.setHistoryDirectory(directory);
+    		rateHistory.open();
+    	}
+    }
+    
+    //Pricing rules -- compiled from the rate config, applied after the built-in fare
+    @Test
+    public void getCostWithPricingRules() throws Exception {
+    	
+    	File dir = folder.newFolder("rules");
+    	copyResource(CostConfigurator.INTERCHANGES_FILE, dir);
+    	copyResource("rates-rules.json", dir, CostConfigurator.RATES_FILE);
+    	
+    	CostConfigurator configurator = new CostConfigurator();
+    	configurator.setConfigDirectory(dir.getPath());
+    	assertTrue(configurator.generateConfigMap());
+    	
+    	//Westbound over 10 km: kmRate 5.6218 + 0.05 * 14.062 = 6.3249, charge 3.52 + 6.32 = 9.84, raised to 12
+    	CostWithVehicleTypeResponse light = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("QEW", "Bronte Road", "light");
+    	assertEquals(new BigDecimal("6.32"), light.getKmRate().toBigDecimal());
+    	assertEquals(new BigDecimal("12.00"), light.getTripCharge().toBigDecimal());
+    	
+    	//Eastbound over 100 km: kmRate 5.6709, charge 28.82 + 5.67 = 34.49, capped at 30, less 1.5
+    	CostWithVehicleTypeResponse east = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("Westney Road", "QEW", "light");
+    	assertEquals("eastbound", east.getDirection());
+    	assertEquals(new BigDecimal("5.67"), east.getKmRate().toBigDecimal());
+    	assertEquals(new BigDecimal("28.50"), east.getTripCharge().toBigDecimal());
+    	
+    	//No rules, the built-in fare
+    	assertEquals(new BigDecimal("51.26"), ((CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy")).getTripCharge().toBigDecimal());
+    	
+    	//Constant folded discount: (28.82 + 54.30) * 0.9
+    	CostWithVehicleTypeResponse multi = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType("Westney Road", "QEW", "multi");
+    	assertEquals(new BigDecimal("74.81"), multi.getTripCharge().toBigDecimal());
+    	
+    	//A two-stop itinerary is the same fare
+    	ItineraryResponse itinerary = configurator.getItineraryCost(Arrays.asList("QEW", "Bronte Road"), "light", null);
+    	assertEquals(light.getTripCharge(), itinerary.getTripCharge());
+    	
+    	//Compiled snapshots keep the rules
+    	File file = new File(folder.getRoot(), "rules.snapshot");
+    	configurator.compileSnapshot(file.toPath());
+    	CostConfigurator compiled = new CostConfigurator();
+    	compiled.setSnapshotFile(file.getPath());
+    	assertTrue(compiled.generateConfigMap());
+    	assertEquals(configurator.getSnapshot().getVersion(), compiled.getSnapshot().getVersion());
+    	assertEquals(new BigDecimal("12.00"), ((CostWithVehicleTypeResponse) compiled.getCostWithVehicleType("QEW", "Bronte Road", "light")).getTripCharge().toBigDecimal());
+    }
+    
+    //Pricing rules -- a malformed rule is rejected at load, the previous config stays
+    @Test
+    public void generateConfigMapRejectsBadRules() throws Exception {
+    	
+    	for(String rule: new String[] {"charge = max(charge 12)", "toll = 2", "kmRate = charge", "charge += distance if west", "charge = 1 / 0", "charge *= 0.1234567"}) {
+    		File dir = folder.newFolder();
+    		copyResource(CostConfigurator.INTERCHANGES_FILE, dir);
+    		String rates = new String(Files.readAllBytes(new File(getClass().getResource("/rates-rules.json").toURI()).toPath()),
+    				StandardCharsets.UTF_8).replace("charge = min(charge, 30)", rule);
+    		Files.write(new File(dir, CostConfigurator.RATES_FILE).toPath(), rates.getBytes(StandardCharsets.UTF_8));
+    		
+    		CostConfigurator configurator = new CostConfigurator();
+    		configurator.setConfigDirectory(dir.getPath());
+    		assertFalse(rule, configurator.generateConfigMap());
+    	}
+    }
+    
+    private static void assertBand(CostConfigurator configurator, String tripTime, String band, String kmRate) {
+    	CostWithVehicleTypeResponse resp = (CostWithVehicleTypeResponse) configurator.getCostWithVehicleType(
+    			"QEW", "Bronte Road", "light", configurator.parseTripTime(tripTime));
+    	assertEquals(tripTime, band, resp.getRateBand());
+    	assertEquals(tripTime, new BigDecimal(kmRate), resp.getKmRate().toBigDecimal());
+    }
+    
+    //Same fields, responses are built per call
+    private static void assertSameQuote(CostResponse expected, CostResponse actual) {
+    	try {
+    		assertEquals(MAPPER.writeValueAsString(expected), MAPPER.writeValueAsString(actual));
+    	} catch (JsonProcessingException e) {
+    		throw new IllegalStateException(e);
+    	}
+    }
+    
+    private static void copyResource(String name, File dir) throws IOException {
+    	copyResource(name, dir, name);
+    }
+    
+    private static void copyResource(String name, File dir, String target) throws IOException {
+    	try (InputStream in = CostConfigurator.class.getResourceAsStream("/" + name)) {
+    		Files.copy(in, new File(dir, target).toPath());
+    	}
+    }
+
 }
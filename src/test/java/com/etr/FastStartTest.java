@@ -0,0 +1,49 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+//The fast-start profile: warm-up before /ready
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "tripcalculator.warmup.quotes=2000")
+@ActiveProfiles({"test", "fast-start"})
+public class FastStartTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    //503 until warmed up, then 200, and the quotes are the same
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void readyAfterWarmup() throws InterruptedException, JSONException {
+
+    	ResponseEntity<Map> ready = restTemplate.getForEntity("/ready", Map.class);
+    	for(int i = 0; i < 200 && ready.getStatusCode() != HttpStatus.OK; i++) {
+    		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ready.getStatusCode());
+    		Thread.sleep(50);
+    		ready = restTemplate.getForEntity("/ready", Map.class);
+    	}
+    	assertEquals(HttpStatus.OK, ready.getStatusCode());
+    	assertEquals(Boolean.TRUE, ready.getBody().get("ready"));
+    	assertTrue(((Number) ready.getBody().get("warmupQuotes")).intValue() > 0);
+
+    	ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy", String.class);
+    	assertEquals(HttpStatus.OK, response.getStatusCode());
+    	JSONAssert.assertEquals("{distance:14.062,direction:westbound,kmRate:47.74,tripCharge:51.26}", response.getBody(), false);
+    }
+}
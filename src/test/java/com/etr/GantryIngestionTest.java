@@ -0,0 +1,109 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.etr.gantry.AssembledTrip;
+import com.etr.gantry.GantryIngestion;
+import com.etr.gantry.TripAssembler;
+import com.etr.gantry.TripCsvWriter;
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.service.CostConfigurator;
+
+public class GantryIngestionTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private static CostConfigurator costConfigurator;
+
+    @BeforeClass
+    public static void load() {
+        costConfigurator = new CostConfigurator();
+        assertTrue(costConfigurator.generateConfigMap());
+    }
+
+    //Entries pair with exits, repeated reads and unmatched reads don't make trips
+    @Test
+    public void assembleTrips() throws IOException {
+
+        List<AssembledTrip> trips = Collections.synchronizedList(new ArrayList<AssembledTrip>());
+        GantryIngestion ingestion = new GantryIngestion(new TripAssembler(costConfigurator, trips::add));
+
+        String events = "timestamp,transponderId,location,type,vehicleType\n"
+        		+ "1549287000000,T1,QEW,ENTRY,heavy\n"
+        		+ "1549287001000,T1,QEW,ENTRY,heavy\n"
+        		+ "1549287000500,T2,Bronte Road,EXIT,light\n"
+        		+ "1549287600000,T1,Bronte Road,EXIT\n"
+        		+ "1549287600200,T1,Bronte Road,EXIT\n"
+        		+ "not an event\n"
+        		+ "1549287700000,T3,QEW,ENTRY\n"
+        		+ "1549287800000,T3,Westney Road,EXIT\n";
+        assertEquals(7, ingestion.ingest(new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(2, trips.size());
+        AssembledTrip heavy = trips.get(0);
+        assertEquals("T1", heavy.getTransponderId());
+        assertEquals("QEW", heavy.getFromLocation());
+        assertEquals("Bronte Road", heavy.getToLocation());
+        assertEquals(new BigDecimal("51.26"), ((CostWithVehicleTypeResponse) heavy.getQuote()).getTripCharge().toBigDecimal());
+        assertNull(heavy.getError());
+        //No vehicle type, distance cost only
+        assertEquals(new BigDecimal("28.82"), trips.get(1).getQuote().getCost().toBigDecimal());
+
+        assertEquals(1, ingestion.getMalformedCount());
+        assertEquals(Long.valueOf(2), ingestion.getAssembler().getCounters().get("duplicates"));
+        assertEquals(Long.valueOf(1), ingestion.getAssembler().getCounters().get("orphanExits"));
+        assertEquals(Long.valueOf(2), ingestion.getAssembler().getCounters().get("trips"));
+    }
+
+    //Idle transponders expire, and a stripe never holds more than its bound
+    @Test
+    public void expiryAndBoundedMemory() throws IOException {
+
+        TripAssembler assembler = new TripAssembler(costConfigurator, trip -> {}, 1, 100, HOUR, 1000);
+        GantryIngestion ingestion = new GantryIngestion(assembler);
+
+        StringBuilder events = new StringBuilder();
+        for(int i = 0; i < 1000; i++)
+        	events.append(i).append(",T").append(i).append(",QEW,ENTRY,light\n");
+        ingestion.ingest(new ByteArrayInputStream(events.toString().getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(100, assembler.size());
+        assertEquals(Long.valueOf(900), assembler.getCounters().get("evicted"));
+
+        assembler.expireIdle(2 * HOUR);
+        assertEquals(0, assembler.size());
+        assertEquals(Long.valueOf(100), assembler.getCounters().get("expired"));
+    }
+
+    //CSV output, a trip that can't be priced carries its error
+    @Test
+    public void csvOutput() throws IOException {
+
+        StringWriter out = new StringWriter();
+        TripCsvWriter writer = new TripCsvWriter(out);
+        TripAssembler assembler = new TripAssembler(costConfigurator, writer);
+        new GantryIngestion(assembler).ingest(new ByteArrayInputStream(("0,T1,QEW,ENTRY,heavy\n1000,T1,Bronte Road,EXIT\n"
+        		+ "2000,T2,QEW,ENTRY,heavy\n3000,T2,Nowhere,EXIT\n").getBytes(StandardCharsets.UTF_8)));
+        writer.close();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(TripCsvWriter.HEADER, lines[0]);
+        assertEquals("T1,QEW,Bronte Road,heavy,0,1000,14.062,51.26,", lines[1]);
+        assertEquals("T2,QEW,Nowhere,heavy,2000,3000,,,The input location name doesn't exists.", lines[2]);
+        assertEquals(Long.valueOf(1), assembler.getCounters().get("pricingErrors"));
+    }
+}
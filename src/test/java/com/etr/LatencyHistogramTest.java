@@ -0,0 +1,47 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.etr.metrics.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    //Percentiles are within the bucket precision of the recorded values
+    @Test
+    public void percentiles() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long micros = 1; micros <= 1000; micros++)
+            histogram.record(micros * 1000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMaxNanos());
+        assertEquals(500500, snapshot.getMeanNanos());
+        assertWithin(500000, snapshot.getValueAt(0.50));
+        assertWithin(990000, snapshot.getValueAt(0.99));
+        assertTrue(snapshot.getValueAt(1.0) <= snapshot.getMaxNanos());
+    }
+
+    //Empty and out of range values
+    @Test
+    public void edges() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getValueAt(0.99));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAt(0.5));
+        assertEquals(Long.MAX_VALUE, snapshot.getMaxNanos());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
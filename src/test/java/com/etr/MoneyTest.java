@@ -0,0 +1,62 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.RoundingMode;
+
+import org.junit.Test;
+
+import com.etr.model.CostWithVehicleTypeResponse;
+import com.etr.model.Distance;
+import com.etr.model.Money;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MoneyTest {
+
+    //Parsing is exact, rounding only with an explicit mode
+    @Test
+    public void parseAndRound() {
+
+        assertEquals(4200, Money.parse("0.42").getUnits());
+        assertEquals(Money.parse("45"), Money.parse("45.0000"));
+        assertEquals(Money.parse("0.4708"), Money.parse("0.47085", RoundingMode.HALF_EVEN));
+        try {
+        	Money.parse("0.47085");
+        	fail("more than 4 decimals");
+        } catch (NumberFormatException e) {
+        	//expected
+        }
+
+        //HALF_EVEN to cents, both directions of the tie
+        assertEquals(Money.parse("47.74"), Money.parse("47.7416").round(Money.CENTS, RoundingMode.HALF_EVEN));
+        assertEquals(Money.parse("0.12"), Money.parse("0.125").round(Money.CENTS, RoundingMode.HALF_EVEN));
+        assertEquals(Money.parse("0.14"), Money.parse("0.135").round(Money.CENTS, RoundingMode.HALF_EVEN));
+        assertEquals(Money.parse("-0.14"), Money.parse("-0.135").round(Money.CENTS, RoundingMode.HALF_EVEN));
+        assertEquals(Money.parse("0.13"), Money.parse("0.125").round(Money.CENTS, RoundingMode.HALF_UP));
+        assertEquals(Money.parse("0.13"), Money.parse("0.1201").round(Money.CENTS, RoundingMode.CEILING));
+
+        //0.25 per km over 14.062 km, rounded once
+        assertEquals(Money.parse("3.52"), Money.ofCents(25).times(Distance.ofFixed(14062000), Money.CENTS, RoundingMode.HALF_EVEN));
+    }
+
+    //Plain text with at least 2 decimals for money, 3 for distances
+    @Test
+    public void format() throws Exception {
+
+        assertEquals("45.00", Money.parse("45").toString());
+        assertEquals("0.7416", Money.parse("0.7416").toString());
+        assertEquals("-0.05", Money.parse("-0.05").toString());
+        assertEquals("14.062", Distance.ofFixed(14062000).toString());
+        assertEquals("0.000", Distance.ZERO.toString());
+
+        CostWithVehicleTypeResponse resp = new CostWithVehicleTypeResponse();
+        resp.setDistance(Distance.ofFixed(14062000));
+        resp.setKmRate(Money.parse("47.74"));
+        resp.setTripCharge(Money.parse("51.2"));
+        ObjectMapper mapper = new ObjectMapper();
+        String json = mapper.writeValueAsString(resp);
+        assertEquals("{\"distance\":14.062,\"kmRate\":47.74,\"tripCharge\":51.20}", json);
+        assertEquals(resp.getTripCharge(), mapper.readValue(json, CostWithVehicleTypeResponse.class).getTripCharge());
+    }
+}
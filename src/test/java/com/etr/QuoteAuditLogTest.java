@@ -0,0 +1,153 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.etr.audit.AuditLogReader;
+import com.etr.audit.AuditRecord;
+import com.etr.audit.AuditRingBuffer;
+import com.etr.audit.QuoteAuditLog;
+import com.etr.model.CostResponse;
+import com.etr.model.VehicleTypeEnum;
+import com.etr.service.CostConfigurator;
+
+public class QuoteAuditLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CostConfigurator costConfigurator;
+
+	@Before
+	public void init() {
+		costConfigurator = new CostConfigurator();
+		assertTrue(costConfigurator.generateConfigMap());
+	}
+
+	//Quotes come back from the files in order, with what was priced
+	@Test
+	public void writeAndScan() throws Exception {
+
+		Path dir = folder.getRoot().toPath().resolve("audit");
+		QuoteAuditLog log = auditLog(dir, 1024);
+		log.start();
+		CostResponse heavy = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+		CostResponse distance = costConfigurator.getCostBetweenLocations("QEW", "Westney Road");
+		for(int i = 0; i < 100; i++) {
+			log.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, heavy);
+			log.record("east", "QEW", "Westney Road", null, distance);
+		}
+		log.stop();
+		assertEquals(200, log.getWrittenCount());
+		assertEquals(0, log.getDroppedCount());
+
+		List<AuditRecord> records = new ArrayList<AuditRecord>();
+		AuditLogReader reader = new AuditLogReader();
+		assertEquals(200, reader.scan(dir, null, records::add));
+		assertEquals(1, reader.getFilesRead());
+
+		AuditRecord first = records.get(0);
+		assertNull(first.getNetwork());
+		assertEquals(heavy.getConfigVersion(), first.getConfigVersion());
+		assertEquals("Bronte Road", first.getTo());
+		assertEquals(VehicleTypeEnum.heavy, first.getVehicleType());
+		assertEquals("westbound", first.getDirection());
+		assertEquals("14.062", first.getDistance().toString());
+		assertEquals("47.74", first.getKmRate().toString());
+		assertEquals("51.26", first.getTripCharge().toString());
+		assertNull(first.getCost());
+		assertTrue(first.toCsv().contains("," + heavy.getConfigVersion() + ",QEW,Bronte Road,heavy,westbound,"));
+		assertTrue(first.toCsv().endsWith(",14.062,,47.74,51.26"));
+
+		AuditRecord second = records.get(1);
+		assertEquals("east", second.getNetwork());
+		assertNull(second.getVehicleType());
+		assertEquals("115.277", second.getDistance().toString());
+		assertEquals("28.82", second.getCost().toString());
+
+		//Filtered scan
+		assertEquals(100, new AuditLogReader().scan(dir, r -> r.getVehicleType() == VehicleTypeEnum.heavy, r -> {}));
+	}
+
+	//A new file once the current one is full, the scan reads them all in order
+	@Test
+	public void rotate() throws Exception {
+
+		Path dir = folder.getRoot().toPath().resolve("audit");
+		QuoteAuditLog log = auditLog(dir, 32768);
+		log.setMaxFileMb(1);
+		log.start();
+		CostResponse heavy = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+		for(int i = 0; i < 20000; i++)
+			log.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, heavy);
+		log.stop();
+
+		assertEquals(20000, log.getWrittenCount());
+		List<Path> files = AuditLogReader.listFiles(dir);
+		assertTrue(files.size() >= 2);
+		for(Path file: files)
+			assertTrue(file.toFile().length() <= 1024 * 1024);
+		assertEquals(20000, new AuditLogReader().scan(dir, null, r -> {}));
+	}
+
+	//A record cut short by a crash ends the scan of its file
+	@Test
+	public void truncatedRecord() throws Exception {
+
+		Path dir = folder.getRoot().toPath().resolve("audit");
+		QuoteAuditLog log = auditLog(dir, 1024);
+		log.start();
+		CostResponse heavy = costConfigurator.getCostWithVehicleType("QEW", "Bronte Road", "heavy");
+		for(int i = 0; i < 3; i++)
+			log.record(null, "QEW", "Bronte Road", VehicleTypeEnum.heavy, heavy);
+		log.stop();
+
+		Path file = AuditLogReader.listFiles(dir).get(0);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 5);
+		}
+		assertEquals(2, new AuditLogReader().scan(dir, null, r -> {}));
+	}
+
+	//A full ring drops, it never blocks, and frees its slots once drained
+	@Test
+	public void ringDropsWhenFull() {
+
+		AuditRingBuffer ring = new AuditRingBuffer(3);
+		assertEquals(4, ring.getCapacity());
+		CostResponse distance = costConfigurator.getCostBetweenLocations("QEW", "Westney Road");
+		for(int i = 0; i < 4; i++)
+			assertTrue(ring.offer(i, null, "QEW", "Westney Road", null, distance));
+		assertFalse(ring.offer(4, null, "QEW", "Westney Road", null, distance));
+		assertEquals(1, ring.getDroppedCount());
+		assertEquals(4, ring.getDepth());
+
+		List<Long> times = new ArrayList<Long>();
+		assertEquals(3, ring.drain(3, slot -> times.add(slot.getTime())));
+		assertTrue(ring.offer(5, null, "QEW", "Westney Road", null, distance));
+		assertEquals(2, ring.drain(10, slot -> times.add(slot.getTime())));
+		assertEquals("[0, 1, 2, 3, 5]", times.toString());
+		assertEquals(0, ring.getDepth());
+	}
+
+	private static QuoteAuditLog auditLog(Path dir, int bufferSize) throws Exception {
+		QuoteAuditLog log = new QuoteAuditLog();
+		log.setAuditDirectory(dir.toString());
+		log.setBufferSize(bufferSize);
+		log.setFlushMillis(1);
+		return log;
+	}
+}
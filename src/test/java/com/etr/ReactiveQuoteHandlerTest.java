@@ -0,0 +1,159 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.etr.audit.QuoteAuditLog;
+
+//Same endpoints in the non-blocking server mode
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = {"spring.main.web-application-type=reactive", "tripcalculator.audit.dir=target/test-audit/reactive"})
+@ActiveProfiles("test")
+public class ReactiveQuoteHandlerTest {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @Autowired
+    private QuoteAuditLog quoteAuditLog;
+
+    //Cost with Vehicle type -- heavy
+    @Test
+    public void costWithViehicleTypeHeavy() throws JSONException {
+
+        String body = webClient.get().uri("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy")
+        		.exchange()
+        		.expectStatus().isOk()
+        		.expectHeader().contentType(MediaType.APPLICATION_JSON_UTF8)
+        		.expectBody(String.class).returnResult().getResponseBody();
+
+        JSONAssert.assertEquals("{distance:14.062,direction:westbound,kmRate:47.74,tripCharge:51.26}", body, false);
+    }
+
+    //Conditional GET -- the ETag of a quote gets a 304
+    @Test
+    public void costNotModifiedWithETag() {
+
+        String etag = webClient.get().uri("/costoftrip?fromLocation=QEW&toLocation=Bronte Road")
+        		.exchange()
+        		.expectStatus().isOk()
+        		.returnResult(String.class).getResponseHeaders().getETag();
+
+        webClient.get().uri("/costoftrip?fromLocation=QEW&toLocation=Bronte Road")
+        		.ifNoneMatch(etag)
+        		.exchange()
+        		.expectStatus().isNotModified()
+        		.expectHeader().valueEquals("ETag", etag);
+    }
+
+    //Failed case -- same error body as the servlet mode
+    @Test
+    public void costFailWithSuggestions() throws JSONException {
+
+        String body = webClient.get().uri("/costoftrip?fromLocation=QEW&toLocation=Dundas Stret")
+        		.exchange()
+        		.expectStatus().isBadRequest()
+        		.expectBody(String.class).returnResult().getResponseBody();
+
+        JSONAssert.assertEquals("{status:400,error:\"Bad Request\",\"message\":\"The input location name doesn't exists.\","
+        		+ "\"path\":\"/costoftrip\",suggestions:[\"Dundas Street\"]}", body, false);
+    }
+
+    //Batch -- one line per row, a bad row is reported inline
+    @Test
+    public void costBatchWithInlineErrors() throws JSONException {
+
+        String request = "[{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"},"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"NONExist Road\"},"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\",\"network\":\"nowhere\"},"
+        		+ "{\"fromLocation\":\"Westney Road\",\"toLocation\":\"QEW\"}]";
+
+        String body = webClient.post().uri("/costoftrip/batch")
+        		.contentType(MediaType.APPLICATION_JSON)
+        		.syncBody(request)
+        		.exchange()
+        		.expectStatus().isOk()
+        		.expectBody(String.class).returnResult().getResponseBody();
+
+        String[] lines = body.split("\n");
+        assertEquals(4, lines.length);
+        JSONAssert.assertEquals("{index:0,quote:{distance:115.277,cost:28.82}}", lines[0], false);
+        JSONAssert.assertEquals("{index:1,error:\"The input location name doesn't exists.\"}", lines[1], false);
+        //Resolved off the event loop, the rows stay in order
+        JSONAssert.assertEquals("{index:2,error:\"The input network doesn't exists.\"}", lines[2], false);
+        JSONAssert.assertEquals("{index:3,quote:{distance:115.277,cost:28.82}}", lines[3], false);
+    }
+
+    //Batch -- a row of the wrong shape is reported inline, the rows after it are still priced
+    @Test
+    public void costBatchWithMistypedRow() throws JSONException {
+
+        String request = "[{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"},"
+        		+ "{\"fromLocation\":{},\"toLocation\":\"QEW\"},"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"Bronte Road\",\"vehicleType\":\"heavy\",\"tripTime\":[1]},"
+        		+ "{\"fromLocation\":\"Westney Road\",\"toLocation\":\"QEW\"}]";
+
+        String body = webClient.post().uri("/costoftrip/batch")
+        		.contentType(MediaType.APPLICATION_JSON)
+        		.syncBody(request)
+        		.exchange()
+        		.expectStatus().isOk()
+        		.expectBody(String.class).returnResult().getResponseBody();
+
+        String[] lines = body.split("\n");
+        assertEquals(4, lines.length);
+        JSONAssert.assertEquals("{index:0,quote:{distance:115.277,cost:28.82}}", lines[0], false);
+        JSONAssert.assertEquals("{index:1}", lines[1], false);
+        assertTrue(lines[1].contains("Invalid batch row"));
+        JSONAssert.assertEquals("{index:2}", lines[2], false);
+        assertTrue(lines[2].contains("Invalid batch row"));
+        JSONAssert.assertEquals("{index:3,quote:{distance:115.277,cost:28.82}}", lines[3], false);
+    }
+
+    //A network that isn't loaded is resolved off the event loop, with the same errors
+    @Test
+    public void costOnUnknownNetwork() throws JSONException {
+
+        String body = webClient.get().uri("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&network=nowhere")
+        		.exchange()
+        		.expectStatus().isBadRequest()
+        		.expectBody(String.class).returnResult().getResponseBody();
+
+        JSONAssert.assertEquals("{status:400,message:\"The input network doesn't exists.\"}", body, false);
+    }
+
+    //Audit -- every priced batch row, itinerary and coordinate quote is recorded, errors are not
+    @Test
+    public void auditBatchItineraryAndCoordinates() {
+
+        long recorded = quoteAuditLog.getRecordedCount();
+
+        webClient.post().uri("/costoftrip/batch").contentType(MediaType.APPLICATION_JSON)
+        		.syncBody("[{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"},"
+        				+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"NONExist Road\"},"
+        				+ "{\"fromLocation\":\"Bronte Road\",\"toLocation\":\"QEW\",\"vehicleType\":\"multi\"}]")
+        		.exchange().expectStatus().isOk().expectBody(String.class).returnResult();
+        assertEquals(recorded + 2, quoteAuditLog.getRecordedCount());
+
+        webClient.post().uri("/costoftrip/itinerary").contentType(MediaType.APPLICATION_JSON)
+        		.syncBody("{\"stops\":[\"QEW\",\"Bronte Road\",\"QEW\"],\"vehicleType\":\"heavy\"}")
+        		.exchange().expectStatus().isOk().expectBody(String.class).returnResult();
+        assertEquals(recorded + 3, quoteAuditLog.getRecordedCount());
+
+        webClient.get().uri("/costoftrip/bycoordinates?fromLat=43.3370&fromLng=-79.8304&toLat=43.4460&toLng=-79.7905&vehicleType=heavy")
+        		.exchange().expectStatus().isOk().expectBody(String.class).returnResult();
+        assertEquals(recorded + 4, quoteAuditLog.getRecordedCount());
+    }
+}
@@ -0,0 +1,74 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.etr.model.Location;
+import com.etr.service.DistanceIndex;
+import com.etr.service.SpatialIndex;
+
+public class SpatialIndexTest {
+
+    //The k-d tree finds the same location as a full scan, anywhere on the globe
+    @Test
+    public void nearestMatchesFullScan() {
+
+        Random random = new Random(7);
+        List<Location> locations = new ArrayList<Location>();
+        for(int i = 0; i < 3000; i++)
+            locations.add(location(i, randomLat(random), randomLng(random)));
+        //One without coordinates is left out
+        locations.add(location(3000, null, null));
+
+        SpatialIndex index = new SpatialIndex(new DistanceIndex(locations, new long[locations.size()]));
+        assertEquals(3000, index.size());
+
+        for(int i = 0; i < 500; i++) {
+            double lat = randomLat(random);
+            double lng = randomLng(random);
+
+            double best = Double.MAX_VALUE;
+            for(int j = 0; j < 3000; j++)
+                best = Math.min(best, index.distanceKm(j, lat, lng));
+            assertEquals(best, index.distanceKm(index.nearest(lat, lng), lat, lng), 1e-9);
+        }
+    }
+
+    //Across the date line, and the distance of a known pair
+    @Test
+    public void nearestAcrossDateLine() {
+
+        List<Location> locations = new ArrayList<Location>();
+        locations.add(location(0, 0.0, 179.9));
+        locations.add(location(1, 0.0, 170.0));
+        SpatialIndex index = new SpatialIndex(new DistanceIndex(locations, new long[2]));
+
+        assertEquals(0, index.nearest(0.0, -179.9));
+        //0.2 degrees of the equator
+        assertEquals(22.239, index.distanceKm(0, 0.0, -179.9), 0.001);
+    }
+
+    private static Location location(int i, Double lat, Double lng) {
+        Location location = new Location();
+        location.setId(String.valueOf(i + 1));
+        location.setName("Location " + i);
+        location.setLat(lat == null ? null : String.format(Locale.ROOT, "%.6f", lat));
+        location.setLng(lng == null ? null : String.format(Locale.ROOT, "%.6f", lng));
+        location.setRoutes(new ArrayList<>());
+        return location;
+    }
+
+    private static double randomLat(Random random) {
+        return random.nextDouble() * 180 - 90;
+    }
+
+    private static double randomLng(Random random) {
+        return random.nextDouble() * 360 - 180;
+    }
+}
@@ -1,8 +1,12 @@
 package com.etr;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,14 +14,20 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import com.etr.audit.QuoteAuditLog;
+
 @RunWith(SpringRunner.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT) // for restTemplate
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, // for restTemplate
+		properties = "tripcalculator.audit.dir=target/test-audit/servlet")
 @ActiveProfiles("test")
 public class TripCalculatorControllerTest {
 
@@ -26,6 +36,9 @@ public class TripCalculatorControllerTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private QuoteAuditLog quoteAuditLog;
+
     @Before
     public void init() {}
     
@@ -58,6 +71,112 @@ public class TripCalculatorControllerTest {
 
     }
     
+    //Failed case -- unknown network
+    @Test
+    public void costFailUnknownNetwork() throws JSONException {
+
+    	String expected = "{status:400,\"message\":\"The input network doesn't exists.\"}";
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Westney Road&network=nope", String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        JSONAssert.assertEquals(expected, response.getBody(), false);
+    }
+    
+    //As-of pricing -- the current rates are in force from startup on, nothing before
+    @Test
+    public void costAsOf() throws JSONException {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy&asOf=2100-01-01T00:00", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONAssert.assertEquals("{distance:14.062,kmRate:47.74,tripCharge:51.26}", response.getBody(), false);
+
+        response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy&asOf=2000-01-01T00:00", String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        JSONAssert.assertEquals("{status:400,\"message\":\"No rates are recorded for the input time.\"}", response.getBody(), false);
+    }
+    
+    //Failed case -- a misspelled location comes with suggestions
+    @Test
+    public void costFailWithSuggestions() throws JSONException {
+
+    	String expected = "{status:400,\"message\":\"The input location name doesn't exists.\",suggestions:[\"Dundas Street\"]}";
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Dundas Stret", String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        JSONAssert.assertEquals(expected, response.getBody(), false);
+    }
+    
+    //Location search by normalized prefix
+    @Test
+    public void locationsByPrefix() throws JSONException {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/locations?prefix=dundas st&limit=5", String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.APPLICATION_JSON_UTF8, response.getHeaders().getContentType());
+
+        JSONAssert.assertEquals("[{id:\"2\",name:\"Dundas Street\"}]", response.getBody(), false);
+    }
+    
+    //Conditional GET -- the ETag of a quote gets a 304
+    @Test
+    public void costNotModifiedWithETag() {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=light", String.class);
+        String etag = response.getHeaders().getETag();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(etag.startsWith("\"") && !etag.startsWith("W/"));
+        assertTrue(response.getHeaders().getCacheControl().contains("max-age="));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+        ResponseEntity<String> notModified = restTemplate.exchange("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=light",
+        		HttpMethod.GET, new HttpEntity<Void>(headers), String.class);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertEquals(etag, notModified.getHeaders().getETag());
+        assertNull(notModified.getBody());
+
+        //Another vehicle class is another response
+        ResponseEntity<String> heavy = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy", String.class);
+        assertNotEquals(etag, heavy.getHeaders().getETag());
+    }
+    
+    //Metrics -- requests and misses are counted
+    @Test
+    public void metricsCountQuotesAndMisses() throws JSONException {
+
+        restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy", String.class);
+        restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=NONExist Road", String.class);
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/metrics", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        JSONObject metrics = new JSONObject(response.getBody());
+        JSONObject quotes = metrics.getJSONObject("endpoints").getJSONObject("/costoftrip");
+        assertTrue(quotes.getLong("count") >= 2);
+        assertTrue(quotes.getLong("errors") >= 1);
+        assertTrue(metrics.getJSONObject("vehicleClasses").getJSONObject("heavy").getLong("count") >= 1);
+        assertTrue(metrics.getJSONObject("counters").getLong("unknownLocation") >= 1);
+        assertEquals(44, metrics.getJSONObject("config").getInt("locations"));
+    }
+    
+    //Trip time -- the shipped rates have no schedule, a malformed time is rejected
+    @Test
+    public void costWithTripTime() throws JSONException {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy&tripTime=2019-02-04T08:30", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONAssert.assertEquals("{kmRate:47.74,tripCharge:51.26}", response.getBody(), false);
+
+        response = restTemplate.getForEntity("/costoftrip?fromLocation=QEW&toLocation=Bronte Road&vehicleType=heavy&tripTime=monday", String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        JSONAssert.assertEquals("{message:\"The input trip time is not an ISO-8601 date-time.\"}", response.getBody(), false);
+    }
+    
     //Cost with Vehicle type -- multi
     @Test
     public void costWithViehicleTypeMulti() throws JSONException {
@@ -109,4 +228,127 @@ public class TripCalculatorControllerTest {
         JSONAssert.assertEquals(expected, response.getBody(), false);
     }
 
+    //Batch -- one line per row, a bad row is reported inline
+    @Test
+    public void costBatchWithInlineErrors() throws JSONException {
+
+        String body = "[{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"},"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"NONExist Road\"},"
+        		+ "{\"fromLocation\":\"Bronte Road\",\"toLocation\":\"QEW\",\"vehicleType\":\"multi\"}]";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.postForEntity("/costoftrip/batch", new HttpEntity<String>(body, headers), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("application/x-ndjson;charset=UTF-8", response.getHeaders().getContentType().toString());
+
+        String[] lines = response.getBody().split("\n");
+        assertEquals(3, lines.length);
+        JSONAssert.assertEquals("{index:0,quote:{distance:115.277,cost:28.82}}", lines[0], false);
+        JSONAssert.assertEquals("{index:1,error:\"The input location name doesn't exists.\"}", lines[1], false);
+        JSONAssert.assertEquals("{index:2,quote:{distance:14.062,direction:eastbound,kmRate:54.30,tripCharge:57.82}}", lines[2], false);
+    }
+
+    //Batch -- a row of the wrong shape is reported inline, the rows after it are still priced
+    @Test
+    public void costBatchWithMistypedRow() throws JSONException {
+
+        String body = "{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"}\n"
+        		+ "{\"fromLocation\":{},\"toLocation\":\"QEW\"}\n"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"Bronte Road\",\"vehicleType\":\"heavy\",\"tripTime\":[1]}\n"
+        		+ "{\"fromLocation\":\"Westney Road\",\"toLocation\":\"QEW\"}";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.postForEntity("/costoftrip/batch", new HttpEntity<String>(body, headers), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(4, lines.length);
+        JSONAssert.assertEquals("{index:0,quote:{distance:115.277,cost:28.82}}", lines[0], false);
+        JSONAssert.assertEquals("{index:1}", lines[1], false);
+        assertTrue(lines[1].contains("Invalid batch row"));
+        JSONAssert.assertEquals("{index:2}", lines[2], false);
+        assertTrue(lines[2].contains("Invalid batch row"));
+        JSONAssert.assertEquals("{index:3,quote:{distance:115.277,cost:28.82}}", lines[3], false);
+    }
+
+    //Batch -- input that isn't JSON ends the batch with an error line
+    @Test
+    public void costBatchWithMalformedInput() throws JSONException {
+
+        String body = "{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"}\n{\"fromLocation\":";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.postForEntity("/costoftrip/batch", new HttpEntity<String>(body, headers), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String[] lines = response.getBody().split("\n");
+        assertEquals(2, lines.length);
+        JSONAssert.assertEquals("{index:0,quote:{distance:115.277,cost:28.82}}", lines[0], false);
+        JSONAssert.assertEquals("{index:1}", lines[1], false);
+        assertTrue(lines[1].contains("Malformed batch input"));
+    }
+
+    //Itinerary -- per-leg and total, the per-trip charges count once
+    @Test
+    public void costItinerary() throws JSONException {
+
+        String body = "{\"stops\":[\"QEW\",\"Bronte Road\",\"QEW\"],\"vehicleType\":\"heavy\"}";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.postForEntity("/costoftrip/itinerary", new HttpEntity<String>(body, headers), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONAssert.assertEquals("{distance:28.124,cost:7.04,kmRate:48.53,tripCharge:55.57,legs:["
+        		+ "{fromLocation:QEW,toLocation:\"Bronte Road\",distance:14.062,cost:3.52,direction:westbound,kmRate:0.7416},"
+        		+ "{fromLocation:\"Bronte Road\",toLocation:QEW,distance:14.062,cost:3.52,direction:eastbound,kmRate:0.7866}]}",
+        		response.getBody(), false);
+
+        response = restTemplate.postForEntity("/costoftrip/itinerary",
+        		new HttpEntity<String>("{\"stops\":[\"QEW\"]}", headers), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    //Coordinates -- nearest interchange, and a trip priced from two GPS fixes
+    @Test
+    public void costByCoordinates() throws JSONException {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/locations/nearest?lat=43.4460&lng=-79.7905", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONAssert.assertEquals("{id:\"4\",name:\"Bronte Road\"}", response.getBody(), false);
+
+        response = restTemplate.getForEntity("/costoftrip/bycoordinates?fromLat=43.3370&fromLng=-79.8304&toLat=43.4460&toLng=-79.7905&vehicleType=heavy", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JSONAssert.assertEquals("{from:{name:QEW},to:{name:\"Bronte Road\"},quote:{distance:14.062,kmRate:47.74,tripCharge:51.26}}",
+        		response.getBody(), false);
+
+        response = restTemplate.getForEntity("/locations/nearest?lat=100&lng=0", String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    //Audit -- every priced batch row, itinerary and coordinate quote is recorded, errors are not
+    @Test
+    public void auditBatchItineraryAndCoordinates() {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        long recorded = quoteAuditLog.getRecordedCount();
+
+        String batch = "[{\"fromLocation\":\"QEW\",\"toLocation\":\"Westney Road\"},"
+        		+ "{\"fromLocation\":\"QEW\",\"toLocation\":\"NONExist Road\"},"
+        		+ "{\"fromLocation\":\"Bronte Road\",\"toLocation\":\"QEW\",\"vehicleType\":\"multi\"}]";
+        restTemplate.postForEntity("/costoftrip/batch", new HttpEntity<String>(batch, headers), String.class);
+        assertEquals(recorded + 2, quoteAuditLog.getRecordedCount());
+
+        String itinerary = "{\"stops\":[\"QEW\",\"Bronte Road\",\"QEW\"],\"vehicleType\":\"heavy\"}";
+        restTemplate.postForEntity("/costoftrip/itinerary", new HttpEntity<String>(itinerary, headers), String.class);
+        assertEquals(recorded + 3, quoteAuditLog.getRecordedCount());
+
+        restTemplate.getForEntity("/costoftrip/bycoordinates?fromLat=43.3370&fromLng=-79.8304&toLat=43.4460&toLng=-79.7905&vehicleType=heavy", String.class);
+        assertEquals(recorded + 4, quoteAuditLog.getRecordedCount());
+    }
 }
@@ -0,0 +1,101 @@
+package com.etr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.etr.billing.BillingTotals;
+import com.etr.billing.TripLogBillingPipeline;
+import com.etr.service.CostConfigurator;
+
+public class TripLogBillingPipelineTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private CostConfigurator costConfigurator;
+	
+	@Before
+	public void init() {
+		costConfigurator = new CostConfigurator();
+		assertTrue(costConfigurator.generateConfigMap());
+	}
+	
+	//Small chunks so the file is split into many parts, output keeps the input order
+	@Test
+	public void runInParallelChunks() throws Exception {
+		
+		StringBuilder input = new StringBuilder("fromLocation,toLocation,vehicleType\r\n");
+		for(int i = 0; i < 200; i++) {
+			input.append("QEW,Bronte Road,heavy\r\n");
+			input.append("Bronte Road,QEW,\n");
+			input.append("QEW,NONExist Road,light\n");
+		}
+		Path in = folder.newFile("trips.csv").toPath();
+		Path out = folder.getRoot().toPath().resolve("priced.csv");
+		Files.write(in, input.toString().getBytes(StandardCharsets.UTF_8));
+		
+		BillingTotals totals = new TripLogBillingPipeline(costConfigurator, 64).run(in, out, 4);
+		
+		List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+		assertEquals(601, lines.size());
+		assertEquals(TripLogBillingPipeline.OUTPUT_HEADER, lines.get(0));
+		assertEquals("QEW,Bronte Road,heavy,14.062,3.52,westbound,47.74,51.26,", lines.get(1));
+		assertEquals("Bronte Road,QEW,,14.062,3.52,,,,", lines.get(2));
+		assertEquals("QEW,NONExist Road,light,,,,,,The input location name doesn't exists.", lines.get(3));
+		assertEquals(lines.get(1), lines.get(598));
+		
+		assertEquals(400, totals.getTotalTrips());
+		BillingTotals.ClassTotal heavy = totals.getTotals().get("heavy");
+		assertEquals(200, heavy.getTrips());
+		assertEquals(new BigDecimal("10252.00"), heavy.getTripCharge().toBigDecimal());
+		assertEquals(200, totals.getTotals().get("light").getErrors());
+		assertEquals(0, totals.getTotals().get("light").getTrips());
+	}
+	
+	//The cost column is the distance cost, not tripCharge less kmRate once a charge rule fires
+	@Test
+	public void billDistanceCostWithPricingRules() throws Exception {
+		
+		File dir = folder.newFolder("rules");
+		copyResource(CostConfigurator.INTERCHANGES_FILE, dir, CostConfigurator.INTERCHANGES_FILE);
+		copyResource("rates-rules.json", dir, CostConfigurator.RATES_FILE);
+		CostConfigurator configurator = new CostConfigurator();
+		configurator.setConfigDirectory(dir.getPath());
+		assertTrue(configurator.generateConfigMap());
+		
+		Path in = folder.newFile("rules.csv").toPath();
+		Path out = folder.getRoot().toPath().resolve("rules-priced.csv");
+		Files.write(in, "QEW,Bronte Road,light\nWestney Road,QEW,light\n".getBytes(StandardCharsets.UTF_8));
+		
+		BillingTotals totals = new TripLogBillingPipeline(configurator, 64).run(in, out, 2);
+		
+		List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+		assertEquals("QEW,Bronte Road,light,14.062,3.52,westbound,6.32,12.00,", lines.get(1));
+		assertEquals("Westney Road,QEW,light,115.277,28.82,eastbound,5.67,28.50,", lines.get(2));
+		
+		BillingTotals.ClassTotal light = totals.getTotals().get("light");
+		assertEquals(2, light.getTrips());
+		assertEquals(new BigDecimal("40.50"), light.getTripCharge().toBigDecimal());
+		assertEquals(new BigDecimal("32.34"), light.getCost().toBigDecimal());
+	}
+	
+	private static void copyResource(String name, File dir, String target) throws Exception {
+		try (InputStream in = CostConfigurator.class.getResourceAsStream("/" + name)) {
+			Files.copy(in, new File(dir, target).toPath());
+		}
+	}
+
+}